@@ -8,7 +8,8 @@ import eu.sqooss.core.AlitheiaCoreService;
  * A generic key value pair cache.
  *
  * The backing store is configured at system initialization time through system
- * wide properties.
+ * wide properties. The default backing store is a {@link TieredCache}, a
+ * bounded in-memory cache in front of an {@link OnDiskCache}.
  *
  * @author Georgios Gousios <gousiosg@gmail.com>
  *
@@ -42,4 +43,23 @@ public interface CacheService extends AlitheiaCoreService {
      * you know the size of the data you want to put on the cache.
      */
     void setStream(String key, InputStream oos);
+
+    /**
+     * Set the contents of a key, with a time to live. After the TTL has 
+     * expired, the key is treated as if it was never set. 
+     * 
+     * @param ttl Time to live in milliseconds. Values <= 0 mean that the
+     * contents never expire.
+     */
+    void set(String key, byte[] data, long ttl);
+
+    /**
+     * Remove the contents of a key from the cache. 
+     */
+    void invalidate(String key);
+
+    /**
+     * Get a snapshot of the cache usage statistics.
+     */
+    CacheStats getStats();
 }
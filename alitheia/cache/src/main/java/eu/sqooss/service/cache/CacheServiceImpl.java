@@ -13,7 +13,7 @@ import eu.sqooss.service.logging.Logger;
 
 public class CacheServiceImpl implements CacheService {
 
-    public static final String CACHE_IMPL = "eu.sqooss.service.cache.OnDiskCache";
+    public static final String CACHE_IMPL = "eu.sqooss.service.cache.impl";
     
     private static List<Class<? extends CacheService>> impls;
     
@@ -21,6 +21,7 @@ public class CacheServiceImpl implements CacheService {
         impls = new ArrayList<Class<? extends CacheService>>();
         impls.add(OnDiskCache.class);
         impls.add(InMemoryCache.class);
+        impls.add(TieredCache.class);
     }
   
     private CacheService c;
@@ -36,7 +37,11 @@ public class CacheServiceImpl implements CacheService {
     
     @Override
     public InputStream getStream(String key) {
-        byte[] buff = c.get(key);
+        if (c != null)
+            return c.getStream(key);
+        
+        /* Backends that do not support streaming */
+        byte[] buff = get(key);
         
         if (buff == null)
             return null;
@@ -50,8 +55,28 @@ public class CacheServiceImpl implements CacheService {
         c.set(key, data);
     }
 
+    @Override
+    public void set(String key, byte[] data, long ttl) {
+        c.set(key, data, ttl);
+    }
+
+    @Override
+    public void invalidate(String key) {
+        c.invalidate(key);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return c.getStats();
+    }
+
     @Override
     public void setStream(String key, InputStream in) {
+        if (c != null) {
+            c.setStream(key, in);
+            return;
+        }
+        
         try {
             int nRead;
             ByteArrayOutputStream buffer = new ByteArrayOutputStream();
@@ -65,7 +90,8 @@ public class CacheServiceImpl implements CacheService {
             set(key, buffer.toByteArray());
             
         } catch (IOException e) {
-            log.error("Error");
+            if (log != null)
+                log.error("Cannot store key " + key + ": " + e.getMessage());
         }
     }
 
@@ -74,7 +100,7 @@ public class CacheServiceImpl implements CacheService {
         String impl = System.getProperty(CACHE_IMPL);
         
         if (impl == null)
-            impl = "eu.sqooss.service.cache.OnDiskCache";
+            impl = "eu.sqooss.service.cache.TieredCache";
         
         try {
             Class clazz = Thread.currentThread().getContextClassLoader().loadClass(impl);
@@ -0,0 +1,87 @@
+package eu.sqooss.service.cache;
+
+/**
+ * A point in time snapshot of the usage statistics of a cache. 
+ *
+ * <dl>
+ *  <dt>hits/misses</dt><dd>Lookups that found or did not find a value</dd>
+ *  <dt>admissions</dt><dd>Values accepted in the cache</dd>
+ *  <dt>rejections</dt><dd>Values not accepted in the cache, for example 
+ *  because they were larger than what the cache admits</dd>
+ *  <dt>evictions</dt><dd>Values removed to make space for new ones</dd>
+ *  <dt>expirations</dt><dd>Values removed because their TTL was reached</dd>
+ *  <dt>invalidations</dt><dd>Values removed on request</dd>
+ * </dl>
+ * 
+ * The number of entries and their total size in bytes are -1 if
+ * the cache cannot determine them cheaply.
+ */
+public class CacheStats {
+
+    private long hits, misses, admissions, rejections, evictions, 
+        expirations, invalidations, entries, weight;
+
+    public CacheStats(long hits, long misses, long admissions, 
+            long rejections, long evictions, long expirations, 
+            long invalidations, long entries, long weight) {
+        this.hits = hits;
+        this.misses = misses;
+        this.admissions = admissions;
+        this.rejections = rejections;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.invalidations = invalidations;
+        this.entries = entries;
+        this.weight = weight;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Ratio of lookups that found a value, 0 if no lookups were made */
+    public double getHitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    public long getAdmissions() {
+        return admissions;
+    }
+
+    public long getRejections() {
+        return rejections;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "hits:" + hits + " misses:" + misses + " admissions:" 
+            + admissions + " rejections:" + rejections + " evictions:" 
+            + evictions + " expirations:" + expirations + " invalidations:"
+            + invalidations + " entries:" + entries + " weight:" + weight;
+    }
+}
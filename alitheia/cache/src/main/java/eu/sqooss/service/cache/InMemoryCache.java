@@ -1,20 +1,157 @@
 package eu.sqooss.service.cache;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Memory based implementation of the cache service. The cache is bounded
+ * by the total size of the stored values; when the bound is exceeded, the
+ * least recently used values are evicted. Values larger than a fraction
+ * of the cache size are not admitted, so that a single large value
+ * cannot flush the whole cache.
+ *
+ * Accepts the following system property:
+ *
+ *  <dl>
+ *      <dt>
+ *          eu.sqooss.service.cache.memory.size
+ *      </dt>
+ *      <dd>
+ *          The maximum size of the cached values, in bytes
+ *      </dd>
+ * </dl>
+ */
 public class InMemoryCache extends CacheServiceImpl {
 
-    ConcurrentHashMap<String, byte[]> cache = new ConcurrentHashMap<String, byte[]>(1024);
-    
-    public InMemoryCache() {}
-    
+    public static final String CACHE_SIZE = "eu.sqooss.service.cache.memory.size";
+
+    /** Default cache size, 64MB */
+    public static final long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+
+    /** Values larger than capacity / MAX_ENTRY_FRACTION are not admitted */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    private static class Entry {
+        byte[] data;
+        long expires;
+
+        Entry(byte[] data, long expires) {
+            this.data = data;
+            this.expires = expires;
+        }
+
+        boolean expired(long now) {
+            return expires > 0 && expires <= now;
+        }
+    }
+
+    /* Access ordered, the eldest entry is the least recently used one */
+    private LinkedHashMap<String, Entry> cache =
+        new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+    private long capacity;
+    private long weight = 0;
+    private StatsCounter stats = new StatsCounter();
+
+    public InMemoryCache() {
+        this(cacheSize());
+    }
+
+    public InMemoryCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    private static long cacheSize() {
+        String size = System.getProperty(CACHE_SIZE);
+        if (size == null)
+            return DEFAULT_CACHE_SIZE;
+        try {
+            return Long.parseLong(size.trim());
+        } catch (NumberFormatException nfe) {
+            return DEFAULT_CACHE_SIZE;
+        }
+    }
+
+    /**
+     * Check whether a value of the provided size would be admitted, so 
+     * that callers can avoid materialising values that would be rejected.
+     */
+    public boolean admits(long length) {
+        return length <= capacity / MAX_ENTRY_FRACTION;
+    }
+
     @Override
     public byte[] get(String key) {
-        return cache.get(key);
+        synchronized (cache) {
+            Entry e = cache.get(key);
+            if (e == null) {
+                stats.misses.incrementAndGet();
+                return null;
+            }
+            if (e.expired(System.currentTimeMillis())) {
+                remove(key);
+                stats.expirations.incrementAndGet();
+                stats.misses.incrementAndGet();
+                return null;
+            }
+            stats.hits.incrementAndGet();
+            /* Callers own the arrays they get, as with the other caches */
+            return e.data.clone();
+        }
     }
 
     @Override
     public void set(String key, byte[] data) {
-        cache.put(key, data);
+        set(key, data, 0);
+    }
+
+    @Override
+    public void set(String key, byte[] data, long ttl) {
+        long expires = (ttl > 0) ? System.currentTimeMillis() + ttl : 0;
+
+        synchronized (cache) {
+            /* Whatever happens, the previous value is stale */
+            remove(key);
+
+            if (!admits(data.length)) {
+                stats.rejections.incrementAndGet();
+                return;
+            }
+
+            cache.put(key, new Entry(data.clone(), expires));
+            weight += data.length;
+            stats.admissions.incrementAndGet();
+
+            Iterator<Map.Entry<String, Entry>> i = cache.entrySet().iterator();
+            while (weight > capacity && i.hasNext()) {
+                Entry eldest = i.next().getValue();
+                i.remove();
+                weight -= eldest.data.length;
+                stats.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        synchronized (cache) {
+            if (remove(key))
+                stats.invalidations.incrementAndGet();
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        synchronized (cache) {
+            return stats.snapshot(cache.size(), weight);
+        }
+    }
+
+    private boolean remove(String key) {
+        Entry e = cache.remove(key);
+        if (e == null)
+            return false;
+        weight -= e.data.length;
+        return true;
     }
 }
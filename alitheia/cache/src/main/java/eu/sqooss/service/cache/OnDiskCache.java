@@ -1,21 +1,21 @@
 package eu.sqooss.service.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
 import java.math.BigInteger;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.ClosedChannelException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
-import java.nio.channels.FileLock;
-import java.nio.channels.FileLockInterruptionException;
-import java.nio.channels.NonWritableChannelException;
-import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
 
 import eu.sqooss.service.logging.Logger;
 
@@ -35,15 +35,32 @@ import eu.sqooss.service.logging.Logger;
  *      </dd>
  * </dl>
  * 
+ * Values are written to a temporary file which is then renamed to the
+ * key's file, so writers and readers do not need to lock files. Streams
+ * are copied in chunks, so values do not need to fit in memory when 
+ * accessed through {@link #getStream(String)} and 
+ * {@link #setStream(String, InputStream)}.
+ * 
+ * Expiration times of keys set with a TTL are only kept in memory, so 
+ * such keys do not expire if the cache is re-created.
  */
 public class OnDiskCache extends CacheServiceImpl {
 
     public static final String CACHE_DIR = "eu.sqooss.service.cache.dir";
     
+    /** Size of the buffer used to copy streams to files */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    
     private File dir;
     
     private Logger log;
     
+    /** Expiration times of the keys set with a TTL */
+    private ConcurrentHashMap<String, Long> expires = 
+        new ConcurrentHashMap<String, Long>();
+    
+    private StatsCounter stats = new StatsCounter();
+    
     public OnDiskCache(String cachedir) throws Exception {
         initDir(cachedir);
     }
@@ -70,100 +87,202 @@ public class OnDiskCache extends CacheServiceImpl {
     
     @Override
     public byte[] get(String key) {
+        if (expired(key)) {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+        
+        byte[] result = read(key);
+        if (result == null)
+            stats.misses.incrementAndGet();
+        else 
+            stats.hits.incrementAndGet();
+        return result;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned stream reads directly from the cache file. As values
+     * are replaced by renaming a new file over the old one, the stream 
+     * keeps returning the contents at the time it was opened.
+     */
+    @Override
+    public InputStream getStream(String key) {
+        if (expired(key)) {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+        
+        try {
+            InputStream in = new FileInputStream(file(key));
+            stats.hits.incrementAndGet();
+            return in;
+        } catch (FileNotFoundException e) {
+            stats.misses.incrementAndGet();
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            warn("Cannot read key " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Time the value of a key expires at, or 0 if it does not expire.
+     */
+    long expires(String key) {
+        Long expiry = expires.get(key);
+        return (expiry == null) ? 0 : expiry;
+    }
+    
+    private boolean expired(String key) {
+        Long expiry = expires.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            stats.expirations.incrementAndGet();
+            invalidate(key, false);
+            return true;
+        }
+        return false;
+    }
+    
+    private byte[] read(String key) {
         FileChannel file = null;
-        MappedByteBuffer buff;
-        FileLock lock = null;
-        byte[] result = null;
         try {
-            String fname = dir.getAbsolutePath() + File.separatorChar + md5(key);
-            file = new FileInputStream(fname).getChannel();
-            try {
-                lock = file.lock(0, Long.MAX_VALUE, true);
-            } catch (ClosedChannelException cce) {
-                warn("Cannot store key " + key + "Cannot write to file "
-                        + fname + " Channel was closed");
-                return null;
-            } catch (FileLockInterruptionException ace) {
-                // ignored
-            } catch (OverlappingFileLockException ofle) {
-                // ignored
-            } catch (NonWritableChannelException ofle) {
-                warn("Cannot store key " + key + " File " + fname
-                        + " was not opened for writing");
-                return null;
-            } catch (IOException ioe) {
-                warn("Cannot store key " + key + " An exception occured: "
-                        + ioe.getMessage());
-                file.close();
+            file = new FileInputStream(file(key)).getChannel();
+            long size = file.size();
+            if (size > Integer.MAX_VALUE) {
+                warn("Cannot read key " + key + " into memory, size is " 
+                        + size + " bytes");
                 return null;
             }
-            buff = file.map(MapMode.READ_ONLY, 0, file.size());
-            result = new byte[(int)file.size()]; // 4GB should be enough for everybody :-)
-            buff.get(result);
+            byte[] result = new byte[(int) size];
+            ByteBuffer buff = ByteBuffer.wrap(result);
+            while (buff.hasRemaining())
+                if (file.read(buff) < 0)
+                    return null; /* Truncated file */
+            return result;
+        } catch (FileNotFoundException e) {
+            return null;
         } catch (Exception e) {
+            warn("Cannot read key " + key + " An exception occured: " 
+                    + e.getMessage());
             return null;
         } finally {
-            try {
-                if (lock != null)
-                    lock.release();
-                if (file != null)
-                    file.close();
-            } catch (IOException e) {
-                return null;
-            }
+            close(file);
         }
-
-        return result;
     }
         
+    @Override
+    public void set(String key, byte[] data, long ttl) {
+        setExpiry(key, ttl);
+        if (write(key, Channels.newChannel(new ByteArrayInputStream(data))))
+            stats.admissions.incrementAndGet();
+    }
+    
     @Override
     public void set(String key, byte[] data) {
+        set(key, data, 0);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The stream is copied to the cache file in chunks, so values of 
+     * any size can be stored without buffering them in memory.
+     */
+    @Override
+    public void setStream(String key, InputStream in) {
+        setExpiry(key, 0);
+        if (write(key, Channels.newChannel(in)))
+            stats.admissions.incrementAndGet();
+    }
+    
+    @Override
+    public void invalidate(String key) {
+        invalidate(key, true);
+    }
+    
+    private void invalidate(String key, boolean count) {
+        expires.remove(key);
+        try {
+            if (file(key).delete() && count)
+                stats.invalidations.incrementAndGet();
+        } catch (NoSuchAlgorithmException e) {
+            warn("Cannot invalidate key " + key + ": " + e.getMessage());
+        }
+    }
+    
+    /** {@inheritDoc} The number and size of entries is not tracked. */
+    @Override
+    public CacheStats getStats() {
+        return stats.snapshot(-1, -1);
+    }
+    
+    private void setExpiry(String key, long ttl) {
+        if (ttl > 0)
+            expires.put(key, System.currentTimeMillis() + ttl);
+        else
+            expires.remove(key);
+    }
+    
+    /**
+     * Copy the contents of the provided channel to a temporary file, which
+     * then replaces the key's file. Readers thus see either the old or the 
+     * new value but never a partially written one, and do not need to 
+     * lock the file.
+     */
+    private boolean write(String key, ReadableByteChannel in) {
+        File tmp = null;
         FileChannel file = null;
-        MappedByteBuffer buff;
-        FileLock lock = null;
-        RandomAccessFile raf;
-
+        
         try {
-            String fname = dir.getAbsolutePath() + File.separatorChar + md5(key);
-            raf = new RandomAccessFile(fname, "rw");
-            file = raf.getChannel();
-            try {
-                lock = file.lock(0, data.length, false);
-            } catch (ClosedChannelException cce) {
-                warn("Cannot store key " + key + "Cannot write to file "
-                        + fname + " Channel was closed");
-                return;
-            } catch (FileLockInterruptionException ace) {
-                // ignored
-            } catch (OverlappingFileLockException ofle) {
-                // ignored
-            } catch (NonWritableChannelException ofle) {
-                warn("Cannot store key " + key + " File " + fname
-                        + " was not opened for writing");
-                return;
-            } catch (IOException ioe) {
-                warn("Cannot store key " + key + " An exception occured: "
-                        + ioe.getMessage());
-                file.close();
-                return;
+            File target = file(key);
+            tmp = File.createTempFile(target.getName(), ".tmp", dir);
+            file = new FileOutputStream(tmp).getChannel();
+            
+            ByteBuffer buff = ByteBuffer.allocate(CHUNK_SIZE);
+            while (in.read(buff) >= 0) {
+                buff.flip();
+                while (buff.hasRemaining())
+                    file.write(buff);
+                buff.clear();
             }
-            buff = file.map(MapMode.READ_WRITE, 0, data.length);
-            buff.put(data);
-        } catch (FileNotFoundException e) {
-            warn("Cannot store key " + key + 
-                    " An exception occured: "+ e.getMessage());
+            file.close();
+            file = null;
+            
+            if (!tmp.renameTo(target)) {
+                /* Some platforms do not rename over existing files */
+                target.delete();
+                if (!tmp.renameTo(target)) {
+                    warn("Cannot store key " + key + " Cannot rename " 
+                            + tmp + " to " + target);
+                    return false;
+                }
+            }
+            tmp = null;
+            return true;
         } catch (Exception e) {
             warn("Cannot store key " + key + 
                     " An exception occured: "+ e.getMessage());
-        }  finally {
-            try {
-                if (lock != null)
-                    lock.release();
-                if (file != null)
-                    file.close();
-            } catch (IOException e) {
-                
-            }
+            return false;
+        } finally {
+            close(file);
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+    
+    private File file(String key) throws NoSuchAlgorithmException {
+        return new File(dir, md5(key));
+    }
+    
+    private void close(Closeable c) {
+        if (c == null)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            // ignored
         }
     }
 
@@ -0,0 +1,23 @@
+package eu.sqooss.service.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe counters backing {@link CacheStats}.
+ */
+class StatsCounter {
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong admissions = new AtomicLong();
+    final AtomicLong rejections = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+    final AtomicLong expirations = new AtomicLong();
+    final AtomicLong invalidations = new AtomicLong();
+
+    CacheStats snapshot(long entries, long weight) {
+        return new CacheStats(hits.get(), misses.get(), admissions.get(),
+                rejections.get(), evictions.get(), expirations.get(),
+                invalidations.get(), entries, weight);
+    }
+}
@@ -0,0 +1,132 @@
+package eu.sqooss.service.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Two level cache: a bounded {@link InMemoryCache} in front of an
+ * {@link OnDiskCache}. Writes go to both levels; reads that miss the memory
+ * level are served from disk and the result is promoted to memory. Values
+ * that are too large for the memory level are only stored on disk.
+ *
+ * Accepts the system properties of both levels.
+ */
+public class TieredCache extends CacheServiceImpl {
+
+    private InMemoryCache memory;
+    private OnDiskCache disk;
+    private StatsCounter stats = new StatsCounter();
+
+    public TieredCache() throws Exception {
+        this(new InMemoryCache(), new OnDiskCache());
+    }
+
+    public TieredCache(InMemoryCache memory, OnDiskCache disk) {
+        this.memory = memory;
+        this.disk = disk;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] result = memory.get(key);
+        if (result != null) {
+            stats.hits.incrementAndGet();
+            return result;
+        }
+
+        result = disk.get(key);
+        if (result == null) {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+        stats.hits.incrementAndGet();
+
+        long ttl = 0;
+        long expires = disk.expires(key);
+        if (expires > 0) {
+            ttl = expires - System.currentTimeMillis();
+            if (ttl <= 0)
+                return result;
+        }
+        memory.set(key, result, ttl);
+        return result;
+    }
+
+    @Override
+    public void set(String key, byte[] data) {
+        set(key, data, 0);
+    }
+
+    @Override
+    public void set(String key, byte[] data, long ttl) {
+        disk.set(key, data, ttl);
+        memory.set(key, data, ttl);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Values not in the memory level are streamed from disk and are
+     * not promoted. 
+     */
+    @Override
+    public InputStream getStream(String key) {
+        byte[] result = memory.get(key);
+        if (result != null) {
+            stats.hits.incrementAndGet();
+            return new ByteArrayInputStream(result);
+        }
+        
+        InputStream in = disk.getStream(key);
+        if (in == null)
+            stats.misses.incrementAndGet();
+        else
+            stats.hits.incrementAndGet();
+        return in;
+    }
+
+    /** 
+     * {@inheritDoc} 
+     * 
+     * The stream is only stored on disk.
+     */
+    @Override
+    public void setStream(String key, InputStream in) {
+        memory.invalidate(key);
+        disk.setStream(key, in);
+    }
+
+    @Override
+    public void invalidate(String key) {
+        memory.invalidate(key);
+        disk.invalidate(key);
+        stats.invalidations.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Hits are counted on any level, misses are lookups that missed both
+     * levels. Admissions, rejections, evictions and sizes are those of the
+     * memory level.
+     */
+    @Override
+    public CacheStats getStats() {
+        CacheStats m = memory.getStats();
+        CacheStats d = disk.getStats();
+        return new CacheStats(stats.hits.get(), stats.misses.get(),
+                m.getAdmissions(), m.getRejections(), m.getEvictions(),
+                m.getExpirations() + d.getExpirations(),
+                stats.invalidations.get(), m.getEntries(), m.getWeight());
+    }
+
+    /** Statistics of the memory level only */
+    public CacheStats getMemoryStats() {
+        return memory.getStats();
+    }
+
+    /** Statistics of the disk level only */
+    public CacheStats getDiskStats() {
+        return disk.getStats();
+    }
+}
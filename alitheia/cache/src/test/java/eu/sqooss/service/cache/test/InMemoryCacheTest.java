@@ -0,0 +1,92 @@
+package eu.sqooss.service.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eu.sqooss.service.cache.CacheStats;
+import eu.sqooss.service.cache.InMemoryCache;
+
+public class InMemoryCacheTest {
+
+    @Test
+    public void testGetSet() {
+        InMemoryCache cache = new InMemoryCache(1024);
+        cache.set("foo", "this is val1".getBytes());
+        assertEquals("this is val1", new String(cache.get("foo")));
+        assertNull(cache.get("bar"));
+        
+        CacheStats s = cache.getStats();
+        assertEquals(1, s.getHits());
+        assertEquals(1, s.getMisses());
+        assertEquals(1, s.getEntries());
+        assertEquals(12, s.getWeight());
+    }
+    
+    @Test
+    public void testCopies() {
+        InMemoryCache cache = new InMemoryCache(1024);
+        byte[] b = new byte[] {1, 2};
+        cache.set("foo", b);
+        b[0] = 9;
+        byte[] got = cache.get("foo");
+        got[1] = 9;
+        assertArrayEquals(new byte[] {1, 2}, cache.get("foo"));
+    }
+    
+    @Test
+    public void testEviction() {
+        InMemoryCache cache = new InMemoryCache(1024);
+        byte[] b = new byte[100];
+        for (int i = 0; i < 10; i++)
+            cache.set("key" + i, b);
+        /* Touch key0, so that key1 is the least recently used */
+        assertNotNull(cache.get("key0"));
+        cache.set("key10", b);
+        
+        assertNotNull(cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(1000, cache.getStats().getWeight());
+    }
+    
+    @Test
+    public void testRejection() {
+        InMemoryCache cache = new InMemoryCache(1024);
+        cache.set("foo", new byte[10]);
+        cache.set("foo", new byte[512]);
+        assertNull(cache.get("foo"));
+        assertEquals(1, cache.getStats().getRejections());
+        assertEquals(0, cache.getStats().getWeight());
+    }
+    
+    @Test
+    public void testAdmits() {
+        InMemoryCache cache = new InMemoryCache(1024);
+        assertTrue(cache.admits(128));
+        assertFalse(cache.admits(129));
+        cache.set("foo", new byte[129]);
+        assertNull(cache.get("foo"));
+    }
+    
+    @Test
+    public void testTTLAndInvalidation() throws InterruptedException {
+        InMemoryCache cache = new InMemoryCache(1024);
+        cache.set("foo", new byte[] {1}, 20);
+        cache.set("bar", new byte[] {2});
+        assertArrayEquals(new byte[] {1}, cache.get("foo"));
+        Thread.sleep(40);
+        assertNull(cache.get("foo"));
+        assertEquals(1, cache.getStats().getExpirations());
+        
+        cache.invalidate("bar");
+        assertNull(cache.get("bar"));
+        assertEquals(1, cache.getStats().getInvalidations());
+        assertEquals(0, cache.getStats().getEntries());
+    }
+}
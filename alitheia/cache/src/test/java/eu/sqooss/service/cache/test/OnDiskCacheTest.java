@@ -1,9 +1,14 @@
 package eu.sqooss.service.cache.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import eu.sqooss.service.cache.OnDiskCache;
 import org.junit.BeforeClass;
@@ -35,6 +40,32 @@ public class OnDiskCacheTest {
         assertEquals(s, "this is val1");
     }
     
+    @Test
+    public void testOverwriteShorter() {
+        cache.set("shorter", "a longer value".getBytes());
+        cache.set("shorter", "short".getBytes());
+        assertEquals("short", new String(cache.get("shorter")));
+    }
+    
+    @Test
+    public void testStream() throws IOException {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        cache.setStream("stream", new ByteArrayInputStream(data));
+        
+        InputStream in = cache.getStream("stream");
+        byte[] read = new byte[data.length];
+        int off = 0, n;
+        while ((n = in.read(read, off, read.length - off)) > 0)
+            off += n;
+        assertEquals(-1, in.read());
+        in.close();
+        
+        assertEquals(data.length, off);
+        assertArrayEquals(data, read);
+        assertArrayEquals(data, cache.get("stream"));
+    }
+    
     @Test
     public void testStress() throws InterruptedException {
         Thread old = null;
@@ -0,0 +1,50 @@
+package eu.sqooss.service.cache.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import eu.sqooss.service.cache.InMemoryCache;
+import eu.sqooss.service.cache.OnDiskCache;
+import eu.sqooss.service.cache.TieredCache;
+
+public class TieredCacheTest {
+
+    static String path = "tmp";
+
+    @Test
+    public void testPromotion() throws Exception {
+        OnDiskCache disk = new OnDiskCache(path);
+        InMemoryCache memory = new InMemoryCache(1024);
+        TieredCache cache = new TieredCache(memory, disk);
+        
+        disk.set("tiered1", "on disk".getBytes());
+        assertEquals("on disk", new String(cache.get("tiered1")));
+        assertEquals("on disk", new String(cache.get("tiered1")));
+        assertEquals(1, cache.getMemoryStats().getHits());
+        assertEquals(1, cache.getDiskStats().getHits());
+        assertEquals(2, cache.getStats().getHits());
+    }
+    
+    @Test
+    public void testLargeValuesOnDiskOnly() throws Exception {
+        TieredCache cache = new TieredCache(new InMemoryCache(1024), 
+                new OnDiskCache(path));
+        cache.set("tiered2", new byte[1000]);
+        assertEquals(1000, cache.get("tiered2").length);
+        assertEquals(0, cache.getStats().getEntries());
+        /* Rejected on set and on promotion after the disk read */
+        assertEquals(2, cache.getStats().getRejections());
+    }
+    
+    @Test
+    public void testInvalidate() throws Exception {
+        TieredCache cache = new TieredCache(new InMemoryCache(1024), 
+                new OnDiskCache(path));
+        cache.set("tiered3", "foo".getBytes());
+        cache.invalidate("tiered3");
+        assertNull(cache.get("tiered3"));
+        assertEquals(1, cache.getStats().getMisses());
+    }
+}
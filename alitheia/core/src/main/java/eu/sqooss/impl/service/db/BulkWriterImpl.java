@@ -0,0 +1,299 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.cache.UpdateTimestampsCache;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+
+import eu.sqooss.service.db.BulkWriter;
+import eu.sqooss.service.db.DAObject;
+import eu.sqooss.service.logging.Logger;
+
+/**
+ * Bulk writer on top of a Hibernate stateless session. Records are kept in
+ * one buffer per class; when a buffer fills up, all buffers are written in
+ * the order their classes were first added, so that the inserts of each 
+ * class go out as one JDBC batch (of hibernate.jdbc.batch_size statements)
+ * and records are inserted after the records they were added after. 
+ * 
+ * Stateless sessions bypass the second level cache, so on commit the 
+ * update timestamps of the written tables are invalidated, otherwise
+ * cached query results would not include the new records.
+ */
+class BulkWriterImpl implements BulkWriter {
+
+    private SessionFactoryImplementor sessionFactory;
+    private Logger logger;
+    private StatelessSession session;
+    private Transaction tx;
+
+    /* Buffered records, in the order their classes were first added */
+    private Map<Class<?>, List<DAObject>> buffers = 
+        new LinkedHashMap<Class<?>, List<DAObject>>();
+    /* Tables written to by the current transaction */
+    private Set<Serializable> spaces = new HashSet<Serializable>();
+
+    private int flushSize;
+    private int commitSize;
+    private int buffered = 0;
+    private int written = 0;
+    private CommitListener listener;
+    private boolean closed = false;
+
+    BulkWriterImpl(SessionFactory sessionFactory, Logger logger, 
+            int flushSize, int commitSize) {
+        this.sessionFactory = (SessionFactoryImplementor) sessionFactory;
+        this.logger = logger;
+        setFlushSize(flushSize);
+        setCommitSize(commitSize);
+    }
+
+    public boolean add(DAObject record) {
+        if (!checkOpen())
+            return false;
+
+        List<DAObject> buffer = buffers.get(record.getClass());
+        if (buffer == null) {
+            buffer = new ArrayList<DAObject>();
+            buffers.put(record.getClass(), buffer);
+        }
+        buffer.add(record);
+        buffered++;
+
+        if (buffer.size() >= flushSize && !flush())
+            return false;
+        if (commitSize > 0 && written >= commitSize)
+            return commit();
+        return true;
+    }
+
+    public <T extends DAObject> boolean addAll(Collection<T> records) {
+        for (DAObject record : records) {
+            if (!add(record))
+                return false;
+        }
+        return true;
+    }
+
+    public boolean flush() {
+        if (!checkOpen())
+            return false;
+        if (buffered == 0)
+            return true;
+
+        DAObject lastRecord = null;
+        try {
+            if (session == null)
+                session = sessionFactory.openStatelessSession();
+            if (tx == null)
+                tx = session.beginTransaction();
+
+            for (List<DAObject> buffer : buffers.values()) {
+                if (buffer.isEmpty())
+                    continue;
+                for (DAObject record : buffer) {
+                    lastRecord = record;
+                    session.insert(record);
+                }
+                lastRecord = null;
+                /* Send the batch before the next class' inserts */
+                ((SessionImplementor) session).getBatcher().executeBatch();
+                spaces.addAll(Arrays.asList(sessionFactory.getEntityPersister(
+                        buffer.get(0).getClass().getName()).getQuerySpaces()));
+                written += buffer.size();
+                buffer.clear();
+            }
+            buffered = 0;
+            return true;
+        } catch (HibernateException e) {
+            if (lastRecord != null) {
+                logger.error("Failed to add object "
+                        + "[" + lastRecord.getClass().getName() + "]"
+                        + " to the database: " + e.getMessage());
+            }
+            logExceptionAndRollback(e);
+            return false;
+        }
+    }
+
+    public boolean commit() {
+        if (!flush())
+            return false;
+        if (tx == null)
+            return true;
+
+        int records = written;
+        try {
+            tx.commit();
+        } catch (HibernateException e) {
+            logExceptionAndRollback(e);
+            return false;
+        }
+        tx = null;
+        written = 0;
+        invalidateQueries();
+
+        if (listener != null)
+            listener.committed(this, records);
+        return true;
+    }
+
+    public boolean rollback() {
+        if (!checkOpen())
+            return false;
+
+        discard();
+        if (tx == null)
+            return true;
+        try {
+            tx.rollback();
+            return true;
+        } catch (HibernateException e) {
+            logger.error("Error while rolling back bulk write: " + e.getMessage());
+            return false;
+        } finally {
+            tx = null;
+        }
+    }
+
+    public boolean close() {
+        if (closed)
+            return true;
+
+        boolean result = commit();
+        if (session != null) {
+            try {
+                session.close();
+            } catch (HibernateException e) {
+                logger.warn("Error while closing bulk write session: " 
+                        + e.getMessage());
+            }
+            session = null;
+        }
+        closed = true;
+        return result;
+    }
+
+    public int getFlushSize() {
+        return flushSize;
+    }
+
+    public void setFlushSize(int size) {
+        flushSize = Math.max(size, 1);
+    }
+
+    public int getCommitSize() {
+        return commitSize;
+    }
+
+    public void setCommitSize(int size) {
+        commitSize = Math.max(size, 0);
+    }
+
+    public void setCommitListener(CommitListener listener) {
+        this.listener = listener;
+    }
+
+    public int getPending() {
+        return buffered + written;
+    }
+
+    private boolean checkOpen() {
+        if (closed) {
+            logger.warn("Trying to use a closed bulk writer");
+            return false;
+        }
+        return true;
+    }
+
+    private void discard() {
+        for (List<DAObject> buffer : buffers.values())
+            buffer.clear();
+        buffered = 0;
+        written = 0;
+        spaces.clear();
+    }
+
+    private void invalidateQueries() {
+        UpdateTimestampsCache timestamps = sessionFactory.getUpdateTimestampsCache();
+        if (timestamps != null && !spaces.isEmpty()) {
+            try {
+                timestamps.invalidate(spaces.toArray(new Serializable[spaces.size()]));
+            } catch (HibernateException e) {
+                logger.warn("Failed to invalidate cached queries: " + e.getMessage());
+            }
+        }
+        spaces.clear();
+    }
+
+    private void logExceptionAndRollback(HibernateException e) {
+        if (e instanceof JDBCException) {
+            SQLException sqle = ((JDBCException) e).getSQLException();
+            while (sqle != null) {
+                logger.warn(String.format("SQLException: SQL State:%s, Error Code:%d, Message:%s",
+                        sqle.getSQLState(), sqle.getErrorCode(), sqle.getMessage()));
+                sqle = sqle.getNextException();
+            }
+        }
+        logger.warn("Exception caught during bulk write: " + e.getMessage()
+                + ". Rolling back current transaction...");
+        discard();
+        if (tx != null) {
+            try {
+                tx.rollback();
+            } catch (HibernateException e1) {
+                logger.error("Error while rolling back failed bulk write: " 
+                        + e1.getMessage());
+            }
+            tx = null;
+        }
+    }
+}
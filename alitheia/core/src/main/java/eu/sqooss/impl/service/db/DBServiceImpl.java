@@ -51,18 +51,25 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.hibernate.CacheMode;
 import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
 import org.hibernate.QueryException;
 import org.hibernate.JDBCException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.hibernate.cfg.Configuration;	
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.engine.SessionFactoryImplementor;
 import org.osgi.framework.BundleContext;
 
 import eu.sqooss.core.AlitheiaCoreService;
+import eu.sqooss.service.db.BulkWriter;
+import eu.sqooss.service.db.ConnectionPoolStats;
 import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.logging.Logger;
@@ -110,8 +117,28 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     
     static {
         conPools.put("default", "org.hibernate.connection.DriverManagerConnectionProvider");
-        conPools.put("c3p0", "org.hibernate.connection.C3P0ConnectionProvider");
+        conPools.put("c3p0", PooledConnectionProvider.class.getName());
     }
+
+    /* Cheap queries to test pooled connections with */
+    public static Map<String, String> testQueries = new HashMap<String, String>();
+    
+    static {
+        testQueries.put("mysql", "SELECT 1");
+        testQueries.put("hsqldb", "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        testQueries.put("postgres", "SELECT 1");
+        testQueries.put("h2", "SELECT 1");
+    }
+
+    private static final String[] POOL_PROPERTIES = {
+        PooledConnectionProvider.POOL_MIN,
+        PooledConnectionProvider.POOL_MAX,
+        PooledConnectionProvider.POOL_STATEMENTS,
+        PooledConnectionProvider.POOL_VALIDATE,
+        PooledConnectionProvider.POOL_TEST_QUERY,
+        PooledConnectionProvider.POOL_TIMEOUT,
+        PooledConnectionProvider.POOL_LEAK_TIMEOUT
+    };
     
     private static final String DB = "eu.sqooss.db";
     private static final String DB_HOST = "eu.sqooss.db.host";
@@ -119,12 +146,23 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     private static final String DB_USERNAME = "eu.sqooss.db.user";
     private static final String DB_PASSWORD = "eu.sqooss.db.passwd";
     private static final String DB_CONPOOL = "eu.sqooss.db.conpool";
+    private static final String DB_CACHE = "eu.sqooss.db.cache";
+    private static final String DB_BULK_FLUSH = "eu.sqooss.db.bulk.flush";
+    private static final String DB_BULK_COMMIT = "eu.sqooss.db.bulk.commit";
+    
+    /* Number of identifiers passed in a single IN clause */
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
+    /* Default number of records buffered per type by bulk writers */
+    private static final int DEFAULT_BULK_FLUSH = 1000;
     
     private Logger logger = null;
     private SessionFactory sessionFactory = null;
     private BundleContext bc = null;
     private AtomicBoolean isInitialised = new AtomicBoolean(false);
     private Properties conProp = new Properties();
+    private int bulkFlushSize = DEFAULT_BULK_FLUSH;
+    private int bulkCommitSize = 0;
     
     private void logSQLException(SQLException e) {
 
@@ -331,6 +369,31 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         return doFindObjectsByProperties(daoClass, properties, true);
     }
 
+    @SuppressWarnings("unchecked")
+    public <T extends DAObject> List<T> findObjectsByIds(Class<T> daoClass, 
+            Collection<Long> ids) {
+        if (!checkSession())
+            return Collections.emptyList();
+        
+        List<T> result = new ArrayList<T>(ids.size());
+        List<Long> idList = new ArrayList<Long>(ids);
+        String hql = "from " + daoClass.getName() + " as foo where foo.id in (:ids)";
+        
+        for (int i = 0; i < idList.size(); i += MAX_IN_CLAUSE_SIZE) {
+            List<Long> block = idList.subList(i, 
+                    Math.min(i + MAX_IN_CLAUSE_SIZE, idList.size()));
+            Map<String, Collection> collParams = new HashMap<String, Collection>();
+            collParams.put("ids", block);
+            try {
+                result.addAll((List<T>) doHQL(hql, null, collParams));
+            } catch (QueryException e) {
+                logger.warn("findObjectsByIds(): " + e.getMessage());
+                return Collections.emptyList();
+            }
+        }
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     private <T extends DAObject> List<T> doFindObjectsByProperties(Class<T> daoClass, Map<String,Object> properties, boolean useLock) {
         if( !checkSession() )
@@ -348,7 +411,11 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
         try {
             // We use "foo" as the name of the object
-            return (List<T>) doHQL( "from " + daoClass.getName() + " as foo " + whereClause, parameterMap, useLock );
+            // Lookups of cached entities also go through the query cache
+            boolean cacheable = !useLock && 
+                daoClass.isAnnotationPresent(org.hibernate.annotations.Cache.class);
+            return (List<T>) doHQL( "from " + daoClass.getName() + " as foo " + whereClause, 
+                    parameterMap, null, useLock, -1, -1, cacheable);
         } catch (QueryException e) {
             logger.warn("findObjectsByProperties(): invalid properties map. Restarting session...");
             // Automatically restart a session
@@ -484,6 +551,13 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
     public List<?> doHQL(String hql, Map<String, Object> params,
             Map<String, Collection> collectionParams, boolean lockForUpdate, int start, int limit) 
         throws QueryException {
+        return doHQL(hql, params, collectionParams, lockForUpdate, start, limit, false);
+    }
+
+    private List<?> doHQL(String hql, Map<String, Object> params,
+            Map<String, Collection> collectionParams, boolean lockForUpdate, 
+            int start, int limit, boolean cacheable) 
+        throws QueryException {
         if ( !checkSession() ) {
             return Collections.emptyList();
         }
@@ -507,6 +581,9 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
                 query.setFirstResult(start);
                 query.setMaxResults(limit);
             }
+            if (cacheable) {
+                query.setCacheable(true);
+            }
             return query.list();
         } catch ( QueryException e ) {
             logExceptionAndTerminateSession(e);
@@ -525,6 +602,42 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         
     }
 
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#scrollHQL(java.lang.String, java.util.Map, int)
+     */
+    public ScrollableResults scrollHQL(String hql, Map<String, Object> params,
+            int fetchSize) throws QueryException {
+        if ( !checkSession() ) {
+            return null;
+        }
+        try {
+            Session s = sessionFactory.getCurrentSession();
+            Query query = s.createQuery(hql);
+            if (params != null) {
+                for ( String param : params.keySet() ) {
+                    query.setParameter(param, params.get(param));
+                }
+            }
+            query.setReadOnly(true);
+            query.setCacheMode(CacheMode.IGNORE);
+            if (fetchSize > 0) {
+                query.setFetchSize(fetchSize);
+            }
+            return query.scroll(ScrollMode.FORWARD_ONLY);
+        } catch ( QueryException e ) {
+            logExceptionAndTerminateSession(e);
+            throw e;
+        } catch( HibernateException e ) {
+            logExceptionAndTerminateSession(e);
+            return null;
+        } catch (ClassCastException e) {
+            QueryException ebis = new QueryException("Invalid HQL query parameter type: "
+                                                    + e.getMessage(), e);
+            logExceptionAndTerminateSession(ebis);
+            throw ebis;
+        }
+    }
+
     /* (non-Javadoc)
      * @see eu.sqooss.service.db.DBService#addRecord(eu.sqooss.service.db.DAObject)
      */
@@ -599,6 +712,42 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         }
     }
     
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#getBulkWriter()
+     */
+    public BulkWriter getBulkWriter() {
+        if (isInitialised.get() == false)
+            return null;
+        return new BulkWriterImpl(sessionFactory, logger, bulkFlushSize, 
+                bulkCommitSize);
+    }
+
+    /* (non-Javadoc)
+     * @see eu.sqooss.service.db.DBService#getConnectionPoolStats()
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        if (sessionFactory == null)
+            return null;
+        ConnectionProvider cp = 
+            ((SessionFactoryImplementor) sessionFactory).getConnectionProvider();
+        if (cp instanceof PooledConnectionProvider)
+            return ((PooledConnectionProvider) cp).getStats();
+        return null;
+    }
+
+    private int getIntProperty(String name, int def) {
+        String value = bc.getProperty(name);
+        if (value == null)
+            return def;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value " + value + " for " + name 
+                    + ", using " + def);
+            return def;
+        }
+    }
+    
     public Logger logger() {
         return this.logger;
     }
@@ -809,6 +958,27 @@ public class DBServiceImpl implements DBService, AlitheiaCoreService {
         conProp.setProperty("hibernate.connection.password", bc.getProperty(DB_PASSWORD));
         conProp.setProperty("hibernate.connection.dialect",  hbmDialects.get(db));
         conProp.setProperty("hibernate.connection.provider_class", conPools.get(bc.getProperty(DB_CONPOOL)));
+        if (testQueries.containsKey(db))
+            conProp.setProperty(PooledConnectionProvider.POOL_TEST_QUERY, testQueries.get(db));
+        for (String prop : POOL_PROPERTIES) {
+            String value = bc.getProperty(prop);
+            if (value != null)
+                conProp.setProperty(prop, value.trim());
+        }
+        
+        if (Boolean.valueOf(bc.getProperty(DB_CACHE))) {
+            conProp.setProperty("hibernate.cache.use_second_level_cache", "true");
+            conProp.setProperty("hibernate.cache.use_query_cache", "true");
+            conProp.setProperty("hibernate.cache.region.factory_class", 
+                    RegionCacheFactory.class.getName());
+            String size = bc.getProperty(RegionCacheFactory.CACHE_SIZE);
+            if (size != null)
+                conProp.setProperty(RegionCacheFactory.CACHE_SIZE, size);
+            logger.info("Second level cache enabled");
+        }
+        
+        bulkFlushSize = getIntProperty(DB_BULK_FLUSH, DEFAULT_BULK_FLUSH);
+        bulkCommitSize = getIntProperty(DB_BULK_COMMIT, 0);
         
         if (!getJDBCConnection()) {
             logger.error("DB service got no JDBC connectors.");
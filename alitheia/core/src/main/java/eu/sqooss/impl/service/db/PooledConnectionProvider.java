@@ -0,0 +1,193 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.beans.PropertyVetoException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.connection.ConnectionProvider;
+import org.hibernate.util.PropertiesHelper;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import eu.sqooss.service.db.ConnectionPoolStats;
+
+/**
+ * Hibernate connection provider backed by a c3p0 connection pool with a
+ * prepared statement cache per connection. Unlike Hibernate's own c3p0 
+ * provider, it is configured from the eu.sqooss.db.pool properties and 
+ * gives access to the pool statistics.
+ * 
+ * Accepts the following properties:
+ * 
+ * <dl>
+ *  <dt>eu.sqooss.db.pool.min</dt>
+ *  <dd>Number of connections kept open when the pool is idle</dd>
+ *  <dt>eu.sqooss.db.pool.max</dt>
+ *  <dd>Maximum number of open connections</dd>
+ *  <dt>eu.sqooss.db.pool.statements</dt>
+ *  <dd>Number of prepared statements cached per connection, 0 disables 
+ *  the statement cache</dd>
+ *  <dt>eu.sqooss.db.pool.validate</dt>
+ *  <dd>If true, connections are tested before being handed out. Idle 
+ *  connections are always tested periodically</dd>
+ *  <dt>eu.sqooss.db.pool.testquery</dt>
+ *  <dd>Query used to test connections, by default c3p0 queries the 
+ *  database metadata</dd>
+ *  <dt>eu.sqooss.db.pool.timeout</dt>
+ *  <dd>Milliseconds to wait for a connection when all are busy before 
+ *  failing, 0 waits forever</dd>
+ *  <dt>eu.sqooss.db.pool.leaktimeout</dt>
+ *  <dd>Seconds after which a connection that was not returned to the pool
+ *  is considered leaked. It is closed and the stack trace of its checkout 
+ *  is logged. 0 disables leak detection</dd>
+ * </dl>
+ */
+public class PooledConnectionProvider implements ConnectionProvider {
+
+    public static final String POOL_MIN = "eu.sqooss.db.pool.min";
+    public static final String POOL_MAX = "eu.sqooss.db.pool.max";
+    public static final String POOL_STATEMENTS = "eu.sqooss.db.pool.statements";
+    public static final String POOL_VALIDATE = "eu.sqooss.db.pool.validate";
+    public static final String POOL_TEST_QUERY = "eu.sqooss.db.pool.testquery";
+    public static final String POOL_TIMEOUT = "eu.sqooss.db.pool.timeout";
+    public static final String POOL_LEAK_TIMEOUT = "eu.sqooss.db.pool.leaktimeout";
+
+    public static final int DEFAULT_MIN = 1;
+    public static final int DEFAULT_MAX = 100;
+    public static final int DEFAULT_STATEMENTS = 50;
+
+    /* Seconds between tests of idle connections */
+    private static final int IDLE_TEST_PERIOD = 100;
+    /* Seconds after which idle connections above the minimum are closed */
+    private static final int MAX_IDLE_TIME = 100;
+
+    private ComboPooledDataSource ds;
+    private Integer isolation;
+    private boolean autocommit;
+
+    public void configure(Properties props) throws HibernateException {
+        String driver = props.getProperty(Environment.DRIVER);
+        String url = props.getProperty(Environment.URL);
+        if (driver == null || url == null)
+            throw new HibernateException("JDBC driver and URL not set");
+
+        isolation = PropertiesHelper.getInteger(Environment.ISOLATION, props);
+        autocommit = PropertiesHelper.getBoolean(Environment.AUTOCOMMIT, props);
+
+        int min = PropertiesHelper.getInt(POOL_MIN, props, DEFAULT_MIN);
+        int max = PropertiesHelper.getInt(POOL_MAX, props, DEFAULT_MAX);
+        int leakTimeout = PropertiesHelper.getInt(POOL_LEAK_TIMEOUT, props, 0);
+        String testQuery = props.getProperty(POOL_TEST_QUERY);
+
+        ds = new ComboPooledDataSource();
+        try {
+            ds.setDriverClass(driver);
+        } catch (PropertyVetoException e) {
+            throw new HibernateException("Cannot load JDBC driver " + driver, e);
+        }
+        ds.setJdbcUrl(url);
+        ds.setUser(props.getProperty(Environment.USER));
+        ds.setPassword(props.getProperty(Environment.PASS));
+        ds.setDataSourceName("alitheia");
+
+        ds.setMinPoolSize(min);
+        ds.setInitialPoolSize(min);
+        ds.setMaxPoolSize(Math.max(min, max));
+        ds.setAcquireIncrement(1);
+        ds.setMaxIdleTimeExcessConnections(MAX_IDLE_TIME);
+        ds.setCheckoutTimeout(PropertiesHelper.getInt(POOL_TIMEOUT, props, 0));
+
+        ds.setMaxStatements(0);
+        ds.setMaxStatementsPerConnection(PropertiesHelper.getInt(
+                POOL_STATEMENTS, props, DEFAULT_STATEMENTS));
+
+        if (testQuery != null && testQuery.length() > 0)
+            ds.setPreferredTestQuery(testQuery);
+        ds.setIdleConnectionTestPeriod(IDLE_TEST_PERIOD);
+        ds.setTestConnectionOnCheckout(
+                PropertiesHelper.getBoolean(POOL_VALIDATE, props, false));
+
+        if (leakTimeout > 0) {
+            ds.setUnreturnedConnectionTimeout(leakTimeout);
+            ds.setDebugUnreturnedConnectionStackTraces(true);
+        }
+    }
+
+    public Connection getConnection() throws SQLException {
+        Connection c = ds.getConnection();
+        if (isolation != null)
+            c.setTransactionIsolation(isolation.intValue());
+        if (c.getAutoCommit() != autocommit)
+            c.setAutoCommit(autocommit);
+        return c;
+    }
+
+    public void closeConnection(Connection c) throws SQLException {
+        c.close();
+    }
+
+    public void close() throws HibernateException {
+        ds.close();
+    }
+
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    /**
+     * Get the current state of the pool.
+     * 
+     * @return the pool statistics, or null if they cannot be read
+     */
+    public ConnectionPoolStats getStats() {
+        try {
+            return new ConnectionPoolStats(ds.getMinPoolSize(), 
+                    ds.getMaxPoolSize(), 
+                    ds.getNumConnectionsDefaultUser(),
+                    ds.getNumBusyConnectionsDefaultUser(), 
+                    ds.getNumIdleConnectionsDefaultUser(),
+                    ds.getNumThreadsAwaitingCheckoutDefaultUser(),
+                    ds.getStatementCacheNumStatementsDefaultUser(),
+                    ds.getNumFailedCheckoutsDefaultUser(),
+                    ds.getNumFailedIdleTestsDefaultUser());
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cache.CacheDataDescription;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.QueryResultsRegion;
+import org.hibernate.cache.TimestampsRegion;
+import org.hibernate.cache.Timestamper;
+
+/**
+ * An in-process Hibernate cache region, holding up to a fixed number of
+ * entries. When full, the least recently used entry is evicted. Keeps
+ * hit and miss counts, so that the effectiveness of caching can be 
+ * monitored.
+ * 
+ * Query results and update timestamps are stored as they are. Entity and 
+ * collection regions are subclasses that store their data through a
+ * {@link RegionCacheAccess} strategy.
+ */
+public class RegionCache implements QueryResultsRegion, TimestampsRegion {
+
+    private final String regionName;
+    private final int maxEntries;
+    private final CacheDataDescription description;
+    
+    /* Access ordered, the eldest entry is the least recently used one */
+    private final LinkedHashMap<Object, Object> entries;
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param regionName The name of the region 
+     * @param maxEntries The maximum number of entries, 0 for no limit
+     */
+    public RegionCache(String regionName, int maxEntries) {
+        this(regionName, maxEntries, null);
+    }
+
+    /**
+     * @param regionName The name of the region 
+     * @param maxEntries The maximum number of entries, 0 for no limit
+     * @param description The description of the entities or collections
+     *          stored in the region, null for other regions
+     */
+    protected RegionCache(String regionName, int maxEntries, 
+            CacheDataDescription description) {
+        this.regionName = regionName;
+        this.maxEntries = maxEntries;
+        this.description = description;
+        this.entries = new LinkedHashMap<Object, Object>(256, 0.75f, true);
+    }
+
+    public String getName() {
+        return regionName;
+    }
+
+    public String getRegionName() {
+        return regionName;
+    }
+
+    /* TransactionalDataRegion, for the entity and collection subclasses */
+    public boolean isTransactionAware() {
+        return false;
+    }
+
+    public CacheDataDescription getCacheDataDescription() {
+        return description;
+    }
+
+    public Object get(Object key) throws CacheException {
+        Object value = null;
+        synchronized (entries) {
+            value = entries.get(key);
+        }
+        if (value == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return value;
+    }
+
+    public void put(Object key, Object value) throws CacheException {
+        synchronized (entries) {
+            entries.put(key, value);
+            puts.incrementAndGet();
+            
+            if (maxEntries <= 0)
+                return;
+            
+            Iterator<Object> i = entries.keySet().iterator();
+            while (entries.size() > maxEntries && i.hasNext()) {
+                i.next();
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Get an entry without counting a hit or a miss */
+    Object peek(Object key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /** Count a lookup done through {@link #peek(Object)} */
+    void lookup(boolean hit) {
+        if (hit)
+            hits.incrementAndGet();
+        else
+            misses.incrementAndGet();
+    }
+
+    public boolean contains(Object key) {
+        synchronized (entries) {
+            return entries.containsKey(key);
+        }
+    }
+
+    public void evict(Object key) throws CacheException {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void evictAll() throws CacheException {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public void destroy() throws CacheException {
+        evictAll();
+    }
+
+    public long nextTimestamp() {
+        return Timestamper.next();
+    }
+
+    public int getTimeout() {
+        return Timestamper.ONE_MS * 60000; //ie. 60 seconds
+    }
+
+    /** Not tracked */
+    public long getSizeInMemory() {
+        return -1;
+    }
+
+    public long getElementCountInMemory() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+
+    public Map toMap() {
+        synchronized (entries) {
+            return new HashMap<Object, Object>(entries);
+        }
+    }
+
+    /** The maximum number of entries, 0 if unbounded */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getPuts() {
+        return puts.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** The ratio of lookups that were hits, 0 if there were no lookups */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0) ? 0 : (double) h / total;
+    }
+
+    public String toString() {
+        return "RegionCache(" + regionName + ')';
+    }
+}
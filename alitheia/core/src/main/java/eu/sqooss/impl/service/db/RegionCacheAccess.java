@@ -0,0 +1,307 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CollectionRegion;
+import org.hibernate.cache.EntityRegion;
+import org.hibernate.cache.access.AccessType;
+import org.hibernate.cache.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.access.SoftLock;
+
+/**
+ * Access to the entities or collections stored in a {@link RegionCache}.
+ * Values are stored along with their version and the time they were cached.
+ * With {@link AccessType#READ_WRITE} access, a key being changed is locked
+ * by storing a soft lock in place of its value until the transaction
+ * completes, so that concurrent transactions neither read the value nor put
+ * a stale copy of it in the cache. {@link AccessType#NONSTRICT_READ_WRITE}
+ * access evicts changed values instead, and {@link AccessType#READ_ONLY}
+ * access refuses updates.
+ */
+class RegionCacheAccess {
+
+    protected final RegionCache region;
+    protected final AccessType type;
+    private final Comparator versionComparator;
+
+    RegionCacheAccess(RegionCache region, AccessType type) {
+        if (type == AccessType.TRANSACTIONAL)
+            throw new CacheException("Transactional access is not supported" 
+                    + " by region " + region.getName());
+        this.region = region;
+        this.type = type;
+        this.versionComparator = (region.getCacheDataDescription() == null) ? 
+                null : region.getCacheDataDescription().getVersionComparator();
+    }
+
+    public Object get(Object key, long txTimestamp) throws CacheException {
+        Object o = region.peek(key);
+        /* Items cached after the transaction started may not be visible to it */
+        boolean hit = o instanceof Item && ((Item) o).timestamp < txTimestamp;
+        region.lookup(hit);
+        return hit ? ((Item) o).value : null;
+    }
+
+    public boolean putFromLoad(Object key, Object value, long txTimestamp,
+            Object version) throws CacheException {
+        return putFromLoad(key, value, txTimestamp, version, false);
+    }
+
+    public boolean putFromLoad(Object key, Object value, long txTimestamp,
+            Object version, boolean minimalPutOverride) throws CacheException {
+        synchronized (region) {
+            Object o = region.peek(key);
+            boolean puttable;
+            if (o == null)
+                puttable = true;
+            else if (o instanceof Lock)
+                puttable = ((Lock) o).isPuttable(txTimestamp, version, 
+                        versionComparator);
+            else
+                puttable = !minimalPutOverride && 
+                    isNewer(version, ((Item) o).version, versionComparator);
+            
+            if (puttable)
+                region.put(key, new Item(value, version, region.nextTimestamp()));
+            return puttable;
+        }
+    }
+
+    public SoftLock lockItem(Object key, Object version) throws CacheException {
+        if (type == AccessType.NONSTRICT_READ_WRITE) {
+            region.evict(key);
+            return null;
+        }
+        if (type != AccessType.READ_WRITE)
+            return null;
+        
+        synchronized (region) {
+            Object o = region.peek(key);
+            long timeout = region.nextTimestamp() + region.getTimeout();
+            Lock lock = (o instanceof Lock) ? (Lock) o : new Lock(timeout, version);
+            lock.lock(timeout);
+            region.put(key, lock);
+            return lock;
+        }
+    }
+
+    public SoftLock lockRegion() throws CacheException {
+        return null;
+    }
+
+    public void unlockItem(Object key, SoftLock lock) throws CacheException {
+        if (type == AccessType.NONSTRICT_READ_WRITE) {
+            region.evict(key);
+            return;
+        }
+        if (type != AccessType.READ_WRITE)
+            return;
+        
+        synchronized (region) {
+            Object o = region.peek(key);
+            if (o instanceof Lock) 
+                ((Lock) o).unlock(region.nextTimestamp());
+            else /* The lock was evicted, the cached value may be stale */
+                region.evict(key);
+        }
+    }
+
+    /* Removes everything changed by a bulk operation on the region */
+    public void unlockRegion(SoftLock lock) throws CacheException {
+        region.evictAll();
+    }
+
+    public boolean insert(Object key, Object value, Object version) 
+            throws CacheException {
+        return false;
+    }
+
+    public boolean afterInsert(Object key, Object value, Object version)
+            throws CacheException {
+        if (type == AccessType.NONSTRICT_READ_WRITE)
+            return false;
+        
+        synchronized (region) {
+            if (region.peek(key) != null)
+                return false;
+            region.put(key, new Item(value, version, region.nextTimestamp()));
+            return true;
+        }
+    }
+
+    public boolean update(Object key, Object value, Object currentVersion,
+            Object previousVersion) throws CacheException {
+        checkWritable(key);
+        if (type == AccessType.NONSTRICT_READ_WRITE)
+            region.evict(key);
+        return false;
+    }
+
+    public boolean afterUpdate(Object key, Object value, Object currentVersion,
+            Object previousVersion, SoftLock lock) throws CacheException {
+        checkWritable(key);
+        if (type == AccessType.NONSTRICT_READ_WRITE) {
+            region.evict(key);
+            return false;
+        }
+        
+        synchronized (region) {
+            Object o = region.peek(key);
+            if (o instanceof Lock && ((Lock) o).count > 1) {
+                /* Changed concurrently, leave it to the last transaction */
+                ((Lock) o).unlock(region.nextTimestamp());
+                return false;
+            }
+            region.put(key, new Item(value, currentVersion, region.nextTimestamp()));
+            return true;
+        }
+    }
+
+    public void remove(Object key) throws CacheException {
+        if (type == AccessType.NONSTRICT_READ_WRITE)
+            region.evict(key);
+    }
+
+    public void removeAll() throws CacheException {
+        region.evictAll();
+    }
+
+    public void evict(Object key) throws CacheException {
+        region.evict(key);
+    }
+
+    public void evictAll() throws CacheException {
+        region.evictAll();
+    }
+
+    private void checkWritable(Object key) {
+        if (type == AccessType.READ_ONLY)
+            throw new UnsupportedOperationException("Can't update read-only " 
+                    + "object " + key + " in region " + region.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isNewer(Object version, Object cachedVersion,
+            Comparator comparator) {
+        if (version == null || cachedVersion == null || comparator == null)
+            return false;
+        return comparator.compare(cachedVersion, version) < 0;
+    }
+
+    /** A cached value */
+    static final class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        final Object value;
+        final Object version;
+        final long timestamp;
+
+        Item(Object value, Object version, long timestamp) {
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** A soft lock, stored in place of a value while it is being changed */
+    static final class Lock implements SoftLock, Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final Object version;
+        int count;
+        long timeout;
+        long unlockTimestamp = -1;
+
+        Lock(long timeout, Object version) {
+            this.timeout = timeout;
+            this.version = version;
+        }
+
+        void lock(long timeout) {
+            this.timeout = timeout;
+            count++;
+        }
+
+        void unlock(long timestamp) {
+            if (--count < 0)
+                count = 0;
+            unlockTimestamp = timestamp;
+        }
+
+        /* 
+         * A value loaded while the key was locked, or by a transaction that
+         * started before it was unlocked, may be stale. An expired lock was
+         * left behind by a transaction that never completed.
+         */
+        boolean isPuttable(long txTimestamp, Object newVersion, 
+                Comparator comparator) {
+            if (timeout < txTimestamp)
+                return true;
+            if (count > 0)
+                return false;
+            if (version != null && newVersion != null && comparator != null)
+                return isNewer(newVersion, version, comparator);
+            return unlockTimestamp < txTimestamp;
+        }
+    }
+
+    static class Entity extends RegionCacheAccess 
+            implements EntityRegionAccessStrategy {
+
+        Entity(RegionCacheFactory.Entities region, AccessType type) {
+            super(region, type);
+        }
+
+        public EntityRegion getRegion() {
+            return (EntityRegion) region;
+        }
+    }
+
+    static class Collection extends RegionCacheAccess 
+            implements CollectionRegionAccessStrategy {
+
+        Collection(RegionCacheFactory.Collections region, AccessType type) {
+            super(region, type);
+        }
+
+        public CollectionRegion getRegion() {
+            return (CollectionRegion) region;
+        }
+    }
+}
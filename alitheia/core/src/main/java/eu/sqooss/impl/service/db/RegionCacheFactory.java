@@ -0,0 +1,179 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.impl.service.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.cache.CacheDataDescription;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CollectionRegion;
+import org.hibernate.cache.EntityRegion;
+import org.hibernate.cache.QueryResultsRegion;
+import org.hibernate.cache.RegionFactory;
+import org.hibernate.cache.TimestampsRegion;
+import org.hibernate.cache.Timestamper;
+import org.hibernate.cache.access.AccessType;
+import org.hibernate.cache.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.access.EntityRegionAccessStrategy;
+import org.hibernate.cfg.Settings;
+
+/**
+ * Hibernate region factory that keeps each cache region in memory, in a
+ * {@link RegionCache} bounded by number of entries. The size of all 
+ * regions is set by the {@link #CACHE_SIZE} property, and can be 
+ * overridden per region by appending the region name to the property 
+ * name, for example <code>eu.sqooss.db.cache.size.eu.sqooss.service.db.Directory</code>.
+ * 
+ * The region of update timestamps, which tells whether cached query
+ * results are stale, is never bounded. 
+ */
+public class RegionCacheFactory implements RegionFactory {
+
+    /** Maximum number of entries per region */
+    public static final String CACHE_SIZE = "eu.sqooss.db.cache.size";
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /* All regions built by any factory instance, for statistics */
+    private static Map<String, RegionCache> regions = 
+        new ConcurrentHashMap<String, RegionCache>();
+
+    public void start(Settings settings, Properties properties) 
+            throws CacheException {}
+
+    public void stop() {
+        for (RegionCache c : regions.values())
+            c.destroy();
+        regions.clear();
+    }
+
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+
+    public AccessType getDefaultAccessType() {
+        return AccessType.READ_WRITE;
+    }
+
+    public long nextTimestamp() {
+        return Timestamper.next();
+    }
+
+    public EntityRegion buildEntityRegion(String regionName,
+            Properties properties, CacheDataDescription metadata)
+            throws CacheException {
+        return register(new Entities(regionName, 
+                size(regionName, properties), metadata));
+    }
+
+    public CollectionRegion buildCollectionRegion(String regionName,
+            Properties properties, CacheDataDescription metadata)
+            throws CacheException {
+        return register(new Collections(regionName, 
+                size(regionName, properties), metadata));
+    }
+
+    public QueryResultsRegion buildQueryResultsRegion(String regionName,
+            Properties properties) throws CacheException {
+        return register(new RegionCache(regionName, 
+                size(regionName, properties)));
+    }
+
+    public TimestampsRegion buildTimestampsRegion(String regionName,
+            Properties properties) throws CacheException {
+        return register(new RegionCache(regionName, 0));
+    }
+
+    private <T extends RegionCache> T register(T region) {
+        regions.put(region.getName(), region);
+        return region;
+    }
+
+    private static int size(String regionName, Properties p) {
+        return size(p, CACHE_SIZE + "." + regionName, 
+                size(p, CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+
+    private static int size(Properties p, String name, int def) {
+        String value = (p == null) ? null : p.getProperty(name);
+        if (value == null)
+            value = System.getProperty(name);
+        if (value == null)
+            return def;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Get the cache regions currently in use.
+     */
+    public static List<RegionCache> getRegions() {
+        return new ArrayList<RegionCache>(regions.values());
+    }
+
+    /** A region of cached entities */
+    static class Entities extends RegionCache implements EntityRegion {
+
+        Entities(String regionName, int maxEntries, 
+                CacheDataDescription description) {
+            super(regionName, maxEntries, description);
+        }
+
+        public EntityRegionAccessStrategy buildAccessStrategy(
+                AccessType accessType) throws CacheException {
+            return new RegionCacheAccess.Entity(this, accessType);
+        }
+    }
+
+    /** A region of cached collections */
+    static class Collections extends RegionCache implements CollectionRegion {
+
+        Collections(String regionName, int maxEntries, 
+                CacheDataDescription description) {
+            super(regionName, maxEntries, description);
+        }
+
+        public CollectionRegionAccessStrategy buildAccessStrategy(
+                AccessType accessType) throws CacheException {
+            return new RegionCacheAccess.Collection(this, accessType);
+        }
+    }
+}
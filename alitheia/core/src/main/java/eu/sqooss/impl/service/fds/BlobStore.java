@@ -0,0 +1,266 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.impl.service.fds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A content addressed store for file contents retrieved from the SCM. Blobs
+ * are stored once per content hash, as reported by the SCM, no matter how
+ * many revisions or projects they appear in. The total size of the store is
+ * bounded; when the bound is exceeded, the least recently used blobs are
+ * deleted.
+ * 
+ * Blobs are stored in files named after their hash, under a subdirectory
+ * named after the first two characters of the hash. Blobs are written
+ * to temporary files first and then renamed, so a blob file is always 
+ * complete. Blobs that are in use can be pinned with {@link #acquire(String)}
+ * so that they are not evicted until they are released.
+ */
+public class BlobStore {
+
+    private static final Pattern VALID_HASH = Pattern.compile("[0-9a-zA-Z]{4,}");
+    
+    private static final String EMPTY_GIT_BLOB = "e69de29bb2d1d6434b8b29ae775ad8c2e48c5391";
+    private static final String EMPTY_MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+    
+    private File root;
+    private long maxSize;
+    private long size = 0;
+    
+    /* Access ordered index of blob sizes */
+    private LinkedHashMap<String, Long> blobs = 
+        new LinkedHashMap<String, Long>(1024, 0.75f, true);
+    /* Number of users of pinned blobs */
+    private Map<String, Integer> pins = new HashMap<String, Integer>();
+    
+    /**
+     * Open a blob store, reusing any blobs already present in the 
+     * provided directory.
+     * 
+     * @param root Directory to store blobs in
+     * @param maxSize Maximum total size of the stored blobs, in bytes
+     */
+    public BlobStore(File root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+        root.mkdirs();
+        load();
+    }
+    
+    /**
+     * Check whether the provided string can be used as a blob hash.
+     */
+    public static boolean isValidHash(String hash) {
+        return hash != null && VALID_HASH.matcher(hash).matches();
+    }
+    
+    /**
+     * Check whether the provided hash is the hash of empty contents, as 
+     * reported by Git (blob id) or Subversion (MD5 checksum).
+     */
+    public static boolean isEmptyHash(String hash) {
+        return EMPTY_GIT_BLOB.equals(hash) || EMPTY_MD5.equals(hash);
+    }
+    
+    /**
+     * Get the file that stores the blob with the provided hash.
+     * 
+     * @return The blob file or null if the blob is not in the store
+     */
+    public synchronized File get(String hash) {
+        if (!blobs.containsKey(hash))
+            return null;
+        
+        File f = blobFile(hash);
+        if (!f.exists()) {
+            /* Removed behind our backs */
+            size -= blobs.remove(hash);
+            return null;
+        }
+        blobs.get(hash);
+        return f;
+    }
+    
+    /**
+     * Get the file that stores the blob with the provided hash and pin the
+     * blob, so that it is not evicted until {@link #release(String)} is 
+     * called for it.
+     * 
+     * @return The blob file or null if the blob is not in the store
+     */
+    public synchronized File acquire(String hash) {
+        File f = get(hash);
+        if (f == null)
+            return null;
+        
+        Integer count = pins.get(hash);
+        pins.put(hash, (count == null) ? 1 : count + 1);
+        return f;
+    }
+    
+    /**
+     * Unpin a blob pinned with {@link #acquire(String)}. Blobs that are 
+     * no longer pinned become eligible for eviction again.
+     */
+    public synchronized void release(String hash) {
+        Integer count = pins.get(hash);
+        if (count == null)
+            return;
+        if (count > 1) {
+            pins.put(hash, count - 1);
+            return;
+        }
+        pins.remove(hash);
+        evict();
+    }
+    
+    /**
+     * Create a temporary file in the store, to be filled in and 
+     * then added to the store with {@link #add(String, File)}.
+     */
+    public File newTempFile() throws IOException {
+        return File.createTempFile("blob", ".tmp", root);
+    }
+    
+    /**
+     * Add the contents of the provided temporary file to the store, 
+     * under the provided hash. The temporary file is consumed.
+     * 
+     * @return The blob file or null if the blob could not be stored
+     */
+    public synchronized File add(String hash, File tmp) {
+        if (!isValidHash(hash)) {
+            tmp.delete();
+            return null;
+        }
+        
+        File f = blobFile(hash);
+        if (blobs.containsKey(hash) && f.exists()) {
+            /* Another thread got here first */
+            tmp.delete();
+            blobs.get(hash);
+            return f;
+        }
+        
+        f.getParentFile().mkdirs();
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+                return null;
+            }
+        }
+        
+        Long old = blobs.put(hash, f.length());
+        if (old != null)
+            size -= old;
+        size += f.length();
+        evict();
+        
+        return f.exists() ? f : null;
+    }
+    
+    /** Total size of the stored blobs */
+    public synchronized long size() {
+        return size;
+    }
+    
+    /** Number of stored blobs */
+    public synchronized int count() {
+        return blobs.size();
+    }
+    
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> i = blobs.entrySet().iterator();
+        while (size > maxSize && i.hasNext()) {
+            Map.Entry<String, Long> e = i.next();
+            if (pins.containsKey(e.getKey()))
+                continue;
+            blobFile(e.getKey()).delete();
+            size -= e.getValue();
+            i.remove();
+        }
+    }
+    
+    private File blobFile(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash);
+    }
+    
+    /* Rebuild the index from disk, oldest files first */
+    private void load() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = root.listFiles();
+        if (dirs == null)
+            return;
+        
+        for (File d : dirs) {
+            if (!d.isDirectory()) {
+                /* Left over temporary file */
+                d.delete();
+                continue;
+            }
+            File[] contents = d.listFiles();
+            if (contents != null)
+                files.addAll(Arrays.asList(contents));
+        }
+        
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        
+        for (File f : sorted) {
+            blobs.put(f.getName(), f.length());
+            size += f.length();
+        }
+        evict();
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -38,6 +38,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Random;
 import java.util.Set;
@@ -102,6 +103,15 @@ public class FDSServiceImpl implements FDSService, Runnable {
 
     private BundleContext bc;
     
+    /**
+     * Content addressed store for single files, shared by getFile and 
+     * getFileContents. Null if disabled.
+     */
+    private BlobStore blobStore;
+    
+    /** Default maximum size of the blob store, 1GB */
+    private static final long DEFAULT_BLOBSTORE_SIZE = 1024L * 1024 * 1024;
+    
     /*
      * The following constants influence the formatting of checkout and project
      * directory names.
@@ -412,6 +422,114 @@ public class FDSServiceImpl implements FDSService, Runnable {
         return scm.newRevision(pv.getRevisionId());
     }
 
+    /**
+     * Make sure that the blob store holds the contents of a project file, 
+     * retrieving the file from the SCM if it is not already stored, and pin
+     * the blob so that it is not evicted while in use. The blob must be
+     * released with {@link BlobStore#release(String)} after use.
+     * 
+     * @return The hash of the pinned blob or null if the SCM does not 
+     * provide a content hash for the file, or the file could not be stored 
+     */
+    private String acquireBlob(ProjectFile pf, SCMAccessor scm, Revision r) 
+        throws InvalidProjectRevisionException, InvalidRepositoryException, 
+               FileNotFoundException {
+        if (blobStore == null)
+            return null;
+        
+        String hash = scm.getFileHash(pf.getFileName(), r);
+        if (!BlobStore.isValidHash(hash))
+            return null;
+        
+        if (blobStore.acquire(hash) != null)
+            return hash;
+        
+        File tmp = null;
+        try {
+            tmp = blobStore.newTempFile();
+        } catch (IOException e) {
+            logger.warn("Cannot create temporary file for " + pf + ": " 
+                    + e.getMessage());
+            return null;
+        }
+        
+        try {
+            scm.getFile(pf.getFileName(), r, tmp);
+            
+            /* 
+             * Do not let an accessor that wrote nothing poison the store 
+             * with an empty file, unless the file is known to be empty
+             */
+            if (tmp.length() == 0 && !BlobStore.isEmptyHash(hash))
+                return null;
+            
+            File blob = blobStore.add(hash, tmp);
+            tmp = null;
+            if (blob == null)
+                return null;
+        } finally {
+            if (tmp != null)
+                tmp.delete();
+        }
+        return (blobStore.acquire(hash) != null) ? hash : null;
+    }
+
+    /**
+     * Fill the provided file with the contents of a project file from the 
+     * blob store. The file is a hard link to the blob where the file system
+     * allows it, so that revisions with the same contents share the disk 
+     * space, and a copy otherwise. Checkout files must not be modified, as
+     * that would modify the blob too.
+     * 
+     * @return true if the file was filled, false if the blob store could 
+     * not provide the contents 
+     */
+    private boolean linkBlob(ProjectFile pf, SCMAccessor scm, Revision r,
+            File target) throws InvalidProjectRevisionException, 
+            InvalidRepositoryException, FileNotFoundException {
+        String hash = acquireBlob(pf, scm, r);
+        if (hash == null)
+            return false;
+        
+        try {
+            FileUtils.linkOrCopyFile(blobStore.get(hash), target);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot copy stored contents of " + pf + ": " 
+                    + e.getMessage());
+            target.delete();
+            return false;
+        } finally {
+            blobStore.release(hash);
+        }
+    }
+
+    /**
+     * A stream of the contents of a blob, which keeps the blob pinned 
+     * until the stream is closed.
+     */
+    private class BlobInputStream extends FileInputStream {
+        private String hash;
+
+        BlobInputStream(String hash) throws FileNotFoundException {
+            super(blobStore.get(hash));
+            this.hash = hash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                synchronized (this) {
+                    if (hash != null)
+                        blobStore.release(hash);
+                    hash = null;
+                }
+            }
+        }
+    }
+
     // ===[ INTERFACE METHODS ]===============================================
 
     /** {@inheritDoc} */
@@ -440,8 +558,10 @@ public class FDSServiceImpl implements FDSService, Runnable {
                         && (!checkoutFile.getParentFile().exists())) {
                     checkoutFile.getParentFile().mkdirs();
                 }
-                // Try to checkout the target file
-                scm.getFile(pf.getFileName(), projectRevision, checkoutFile);
+                // Files with the same contents in other revisions share a
+                // blob, otherwise try to checkout the target file
+                if (!linkBlob(pf, scm, projectRevision, checkoutFile))
+                    scm.getFile(pf.getFileName(), projectRevision, checkoutFile);
             }
 
             // Make sure that the target file is accessible
@@ -473,8 +593,25 @@ public class FDSServiceImpl implements FDSService, Runnable {
         }
 
         SCMAccessor scm = projectFileAccessor(pf);
+        if (scm == null) {
+            return null;
+        }
+        
         ByteArrayOutputStream buff = new ByteArrayOutputStream();
         try {
+            String hash = acquireBlob(pf, scm, projectRevision);
+            if (hash != null) {
+                // Stream the blob from disk, it stays pinned until the
+                // stream is closed
+                try {
+                    return new BlobInputStream(hash);
+                } catch (FileNotFoundException e) {
+                    blobStore.release(hash);
+                    logger.warn("Cannot read stored contents of " + pf 
+                            + ": " + e.getMessage());
+                }
+            }
+            
             scm.getFile(pf.getFileName(), projectRevision, buff);
         } catch (InvalidProjectRevisionException e) {
             logger.error("The repository for " + pf.toString()
@@ -704,6 +841,22 @@ public class FDSServiceImpl implements FDSService, Runnable {
         fdsCheckoutRoot = new File(s);
         randomCheckout = new Random();
 
+        long blobStoreSize = DEFAULT_BLOBSTORE_SIZE;
+        s = bc.getProperty("eu.sqooss.fds.blobstore.size");
+        if (s != null) {
+            try {
+                blobStoreSize = Long.parseLong(s.trim());
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid eu.sqooss.fds.blobstore.size " + s);
+            }
+        }
+        if (blobStoreSize > 0) {
+            blobStore = new BlobStore(new File(fdsCheckoutRoot, ".blobs"), 
+                    blobStoreSize);
+            logger.info("FDS blob store has " + blobStore.count() 
+                    + " files, " + blobStore.size() + " bytes");
+        }
+
         return true;
     }
 }
@@ -0,0 +1,179 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.impl.service.metricactivator;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.abstractmetric.AbstractMetric;
+import eu.sqooss.service.abstractmetric.AlreadyProcessingException;
+import eu.sqooss.service.abstractmetric.MetricMismatchException;
+import eu.sqooss.service.db.DAObject;
+import eu.sqooss.service.db.DBService;
+import eu.sqooss.service.db.Metric;
+import eu.sqooss.service.logging.Logger;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.SchedulerException;
+
+/**
+ * Metric job that runs a metric on a batch of DAOs of the same type. 
+ * Instead of opening a DB session per object, the objects are processed in
+ * chunks: each chunk is loaded with a single query and committed in a 
+ * single transaction. The list of metrics to calculate is only retrieved
+ * once per batch.
+ * 
+ * If processing an object fails, the current chunk is rolled back and
+ * its objects are rescheduled as individual {@link MetricActivatorJob}s,
+ * so that a single failing object does not affect the rest of the batch.
+ */
+public class MetricActivatorBatchJob extends Job {
+
+    private Logger logger;
+    private DBService dbs;
+    private List<Long> daoIDs;
+    private AbstractMetric metric;
+    private long priority;
+    Class<? extends DAObject> daoType;
+    private boolean fastSync = false;
+    private int commitSize;
+    
+    MetricActivatorBatchJob(AbstractMetric m, List<Long> daoIDs, Logger l,
+            Class<? extends DAObject> daoType, long priority, 
+            boolean fastSync, int commitSize) {
+        this.metric = m;
+        this.logger = l;
+        this.daoIDs = daoIDs;
+        this.daoType = daoType;
+        this.dbs = AlitheiaCore.getInstance().getDBService();
+        this.priority = priority;
+        this.fastSync = fastSync;
+        this.commitSize = Math.max(commitSize, 1);
+    }
+    
+    @Override
+    public long priority() {
+        return priority;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        metric.setJob(this);
+        List<Metric> supported = null;
+        
+        for (int i = 0; i < daoIDs.size(); i += commitSize) {
+            List<Long> chunk = daoIDs.subList(i, 
+                    Math.min(i + commitSize, daoIDs.size()));
+            dbs.startDBSession();
+            
+            if (supported == null) {
+                supported = metric.getSupportedMetrics(daoType);
+                /* See MetricActivatorJob for what fast sync means */
+                if (fastSync && !supported.isEmpty())
+                    supported = supported.subList(0, 1);
+            }
+            
+            if (!runChunk(chunk, supported)) {
+                logger.warn("Processing of " + chunk.size() + " " 
+                        + daoType.getSimpleName() + " objects failed, " 
+                        + "rescheduling them as individual jobs");
+                reschedule(chunk);
+            }
+        }
+    }
+    
+    /**
+     * Calculate the metric on a chunk of objects and commit the results.
+     * @return false if the chunk has been rolled back
+     */
+    private boolean runChunk(List<Long> chunk, List<Metric> supported) {
+        Map<Long, DAObject> objs = new HashMap<Long, DAObject>();
+        for (DAObject o : dbs.findObjectsByIds(daoType, chunk))
+            objs.put(o.getId(), o);
+        
+        for (Long id : chunk) {
+            DAObject obj = objs.get(id);
+            if (obj == null)
+                continue;
+            try {
+                metric.getResult(obj, supported);
+            } catch (MetricMismatchException e) {
+                logger.warn("Metric " + metric.getName() + " failed");
+            } catch (AlreadyProcessingException ape) {
+                /* The metric has already queued a separate job for it */
+                logger.warn("DAO id " + id + " is locked by another job, "
+                        + "skipped in this batch");
+            } catch (Exception e) {
+                logger.warn("Metric " + metric.getName() + " failed on "
+                        + daoType.getSimpleName() + " " + id + ": " 
+                        + e.getMessage());
+                if (dbs.isDBSessionActive())
+                    dbs.rollbackDBSession();
+                return false;
+            }
+            
+            /* A DB error has terminated the session */
+            if (!dbs.isDBSessionActive())
+                return false;
+        }
+
+        return dbs.commitDBSession();
+    }
+    
+    private void reschedule(List<Long> chunk) {
+        Set<Job> jobs = new HashSet<Job>();
+        for (Long id : chunk) {
+            jobs.add(new MetricActivatorJob(metric, id, logger, daoType, 
+                    priority, fastSync));
+        }
+        try {
+            AlitheiaCore.getInstance().getScheduler().enqueueNoDependencies(jobs);
+        } catch (SchedulerException e) {
+            logger.error("Could not reschedule metric jobs: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MetricActivatorBatchJob: Metric:{" + metric.getName() 
+            + "} Activator:{" + daoType.getSimpleName() + "} DAOs:{" 
+            + daoIDs.size() + " from " + daoIDs.get(0) + "}";
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
@@ -68,6 +68,7 @@ import eu.sqooss.service.pa.PluginInfo;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.scheduler.Scheduler;
 import eu.sqooss.service.scheduler.SchedulerException;
+import eu.sqooss.service.util.LongBitmapSet;
 import eu.sqooss.service.util.GraphTS;
 
 public class MetricActivatorImpl  implements MetricActivator {
@@ -81,6 +82,8 @@ public class MetricActivatorImpl  implements MetricActivator {
     private DBService db;
     private Scheduler sched;
     private boolean fastSync = false;
+    private int batchSize = 1;
+    private int commitSize = 64;
 
     private AtomicLong priority;
     
@@ -299,7 +302,7 @@ public class MetricActivatorImpl  implements MetricActivator {
 
             List<Metric> metrics = pa.getPlugin(mi).getAllSupportedMetrics();
             
-            Map<MetricType.Type, TreeSet<Long>> objectIds = new HashMap<MetricType.Type, TreeSet<Long>>();
+            Map<MetricType.Type, LongBitmapSet> objectIds = new HashMap<MetricType.Type, LongBitmapSet>();
 
             for (Metric m : metrics) {
             	Map<MetricType.Type, SortedSet<Long>> IDs = 
@@ -307,10 +310,12 @@ public class MetricActivatorImpl  implements MetricActivator {
             	for (MetricType.Type t : IDs.keySet()) {
             		
             		if (objectIds.get(t) == null) {
-                    	objectIds.put(t, new TreeSet<Long>());	
+                    	objectIds.put(t, new LongBitmapSet());	
                     }
                     
-                    objectIds.get(t).addAll(IDs.get(t));
+                    LongBitmapSet ids = objectIds.get(t);
+                    for (Long id : IDs.get(t))
+                        ids.add(id.longValue());
             	}
             }
             
@@ -343,20 +348,35 @@ public class MetricActivatorImpl  implements MetricActivator {
             		continue;
 
                 //We assume that resource IDs increase monotonically
-                TreeSet<Long> ids = objectIds.get(actType);
-                TreeSet<Long> tmp = null;
+                long[] ids = objectIds.get(actType).toLongArray();
                 if (invOrder.equals(InvocationOrder.NEWFIRST)) {
-                    tmp = new TreeSet<Long>(new DecreasingLongComparator());
+                    reverse(ids);
                 } else if (invOrder.equals(InvocationOrder.RANDOM)) {
-                    tmp = new TreeSet<Long>(new RandomizedComparator());
+                    shuffle(ids);
                 }
 
-                if (tmp != null) {
-                    tmp.addAll(ids);
-                    ids = tmp;
+                if (batchSize > 1) {
+                    /* Group objects in batches, one job per batch */
+                    List<Long> batch = new ArrayList<Long>(batchSize);
+                    for (long l : ids) {
+                        batch.add(l);
+                        if (batch.size() == batchSize) {
+                            jobs.add(new MetricActivatorBatchJob(metric, batch,
+                                logger, metricTypesToActivators.get(actType),
+                                priority.incrementAndGet(), fastSync, 
+                                commitSize));
+                            batch = new ArrayList<Long>(batchSize);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        jobs.add(new MetricActivatorBatchJob(metric, batch,
+                            logger, metricTypesToActivators.get(actType),
+                            priority.incrementAndGet(), fastSync, commitSize));
+                    }
+                    continue;
                 }
 
-                for (Long l : ids) {
+                for (long l : ids) {
             		jobs.add(new MetricActivatorJob(metric, l, logger, 
             			metricTypesToActivators.get(actType),
             			priority.incrementAndGet(),
@@ -373,25 +393,21 @@ public class MetricActivatorImpl  implements MetricActivator {
         }
     }
 
-    class DecreasingLongComparator implements Comparator<Long> {
-        @Override
-        public int compare(Long a, Long b) {
-            if (a > b)
-                return -1;
-            else if (a < b)
-                return 1;
-            return 0;
+    private static void reverse(long[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            long tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
         }
     }
 
-    class RandomizedComparator implements Comparator<Long> {
+    private static void shuffle(long[] a) {
         Random r = new Random();
-        @Override
-        public int compare(Long a, Long b) {
-            if(r.nextBoolean())
-                return -1;
-            else
-                return 1;
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            long tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
         }
     }
 
@@ -433,9 +449,29 @@ public class MetricActivatorImpl  implements MetricActivator {
         
         if (sync != null && sync.equalsIgnoreCase("fast"))
             this.fastSync = true;
+
+        batchSize = readIntProperty("eu.sqooss.metricactivator.batchsize", 1);
+        commitSize = readIntProperty("eu.sqooss.metricactivator.commitsize", 64);
+        if (batchSize > 1)
+            logger.info("Metric jobs will be run in batches of " + batchSize
+                    + " objects, committing every " + commitSize + " objects");
 	
         return true;
 	}
+
+    private int readIntProperty(String name, int def) {
+        String value = bc.getProperty(name);
+        if (value == null)
+            return def;
+        try {
+            int i = Integer.parseInt(value.trim());
+            return (i < 1) ? def : i;
+        } catch (NumberFormatException nfe) {
+            logger.warn("Invalid value " + value + " for " + name 
+                    + ", using " + def);
+            return def;
+        }
+    }
 }
 
 //vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,169 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.impl.service.scheduler;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import eu.sqooss.service.scheduler.Job;
+
+/**
+ * A binary heap of jobs ordered by priority, which also keeps track of 
+ * the position of each job in the heap. Unlike {@link java.util.PriorityQueue},
+ * looking up a job takes constant time and removing an arbitrary job 
+ * takes logarithmic time. A job can only be in the heap once.
+ * 
+ * This class is not thread safe.
+ */
+public class IndexedJobHeap {
+
+    private Comparator<Job> comparator = new JobPriorityComparator();
+    
+    private Job[] heap;
+    private int size = 0;
+    
+    /* Job -> position in the heap array */
+    private Map<Job, Integer> index = new IdentityHashMap<Job, Integer>();
+
+    public IndexedJobHeap() {
+        this(16);
+    }
+
+    public IndexedJobHeap(int capacity) {
+        heap = new Job[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @return false if the job is already in the heap.
+     */
+    public boolean add(Job j) {
+        if (index.containsKey(j))
+            return false;
+        if (size == heap.length) {
+            Job[] bigger = new Job[heap.length * 2];
+            System.arraycopy(heap, 0, bigger, 0, size);
+            heap = bigger;
+        }
+        heap[size] = j;
+        index.put(j, size);
+        siftUp(size);
+        size++;
+        return true;
+    }
+
+    public Job peek() {
+        return (size == 0) ? null : heap[0];
+    }
+
+    public Job poll() {
+        if (size == 0)
+            return null;
+        Job top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    public boolean remove(Job j) {
+        Integer i = index.get(j);
+        if (i == null)
+            return false;
+        removeAt(i);
+        return true;
+    }
+
+    public boolean contains(Job j) {
+        return index.containsKey(j);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void removeAt(int i) {
+        index.remove(heap[i]);
+        size--;
+        if (i == size) {
+            heap[size] = null;
+            return;
+        }
+        Job last = heap[size];
+        heap[size] = null;
+        heap[i] = last;
+        index.put(last, i);
+        siftDown(i);
+        if (heap[i] == last)
+            siftUp(i);
+    }
+
+    private void siftUp(int i) {
+        Job j = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (comparator.compare(j, heap[parent]) >= 0)
+                break;
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(j, i);
+    }
+
+    private void siftDown(int i) {
+        Job j = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && comparator.compare(heap[right], heap[child]) < 0)
+                child = right;
+            if (comparator.compare(j, heap[child]) <= 0)
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(j, i);
+    }
+
+    private void place(Job j, int i) {
+        heap[i] = j;
+        index.put(j, i);
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
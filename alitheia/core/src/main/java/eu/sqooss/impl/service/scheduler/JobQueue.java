@@ -0,0 +1,80 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.impl.service.scheduler;
+
+import java.util.Collection;
+
+import eu.sqooss.service.scheduler.Job;
+
+/**
+ * The queue of runnable jobs the scheduler's worker threads take their
+ * work from. Implementations must be thread safe; the scheduler does not
+ * hold any lock while calling {@link #take()}.
+ */
+public interface JobQueue {
+
+    /**
+     * Add a runnable job to the queue.
+     */
+    void add(Job job);
+
+    /**
+     * Add a set of runnable jobs to the queue in one go.
+     */
+    void addAll(Collection<Job> jobs);
+
+    /**
+     * Returns the next job to execute, blocking until one is available.
+     */
+    Job take() throws InterruptedException;
+
+    /**
+     * Remove a specific job from the queue.
+     * @return true if the job was found in the queue and removed.
+     */
+    boolean remove(Job job);
+
+    /**
+     * @return Whether the job is currently in the queue.
+     */
+    boolean contains(Job job);
+
+    /**
+     * @return The number of jobs currently waiting in the queue.
+     */
+    int size();
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
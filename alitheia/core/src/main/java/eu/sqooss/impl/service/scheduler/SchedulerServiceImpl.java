@@ -34,13 +34,14 @@
 package eu.sqooss.impl.service.scheduler;
 
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.osgi.framework.BundleContext;
 
@@ -56,22 +57,32 @@ public class SchedulerServiceImpl implements Scheduler {
 
     private static final String START_THREADS_PROPERTY = "eu.sqooss.scheduler.numthreads";
     private static final String PERF_LOG_PROPERTY = "eu.sqooss.log.perf";
+    private static final String ENGINE_PROPERTY = "eu.sqooss.scheduler.engine";
+    private static final String MAX_THREADS_PROPERTY = "eu.sqooss.scheduler.maxthreads";
+    
+    /* How long to wait for a one shot thread when at the maximum */
+    private static final long ONE_SHOT_WAIT_SECONDS = 30;
+    
+    private static final String ENGINE_QUEUE = "queue";
+    private static final String ENGINE_WORKSTEALING = "workstealing";
     
     private Logger logger = null;
     private boolean perfLog = false;
 
     private SchedulerStats stats = new SchedulerStats();
 
+    // jobs waiting for their dependencies, guarded by the scheduler lock 
+    private Set<Job> blockedQueue = new HashSet<Job>();
     // thread safe job queue
-    private PriorityQueue<Job> blockedQueue = new PriorityQueue<Job>(1,
-            new JobPriorityComparator());
-    private BlockingQueue<Job> workQueue = new PriorityBlockingQueue<Job>(1,
-            new JobPriorityComparator());
+    private JobQueue workQueue = new PriorityJobQueue();
 
     private BlockingQueue<Job> failedQueue = new ArrayBlockingQueue<Job>(1000);
 
     private List<WorkerThread> myWorkerThreads = null;
     
+    /* Limits the number of one shot worker threads, null if unlimited */
+    private Semaphore oneShotPermits = null;
+    
     public SchedulerServiceImpl() { }
 
     public void enqueue(Job job) throws SchedulerException {
@@ -87,16 +98,20 @@ public class SchedulerServiceImpl implements Scheduler {
     }
     
     public void enqueueNoDependencies(Set<Job> jobs) throws SchedulerException {
-        synchronized (this) {
-            for (Job job : jobs) {
+        /* 
+         * The jobs have no dependencies, so they don't need to go through
+         * the blocked queue. The work queue is thread safe, so there is no
+         * need to hold the scheduler lock while adding them.
+         */
+        for (Job job : jobs) {
+            if (logger != null)
                 logger.debug("Scheduler ServiceImpl: queuing job "
                         + job.toString());
-                job.callAboutToBeEnqueued(this);
-                workQueue.add(job);
-                stats.addWaitingJob(job.getClass().toString());
-                stats.incTotalJobs();
-            }
+            job.callAboutToBeEnqueued(this);
+            stats.addWaitingJob(job.getClass().toString());
+            stats.incTotalJobs();
         }
+        workQueue.addAll(jobs);
     }
     
     public void enqueueBlock(List<Job> jobs) throws SchedulerException {
@@ -142,14 +157,11 @@ public class SchedulerServiceImpl implements Scheduler {
     }
 
     public Job takeJob(Job job) throws SchedulerException {
-        synchronized (workQueue) {
-            if (!workQueue.contains(job)) {
-                throw new SchedulerException("Can't take job " + job
-                        + ": It is not in the scheduler's queue right now.");
-            }
-            workQueue.remove(job);
-            return job;
+        if (!workQueue.remove(job)) {
+            throw new SchedulerException("Can't take job " + job
+                    + ": It is not in the scheduler's queue right now.");
         }
+        return job;
     }
     
     public void jobStateChanged(Job job, Job.State state) {
@@ -179,11 +191,12 @@ public class SchedulerServiceImpl implements Scheduler {
 
     public void jobDependenciesChanged(Job job) {
         synchronized (this) {
-            if (workQueue.contains(job) && !job.canExecute()) {
-                workQueue.remove(job);
-                blockedQueue.add(job);
-            } else if (job.canExecute()) {
-                blockedQueue.remove(job);
+            if (!job.canExecute()) {
+                if (workQueue.remove(job))
+                    blockedQueue.add(job);
+            } else if (blockedQueue.remove(job)) {
+                /* Only blocked jobs become runnable, jobs already in the 
+                 * work queue or running are left alone */
                 workQueue.add(job);
             }
         }
@@ -245,7 +258,27 @@ public class SchedulerServiceImpl implements Scheduler {
     }
 
     public void startOneShotWorkerThread() {
-        WorkerThread t = new WorkerThreadImpl(this, true);
+        /*
+         * The caller is waiting for a job that no worker thread is free to 
+         * run. Wait for another one shot thread to finish, and say so if
+         * none does: if all threads are waiting, nothing will ever run.
+         */
+        try {
+            if (oneShotPermits != null && !oneShotPermits.tryAcquire(
+                    ONE_SHOT_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                if (logger != null)
+                    logger.warn("Maximum number of worker threads reached, " 
+                            + "none became free in " + ONE_SHOT_WAIT_SECONDS 
+                            + " seconds. Jobs waiting for other jobs may "
+                            + "deadlock, consider raising " 
+                            + MAX_THREADS_PROPERTY);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        WorkerThread t = new WorkerThreadImpl(this, true, oneShotPermits);
         t.start();
     }
 
@@ -271,8 +304,29 @@ public class SchedulerServiceImpl implements Scheduler {
                 logger.warn("Invalid number of threads to start:" + threadsProperty);
             }
         }
+        
+        String engine = System.getProperty(ENGINE_PROPERTY, ENGINE_QUEUE);
+        if (engine.equals(ENGINE_WORKSTEALING)) {
+            logger.info("Using the work stealing scheduler engine");
+            workQueue = new WorkStealingJobQueue(numThreads);
+        } else if (!engine.equals(ENGINE_QUEUE)) {
+            logger.warn("Unknown scheduler engine " + engine 
+                    + ", using the default (" + ENGINE_QUEUE + ")");
+        }
         startExecute(numThreads);
         
+        String maxThreadsProperty = System.getProperty(MAX_THREADS_PROPERTY);
+        if (maxThreadsProperty != null && !maxThreadsProperty.equals("-1")) {
+            try {
+                int maxThreads = Integer.parseInt(maxThreadsProperty);
+                oneShotPermits = new Semaphore(Math.max(maxThreads - numThreads, 0));
+                logger.info("Limiting worker threads to " 
+                        + Math.max(maxThreads, numThreads));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid maximum number of threads:" + maxThreadsProperty);
+            }
+        }
+        
         String perfLog = System.getProperty(PERF_LOG_PROPERTY);
         if (perfLog != null && perfLog.equals("true")) {
             logger.info("Using performance logging");
@@ -0,0 +1,247 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.impl.service.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.WorkerThread;
+
+/**
+ * A job queue that keeps one priority queue per worker thread instead of
+ * a single shared one. Worker threads take jobs from their own queue
+ * first and steal from the other queues when theirs runs dry, so that
+ * workers only contend with each other when there is not enough work.
+ * 
+ * Jobs enqueued from within a worker thread go to that worker's queue,
+ * jobs enqueued from other threads are spread round robin over all 
+ * queues. Priorities are respected within each queue; as all queues are
+ * drained in parallel, this approximates the global priority order of
+ * the {@link PriorityJobQueue}.
+ */
+public class WorkStealingJobQueue implements JobQueue {
+
+    private final WorkQueue[] queues;
+
+    /* The jobs in all queues, so that a job is only queued once */
+    private final Set<Job> queued = 
+        Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+
+    /* 
+     * Number of jobs in all queues. Counted before a job is inserted and
+     * after it is taken out, so that it never goes negative. 
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private final AtomicInteger nextHome = new AtomicInteger(0);
+    private final AtomicInteger nextSubmit = new AtomicInteger(0);
+
+    /* Workers sleep here when there is nothing to take or steal */
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition notEmpty = idleLock.newCondition();
+    private final AtomicInteger idleWorkers = new AtomicInteger(0);
+
+    /* The queue each thread takes its work from */
+    private final ThreadLocal<Integer> home = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return index(nextHome.getAndIncrement());
+        }
+    };
+
+    /**
+     * @param n The number of per-worker queues to maintain. Should match
+     * the number of worker threads.
+     */
+    public WorkStealingJobQueue(int n) {
+        queues = new WorkQueue[Math.max(n, 1)];
+        for (int i = 0; i < queues.length; i++)
+            queues[i] = new WorkQueue();
+    }
+
+    public void add(Job job) {
+        if (!queued.add(job))
+            return;
+        size.incrementAndGet();
+        queues[submitIndex()].add(job);
+        signalWork(false);
+    }
+
+    public void addAll(Collection<Job> jobs) {
+        if (jobs.isEmpty())
+            return;
+
+        /* Split the jobs in equal parts, so that each queue is only locked once */
+        List<List<Job>> parts = new ArrayList<List<Job>>(queues.length);
+        for (int i = 0; i < queues.length; i++)
+            parts.add(new ArrayList<Job>(jobs.size() / queues.length + 1));
+        int start = nextSubmit.getAndIncrement();
+        int i = 0;
+        for (Job j : jobs) {
+            if (!queued.add(j))
+                continue;
+            parts.get(index(start + i)).add(j);
+            i++;
+        }
+        if (i == 0)
+            return;
+        size.addAndGet(i);
+        for (int q = 0; q < queues.length; q++) {
+            if (!parts.get(q).isEmpty())
+                queues[q].addAll(parts.get(q));
+        }
+        signalWork(true);
+    }
+
+    public Job take() throws InterruptedException {
+        int h = home.get();
+        while (true) {
+            Job j = queues[h].poll();
+            if (j == null)
+                j = steal(h);
+            if (j != null) {
+                queued.remove(j);
+                size.decrementAndGet();
+                return j;
+            }
+            awaitWork();
+        }
+    }
+
+    public boolean remove(Job job) {
+        for (WorkQueue q : queues) {
+            if (q.remove(job)) {
+                queued.remove(job);
+                size.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(Job job) {
+        return queued.contains(job);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private int index(int i) {
+        return (i & Integer.MAX_VALUE) % queues.length;
+    }
+
+    /*
+     * Workers keep the jobs they produce for themselves, everything else
+     * is distributed evenly.
+     */
+    private int submitIndex() {
+        if (Thread.currentThread() instanceof WorkerThread)
+            return home.get();
+        return index(nextSubmit.getAndIncrement());
+    }
+
+    private Job steal(int h) {
+        for (int i = 1; i < queues.length; i++) {
+            Job j = queues[(h + i) % queues.length].poll();
+            if (j != null)
+                return j;
+        }
+        return null;
+    }
+
+    private void awaitWork() throws InterruptedException {
+        idleLock.lockInterruptibly();
+        try {
+            idleWorkers.incrementAndGet();
+            try {
+                while (size.get() == 0)
+                    notEmpty.await();
+            } finally {
+                idleWorkers.decrementAndGet();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    private void signalWork(boolean all) {
+        if (idleWorkers.get() == 0)
+            return;
+        idleLock.lock();
+        try {
+            if (all)
+                notEmpty.signalAll();
+            else
+                notEmpty.signal();
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * A single worker's queue, guarded by its own monitor.
+     */
+    private static class WorkQueue {
+        private IndexedJobHeap jobs = new IndexedJobHeap();
+
+        synchronized void add(Job j) {
+            jobs.add(j);
+        }
+
+        synchronized void addAll(Collection<Job> j) {
+            for (Job job : j)
+                jobs.add(job);
+        }
+
+        synchronized Job poll() {
+            return jobs.poll();
+        }
+
+        synchronized boolean remove(Job j) {
+            return jobs.remove(j);
+        }
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
@@ -33,12 +33,15 @@
 
 package eu.sqooss.impl.service.scheduler;
 
+import java.util.concurrent.Semaphore;
+
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.scheduler.ResumePoint;
 import eu.sqooss.service.scheduler.Scheduler;
 import eu.sqooss.service.scheduler.SchedulerException;
+import eu.sqooss.service.scheduler.SchedulerStats;
 import eu.sqooss.service.scheduler.WorkerThread;
 
 /**
@@ -59,6 +62,9 @@ class WorkerThreadImpl extends Thread implements WorkerThread {
     
     private boolean m_oneshot = false;
     
+    /* Released when a one shot thread is done, may be null */
+    private Semaphore m_permits = null;
+    
     /**
      * Constructor creating a new WorkerThread
      * @param s the schedule being asked for jobs.
@@ -76,10 +82,14 @@ class WorkerThreadImpl extends Thread implements WorkerThread {
     /**
      * Constructor creating a new WorkerThread
      * @param s the schedule being asked for jobs.
+     * @param permits If not null, a permit is released to it when the
+     * thread exits.
      */
-    public WorkerThreadImpl(Scheduler s, boolean oneshot) {
+    public WorkerThreadImpl(Scheduler s, boolean oneshot, Semaphore permits) {
     	super(null, null, "OneShot Worker Thread");
         m_scheduler = s;
+        m_oneshot = oneshot;
+        m_permits = permits;
     }
 
     /**
@@ -87,17 +97,28 @@ class WorkerThreadImpl extends Thread implements WorkerThread {
      */
     public void run() {
         m_processing = true;
-        while (m_processing) {
-            try {
-                // get a job from the scheduler
-                executeJob(m_scheduler.takeJob());
-            } catch (InterruptedException e) {
-                // we were interrupted, just try again
-                continue;
-            }
-            if (m_oneshot) {
-            	m_processing = false;
+        try {
+            while (m_processing) {
+                Job j = null;
+                SchedulerStats stats = m_scheduler.getSchedulerStats();
+                stats.incIdleWorkerThreads();
+                try {
+                    // get a job from the scheduler
+                    j = m_scheduler.takeJob();
+                } catch (InterruptedException e) {
+                    // we were interrupted, just try again
+                    continue;
+                } finally {
+                    stats.decIdleWorkerThreads();
+                }
+                executeJob(j);
+                if (m_oneshot) {
+                    m_processing = false;
+                }
             }
+        } finally {
+            if (m_permits != null)
+                m_permits.release();
         }
     }
 
@@ -140,36 +161,10 @@ class WorkerThreadImpl extends Thread implements WorkerThread {
 	}
 	
 	/**
-	 * Temporary Worker Thread is used to trigger instant
-	 * execution of a job.
-	 * @author christoph
-	 *
+	 * Executes the job in this thread, on top of the job currently
+	 * being executed.
 	 */
-	public class TemporaryWorkerThread implements Runnable {
-
-		private WorkerThreadImpl worker;
-		private Job job;
-		
-		public TemporaryWorkerThread(Job job) {
-			this.worker = new WorkerThreadImpl(null, -1);
-		}
-		
-		TemporaryWorkerThread(WorkerThreadImpl worker,Job job) {
-			this.worker = worker;
-			this.job = job;
-		}
-		
-		public void run() {
-			worker.executeJob(job);
-		}
-		
-	}
-	
 	public void takeJob(Job job) throws SchedulerException {
-		Thread thread = new Thread(
-				new TemporaryWorkerThread(
-						this,
-						m_scheduler.takeJob(job)), "Temporary Scheduler Worker Thread");
-		thread.start();
+		executeJob(m_scheduler.takeJob(job));
 	}
 }
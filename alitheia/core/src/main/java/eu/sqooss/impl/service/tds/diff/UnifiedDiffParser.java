@@ -35,6 +35,7 @@ package eu.sqooss.impl.service.tds.diff;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -43,51 +44,75 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffChunk;
+import eu.sqooss.service.tds.DiffHandler;
 import eu.sqooss.service.tds.Revision;
 import eu.sqooss.service.tds.DiffChunk.DiffOp;
 import eu.sqooss.service.util.FileUtils;
 
 /**
  * An implementation of the Diff interface, for the unified diff format.
+ * 
+ * The diff is parsed in a single pass, one line at a time; lines are 
+ * classified by their first characters. Inside a chunk, the line counts 
+ * in the chunk header tell content lines that look like file headers
+ * (a removed line starting with "-- ") from real file headers. The diff 
+ * can be read from a {@link Reader} or pushed a line at a time with 
+ * {@link #parseLine(String)}, so that it never has to be held in memory
+ * as a whole.
+ * 
+ * If a {@link DiffHandler} is provided, chunks are passed to it as they
+ * are parsed and are not stored; {@link #getDiffChunks()} then maps each
+ * changed path to an empty list.
  *  
  * @author Georgios Gousios - <gousiosg@gmail.com>
  * @see {@link http://en.wikipedia.org/wiki/Diff#Unified_format}
  *
  */
 public class UnifiedDiffParser implements Diff {
-	/* 
-	 * Most patterns copied verbatim from Perl unified diff parser implementation:
-	 * http://search.cpan.org/~nikc/SVN-Web-0.53/lib/SVN/Web/Diff.pm
-	 */
-	private static String diffChunkStart = "^\\@\\@ -(\\d+)(,\\d+)?\\s*[+](\\d+)(,\\d+)? \\@\\@$";
-	private static String propChunkStart = "^Property.*:\\s*(.*)$";
-	private static String chunkFileSource = "^\\-\\-\\- ([^\\s]+)\\s+(.+)$";
-	private static String chunkFileTarget = "^\\+\\+\\+ ([^\\s]+)\\s+(.+)$";
-	private static String index = "^Index:\\s?(.*)$";
-	private static String eqs = "^=*";
 	
 	private Revision revStart,revEnd;
 	private String theDiff;
+	private Reader reader;
 	private String basePath;
 	private Set<String> changedPaths;
 	private Map<String, List<DiffChunk>> diffChunks;
+	private DiffHandler handler;
     private String error = "";
 	private boolean parsed = false;
 	
+	/* Parser state */
+	private boolean diffStart = false, chnkStart = false;
+	private StringBuilder curChunkText = null;
+	private String curPath = null;
+	private DiffChunkImpl curChunk = null;
+	private List<DiffChunk> curChunkList = null;
+	/* Lines of the current chunk not seen yet, per side */
+	private int srcLeft = 0, tgtLeft = 0;
+	
     public UnifiedDiffParser(Revision start, Revision end, 
     		String basePath, String diff) {
+        this(start, end, basePath, (Reader) null, null);
+        theDiff = diff;
+    }
+    
+    /**
+     * Create a parser for a diff read from <code>diff</code>, or pushed 
+     * with {@link #parseLine(String)} if <code>diff</code> is null. 
+     * Chunks are passed to <code>handler</code>, if it is not null.
+     */
+    public UnifiedDiffParser(Revision start, Revision end, 
+            String basePath, Reader diff, DiffHandler handler) {
         revStart = start;
         if (end!=null) {
             revEnd = end;
         } 
         
-        theDiff = diff;
+        reader = diff;
         this.basePath = basePath;
+        this.handler = handler;
         changedPaths = new HashSet<String>();
         diffChunks = new HashMap<String, List<DiffChunk>>();
         this.parsed = false;
@@ -131,148 +156,180 @@ public class UnifiedDiffParser implements Diff {
 		if (parsed)
 			return true;
 		
-		Pattern chunkStart = Pattern.compile(diffChunkStart);
-		Pattern propChunk = Pattern.compile(propChunkStart);
-		Pattern fileTarget = Pattern.compile(chunkFileTarget);
-		Pattern fileSource = Pattern.compile(chunkFileSource);
-		Pattern idx = Pattern.compile(index);
-		Pattern equals = Pattern.compile(eqs);
-		
-		Matcher m = null;
+		BufferedReader r;
+		if (reader != null) {
+			r = new BufferedReader(reader);
+		} else if (theDiff != null) {
+			r = new BufferedReader(new StringReader(theDiff));
+		} else {
+			error = "No diff to parse";
+			return false;
+		}
 		
-		BufferedReader r = new BufferedReader(new StringReader(theDiff));
 		String line;
-		
-		boolean diffStart = false, chnkStart = false;
-		StringBuffer curChunkText = null;
-		String curPath = null;
-		DiffChunkImpl curChunk = null;
-		List<DiffChunk> curChunkList = null;
 		try {
 			while ((line = r.readLine()) != null) {
-				/*
-				 * Skip SVN introduced lines like
-				 * Index: specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
-				 * ===========================================================
-				 */
-				if (idx.matcher(line).matches() || 
-						equals.matcher(line).matches()) {
-					continue;
-				}
-				
-				/* Match lines like
-				 * --- specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
-				 * 
-				 * 
-				 * and record file name. Match either of those 2 lines
-				 * signifies start of parsing chunks
-				 */
-				if (fileSource.matcher(line).matches()) {
-					//New group found
-					if (diffStart == true && 
-							curChunkList.size() != 0) {
-						diffChunks.put(curPath, curChunkList);
-					}
-					
-					m = fileSource.matcher(line);
-					m.matches();
-					curPath = FileUtils.appendPath(basePath, m.group(1));
-					changedPaths.add(curPath);
-					curChunkList = new ArrayList<DiffChunk>();
-					diffStart = true;
-					continue;
-				}
-				/* those lines are not really interesting
-				 * +++ specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
-				 */
-				if (fileTarget.matcher(line).matches()) {
-					continue;
-				}
-				
-				/*
-				 * Match a chunk describing a property change 
-				 * (this is SVN specific code)
-				 *  Property changes on: ProjectFile.java
-				 */
-				if (propChunk.matcher(line).matches()) {
-					/* Match */
-					if (chnkStart == true) {
-						curChunk.setChunk(curChunkText.toString());
-						curChunkList.add(curChunk);
-					}
-					
-					chnkStart = true;
-					curChunk = new DiffChunkImpl();
-					curChunk.setDiffOp(DiffOp.UNDEF);
-					curChunkText = new StringBuffer();
-					
-					/* If the property change is the only thing
-					 * appearing in the diff, we need to start 
-					 * parsing and init some variables first. 
-					 */
-					if (!diffStart) {
-						curChunkList = new ArrayList<DiffChunk>();
-						diffStart = true;
-						m = propChunk.matcher(line);
-						m.matches();
-						curPath = FileUtils.appendPath(basePath, m.group(1));
-						changedPaths.add(curPath);
-					}
-				}
-				
-				if (!diffStart) {
-					error = "Not a chunk header: " + line;
+				if (!parseLine(line))
 					return false;
-				}
-				
-				
-				
-				/* Match chunk start lines like
-				 * @@ -111,10 +111,10 @@ or
-				 * @@ -1 +1 @@
-				 */
-				if (chunkStart.matcher(line).matches()) {
-					
-					if (chnkStart == true) {
-						curChunk.setChunk(curChunkText.toString());
-						curChunkList.add(curChunk);
-					}
-					
-					chnkStart = true;
-					curChunk = new DiffChunkImpl();
-					m = chunkStart.matcher(line);
-					//We already know that it matches, just trigger the group extraction
-					m.matches(); 
-					
-					//Unified diffs do not support this
-					curChunk.setDiffOp(DiffOp.UNDEF);
-					curChunk.setPath(curPath);					
-					curChunk.setSourceStartLine(Integer.parseInt(m.group(1)));
-					if (m.group(2) != null) {
-						curChunk.setSourceLenght(Integer.parseInt(m.group(2).substring(1)));
-					} else {
-						curChunk.setSourceLenght(0);
-					}
-					curChunk.setTargetStartLine(Integer.parseInt(m.group(3)));
-					if (m.group(4) != null) {
-						curChunk.setTargetLength(Integer.parseInt(m.group(4).substring(1)));
-					} else {
-						curChunk.setTargetLength(0);
-					}
-					curChunkText = new StringBuffer();
-					continue;
-				}
-				
-				curChunkText.append(line).append("\n");
 			}
 		} catch (IOException e) {
 			error = "Error reading diff file";
 			return false;
 		}
+		
+		return finish();
+	}
+	
+	/**
+	 * Parse the next line of the diff, without the line terminator.
+	 * Returns false and sets the error message if the line is not valid
+	 * at this point of the diff.
+	 */
+	public boolean parseLine(String line) {
+		int len = line.length();
+		char c = (len == 0) ? 0 : line.charAt(0);
+		
+		/*
+		 * Content lines of a chunk, which may look like headers. Empty 
+		 * lines are context lines that lost their leading space; they 
+		 * are counted but skipped.
+		 */
+		if (srcLeft > 0 || tgtLeft > 0) {
+			switch (c) {
+			case 0:
+				srcLeft--;
+				tgtLeft--;
+				return true;
+			case ' ':
+				srcLeft--;
+				tgtLeft--;
+				curChunkText.append(line).append('\n');
+				return true;
+			case '-':
+				srcLeft--;
+				curChunkText.append(line).append('\n');
+				return true;
+			case '+':
+				tgtLeft--;
+				curChunkText.append(line).append('\n');
+				return true;
+			case '\\':
+				curChunkText.append(line).append('\n');
+				return true;
+			default:
+				//Chunk shorter than its header says, parse as usual
+				srcLeft = tgtLeft = 0;
+			}
+		}
+		
+		/*
+		 * Skip SVN introduced lines like
+		 * Index: specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+		 * ===========================================================
+		 * and empty lines
+		 */
+		if (c == 0 || (c == 'I' && line.startsWith("Index:")) 
+				|| (c == '=' && isAll(line, '='))) {
+			return true;
+		}
+		
+		/* Match lines like
+		 * --- specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+		 * 
+		 * 
+		 * and record file name. Match either of those 2 lines
+		 * signifies start of parsing chunks
+		 */
+		if (c == '-' && line.startsWith("--- ")) {
+			String path = fileName(line);
+			if (path != null) {
+				//New group found, the last chunk belongs to the previous file
+				endChunk();
+				if (diffStart == true && 
+						(curChunkList.size() != 0 || handler != null)) {
+					diffChunks.put(curPath, curChunkList);
+				}
+				
+				curPath = FileUtils.appendPath(basePath, path);
+				changedPaths.add(curPath);
+				curChunkList = new ArrayList<DiffChunk>();
+				diffStart = true;
+				if (handler != null)
+					handler.startFile(curPath);
+				return true;
+			}
+		}
+		
+		/* those lines are not really interesting
+		 * +++ specs/src/eu/sqooss/impl/service/dsl/SpRevision.java
+		 */
+		if (c == '+' && line.startsWith("+++ ") && fileName(line) != null) {
+			return true;
+		}
+		
+		/*
+		 * Match a chunk describing a property change 
+		 * (this is SVN specific code)
+		 *  Property changes on: ProjectFile.java
+		 */
+		int colon;
+		if (c == 'P' && line.startsWith("Property") 
+				&& (colon = line.lastIndexOf(':')) >= 0) {
+			endChunk();
+			
+			chnkStart = true;
+			curChunk = new DiffChunkImpl();
+			curChunk.setDiffOp(DiffOp.UNDEF);
+			curChunkText = new StringBuilder();
+			
+			/* If the property change is the only thing
+			 * appearing in the diff, we need to start 
+			 * parsing and init some variables first. 
+			 */
+			if (!diffStart) {
+				curChunkList = new ArrayList<DiffChunk>();
+				diffStart = true;
+				curPath = FileUtils.appendPath(basePath, 
+						line.substring(colon + 1).trim());
+				changedPaths.add(curPath);
+				if (handler != null)
+					handler.startFile(curPath);
+			}
+			
+			//The property line is part of the chunk text
+			curChunkText.append(line).append('\n');
+			return true;
+		}
+		
+		if (!diffStart) {
+			error = "Not a chunk header: " + line;
+			return false;
+		}
+		
+		/* Match chunk start lines like
+		 * @@ -111,10 +111,10 @@ or
+		 * @@ -1 +1 @@
+		 */
+		if (c == '@' && chunkHeader(line)) {
+			return true;
+		}
+		
+		curChunkText.append(line).append('\n');
+		return true;
+	}
+	
+	/**
+	 * Signal the end of a diff pushed with {@link #parseLine(String)}.
+	 */
+	public boolean finish() {
+		if (parsed)
+			return true;
+		
 		//Clean up
 		if (curChunk != null) { 
-			curChunk.setChunk(curChunkText.toString());
-			curChunkList.add(curChunk);
+			endChunk();
+			diffChunks.put(curPath, curChunkList);
+		} else if (curChunkList != null && curChunkList.size() != 0) {
 			diffChunks.put(curPath, curChunkList);
 		} else {
 			//This means that the actual diff was empty
@@ -282,10 +339,114 @@ public class UnifiedDiffParser implements Diff {
 		
 		//Don't hold up space now that the diff is parsed
 		theDiff = null;
+		reader = null;
+		curChunkText = null;
 		parsed = true;
 		return true;
 	}
+	
+	/* Store the chunk being parsed, if any */
+	private void endChunk() {
+		if (chnkStart == true) {
+			curChunk.setChunk(curChunkText.toString());
+			if (handler == null)
+				curChunkList.add(curChunk);
+			else
+				handler.chunk(curChunk);
+			chnkStart = false;
+			curChunk = null;
+		}
+	}
+	
+	/*
+	 * Parse a chunk header, @@ -a[,b] +c[,d] @@, optionally followed
+	 * by a section heading. Returns false if the line is not a header. 
+	 */
+	private boolean chunkHeader(String line) {
+		if (!line.startsWith("@@ -")) 
+			return false;
+		int len = line.length();
+		int[] pos = {4};
+		int srcStart = number(line, pos);
+		if (srcStart < 0)
+			return false;
+		int srcLen = -1;
+		if (pos[0] < len && line.charAt(pos[0]) == ',') {
+			pos[0]++;
+			srcLen = number(line, pos);
+			if (srcLen < 0)
+				return false;
+		}
+		while (pos[0] < len && Character.isWhitespace(line.charAt(pos[0])))
+			pos[0]++;
+		if (pos[0] >= len || line.charAt(pos[0]) != '+')
+			return false;
+		pos[0]++;
+		int tgtStart = number(line, pos);
+		if (tgtStart < 0)
+			return false;
+		int tgtLen = -1;
+		if (pos[0] < len && line.charAt(pos[0]) == ',') {
+			pos[0]++;
+			tgtLen = number(line, pos);
+			if (tgtLen < 0)
+				return false;
+		}
+		if (!line.startsWith(" @@", pos[0]))
+			return false;
+		
+		endChunk();
+		chnkStart = true;
+		curChunk = new DiffChunkImpl();
+		//Unified diffs do not support this
+		curChunk.setDiffOp(DiffOp.UNDEF);
+		curChunk.setPath(curPath);
+		curChunk.setSourceStartLine(srcStart);
+		curChunk.setSourceLenght(srcLen < 0 ? 0 : srcLen);
+		curChunk.setTargetStartLine(tgtStart);
+		curChunk.setTargetLength(tgtLen < 0 ? 0 : tgtLen);
+		curChunkText = new StringBuilder();
+		
+		//A missing length means one line
+		srcLeft = (srcLen < 0) ? 1 : srcLen;
+		tgtLeft = (tgtLen < 0) ? 1 : tgtLen;
+		return true;
+	}
+	
+	/* Parse a decimal number at pos[0], advancing it, or return -1 */
+	private static int number(String line, int[] pos) {
+		int i = pos[0], n = 0;
+		while (i < line.length() && line.charAt(i) >= '0' 
+				&& line.charAt(i) <= '9') {
+			n = n * 10 + (line.charAt(i) - '0');
+			i++;
+		}
+		if (i == pos[0])
+			return -1;
+		pos[0] = i;
+		return n;
+	}
+	
+	/*
+	 * The file name in a --- or +++ line: the text up to the first
+	 * whitespace after the marker, which must be followed by more text.
+	 */
+	private static String fileName(String line) {
+		int len = line.length();
+		int i = 4;
+		while (i < len && !Character.isWhitespace(line.charAt(i)))
+			i++;
+		if (i == 4 || len - i < 2)
+			return null;
+		return line.substring(4, i);
+	}
+	
+	private static boolean isAll(String line, char c) {
+		for (int i = 0; i < line.length(); i++)
+			if (line.charAt(i) != c)
+				return false;
+		return true;
+	}
 }
 
 // vi: ai nosi sw=4 ts=4 expandtab
-
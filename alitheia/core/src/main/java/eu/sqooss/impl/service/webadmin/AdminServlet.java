@@ -136,6 +136,7 @@ public class AdminServlet extends HttpServlet {
         dynamicContentMap.put("/users", "users.html");
         dynamicContentMap.put("/rules", "rules.html");
         dynamicContentMap.put("/jobstat", "jobstat.html");
+        dynamicContentMap.put("/cache", "cache.html");
 
         // Now the dynamic substitutions and renderer
         vc = new VelocityContext();
@@ -33,6 +33,8 @@
 
 package eu.sqooss.impl.service.webadmin;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -40,6 +42,9 @@ import java.util.List;
 import org.apache.velocity.VelocityContext;
 import org.osgi.framework.BundleContext;
 
+import eu.sqooss.impl.service.db.RegionCache;
+import eu.sqooss.impl.service.db.RegionCacheFactory;
+import eu.sqooss.service.db.ConnectionPoolStats;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.util.StringUtils;
 
@@ -180,6 +185,109 @@ public class WebAdminRenderer  extends AbstractView {
         return result.toString();
     }
 
+    /**
+     * Creates an HTML table with the hit rates of the database cache regions
+     *
+     * @return a String representing the HTML table
+     */
+    public static String renderCacheStats() {
+        StringBuilder result = new StringBuilder();
+        List<RegionCache> regions = RegionCacheFactory.getRegions();
+        Collections.sort(regions, new Comparator<RegionCache>() {
+            public int compare(RegionCache a, RegionCache b) {
+                return a.getRegionName().compareTo(b.getRegionName());
+            }
+        });
+        
+        result.append("<table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n");
+        result.append("\t<thead>\n");
+        result.append("\t\t<tr>\n");
+        result.append("\t\t\t<td>Region</td>\n");
+        result.append("\t\t\t<td>Entries</td>\n");
+        result.append("\t\t\t<td>Max entries</td>\n");
+        result.append("\t\t\t<td>Hits</td>\n");
+        result.append("\t\t\t<td>Misses</td>\n");
+        result.append("\t\t\t<td>Hit rate</td>\n");
+        result.append("\t\t\t<td>Evictions</td>\n");
+        result.append("\t\t</tr>\n");
+        result.append("\t</thead>\n");
+        result.append("\t<tbody>\n");
+
+        if (regions.isEmpty()) {
+            result.append("<tr><td colspan=\"7\">Caching is disabled.</td></tr>");
+        }
+        for (RegionCache c : regions) {
+            result.append("\t\t<tr>\n\t\t\t<td>");
+            result.append(c.getRegionName());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(c.getElementCountInMemory());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(c.getMaxEntries() > 0 ? String.valueOf(c.getMaxEntries()) : "-");
+            result.append("</td>\n\t\t\t<td>");
+            result.append(c.getHits());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(c.getMisses());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(String.format("%.1f%%", c.getHitRate() * 100));
+            result.append("</td>\n\t\t\t<td>");
+            result.append(c.getEvictions());
+            result.append("</td>\n\t\t</tr>");
+        }
+        result.append("\t</tbody>\n");
+        result.append("</table>");
+        return result.toString();
+    }
+
+    /**
+     * Creates an HTML table with the state of the database connection pool
+     *
+     * @return a String representing the HTML table
+     */
+    public static String renderConnectionPoolStats() {
+        StringBuilder result = new StringBuilder();
+        ConnectionPoolStats stats = sobjDB.getConnectionPoolStats();
+
+        result.append("<table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\">\n");
+        result.append("\t<thead>\n");
+        result.append("\t\t<tr>\n");
+        result.append("\t\t\t<td>Connections</td>\n");
+        result.append("\t\t\t<td>Busy</td>\n");
+        result.append("\t\t\t<td>Idle</td>\n");
+        result.append("\t\t\t<td>Min/Max</td>\n");
+        result.append("\t\t\t<td>Waiting threads</td>\n");
+        result.append("\t\t\t<td>Cached statements</td>\n");
+        result.append("\t\t\t<td>Failed checkouts</td>\n");
+        result.append("\t\t\t<td>Failed tests</td>\n");
+        result.append("\t\t</tr>\n");
+        result.append("\t</thead>\n");
+        result.append("\t<tbody>\n");
+
+        if (stats == null) {
+            result.append("<tr><td colspan=\"8\">No connection pool statistics available.</td></tr>");
+        } else {
+            result.append("\t\t<tr>\n\t\t\t<td>");
+            result.append(stats.getConnections());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getBusy());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getIdle());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getMinSize() + "/" + stats.getMaxSize());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getWaiting());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getStatements());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getFailedCheckouts());
+            result.append("</td>\n\t\t\t<td>");
+            result.append(stats.getFailedTests());
+            result.append("</td>\n\t\t</tr>");
+        }
+        result.append("\t</tbody>\n");
+        result.append("</table>");
+        return result.toString();
+    }
+
     /**
      * Creates an HTML unordered list displaying the contents of the current system log
      *
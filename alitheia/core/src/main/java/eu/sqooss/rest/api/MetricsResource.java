@@ -48,6 +48,7 @@ import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.MetricType;
 import eu.sqooss.service.db.MetricType.Type;
+import eu.sqooss.service.util.LongHashMap;
 
 /**
  *  @author Georgios Gousios <gousiosg@gmail.com>
@@ -56,6 +57,9 @@ import eu.sqooss.service.db.MetricType.Type;
 @Path("/api")
 public class MetricsResource {
 
+    /** Maximum number of resources whose results can be requested at once */
+    private static final int MAX_RESOURCE_IDS = 1024;
+
 	public MetricsResource() {}
 
 	@GET
@@ -109,7 +113,7 @@ public class MetricsResource {
             } catch (NumberFormatException nfe) {}
             
             count++;
-            if (count >=64) {
+            if (count >= MAX_RESOURCE_IDS) {
                 break;
             }
         }
@@ -127,20 +131,23 @@ public class MetricsResource {
         if (clazz == null)
             return Collections.EMPTY_LIST;
         
+        long[] idList = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids)
+            idList[i++] = id;
+
         List<Result> result = new ArrayList<Result>();
         
-        for (Long daoId : ids) {
-            try {
-                DAObject dao = DAObject.loadDAObyId(daoId, clazz);
-                
-                if (dao == null)
-                    continue;
-                
-                List<Result> r = ap.getResultIfAlreadyCalculated(dao, metricList);
-                result.addAll(r);
-            } catch (Exception e) {
-                e.printStackTrace();
+        try {
+            /* All results with one query instead of one per resource */
+            LongHashMap<List<Result>> r = 
+                ap.getResultsIfAlreadyCalculated(clazz, idList, metricList);
+            for (long id : idList) {
+                if (r.containsKey(id))
+                    result.addAll(r.get(id));
             }
+        } catch (Exception e) {
+            e.printStackTrace();
         }
         
         if (result.isEmpty())
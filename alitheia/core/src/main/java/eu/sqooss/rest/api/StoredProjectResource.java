@@ -39,10 +39,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.StreamingOutput;
 
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.DAObject;
@@ -52,6 +55,7 @@ import eu.sqooss.service.db.Metric;
 import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.rest.NDJSONOutput;
 
 @Path("/api")
 public class StoredProjectResource {
@@ -81,13 +85,44 @@ public class StoredProjectResource {
 		return sp;
 	}
 	
+	/**
+	 * Get the project versions ordered by sequence. The results can be 
+	 * paged using the <code>after</code> and <code>limit</code> query 
+	 * parameters: to get the next page, pass the sequence of the last 
+	 * version returned as <code>after</code>.
+	 */
 	@Path("/project/{id}/versions")
 	@GET
 	@Produces({"application/xml", "application/json"})
-	public List<ProjectVersion> getAllVersions(@PathParam("id") Long id) {
+	public List<ProjectVersion> getAllVersions(@PathParam("id") Long id,
+			@QueryParam("after") @DefaultValue("-1") long after,
+			@QueryParam("limit") @DefaultValue("0") int limit) {
 		StoredProject sp = DAObject.loadDAObyId(id, StoredProject.class);
 	
-		return sp.getProjectVersions();
+		if (sp == null)
+			return Collections.EMPTY_LIST;
+		
+		return ProjectVersion.getVersions(sp, after, limit);
+	}
+	
+	/**
+	 * Stream the project versions, ordered by sequence, as newline 
+	 * delimited JSON.
+	 * 
+	 * @see #getAllVersions(Long, long, int)
+	 */
+	@Path("/stream/project/{id}/versions")
+	@GET
+	@Produces(NDJSONOutput.MEDIA_TYPE)
+	public StreamingOutput streamVersions(@PathParam("id") Long id,
+			@QueryParam("after") @DefaultValue("-1") long after,
+			@QueryParam("limit") @DefaultValue("0") int limit) {
+		StoredProject sp = DAObject.loadDAObyId(id, StoredProject.class);
+		
+		if (sp == null)
+			return new NDJSONOutput(null, 0);
+		
+		return new NDJSONOutput(ProjectVersion.scrollVersions(sp, after), limit);
 	}
 	
 	@Path("/project/{id}/versions/{vid: .+}")
@@ -138,17 +173,48 @@ public class StoredProjectResource {
 		return ProjectVersion.getVersionByRevision(getProject(prid), verid);
 	}
 
+	/**
+	 * Get the files that are live in a version, ordered by id. The 
+	 * results can be paged using the <code>after</code> and 
+	 * <code>limit</code> query parameters: to get the next page, pass the
+	 * id of the last file returned as <code>after</code>.
+	 */
 	@Path("/project/{id}/version/{vid}/files/")
     @GET
     @Produces({"application/xml", "application/json"})
     public List<ProjectFile> getAllFiles(@PathParam("id") String prid,
-            @PathParam("vid") String verid) {
+            @PathParam("vid") String verid,
+            @QueryParam("after") @DefaultValue("0") long after,
+            @QueryParam("limit") @DefaultValue("0") int limit) {
         
 	    ProjectVersion pv = getVersion(prid, verid);
 	    if (pv == null)
 	        return Collections.EMPTY_LIST;
 	        
-        return pv.getFiles((Directory)null, ProjectVersion.MASK_FILES);
+        return pv.getFiles((Directory)null, ProjectVersion.MASK_FILES, 
+                after, limit);
+    }
+
+	/**
+	 * Stream the files that are live in a version, ordered by id, as 
+	 * newline delimited JSON.
+	 * 
+	 * @see #getAllFiles(String, String, long, int)
+	 */
+	@Path("/stream/project/{id}/version/{vid}/files")
+    @GET
+    @Produces(NDJSONOutput.MEDIA_TYPE)
+    public StreamingOutput streamFiles(@PathParam("id") String prid,
+            @PathParam("vid") String verid,
+            @QueryParam("after") @DefaultValue("0") long after,
+            @QueryParam("limit") @DefaultValue("0") int limit) {
+        
+        ProjectVersion pv = getVersion(prid, verid);
+        if (pv == null)
+            return new NDJSONOutput(null, 0);
+        
+        return new NDJSONOutput(pv.scrollFiles((Directory)null, 
+                ProjectVersion.MASK_FILES, after), limit);
     }
 
 	@Path("/project/{id}/version/{vid}/files/{dir: .+}")
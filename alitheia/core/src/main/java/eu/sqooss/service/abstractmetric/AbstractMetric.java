@@ -39,7 +39,9 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -48,7 +50,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
@@ -79,6 +80,8 @@ import eu.sqooss.service.metricactivator.MetricActivator;
 import eu.sqooss.service.pa.PluginAdmin;
 import eu.sqooss.service.pa.PluginInfo;
 import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.util.LongBitmapSet;
+import eu.sqooss.service.util.LongHashMap;
 import eu.sqooss.service.util.Pair;
 
 /**
@@ -126,92 +129,105 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
     private Map<Metric, List<Class<? extends DAObject>>> metricActType =
     	new HashMap<Metric, List<Class<? extends DAObject>>>();
     
-    protected static final String QRY_SYNC_PV = "select pv.id from ProjectVersion pv " +
-    		"where pv.project = :project and not exists(" +
-    		"	select pvm.projectVersion from ProjectVersionMeasurement pvm " +
-    		"	where pvm.projectVersion.id = pv.id and pvm.metric.id = :metric) " +
-    		"order by pv.sequence asc";
+    /*
+     * Queries that compute the objects that have no measurement for a metric.
+     * They are written as anti-joins (left join on the measurements, keep 
+     * the rows without a match) instead of correlated NOT EXISTS subqueries.
+     * Queries for objects bound to a project version are restricted to 
+     * a window of version sequence numbers (:from, :to], so that the 
+     * result can be retrieved in pages.
+     */
+    protected static final String QRY_SYNC_PV = "select pv.id " +
+            "from ProjectVersion pv " +
+            "left join pv.measurements pvm with pvm.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
+            "and pvm.id is null " +
+            "order by pv.sequence asc";
     
     protected static final String QRY_SYNC_PF = "select pf.id " +
-    		"from ProjectVersion pv, ProjectFile pf " +
-    		"where pf.projectVersion=pv and pv.project = :project " +
-    		"and not exists (" +
-    		"	select pfm.projectFile " +
-    		"	from ProjectFileMeasurement pfm " +
-    		"	where pfm.projectFile.id = pf.id " +
-    		"	and pfm.metric.id = :metric) " +
-    		"	and pf.isDirectory = false)  " +
-    		"order by pv.sequence asc";
+            "from ProjectFile pf join pf.projectVersion pv " +
+            "left join pf.measurements pfm with pfm.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
+            "and pf.isDirectory = false " +
+            "and pfm.id is null " +
+            "order by pv.sequence asc";
     
     protected static final String QRY_SYNC_PD = "select pf.id " +
-		"from ProjectVersion pv, ProjectFile pf " +
-		"where pf.projectVersion=pv and pv.project = :project " +
-		"and not exists (" +
-		"	select pfm.projectFile " +
-		"	from ProjectFileMeasurement pfm " +
-		"	where pfm.projectFile.id = pf.id " +
-		"	and pfm.metric.id = :metric) " +
-		"	and pf.isDirectory = true)  " +
-		"order by pv.sequence asc";
+            "from ProjectFile pf join pf.projectVersion pv " +
+            "left join pf.measurements pfm with pfm.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
+            "and pf.isDirectory = true " +
+            "and pfm.id is null " +
+            "order by pv.sequence asc";
     
     protected static final String QRY_SYNC_MM = "select mm.id " +
-    		"from MailMessage mm " +
-    		"where mm.list.storedProject = :project " +
-    		"and mm.id not in (" +
-    		"	select mmm.mail.id " +
-    		"	from MailMessageMeasurement mmm " +
-    		"	where mmm.metric.id =:metric and mmm.mail.id = mm.id))";
+            "from MailMessage mm " +
+            "left join mm.measurements mmm with mmm.metric.id = :metric " +
+            "where mm.list.storedProject = :project " +
+            "and mmm.id is null";
     
     protected static final String QRY_SYNC_MT = "select mlt.id " +
-    		"from MailingListThread mlt " +
-    		"where mlt.list.storedProject = :project " +
-    		"and mlt.id not in (" +
-    		"	select mltm.thread.id " +
-    		"	from MailingListThreadMeasurement mltm " +
-    		"	where mltm.metric.id =:metric and mltm.thread.id = mlt.id)";
+            "from MailingListThread mlt " +
+            "left join mlt.measurements mltm with mltm.metric.id = :metric " +
+            "where mlt.list.storedProject = :project " +
+            "and mltm.id is null";
     
     protected static final String QRY_SYNC_DEV = "select d.id " +
     		"from Developer d " +
     		"where d.storedProject = :project";
     
     protected static final String QRY_SYNC_NS = "select ns.id " +
-            "from NameSpace ns, ProjectVersion pv " +
-            "where pv = ns.changeVersion " +
-            "and pv.project = :project " +
-            "and not exists ( " +
-            "   select nsm " + 
-            "   from NameSpaceMeasurement nsm " + 
-            "   where nsm.metric.id = :metric " +
-            "   and nsm.namespace = ns) " +
+            "from NameSpace ns join ns.changeVersion pv " +
+            "left join ns.measurements nsm with nsm.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
+            "and nsm.id is null " +
             "order by pv.sequence asc";
     
     protected static final String QRY_SYNC_ENCUNT = "select encu.id " +
-            "from EncapsulationUnit encu, ProjectVersion pv, ProjectFile pf " +
-            " where pf.projectVersion = pv " +
-            " and encu.file = pf " +
-            "and pv.project = :project " +
-            "and not exists ( " +
-            "    select eum " +
-            "    from EncapsulationUnitMeasurement eum " +
-            "    where eum.encapsulationUnit = encu " +
-            "    and eum.metric.id = :metric " +
-            " ) order by pv.sequence asc ";
+            "from EncapsulationUnit encu join encu.file pf " +
+            "join pf.projectVersion pv " +
+            "left join encu.measurements eum with eum.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
+            "and eum.id is null " +
+            "order by pv.sequence asc";
     
     protected static final String QRY_SYNC_EXECUNT = "select exu.id " +
-    		"from ExecutionUnit exu, EncapsulationUnit encu, " +
-    		"     ProjectVersion pv, ProjectFile pf " +
-            "where pf.projectVersion = pv " +
-            "and encu.file = pf " +
-            "and pv.project = :project " +
+            "from ExecutionUnit exu join exu.encapsulationUnit encu " +
+            "join encu.file pf join pf.projectVersion pv " +
+            "left join exu.measurements eum with eum.metric.id = :metric " +
+            "where pv.project = :project " +
+            "and pv.sequence > :from and pv.sequence <= :to " +
             "and exu.changed = true " +
-            "and exu.encapsulationUnit = encu " +
-            "and not exists ( " +
-            "    select eum  " +
-            "    from ExecutionUnitMeasurement eum " +
-            "    where eum.executionUnit = exu " +
-            "    and eum.metric.id = :metric) " +
+            "and eum.id is null " +
             "order by pv.sequence asc";
     
+    private static final String QRY_MAX_SEQUENCE = "select max(pv.sequence) " +
+            "from ProjectVersion pv " +
+            "where pv.project = :project";
+    
+    /** Number of project versions whose objects are retrieved per query */
+    private static final int SYNC_PAGE_VERSIONS = 500;
+    
+    /** 
+     * If true, only objects in project versions newer than the last 
+     * synchronisation are considered when computing the sync set.
+     */
+    private boolean incrementalSync = false;
+    
+    /** 
+     * Per project and metric, the sequence of the latest project version 
+     * up to which objects have been scheduled for synchronisation. 
+     * Only used in incremental sync mode and not persisted, so the first
+     * sync after a restart always considers all objects.
+     */
+    private Map<Pair<Long, Long>, Long> syncHighWaterMark =
+        new ConcurrentHashMap<Pair<Long, Long>, Long>();
+    
     /**
      * Init basic services common to all implementing classes
      * @param bc - The bundle context of the implementing metric - to be passed
@@ -272,6 +288,10 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 		} else {
 			log.warn("Plug-in " + getName() + " declares no metrics");
 		}
+
+		String sync = bc.getProperty("eu.sqooss.metricactivator.sync.incremental");
+		if (sync != null && Boolean.parseBoolean(sync))
+		    incrementalSync = true;
      }
 
     /**
@@ -319,6 +339,209 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 
     Map<Long,Pair<Object,Long>> blockerObjects = new ConcurrentHashMap<Long,Pair<Object,Long>>();
 
+    /**
+     * Metric id and activation type -> where the results of the metric for
+     * objects of that type are stored and their type. Filled in by 
+     * {@link #getResult(DAObject, Class, Metric, Result.ResultType)},
+     * for metrics that store their results in a measurement table.
+     */
+    private Map<String, Pair<Class<? extends MetricMeasurement>, Result.ResultType>> resultSources =
+        new ConcurrentHashMap<String, Pair<Class<? extends MetricMeasurement>, Result.ResultType>>();
+    
+    /** Whether the plug-in overrides the convenience getResult method */
+    private Boolean customGetResult = null;
+    
+    /** Maximum number of ids in a single bulk result query */
+    private static final int RESULT_QUERY_IDS = 1000;
+    
+    /**{@inheritDoc}*/
+    public LongHashMap<List<Result>> getResultsIfAlreadyCalculated(
+            Class<? extends DAObject> type, long[] ids, List<Metric> l)
+            throws MetricMismatchException {
+        LongHashMap<List<Result>> results = new LongHashMap<List<Result>>(ids.length);
+        if (ids.length == 0)
+            return results;
+
+        for (Metric m : l) {
+            if (!metrics.containsKey(m.getMnemonic())) {
+                throw new MetricMismatchException("Metric " + m.getMnemonic()
+                        + " not defined by plugin "
+                        + Plugin.getPluginByHashcode(getUniqueKey()).getName());
+            }
+        }
+        
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        Map<Class<? extends MetricMeasurement>, List<Metric>> bulk = 
+            new HashMap<Class<? extends MetricMeasurement>, List<Metric>>();
+        
+        /* Reading the measurement tables directly would bypass the override */
+        boolean bulkReads = !overridesGetResult();
+
+        for (Metric m : l) {
+            Class<? extends DAObject> actType = activationType(m, type);
+            if (actType == null) {
+                throw new MetricMismatchException("Metric " + m.getMnemonic()
+                        + " is not activated by " + type.getSimpleName());
+            }
+            String key = resultSourceKey(m, actType);
+            
+            /* 
+             * We only know where a metric stores its results after its 
+             * getResult method has been called once. Until then, get results
+             * one object at a time. 
+             */
+            int i = 0;
+            List<Metric> ml = Collections.singletonList(m);
+            LongHashMap<List<Result>> probed = new LongHashMap<List<Result>>(); 
+            while ((!bulkReads || !resultSources.containsKey(key)) 
+                    && i < ids.length) {
+                DAObject o = dbs.findObjectById(type, ids[i++]);
+                if (o == null)
+                    continue;
+                List<Result> r = getResultIfAlreadyCalculated(o, ml);
+                if (!r.isEmpty())
+                    probed.put(o.getId(), r);
+            }
+
+            Pair<Class<? extends MetricMeasurement>, Result.ResultType> source = 
+                bulkReads ? resultSources.get(key) : null;
+            if (source == null) {
+                /* Results not stored in a measurement table */
+                for (long id : probed.keys())
+                    addResults(results, id, probed.get(id));
+                continue;
+            }
+
+            List<Metric> bl = bulk.get(source.first);
+            if (bl == null) {
+                bl = new ArrayList<Metric>();
+                bulk.put(source.first, bl);
+            }
+            bl.add(m);
+        }
+        
+        for (Class<? extends MetricMeasurement> clazz : bulk.keySet()) {
+            getResults(clazz, type, ids, bulk.get(clazz), results);
+        }
+
+        /* Return results in the order of the requested metrics */
+        final Map<Long, Integer> order = new HashMap<Long, Integer>();
+        for (Metric m : l)
+            order.put(m.getId(), order.size());
+        Comparator<Result> byMetric = new Comparator<Result>() {
+            public int compare(Result a, Result b) {
+                return order.get(a.getMetricId()).compareTo(order.get(b.getMetricId()));
+            }
+        };
+        for (List<Result> r : results.values())
+            Collections.sort(r, byMetric);
+
+        return results;
+    }
+
+    /*
+     * Get the results of metrics stored in the same measurement table for
+     * all ids, with one query per RESULT_QUERY_IDS ids.
+     */
+    private void getResults(Class<? extends MetricMeasurement> clazz, 
+            Class<? extends DAObject> type, long[] ids, List<Metric> l, 
+            LongHashMap<List<Result>> results) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        String field = resultFieldNames.get(clazz);
+
+        Map<Long, Metric> byId = new HashMap<Long, Metric>();
+        for (Metric m : l)
+            byId.put(m.getId(), m);
+
+        String q = "select m." + field + ".id, m.metric.id, m.result" +
+            " from " + clazz.getSimpleName() + " m" +
+            " where m." + field + ".id in (:ids)" +
+            " and m.metric.id in (:metrics)";
+        
+        for (int i = 0; i < ids.length; i += RESULT_QUERY_IDS) {
+            int end = Math.min(i + RESULT_QUERY_IDS, ids.length);
+            List<Long> block = new ArrayList<Long>(end - i);
+            for (int j = i; j < end; j++)
+                block.add(ids[j]);
+
+            Map<String, Collection> params = new HashMap<String, Collection>();
+            params.put("ids", block);
+            params.put("metrics", byId.keySet());
+
+            List<Object[]> rows = (List<Object[]>) dbs.doHQL(q, null, params);
+            for (Object[] row : rows) {
+                long id = (Long) row[0];
+                Metric m = byId.get((Long) row[1]);
+                
+                /* Like getResult, only return the first measurement */
+                List<Result> r = results.get(id);
+                boolean found = false;
+                if (r != null) {
+                    for (Result res : r) {
+                        if (res.getMetricId().equals(m.getId())) {
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+                if (found)
+                    continue;
+
+                addResults(results, id, Collections.singletonList(
+                        new Result(id, m, row[2], resultSources.get(
+                                resultSourceKey(m, activationType(m, type))).second)));
+            }
+        }
+    }
+    
+    /* The activation type of a metric that objects of a class belong to */
+    private Class<? extends DAObject> activationType(Metric m, Class<?> clazz) {
+        List<Class<? extends DAObject>> types = 
+            metricActType.get(metrics.get(m.getMnemonic()));
+        if (types == null)
+            return null;
+        for (Class<? extends DAObject> t : types) {
+            if (t.isAssignableFrom(clazz))
+                return t;
+        }
+        return null;
+    }
+    
+    private static String resultSourceKey(Metric m, Class<?> type) {
+        return m.getId() + ":" + type.getName();
+    }
+    
+    /*
+     * Check whether a subclass overrides the convenience getResult method,
+     * in which case results cannot be read in bulk from the measurement 
+     * tables.
+     */
+    private boolean overridesGetResult() {
+        if (customGetResult == null) {
+            boolean found = false;
+            for (Class<?> c = getClass(); c != AbstractMetric.class && !found; 
+                    c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("getResult", DAObject.class, 
+                            Class.class, Metric.class, Result.ResultType.class);
+                    found = true;
+                } catch (NoSuchMethodException e) {}
+            }
+            customGetResult = found;
+        }
+        return customGetResult;
+    }
+    
+    private static void addResults(LongHashMap<List<Result>> results, long id,
+            List<Result> r) {
+        List<Result> l = results.get(id);
+        if (l == null) {
+            l = new ArrayList<Result>();
+            results.put(id, l);
+        }
+        l.addAll(r);
+    }
+
     /**
      * Call the appropriate getResult() method according to
      * the type of the entity that is measured.
@@ -557,11 +780,11 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 
     /** {@inheritDoc} */
     public List<Metric> getAllSupportedMetrics() {
-        String qry = "from Metric m where m.plugin=:plugin";
         Map<String,Object> params = new HashMap<String,Object>();
         params.put("plugin", Plugin.getPluginByHashcode(getUniqueKey()));
         
-        return (List<Metric>)db.doHQL(qry, params);
+        /* Goes through the query cache, as Metric is a cached entity */
+        return db.findObjectsByProperties(Metric.class, params);
     }
     
     /** {@inheritDoc} */
@@ -847,6 +1070,11 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         DBService dbs = AlitheiaCore.getInstance().getDBService();
         Map<String, Object> props = new HashMap<String, Object>();
         
+        Class<? extends DAObject> actType = activationType(m, o.getClass());
+        if (actType != null && !resultSources.containsKey(resultSourceKey(m, actType)))
+            resultSources.put(resultSourceKey(m, actType), 
+                new Pair<Class<? extends MetricMeasurement>, Result.ResultType>(clazz, type));
+        
         props.put(resultFieldNames.get(clazz), o);
         props.put("metric", m);
         List resultat = dbs.findObjectsByProperties(clazz, props);
@@ -889,6 +1117,16 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
         return dependencies;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned sets are {@link LongBitmapSet}s. For activation types
+     * bound to project versions, the object ids are retrieved in pages 
+     * of {@link #SYNC_PAGE_VERSIONS} versions. In incremental sync mode
+     * (<tt>eu.sqooss.metricactivator.sync.incremental</tt>), only versions
+     * newer than the ones examined in the previous invocation are 
+     * considered. 
+     */
     @Override
     public Map<MetricType.Type, SortedSet<Long>> getObjectIdsToSync(StoredProject sp, Metric m) 
     throws MetricActivationException {
@@ -897,12 +1135,24 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
     	
         Map<String, Object> params = new HashMap<String, Object>();
         params.put("project", sp);
+        
+        List<?> maxSeq = db.doHQL(QRY_MAX_SEQUENCE, params);
+        long to = (maxSeq.isEmpty() || maxSeq.get(0) == null) ? 
+                -1 : ((Number) maxSeq.get(0)).longValue();
+        
+        Pair<Long, Long> key = new Pair<Long, Long>(sp.getId(), m.getId());
+        long from = -1;
+        if (incrementalSync && syncHighWaterMark.containsKey(key))
+            from = syncHighWaterMark.get(key);
+        
         params.put("metric", m.getId());
 
     	String q = null;
+    	boolean paged = false;
     	
     	for (Class<? extends DAObject> at : getMetricActivationTypes(m)) {
-    	
+    	    paged = true;
+    	    
 	    	if (MetricType.fromActivator(at) == Type.PROJECT_VERSION) {
 	    		q = QRY_SYNC_PV;
 	    	} else if (MetricType.fromActivator(at) == Type.SOURCE_FILE) {
@@ -913,12 +1163,15 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 	    		throw new MetricActivationException("Metric synchronisation with MAILING_LIST objects not implemented");
 	    	} else if (MetricType.fromActivator(at) == Type.MAILMESSAGE) {
 	    		q = QRY_SYNC_MM;
+	    		paged = false;
 	    	} else if (MetricType.fromActivator(at) == Type.MAILTHREAD) {
 	    		q = QRY_SYNC_MT;
+	    		paged = false;
 	    	} else if (MetricType.fromActivator(at) == Type.BUG) {
 	    		throw new MetricActivationException("Metric synchronisation with BUG objects not implemented");
 	    	} else if (MetricType.fromActivator(at) == Type.DEVELOPER) {
 	    		q = QRY_SYNC_DEV;
+	    		paged = false;
 	    	} else if (MetricType.fromActivator(at) == Type.NAMESPACE) {
                 q = QRY_SYNC_NS;
             } else if (MetricType.fromActivator(at) == Type.ENCAPSUNIT) {
@@ -929,14 +1182,32 @@ public abstract class AbstractMetric implements AlitheiaPlugin {
 	    		throw new MetricActivationException("Metric synchronisation with GENERIC objects not implemented");
 	    	}
 	    	
-	    	List<Long> objectIds = (List<Long>) db.doHQL(q, params);
-	    	TreeSet<Long> ids = new TreeSet<Long>();
-	    	ids.addAll(objectIds);
+	    	LongBitmapSet ids = new LongBitmapSet();
+	    	if (paged) {
+	    	    for (long f = from; f < to; f += SYNC_PAGE_VERSIONS) {
+	    	        params.put("from", f);
+	    	        params.put("to", Math.min(f + SYNC_PAGE_VERSIONS, to));
+	    	        addIds(ids, db.doHQL(q, params));
+	    	    }
+	    	    params.remove("from");
+	    	    params.remove("to");
+	    	} else {
+	    	    addIds(ids, db.doHQL(q, params));
+	    	}
 	    	IDs.put(MetricType.fromActivator(at), ids);
     	}
+    	
+    	if (incrementalSync)
+    	    syncHighWaterMark.put(key, to);
+    	
     	return IDs;
     }
     
+    private static void addIds(LongBitmapSet ids, List<?> result) {
+        for (Object o : result)
+            ids.add(((Number) o).longValue());
+    }
+    
     /** {@inheritDoc} */
     @Override
     public void setJob(Job j) {
@@ -46,6 +46,7 @@ import eu.sqooss.service.db.PluginConfiguration;
 import eu.sqooss.service.db.StoredProject;
 import eu.sqooss.service.metricactivator.MetricActivationException;
 import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.util.LongHashMap;
 
 /**
  * This interface defines the common metric plug-in related functionality.
@@ -149,6 +150,26 @@ public interface AlitheiaPlugin {
     List<Result> getResultIfAlreadyCalculated(DAObject o, List<Metric> l)
     	throws MetricMismatchException;
 
+    /**
+     * Get the results of a list of metrics for many objects of the same type
+     * at once, without triggering a metric recalculation for results that
+     * are not present. This is equivalent to calling 
+     * {@link #getResultIfAlreadyCalculated(DAObject, List)} for each object,
+     * but results stored in the database are fetched with one query for 
+     * all objects and metrics.
+     *
+     * @param type The type of the objects to get results for
+     * @param ids The ids of the objects to get results for
+     * @param l The metrics to get results for
+     * @return A map from object id to the results for this object. Objects
+     *          with no results are not in the map.
+     * @throws MetricMismatchException if one of the metrics is not defined 
+     *          by this plug-in or is not activated by the provided type
+     */
+    LongHashMap<List<Result>> getResultsIfAlreadyCalculated(
+            Class<? extends DAObject> type, long[] ids, List<Metric> l)
+        throws MetricMismatchException;
+
     /**
      * Get a metric result. 
      * If the result was not calculated yet, the plugin's run method is called,
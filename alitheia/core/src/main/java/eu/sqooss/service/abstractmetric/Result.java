@@ -40,6 +40,13 @@ public class Result {
         this.type = type;
     }
 
+    public Result(long artifactId, Metric m, Object result, ResultType type) {
+        this.artifactId = artifactId;
+        this.metricId = m.getId();
+        this.result = result;
+        this.type = type;
+    }
+
     public Long getArtifactId() {
         return artifactId;
     }
@@ -0,0 +1,170 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2008 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.db;
+
+import java.util.Collection;
+
+/**
+ * Writes large numbers of new records to the database in batches. Records
+ * are buffered per entity type and, when the buffer of a type fills up, 
+ * they are inserted through a Hibernate stateless session, one JDBC batch
+ * per type. Compared to {@link DBService#addRecords(java.util.List)}, 
+ * the records are not tracked by a session and are not flushed one call 
+ * at a time, which makes the writer suitable for streaming thousands of 
+ * measurements.
+ * 
+ * The writer uses its own connection and transaction, independent of the
+ * DB session of the calling thread. Records only become visible to other
+ * sessions when the writer commits, and any records they reference must
+ * have been committed before. Associations are not cascaded: only the
+ * record itself is inserted.
+ * 
+ * A writer must only be used by the thread that obtained it, and must be 
+ * closed when no longer needed. Like the DB service, the writer does not 
+ * throw exceptions; errors are logged, the current transaction is rolled 
+ * back and the method returns false.
+ * 
+ * @see DBService#getBulkWriter()
+ */
+public interface BulkWriter {
+
+    /**
+     * Notified each time a writer commits its transaction.
+     */
+    public interface CommitListener {
+
+        /**
+         * Called after the records written by the committed transaction
+         * became visible in the database.
+         * 
+         * @param writer the writer that committed
+         * @param records the number of records the transaction inserted
+         */
+        public void committed(BulkWriter writer, int records);
+    }
+
+    /**
+     * Buffer a new record. If the buffer for the record's type reaches
+     * the flush size, the buffered records of that type are written.
+     * 
+     * @param record the record to insert into the database
+     * @return false if writing the buffer failed, true otherwise
+     */
+    public boolean add(DAObject record);
+
+    /**
+     * Buffer multiple new records.
+     * 
+     * @param records the records to insert into the database
+     * @return false if writing a buffer failed, true otherwise
+     * @see #add(DAObject)
+     */
+    public <T extends DAObject> boolean addAll(Collection<T> records);
+
+    /**
+     * Write all buffered records to the database, without committing.
+     * 
+     * @return true if all the buffered records were written, false otherwise
+     */
+    public boolean flush();
+
+    /**
+     * Write all buffered records and commit the transaction, then notify
+     * the commit listener.
+     * 
+     * @return true if the records were committed, false otherwise
+     */
+    public boolean commit();
+
+    /**
+     * Discard the buffered records and roll back the records written 
+     * since the last commit.
+     * 
+     * @return true if the transaction was rolled back, false otherwise
+     */
+    public boolean rollback();
+
+    /**
+     * Commit any pending records and release the writer's connection.
+     * The writer cannot be used afterwards.
+     * 
+     * @return true if the pending records were committed, false otherwise
+     */
+    public boolean close();
+
+    /**
+     * Get the number of records buffered per entity type before they
+     * are written to the database.
+     */
+    public int getFlushSize();
+
+    /**
+     * Set the number of records buffered per entity type before they
+     * are written to the database.
+     * 
+     * @param size the flush threshold, at least 1
+     */
+    public void setFlushSize(int size);
+
+    /**
+     * Get the number of written records after which the writer commits
+     * on its own, or 0 if it only commits when asked to.
+     */
+    public int getCommitSize();
+
+    /**
+     * Set the number of written records after which the writer commits
+     * on its own. Committing periodically keeps transactions short when 
+     * writing long streams of records.
+     * 
+     * @param size the commit threshold, or 0 to only commit when 
+     *          {@link #commit()} or {@link #close()} are called
+     */
+    public void setCommitSize(int size);
+
+    /**
+     * Set the listener notified after each commit.
+     * 
+     * @param listener the listener, or null to remove it
+     */
+    public void setCommitListener(CommitListener listener);
+
+    /**
+     * Get the number of records added since the last commit, written or
+     * still buffered.
+     */
+    public int getPending();
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,114 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2008 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.db;
+
+/**
+ * A point in time snapshot of the state of the database connection pool.
+ *
+ * <dl>
+ *  <dt>connections</dt><dd>Open connections, busy or idle</dd>
+ *  <dt>busy</dt><dd>Connections checked out by a session</dd>
+ *  <dt>idle</dt><dd>Connections available for checkout</dd>
+ *  <dt>waiting</dt><dd>Threads waiting for a connection to become 
+ *  available</dd>
+ *  <dt>statements</dt><dd>Prepared statements kept in the statement 
+ *  caches of all connections</dd>
+ *  <dt>failed checkouts</dt><dd>Requests for a connection that failed or 
+ *  timed out</dd>
+ *  <dt>failed tests</dt><dd>Idle connections that failed validation</dd>
+ * </dl>
+ */
+public class ConnectionPoolStats {
+
+    private int minSize, maxSize, connections, busy, idle, waiting, statements;
+    private long failedCheckouts, failedTests;
+
+    public ConnectionPoolStats(int minSize, int maxSize, int connections, 
+            int busy, int idle, int waiting, int statements, 
+            long failedCheckouts, long failedTests) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.connections = connections;
+        this.busy = busy;
+        this.idle = idle;
+        this.waiting = waiting;
+        this.statements = statements;
+        this.failedCheckouts = failedCheckouts;
+        this.failedTests = failedTests;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public int getBusy() {
+        return busy;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getFailedCheckouts() {
+        return failedCheckouts;
+    }
+
+    public long getFailedTests() {
+        return failedTests;
+    }
+
+    @Override
+    public String toString() {
+        return "min:" + minSize + " max:" + maxSize + " connections:" 
+            + connections + " busy:" + busy + " idle:" + idle + " waiting:" 
+            + waiting + " statements:" + statements + " failed checkouts:" 
+            + failedCheckouts + " failed tests:" + failedTests;
+    }
+}
@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.hibernate.QueryException;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 
 
@@ -230,6 +231,23 @@ public interface DBService extends AlitheiaCoreService {
     public <T extends DAObject> List<T> findObjectsByPropertiesForUpdate(Class<T> daoClass,
                                                                 Map<String,Object> properties );
 
+    /**
+     * A generic query method to retrieve a list of DAObjects of a same subclass
+     * using their identifiers. The objects are loaded with as few queries as 
+     * possible, by splitting the identifiers in blocks that are queried with
+     * an <code>IN</code> clause.
+     * The order of the returned list is not related to the order of the
+     * identifiers. Identifiers that do not match any object are ignored.
+     * 
+     * @param daoClass the actual class of the DAObjects
+     * @param ids the identifiers of the objects to load
+     * @return a list of DAObjects matching the class and the identifiers,
+     *          possibly empty if no match was found in the database or if 
+     *          a database access error occured
+     */
+    public <T extends DAObject> List<T> findObjectsByIds(Class<T> daoClass,
+            Collection<Long> ids);
+
     /**
      * Add a new record to the database, including all the associations the record may contain.
      * 
@@ -262,6 +280,28 @@ public interface DBService extends AlitheiaCoreService {
      */
     public <T extends DAObject> boolean deleteRecords(List<T> records);
 
+    /**
+     * Get a writer that inserts new records in batches, in its own 
+     * transaction. Use it instead of {@link #addRecords(List)} to store 
+     * large numbers of records, such as the measurements of a metric over 
+     * a project's history. The writer does not need an active session 
+     * and must be closed by the caller.
+     * 
+     * @return a new bulk writer, or null if the service is not initialised
+     * @see BulkWriter
+     */
+    public BulkWriter getBulkWriter();
+
+    /**
+     * Get the usage statistics of the database connection pool, such as 
+     * the number of busy connections, the number of threads waiting for 
+     * a connection and the number of cached prepared statements.
+     * 
+     * @return a snapshot of the pool statistics, or null if the service 
+     *          does not use a connection pool that keeps statistics
+     */
+    public ConnectionPoolStats getConnectionPoolStats();
+
     /**
      * Attach a disconnected object to the current Session. If the corresponding
      * row exists, then the returned object will merge the persistent and 
@@ -473,6 +513,26 @@ public interface DBService extends AlitheiaCoreService {
                          )
         throws QueryException;
     
+    /**
+     * Execute a parameterized HQL query and return a forward only cursor
+     * over its results, instead of loading them all in memory. The results
+     * are read only and bypass the second level cache. Objects returned
+     * by the cursor stay in the session cache, so callers iterating over
+     * large results should periodically clear the session.
+     * The cursor must be closed before the session ends.
+     *
+     * @param hql the HQL query string
+     * @param params the map of parameters to be substituted in the HQL query
+     * @param fetchSize the number of rows to fetch from the database at
+     *        each roundtrip, or 0 to use the JDBC driver default
+     * @return a cursor over the query results, or null if no session is
+     *         active or a database access error occurs
+     *
+     * @throws QueryException if the query is invalid or if params contains invalid entries
+     */
+    public ScrollableResults scrollHQL(String hql, Map<String, Object> params,
+            int fetchSize) throws QueryException;
+
     /**
      * Executes a DML-type query. The query forms that HQL supports 
      * are the following:
@@ -55,6 +55,9 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import org.apache.commons.codec.digest.DigestUtils;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.DAObject;
 
@@ -69,6 +72,7 @@ import eu.sqooss.service.db.DAObject;
 @XmlRootElement
 @Entity
 @Table(name="DEVELOPER")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Developer extends DAObject {
 	
 	@Id
@@ -49,6 +49,8 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Index;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -62,6 +64,7 @@ import eu.sqooss.core.AlitheiaCore;
 @XmlRootElement(name="dir")
 @Entity
 @Table(name="DIRECTORY")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Directory extends DAObject {
     /**
      * Semi-fake representation of a SVN root
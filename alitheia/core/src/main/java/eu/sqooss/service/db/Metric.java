@@ -52,6 +52,9 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import eu.sqooss.core.AlitheiaCore;
 
 /**
@@ -70,6 +73,7 @@ import eu.sqooss.core.AlitheiaCore;
  */
 @Entity
 @Table(name="METRIC")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement(name="metric")
 public class Metric extends DAObject {
 
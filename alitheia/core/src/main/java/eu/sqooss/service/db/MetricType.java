@@ -48,6 +48,9 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import eu.sqooss.core.AlitheiaCore;
 
 /**
@@ -58,6 +61,7 @@ import eu.sqooss.core.AlitheiaCore;
  */
 @Entity
 @Table(name="METRIC_TYPE")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement(name="metrictype")
 public class MetricType extends DAObject {
 
@@ -78,6 +82,7 @@ public class MetricType extends DAObject {
      * A list of all metrics of this type
      */
 	@OneToMany(mappedBy="metricType", cascade = CascadeType.ALL, orphanRemoval = true)
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<Metric> metrics;
 
 	/**
@@ -48,6 +48,9 @@ import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import eu.sqooss.core.AlitheiaCore;
 
 /**
@@ -59,6 +62,7 @@ import eu.sqooss.core.AlitheiaCore;
  */
 @Entity
 @Table(name="PLUGIN")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Plugin extends DAObject {
 	
 	@Id
@@ -114,6 +118,7 @@ public class Plugin extends DAObject {
      * A list of all supported metrics for this plugin
      */
 	@OneToMany(mappedBy="plugin", cascade=CascadeType.ALL, orphanRemoval = true)
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<Metric> supportedMetrics;
     
     public long getId() {
@@ -68,12 +68,24 @@ import eu.sqooss.service.util.FileUtils;
  */
 @Entity
 @Table(name="PROJECT_FILE")
+/* Composite indexes can only be declared on the table */
+@org.hibernate.annotations.Table(appliesTo="PROJECT_FILE", indexes={
+    @Index(name="IDX_PROJECT_FILE_LIVE", 
+            columnNames={"STORED_PROJECT_ID", "VALID_FROM_SEQ", "VALID_UNTIL_SEQ"})
+})
 @XmlRootElement(name="file")
 public class ProjectFile extends DAObject{
     
     private static final String qPrevVersion = "select pf from ProjectVersion pv, ProjectFile pf where pf.projectVersion = pv.id and pv.project.id = :paramProject and pv.sequence < :paramsequence and  pf.name = :paramFile and pf.dir.id = :paramDir order by pv.sequence desc";
     private static final String qPrevVersionCopy = "select pf from ProjectVersion pv, ProjectFile pf where pf.projectVersion = pv.id and pv.project.id = :paramProject and pv.sequence < :paramsequence and ((pf.name = :paramFile and pf.dir.id = :paramDir) or ( pf.name = :paramCopyFromName and pf.dir.id = :paramCopyFromDir)) order by pv.sequence desc";
     private static final String qChangedMethods = "from ExecutionUnit eu where eu.file = :file and eu.changed = true";
+    private static final String qFillProject = "update ProjectFile pf set pf.project = :paramProject where pf.project is null and pf.projectVersion in (select pv from ProjectVersion pv where pv.project = :paramProject)";
+    private static final String qFillValidFrom = "update ProjectFile pf set pf.validFromSeq = (select pv.sequence from ProjectVersion pv where pv = pf.validFrom) where pf.project = :paramProject and pf.validFromSeq is null";
+    private static final String qFillValidUntil = "update ProjectFile pf set pf.validUntilSeq = (select pv.sequence from ProjectVersion pv where pv = pf.validUntil) where pf.project = :paramProject and pf.validUntilSeq is null and pf.validUntil is not null";
+    private static final String qFillValidOpen = "update ProjectFile pf set pf.validUntilSeq = :paramOpen where pf.project = :paramProject and pf.validUntilSeq is null and pf.validUntil is null";
+    
+    /** Value of validUntilSeq for file versions that are still live */
+    public static final long VALID_OPEN = Long.MAX_VALUE;
     
 	@Id
 	@GeneratedValue(strategy=GenerationType.AUTO)
@@ -135,6 +147,29 @@ public class ProjectFile extends DAObject{
     @JoinColumn(name="VALID_TO_ID")
     private ProjectVersion validUntil;
 
+    /**
+     * The project this file belongs to. Copied from the project version,
+     * so that the files live in a version can be found without a join.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name="STORED_PROJECT_ID")
+    private StoredProject project;
+
+    /**
+     * The sequence number of the validFrom version. Together with
+     * {@link #validUntilSeq}, it describes the interval of versions in
+     * which this file version is live.
+     */
+    @Column(name="VALID_FROM_SEQ", nullable = true)
+    private Long validFromSeq;
+
+    /**
+     * The sequence number of the validUntil version, or 
+     * {@link #VALID_OPEN} while the file version is still live.
+     */
+    @Column(name="VALID_UNTIL_SEQ", nullable = true)
+    private Long validUntilSeq;
+
     /**
      * The ProjectFile this file was copied from. Only gets a value 
      * for file copy operations
@@ -176,7 +211,7 @@ public class ProjectFile extends DAObject{
 
     public ProjectFile(ProjectVersion pv) {
         this();
-        this.projectVersion = pv;
+        this.setProjectVersion(pv);
         this.setValidFrom(pv);
         this.setValidUntil(null);
     }
@@ -202,9 +237,9 @@ public class ProjectFile extends DAObject{
         this.isDirectory = f.getIsDirectory();
         this.measurements = null;
         this.name = f.getName();
-        this.projectVersion = v;
-        this.validFrom = v;
-        this.validUntil = null;
+        this.setProjectVersion(v);
+        this.setValidFrom(v);
+        this.setValidUntil(null);
         //this.status = f.getStatus();
     }
     
@@ -229,6 +264,8 @@ public class ProjectFile extends DAObject{
 
     public void setProjectVersion(ProjectVersion projectVersion ) {
         this.projectVersion = projectVersion;
+        if (projectVersion != null)
+            this.project = projectVersion.getProject();
     }
 
     public ProjectVersion getProjectVersion() {
@@ -301,6 +338,7 @@ public class ProjectFile extends DAObject{
 
     public void setValidFrom(ProjectVersion validFrom) {
         this.validFrom = validFrom;
+        this.validFromSeq = (validFrom == null) ? null : validFrom.getSequence();
     }
 
     public ProjectVersion getValidUntil() {
@@ -309,6 +347,31 @@ public class ProjectFile extends DAObject{
 
     public void setValidUntil(ProjectVersion validUntil) {
         this.validUntil = validUntil;
+        this.validUntilSeq = (validUntil == null) ? VALID_OPEN : validUntil.getSequence();
+    }
+
+    public StoredProject getProject() {
+        return project;
+    }
+
+    public void setProject(StoredProject project) {
+        this.project = project;
+    }
+
+    public Long getValidFromSeq() {
+        return validFromSeq;
+    }
+
+    public void setValidFromSeq(Long validFromSeq) {
+        this.validFromSeq = validFromSeq;
+    }
+
+    public Long getValidUntilSeq() {
+        return validUntilSeq;
+    }
+
+    public void setValidUntilSeq(Long validUntilSeq) {
+        this.validUntilSeq = validUntilSeq;
     }
     
     public ProjectFile getCopyFrom() {
@@ -642,6 +705,29 @@ public class ProjectFile extends DAObject{
         return pfs.get(0);
     }
     
+    /**
+     * Fill in the project and the validity interval of file versions
+     * that were stored before these fields existed. The SCM updaters call
+     * this before processing new revisions; after the first call, it
+     * does not find anything to update.
+     * 
+     * @param sp The project whose files to update
+     * @return The number of updated rows
+     */
+    public static int fillValidityIntervals(StoredProject sp) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("paramProject", sp);
+        
+        int updated = dbs.executeUpdate(qFillProject, params);
+        updated += dbs.executeUpdate(qFillValidFrom, params);
+        updated += dbs.executeUpdate(qFillValidUntil, params);
+        params.put("paramOpen", VALID_OPEN);
+        updated += dbs.executeUpdate(qFillValidOpen, params);
+        
+        return updated;
+    }
+    
     public List<ExecutionUnit> getChangedExecutionUnits() {
         DBService dbs = AlitheiaCore.getInstance().getDBService();
         Map<String, Object> params = new HashMap<String, Object>();
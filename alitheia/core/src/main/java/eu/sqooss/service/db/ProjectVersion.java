@@ -61,6 +61,7 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.ScrollableResults;
 import org.hibernate.annotations.Index;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -195,6 +196,11 @@ public class ProjectVersion extends DAObject {
 	 */
 	public static final int MASK_ALL = MASK_FILES | MASK_DIRECTORIES;
 
+	/**
+	 * Rows fetched per database roundtrip by the scrolling queries
+	 */
+	private static final int SCROLL_FETCH_SIZE = 500;
+
 
 	public ProjectVersion() {
 		// Nothing to do
@@ -528,6 +534,61 @@ public class ProjectVersion extends DAObject {
         }
     }
     
+    /**
+     * Get a page of the versions of a project, ordered by sequence. To get
+     * the next page, call again with the sequence number of the last 
+     * version returned. 
+     * 
+     * @param project Project to look up
+     * @param after Only return versions with a sequence larger than this
+     * @param limit The maximum number of versions to return, 0 for no limit
+     * @return A list of versions, which may be empty but not null
+     */
+    public static List<ProjectVersion> getVersions(StoredProject project,
+            long after, int limit) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        String q = versionsQuery(project, after, parameters);
+
+        List<ProjectVersion> versions = null;
+        if (limit > 0)
+            versions = (List<ProjectVersion>) dbs.doHQL(q, parameters, limit);
+        else
+            versions = (List<ProjectVersion>) dbs.doHQL(q, parameters);
+
+        if (versions == null)
+            return Collections.emptyList();
+
+        return versions;
+    }
+
+    /**
+     * Like {@link #getVersions(StoredProject, long, int)}, but returns a
+     * cursor over the versions instead of loading them in memory.
+     * 
+     * @see DBService#scrollHQL(String, Map, int)
+     * @return A cursor over the versions, or null on database error
+     */
+    public static ScrollableResults scrollVersions(StoredProject project, 
+            long after) {
+        DBService dbs = AlitheiaCore.getInstance().getDBService();
+
+        Map<String,Object> parameters = new HashMap<String,Object>();
+        String q = versionsQuery(project, after, parameters);
+
+        return dbs.scrollHQL(q, parameters, SCROLL_FETCH_SIZE);
+    }
+
+    private static String versionsQuery(StoredProject project, long after, 
+            Map<String, Object> parameters) {
+        parameters.put("project", project);
+        parameters.put("after", after);
+        
+        return "from ProjectVersion pv where pv.project = :project " +
+                "and pv.sequence > :after order by pv.sequence asc";
+    }
+    
     /**
      * Look up a project version based on the given time stamp. This does a
      * database lookup and returns the <code>ProjectVersion</code> DAO, which
@@ -666,43 +727,44 @@ public class ProjectVersion extends DAObject {
     public long getLiveFilesCount() {
     	DBService dbs = AlitheiaCore.getInstance().getDBService();
 
-    	String paramVersionId = "paramVersion";
         String paramIsDirectory = "paramIsDirectory";
-        String paramProjectId = "paramProject";
         String paramState = "paramState";
         Map<String, Object> params = new HashMap<String, Object>();
 
         StringBuffer q = new StringBuffer("select count(pf) ");
-        
-        if (this.sequence == ProjectVersion.getLastProjectVersion(this.project).sequence) {
-            q.append(" from ProjectFile pf, ProjectVersion pv");
-            q.append(" where pv.id = :").append(paramVersionId);
-            q.append(" and pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and ((pf.validFrom.id = pv2.id and pf.validUntil.id = pv3.id)");
-            q.append("     or (pf.validFrom.id = pv2.id and pf.validUntil.id is null))");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, this.getProject().getId());
-        }
+        q.append(" from ProjectFile pf ");
+        q.append(" where").append(liveFilesCondition(params));
         q.append(" and pf.isDirectory = :").append(paramIsDirectory);
         q.append(" and pf.state <> :").append(paramState);
 
-        
-        params.put(paramVersionId, this.getId());
         params.put(paramIsDirectory, Boolean.FALSE);
         params.put(paramState, ProjectFileState.deleted());
         
         return (Long) dbs.doHQL(q.toString(), params).get(0);
     }
 
+    /**
+     * Build an HQL condition that restricts the ProjectFile alias 
+     * <code>pf</code> to the file versions that are live in this version.
+     * A file version is live in all versions whose sequence falls in its
+     * validity interval, so the condition is a range scan on the live
+     * file index instead of a join against the project's versions.
+     * 
+     * @param params Map to fill in with the query parameters
+     * @return The condition, without a leading <code>where</code> or
+     *  <code>and</code>
+     */
+    public String liveFilesCondition(Map<String, Object> params) {
+        String paramProject = "paramLiveProject";
+        String paramSequence = "paramLiveSequence";
+
+        params.put(paramProject, this.project);
+        params.put(paramSequence, this.sequence);
+
+        return " pf.project = :" + paramProject
+            + " and pf.validFromSeq <= :" + paramSequence
+            + " and pf.validUntilSeq >= :" + paramSequence + " ";
+    }
 
     public String toString() {
         return "ProjectVersion(\"" + this.project.getName() + "\",r" + this.revisionId +")";
@@ -712,33 +774,30 @@ public class ProjectVersion extends DAObject {
     private List<ProjectFile> getVersionFiles(Directory d, int mask) {
         DBService dbs = AlitheiaCore.getInstance().getDBService();
 
+        Map<String,Object> params = new HashMap<String,Object>();
+        StringBuffer q = versionFilesQuery(d, mask, params);
+
+        List<ProjectFile> projectFiles = (List<ProjectFile>) dbs.doHQL(q.toString(), params);
+
+        if (projectFiles == null) 
+            return Collections.emptyList();
+
+        return projectFiles;
+    }
+
+    /*
+     * Build the query for the files that are live in this version,
+     * filling in the query parameters.
+     */
+    private StringBuffer versionFilesQuery(Directory d, int mask,
+            Map<String, Object> params) {
         String paramDirectory = "paramDirectory";
         String paramIsDirectory = "is_directory";
-        String paramVersionId = "paramVersionId";
-        String paramProjectId = "paramProjectId";
         String paramState = "paramStatus";
 
-        Map<String,Object> params = new HashMap<String,Object>();
-        StringBuffer q = new StringBuffer("select distinct pf ");
-        
-        if (this.sequence == ProjectVersion.getLastProjectVersion(this.project).sequence) {
-            q.append(" from ProjectFile pf, ProjectVersion pv");
-            q.append(" where pv.id = :").append(paramVersionId);
-            q.append(" and pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and ((pf.validFrom.id = pv2.id and pf.validUntil.id = pv3.id)");
-            q.append("     or (pf.validFrom.id = pv2.id and pf.validUntil.id is null))");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, this.project.getId());
-        }
+        StringBuffer q = new StringBuffer("select pf ");
+        q.append(" from ProjectFile pf ");
+        q.append(" where").append(liveFilesCondition(params));
         
         q.append(" and pf.state <> :").append(paramState);
         
@@ -751,7 +810,6 @@ public class ProjectVersion extends DAObject {
  	    }
     
      	params.put(paramState, ProjectFileState.deleted());
-     	params.put(paramVersionId, this.getId());
  	    
      	if (d != null) {
      		params.put(paramDirectory, d);
@@ -762,13 +820,23 @@ public class ProjectVersion extends DAObject {
  	        params.put(paramIsDirectory, isDirectory);
  	    }
  	    
- 	    List<ProjectFile> projectFiles = (List<ProjectFile>) dbs.doHQL(q.toString(), params);
-
- 	    if (projectFiles == null) 
- 	        return Collections.emptyList();
-
- 	    return projectFiles;
+ 	    return q;
+    }
 
+    /*
+     * Restrict the live files query to files with an id larger than
+     * after, ordered by id, so that results can be paged by remembering
+     * the last id seen instead of an offset.
+     */
+    private StringBuffer versionFilesPageQuery(Directory d, int mask,
+            long after, Map<String, Object> params) {
+        String paramAfter = "paramAfter";
+
+        StringBuffer q = versionFilesQuery(d, mask, params);
+        q.append(" and pf.id > :").append(paramAfter);
+        q.append(" order by pf.id asc");
+        params.put(paramAfter, after);
+        return q;
     }
     
     /**
@@ -793,6 +861,52 @@ public class ProjectVersion extends DAObject {
 	    return getVersionFiles(d, mask);
 	}
 	
+	/**
+	 * Returns a page of the files or directories that are visible in a
+	 * given project version and in a given directory, ordered by id. 
+	 * To get the next page, call again with the id of the last file 
+	 * returned. Does not list recursively.
+	 *
+	 * @param d Directory to list, or null for all directories
+	 * @param mask Used to restrict the returned values to either files or
+	 * directories
+	 * @param after Only return files with an id larger than this
+	 * @param limit The maximum number of files to return, 0 for no limit
+	 * @return List of files visible in that version (may be empty, not null)
+	 */
+	public List<ProjectFile> getFiles(Directory d, int mask, long after, 
+	        int limit) {
+	    DBService dbs = AlitheiaCore.getInstance().getDBService();
+	    Map<String, Object> params = new HashMap<String, Object>();
+	    StringBuffer q = versionFilesPageQuery(d, mask, after, params);
+
+	    List<ProjectFile> projectFiles = null;
+	    if (limit > 0)
+	        projectFiles = (List<ProjectFile>) dbs.doHQL(q.toString(), params, limit);
+	    else
+	        projectFiles = (List<ProjectFile>) dbs.doHQL(q.toString(), params);
+
+	    if (projectFiles == null)
+	        return Collections.emptyList();
+	    
+	    return projectFiles;
+	}
+
+	/**
+	 * Like {@link #getFiles(Directory, int, long, int)}, but returns a 
+	 * cursor over the files instead of loading them in memory.
+	 * 
+	 * @see DBService#scrollHQL(String, Map, int)
+	 * @return A cursor over the files, or null on database error
+	 */
+	public ScrollableResults scrollFiles(Directory d, int mask, long after) {
+	    DBService dbs = AlitheiaCore.getInstance().getDBService();
+	    Map<String, Object> params = new HashMap<String, Object>();
+	    StringBuffer q = versionFilesPageQuery(d, mask, after, params);
+	    
+	    return dbs.scrollHQL(q.toString(), params, SCROLL_FETCH_SIZE);
+	}
+	
 	/**
 	 * Returns all of the files visible in a given project version
 	 * and in a given directory. Does not list recursively.
@@ -155,7 +155,8 @@ public interface FDSService extends AlitheiaCoreService {
 
     /**
      * Retrieve the file contents corresponding to the given ProjectFile entry.
-     * Returns null if there is no such file or it is empty.
+     * Returns null if there is no such file or it is empty. The stream may
+     * hold resources of the service, so it must be closed after use.
      * 
      * @param pf ProjectFile entry
      * 
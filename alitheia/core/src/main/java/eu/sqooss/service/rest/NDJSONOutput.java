@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.service.rest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.codehaus.jettison.mapped.Configuration;
+import org.codehaus.jettison.mapped.MappedNamespaceConvention;
+import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.db.DBService;
+
+/**
+ * Writes the results of a database cursor as newline delimited JSON: one
+ * JSON object per line, in the same format as the JSON representation of
+ * the REST API. Objects are written as they are read from the cursor and
+ * then evicted from the session, so arbitrarily large results can be 
+ * streamed in constant memory. The cursor is closed when writing ends.
+ * 
+ * The output must be written while the DB session that opened the cursor
+ * is active; this is the case for resources served by the REST service.
+ */
+public class NDJSONOutput implements StreamingOutput {
+
+    /** Media type of the output */
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    /** Flush the output every that many lines */
+    private static final int FLUSH_INTERVAL = 100;
+
+    private static final Map<Class<?>, JAXBContext> contexts = 
+        new HashMap<Class<?>, JAXBContext>();
+
+    private ScrollableResults rows;
+    private int limit;
+
+    /**
+     * @param rows The cursor to read objects from. Only the first column
+     *        of each row is written. May be null, in which case nothing 
+     *        is written.
+     * @param limit The maximum number of objects to write, 0 for no limit
+     */
+    public NDJSONOutput(ScrollableResults rows, int limit) {
+        this.rows = rows;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException,
+            WebApplicationException {
+        if (rows == null)
+            return;
+
+        DBService db = AlitheiaCore.getInstance().getDBService();
+        Session s = db.getActiveDBSession();
+        Writer out = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+        MappedNamespaceConvention convention = 
+            new MappedNamespaceConvention(new Configuration());
+        Map<Class<?>, Marshaller> marshallers = 
+            new HashMap<Class<?>, Marshaller>();
+        
+        try {
+            int count = 0;
+            while ((limit <= 0 || count < limit) && rows.next()) {
+                Object o = rows.get(0);
+                if (o == null)
+                    continue;
+                
+                Marshaller m = marshallers.get(o.getClass());
+                if (m == null) {
+                    m = context(o.getClass()).createMarshaller();
+                    marshallers.put(o.getClass(), m);
+                }
+                
+                XMLStreamWriter w = new MappedXMLStreamWriter(convention, out);
+                m.marshal(o, w);
+                w.flush();
+                out.write('\n');
+                
+                if (s != null)
+                    s.evict(o);
+
+                if (++count % FLUSH_INTERVAL == 0)
+                    out.flush();
+            }
+            out.flush();
+        } catch (JAXBException e) {
+            throw new WebApplicationException(e);
+        } catch (XMLStreamException e) {
+            throw new WebApplicationException(e);
+        } finally {
+            rows.close();
+        }
+    }
+
+    private static JAXBContext context(Class<?> clazz) throws JAXBException {
+        JAXBContext ctx = null;
+        synchronized (contexts) {
+            ctx = contexts.get(clazz);
+            if (ctx == null) {
+                ctx = JAXBContext.newInstance(clazz);
+                contexts.put(clazz, ctx);
+            }
+        }
+        return ctx;
+    }
+}
@@ -35,15 +35,15 @@ package eu.sqooss.service.scheduler;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 
 import java.lang.Comparable;
 import java.lang.InterruptedException;
 
 import eu.sqooss.core.AlitheiaCore;
-import eu.sqooss.service.util.Pair;
 
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.scheduler.SchedulerException;
@@ -70,19 +70,24 @@ public abstract class Job implements Comparable<Job> {
     }
 
     /**
-     * This list contains the dependencies between the jobs.
-     * Each pair defines that the \a second one's execution depends on
-     * completion of the \a first one.
+     * The unfinished jobs this job depends on. The job can be executed
+     * when the set is empty.
      *
-     * As soon as the \a first job is finished, the pair is removed from
-     * the list.
+     * As soon as a job in the set is finished, it is removed from
+     * the set.
+     */
+    private Set<Job> m_dependencies;
+    
+    /**
+     * Set of jobs which depend on this job
      */
-    protected List<Pair<Job,Job>> m_dependencies;
+    private Set<Job> m_dependees;
     
     /**
-     * List of jobs which depend on this job
+     * Guards m_dependencies and m_dependees. Never held while acquiring 
+     * the lock of another job.
      */
-    private List<Job> m_dependees;
+    private final Object m_depLock = new Object();
 
     /**
      * A list of objects that listen to this job's state changes  
@@ -137,17 +142,22 @@ public abstract class Job implements Comparable<Job> {
         }
 
         // Don't allow circular dependencies
-        if( other.dependsOn(this) || (this==other) ) {
+        if( (this==other) || other.dependsOn(this) ) {
             throw new SchedulerException("Job dependencies are not allowed to be cyclic.");
         }
 
-        if (m_dependencies == null)
-            m_dependencies = new LinkedList<Pair<Job,Job>>();
+        synchronized (m_depLock) {
+            if (m_dependencies == null)
+                m_dependencies = new HashSet<Job>();
+            if (!m_dependencies.add(other))
+                return;
+        }
         
-        synchronized (m_dependencies) {
-            Pair<Job,Job> newDependency = new Pair<Job,Job>(other, this);
-            m_dependencies.add(newDependency);
-            other.addDependee(this);
+        // If other has already finished, it will not tell us about it
+        if (!other.addDependee(this)) {
+            synchronized (m_depLock) {
+                m_dependencies.remove(other);
+            }
         }
         callDependenciesChanged();
     }
@@ -157,57 +167,85 @@ public abstract class Job implements Comparable<Job> {
      * \sa addDependency
      */
     public final void removeDependency(Job other) {
-        if (m_dependencies == null)
-            return;
-        synchronized(m_dependencies) {
-            List<Pair<Job,Job>> doomed = new LinkedList<Pair<Job,Job>>();
-            for (Pair<Job,Job> p: m_dependencies ) {
-                if ( (p.first == other) && (p.second == this) ) {
-                    doomed.add(p);
-                    removeDependee(other);
-                }
-            }
-            m_dependencies.removeAll(doomed);
+        synchronized (m_depLock) {
+            if (m_dependencies == null || !m_dependencies.remove(other))
+                return;
         }
+        other.removeDependee(this);
         callDependenciesChanged();
     }
 
     /**
      * Checks recursive whether this job depends on job \a other.
+     * Only unfinished dependencies are considered.
      * @param other the job to check dependency of.
      * @return true, when the job depends on \a other, otherwise false.
      */
     public final boolean dependsOn(Job other) {
-        if (m_dependencies == null)
+        // Only jobs that something depends on can be reached
+        if (!other.hasDependees())
             return false;
-        synchronized(m_dependencies) {
-            for (Pair<Job,Job> p: m_dependencies ) {
-                if ( (p.first == other) && (p.second == this) ) {
-                    return true;
-                } else if ( (p.second == this) && p.first.dependsOn(other)) {
+        
+        Set<Job> visited = new HashSet<Job>();
+        LinkedList<Job> toVisit = new LinkedList<Job>();
+        toVisit.add(this);
+        while (!toVisit.isEmpty()) {
+            Job j = toVisit.removeFirst();
+            for (Job dep : j.dependencies()) {
+                if (dep == other)
                     return true;
-                }
+                if (visited.add(dep))
+                    toVisit.add(dep);
             }
-            return false;
         }
+        return false;
     }
 
-    private final synchronized void addDependee(Job other) {
-        if (m_dependees == null)
-            m_dependees = new ArrayList<Job>();
-        synchronized (m_dependees) {
+    /**
+     * Registers \a other as depending on this job.
+     * @return false if this job has already finished, in which case
+     * \a other will not be notified.
+     */
+    private boolean addDependee(Job other) {
+        synchronized (m_depLock) {
+            if (m_state == State.Finished || m_state == State.Error)
+                return false;
+            if (m_dependees == null)
+                m_dependees = new HashSet<Job>();
             m_dependees.add(other);
+            return true;
         }
     }
     
-    private final synchronized void removeDependee(Job other) {
-        if (m_dependees == null)
-            return;
-        synchronized (m_dependees) {
+    private void removeDependee(Job other) {
+        synchronized (m_depLock) {
+            if (m_dependees == null)
+                return;
             m_dependees.remove(other);
         }
     }
     
+    private boolean hasDependees() {
+        synchronized (m_depLock) {
+            return m_dependees != null && !m_dependees.isEmpty();
+        }
+    }
+    
+    /**
+     * Called by a job this job depends on when it is done. Tells the
+     * scheduler when the last pending dependency is gone.
+     */
+    private void dependencyFinished(Job other) {
+        boolean unblocked;
+        synchronized (m_depLock) {
+            if (m_dependencies == null || !m_dependencies.remove(other))
+                return;
+            unblocked = m_dependencies.isEmpty();
+        }
+        if (unblocked)
+            callDependenciesChanged();
+    }
+    
     /**
      * Executes the job. Makes sure that all dependencies are met. 
      * 
@@ -289,18 +327,11 @@ public abstract class Job implements Comparable<Job> {
      * @return All unfinished jobs this job depends on.
      */
     public final List<Job> dependencies() {
-        if (m_dependencies == null)
-            return Collections.EMPTY_LIST;
-        
-        List<Job> result = new LinkedList<Job>();
-        synchronized (m_dependencies) {
-            for (Pair<Job,Job> p: m_dependencies) {
-                if (p.second == this) {
-                    result.add(p.first);
-                }
-            }
+        synchronized (m_depLock) {
+            if (m_dependencies == null || m_dependencies.isEmpty())
+                return Collections.emptyList();
+            return new ArrayList<Job>(m_dependencies);
         }
-        return result;
     }
 
     /**
@@ -308,24 +339,24 @@ public abstract class Job implements Comparable<Job> {
      * Note that this method even returns when the job's state changes to Error.
      */
     public final void waitForFinished() {
-    	try {
-            synchronized (this) {
-                // if this method is running inside of a WorkerThread
-                // we try to pass the job we're waiting for to the thread.
-                if (Thread.currentThread() instanceof WorkerThread) {
-                    WorkerThread t = (WorkerThread) Thread.currentThread();
-                    t.takeJob(this);
-                } else {
-                    throw new Exception();
-                }
-            }
-        } catch (Exception e) {
-            // if something went wrong with taking the job
-            // ok - we might be stuck...
-            if (m_scheduler.getSchedulerStats().getIdleWorkerThreads() == 0) {
-                m_scheduler.startOneShotWorkerThread();
+        boolean taken = false;
+        // if this method is running inside of a WorkerThread
+        // we try to pass the job we're waiting for to the thread.
+        if (Thread.currentThread() instanceof WorkerThread) {
+            try {
+                WorkerThread t = (WorkerThread) Thread.currentThread();
+                t.takeJob(this);
+                taken = true;
+            } catch (Exception e) {
+                // the job is not in the work queue, it is either running
+                // or waiting for its dependencies
             }
         }
+        
+        // ok - we might be stuck...
+        if (!taken && m_scheduler.getSchedulerStats().getIdleWorkerThreads() == 0) {
+            m_scheduler.startOneShotWorkerThread();
+        }
         synchronized (this) {
             while (state() != State.Finished) {
                 if (state() == State.Error) {
@@ -344,15 +375,9 @@ public abstract class Job implements Comparable<Job> {
      * @return true, when all dependencies are met.
      */
     public boolean canExecute() {
-        final List<Job> deps = dependencies();
-        Iterator<Job> it = deps.iterator();
-        while (it.hasNext()) {
-            Job j = it.next();
-            if (j.state() != State.Finished && j.state() != State.Error) {
-                return false;
-            }
+        synchronized (m_depLock) {
+            return m_dependencies == null || m_dependencies.isEmpty();
         }
-        return true;
     }
     
     /**
@@ -389,35 +414,22 @@ public abstract class Job implements Comparable<Job> {
             return;
         }
 
-        m_state = s;
-
-        if ((m_state == State.Finished || m_state == State.Error) && m_dependencies != null) {
-            // remove the job from the dependency list
-            List<Job> unblockedJobs = new LinkedList<Job>();
-            synchronized (m_dependencies) {
-                List<Pair<Job,Job>> doomed = new LinkedList<Pair<Job,Job>>();
-                for (Pair<Job,Job> p: m_dependencies) {
-                    if (p.first == this) {
-                        doomed.add(p);
-                        unblockedJobs.add(p.second);
-                    }
-                }
-                m_dependencies.removeAll(doomed);
-            }
-            /* tell all jobs depending on the now finished on to forward that
-             * to the scheduler
-             */
-            for (Job j: unblockedJobs) {
-                j.callDependenciesChanged();
+        Set<Job> dependees = null;
+        synchronized (m_depLock) {
+            m_state = s;
+            if ((m_state == State.Finished || m_state == State.Error) 
+                    && m_dependees != null) {
+                dependees = m_dependees;
+                m_dependees = null;
             }
         }
         
-        if ((m_state == State.Finished || m_state == State.Error) && m_dependees != null) {
-            synchronized (m_dependees) {
-                for (Job p: m_dependees) {
-                    p.callDependenciesChanged();
-                }
-                m_dependees.clear();
+        /* tell all jobs depending on the now finished one to forward that
+         * to the scheduler
+         */
+        if (dependees != null) {
+            for (Job j : dependees) {
+                j.dependencyFinished(this);
             }
         }
 
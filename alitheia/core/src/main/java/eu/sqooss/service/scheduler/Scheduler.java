@@ -126,7 +126,10 @@ public interface Scheduler extends AlitheiaCoreService {
     WorkerThread[] getWorkerThreads();
     
     /**
-     * Starts a temporary worker thread handling exactly one job.
+     * Starts a temporary worker thread handling exactly one job. If the 
+     * maximum number of threads has been reached, waits for a while for 
+     * another temporary thread to finish, and does not start one if none 
+     * does.
      */
     void startOneShotWorkerThread();
     
@@ -32,6 +32,9 @@
 
 package eu.sqooss.service.tds;
 
+import java.io.Reader;
+import java.nio.charset.Charset;
+
 import eu.sqooss.impl.service.tds.diff.UnifiedDiffParser;
 
 /**
@@ -71,4 +74,45 @@ public class DiffFactory {
         
         return null;
     }
+    
+    /**
+     * Parse a unified diff read from <code>diff</code>. The diff is parsed 
+     * as it is read.
+     * 
+     * @return A {@link Diff} object if parsing the diff succeded or null if parsing failed.
+     */
+    public Diff doUnifiedDiff(Revision start, Revision end, 
+            String basePath, Reader diff) {
+        return doUnifiedDiff(start, end, basePath, diff, null);
+    }
+    
+    /**
+     * Parse a unified diff read from <code>diff</code>, passing its chunks
+     * to <code>handler</code> as they are parsed. The chunks are not 
+     * stored in the returned diff. 
+     * 
+     * @return A {@link Diff} object if parsing the diff succeded or null if parsing failed.
+     */
+    public Diff doUnifiedDiff(Revision start, Revision end, 
+            String basePath, Reader diff, DiffHandler handler) {
+        UnifiedDiffParser d = new UnifiedDiffParser(start, end, basePath, 
+                diff, handler);
+        if (d.parseDiff())
+            return d;
+        
+        return null;
+    }
+    
+    /**
+     * Get a stream that parses the unified diff written to it. The diff
+     * is available from {@link DiffOutputStream#getDiff()} once the stream
+     * is closed.
+     * 
+     * @param charset The encoding of the diff text
+     */
+    public DiffOutputStream newUnifiedDiffStream(Revision start, Revision end,
+            String basePath, Charset charset) {
+        return new DiffOutputStream(new UnifiedDiffParser(start, end, 
+                basePath, null, null), charset);
+    }
 }
@@ -0,0 +1,142 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.service.tds;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import eu.sqooss.impl.service.tds.diff.UnifiedDiffParser;
+
+/**
+ * An output stream that parses the unified diff written to it, a line at
+ * a time. SCM libraries write diffs to output streams; writing them 
+ * straight to the parser avoids holding the diff text in memory. The 
+ * parsed diff is available after the stream is closed.
+ * 
+ * @see DiffFactory#newUnifiedDiffStream(Revision, Revision, String, Charset)
+ */
+public class DiffOutputStream extends OutputStream {
+
+    private UnifiedDiffParser parser;
+    private Charset charset;
+    private byte[] line = new byte[256];
+    private int len = 0;
+    /* The last line ended with \r, skip a \n that follows it */
+    private boolean cr = false;
+    private boolean failed = false, closed = false;
+    
+    DiffOutputStream(UnifiedDiffParser parser, Charset charset) {
+        this.parser = parser;
+        this.charset = charset;
+    }
+    
+    @Override
+    public void write(int b) {
+        if (b == '\n' || b == '\r') {
+            if (!(b == '\n' && cr))
+                endLine();
+            cr = (b == '\r');
+            return;
+        }
+        cr = false;
+        ensureCapacity(len + 1);
+        line[len++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int n) {
+        int end = off + n;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] != '\n' && b[i] != '\r')
+                continue;
+            if (i > start) {
+                cr = false;
+                append(b, start, i - start);
+            }
+            write(b[i]);
+            start = i + 1;
+        }
+        if (start < end) {
+            cr = false;
+            append(b, start, end - start);
+        }
+    }
+    
+    private void append(byte[] b, int off, int n) {
+        ensureCapacity(len + n);
+        System.arraycopy(b, off, line, len, n);
+        len += n;
+    }
+    
+    private void ensureCapacity(int size) {
+        if (size > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, size)];
+            System.arraycopy(line, 0, grown, 0, len);
+            line = grown;
+        }
+    }
+    
+    private void endLine() {
+        if (!failed)
+            failed = !parser.parseLine(new String(line, 0, len, charset));
+        len = 0;
+    }
+    
+    /**
+     * Parse the last line, if it is not terminated, and finish parsing.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        if (len > 0)
+            endLine();
+        if (!failed)
+            failed = !parser.finish();
+        closed = true;
+    }
+    
+    /**
+     * The parsed diff, or null if the stream is still open or the
+     * diff could not be parsed.
+     */
+    public Diff getDiff() {
+        if (!closed || failed)
+            return null;
+        return parser;
+    }
+}
+
+// vi: ai nosi sw=4 ts=4 expandtab
@@ -35,6 +35,7 @@ package eu.sqooss.service.tds;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import java.io.FileNotFoundException;
 import javax.mail.internet.MimeMessage;
@@ -78,6 +79,26 @@ public interface MailAccessor extends DataAccessor {
     	throws IllegalArgumentException,
     	       FileNotFoundException;
     
+    /**
+     * Retrieves the values of some header fields of a message. Only the
+     * header section of the message is read, and it is not validated as a
+     * MIME message. Folded header lines are unfolded.
+     * 
+     * @param listname the list the message is in
+     * @param msgFileName the message id
+     * @param headers the names of the header fields to retrieve
+     * 
+     * @return the values of each requested header that the message
+     *          contains, in the order they appear in the message
+     * 
+     * @throws IllegalArgumentException listId or id are null
+     * @throws FileNotFoundException the listId and id are not found
+     */
+    public Map<String, String[]> getHeaders(String listname, 
+            String msgFileName, String... headers)
+        throws IllegalArgumentException,
+               FileNotFoundException;
+    
     /**
      * Retrieve the list of messages that are stored in the mailing list.
      */
@@ -224,6 +224,26 @@ public interface SCMAccessor extends DataAccessor {
                InvalidRepositoryException,
                FileNotFoundException;
 
+    /**
+     * Get a hash that identifies the contents of a file in a revision, 
+     * such as the blob id in Git or the MD5 checksum in Subversion. Files 
+     * with the same hash have the same contents, so the hash can be used 
+     * to share file contents across revisions.
+     *
+     * @param repoPath File within this repository
+     * @param revision Revision to use for the file
+     * @return The content hash or null if the repository does not 
+     * provide one for the file
+     * 
+     * @throws InvalidProjectRevisionException When the provided revision is
+     * invalid
+     * @throws InvalidRepositoryException When there is an error accessing the 
+     * underlying repository
+     */
+    public String getFileHash(String repoPath, Revision revision)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException;
+
     /**
      * Get the commit log entries in ascending date order for the changes between revisions
      * <code>r1</code> and <code>r2</code>
@@ -34,6 +34,7 @@
 package eu.sqooss.service.util;
 
 import java.io.*;
+import java.lang.reflect.Method;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -317,6 +318,48 @@ public class FileUtils {
         }
     }
 
+
+    /* 
+     * Files.createLink and File.toPath, looked up at runtime as the code
+     * targets Java 6, which cannot create hard links 
+     */
+    private static Method createLink, toPath;
+    
+    static {
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> files = Class.forName("java.nio.file.Files");
+            createLink = files.getMethod("createLink", path, path);
+            toPath = File.class.getMethod("toPath");
+        } catch (Exception e) {
+            createLink = null;
+        }
+    }
+
+    /**
+     * Create a hard link to a file, so that both names share its contents
+     * on disk. The file is copied instead if the runtime or the file system
+     * does not support hard links, for example if the files are on 
+     * different file systems. An existing destination file is replaced.
+     * 
+     * @return true if a link was created, false if the file was copied
+     */
+    public static boolean linkOrCopyFile(File source, File dest) 
+        throws IOException {
+        if (createLink != null) {
+            dest.delete();
+            try {
+                createLink.invoke(null, toPath.invoke(dest), 
+                        toPath.invoke(source));
+                return true;
+            } catch (Exception e) {
+                // Not supported here, copy
+            }
+        }
+        copyFile(source, dest);
+        return false;
+    }
 }
 
+
 // vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,454 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.service.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A compressed set of non-negative long values, intended for large
+ * collections of database identifiers. Values are partitioned by their
+ * high 48 bits in containers of 2^16 values. Sparse containers store their
+ * low 16 bits in a sorted array, while dense containers switch to a
+ * plain bitmap, so that the memory cost per identifier is at most
+ * 2 bytes, instead of the ~40 bytes a boxed entry in a 
+ * {@link java.util.TreeSet} costs.
+ * 
+ * The set is ordered by natural ordering. The {@link #headSet(Long)},
+ * {@link #tailSet(Long)} and {@link #subSet(Long, Long)} methods return
+ * copies instead of views. The set is not thread safe.
+ */
+public class LongBitmapSet extends AbstractSet<Long> implements SortedSet<Long> {
+
+    /** Sorted high 48 bits of the values in each container */
+    private long[] keys = new long[4];
+    private Container[] containers = new Container[4];
+    private int numContainers = 0;
+    private int size = 0;
+    
+    public LongBitmapSet() {}
+    
+    public LongBitmapSet(Iterable<? extends Number> values) {
+        for (Number n : values)
+            add(n.longValue());
+    }
+    
+    /**
+     * Add a value to the set.
+     * @return true if the set did not already contain the value
+     * @throws IllegalArgumentException if the value is negative
+     */
+    public boolean add(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        
+        long key = value >>> 16;
+        int idx = findContainer(key);
+        if (idx < 0) {
+            idx = -idx - 1;
+            insertContainer(idx, key, new ArrayContainer());
+        }
+        Container c = containers[idx];
+        int card = c.cardinality();
+        containers[idx] = c.add((int) (value & 0xFFFF));
+        if (containers[idx].cardinality() == card)
+            return false;
+        size++;
+        return true;
+    }
+    
+    @Override
+    public boolean add(Long value) {
+        return add(value.longValue());
+    }
+    
+    public boolean contains(long value) {
+        if (value < 0)
+            return false;
+        int idx = findContainer(value >>> 16);
+        return idx >= 0 && containers[idx].contains((int) (value & 0xFFFF));
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Long) && contains(((Long) o).longValue());
+    }
+    
+    public boolean remove(long value) {
+        if (value < 0)
+            return false;
+        int idx = findContainer(value >>> 16);
+        if (idx < 0)
+            return false;
+        Container c = containers[idx];
+        int card = c.cardinality();
+        containers[idx] = c.remove((int) (value & 0xFFFF));
+        if (containers[idx].cardinality() == card)
+            return false;
+        size--;
+        if (containers[idx].cardinality() == 0)
+            removeContainer(idx);
+        return true;
+    }
+    
+    @Override
+    public boolean remove(Object o) {
+        return (o instanceof Long) && remove(((Long) o).longValue());
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public void clear() {
+        keys = new long[4];
+        containers = new Container[4];
+        numContainers = 0;
+        size = 0;
+    }
+    
+    /**
+     * Smallest value in the set that is greater than or equal to 
+     * the provided value, or -1 if none exists.
+     */
+    public long ceiling(long value) {
+        if (value < 0)
+            value = 0;
+        long key = value >>> 16;
+        int idx = findContainer(key);
+        int low = (int) (value & 0xFFFF);
+        if (idx < 0) {
+            idx = -idx - 1;
+            low = 0;
+        }
+        for (; idx < numContainers; idx++) {
+            int next = containers[idx].next(low);
+            if (next >= 0)
+                return (keys[idx] << 16) | next;
+            low = 0;
+        }
+        return -1;
+    }
+    
+    /**
+     * Largest value in the set that is less than or equal to 
+     * the provided value, or -1 if none exists.
+     */
+    public long floor(long value) {
+        if (value < 0)
+            return -1;
+        long key = value >>> 16;
+        int idx = findContainer(key);
+        int low = (int) (value & 0xFFFF);
+        if (idx < 0) {
+            idx = -idx - 2;
+            low = 0xFFFF;
+        }
+        for (; idx >= 0; idx--) {
+            int prev = containers[idx].prev(low);
+            if (prev >= 0)
+                return (keys[idx] << 16) | prev;
+            low = 0xFFFF;
+        }
+        return -1;
+    }
+    
+    private long higher(long value) {
+        return (value == Long.MAX_VALUE) ? -1 : ceiling(value + 1);
+    }
+    
+    /** Copy the contents of the set, in ascending order, to an array */
+    public long[] toLongArray() {
+        long[] result = new long[size];
+        int i = 0;
+        for (long v = ceiling(0); v >= 0; v = higher(v))
+            result[i++] = v;
+        return result;
+    }
+    
+    @Override
+    public Iterator<Long> iterator() {
+        return new SetIterator(true);
+    }
+    
+    /** Iterate over the set in descending order */
+    public Iterator<Long> descendingIterator() {
+        return new SetIterator(false);
+    }
+    
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+    
+    @Override
+    public Long first() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return ceiling(0);
+    }
+    
+    @Override
+    public Long last() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return floor(Long.MAX_VALUE);
+    }
+    
+    @Override
+    public SortedSet<Long> headSet(Long toElement) {
+        return range(0, toElement);
+    }
+    
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+        return range(fromElement, toElement);
+    }
+    
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement) {
+        LongBitmapSet result = range(fromElement, Long.MAX_VALUE);
+        if (contains(Long.MAX_VALUE))
+            result.add(Long.MAX_VALUE);
+        return result;
+    }
+    
+    /* Copy of the values in [from, to) */
+    private LongBitmapSet range(long from, long to) {
+        LongBitmapSet result = new LongBitmapSet();
+        for (long v = ceiling(from); v >= 0 && v < to; v = higher(v))
+            result.add(v);
+        return result;
+    }
+    
+    private int findContainer(long key) {
+        return Arrays.binarySearch(keys, 0, numContainers, key);
+    }
+    
+    private void insertContainer(int idx, long key, Container c) {
+        if (numContainers == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            containers = Arrays.copyOf(containers, containers.length * 2);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, numContainers - idx);
+        System.arraycopy(containers, idx, containers, idx + 1, numContainers - idx);
+        keys[idx] = key;
+        containers[idx] = c;
+        numContainers++;
+    }
+    
+    private void removeContainer(int idx) {
+        System.arraycopy(keys, idx + 1, keys, idx, numContainers - idx - 1);
+        System.arraycopy(containers, idx + 1, containers, idx, numContainers - idx - 1);
+        numContainers--;
+        containers[numContainers] = null;
+    }
+    
+    private class SetIterator implements Iterator<Long> {
+        private boolean ascending;
+        private long next;
+        private long last = -1;
+        
+        SetIterator(boolean ascending) {
+            this.ascending = ascending;
+            this.next = ascending ? ceiling(0) : floor(Long.MAX_VALUE);
+        }
+        
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        public Long next() {
+            if (next < 0)
+                throw new NoSuchElementException();
+            last = next;
+            if (ascending)
+                next = higher(last);
+            else
+                next = (last == 0) ? -1 : floor(last - 1);
+            return last;
+        }
+
+        public void remove() {
+            if (last < 0)
+                throw new IllegalStateException();
+            LongBitmapSet.this.remove(last);
+            last = -1;
+        }
+    }
+    
+    /** 
+     * Set of 16 bit values. Mutators return the container to use
+     * from then on, which allows switching representations.
+     */
+    private static abstract class Container {
+        abstract Container add(int low);
+        abstract Container remove(int low);
+        abstract boolean contains(int low);
+        abstract int cardinality();
+        /** Smallest value >= low or -1 */
+        abstract int next(int low);
+        /** Largest value <= low or -1 */
+        abstract int prev(int low);
+    }
+    
+    /** Containers with more values than this are stored as bitmaps */
+    private static final int ARRAY_MAX_SIZE = 4096;
+    
+    private static final class ArrayContainer extends Container {
+        char[] values = new char[4];
+        int card = 0;
+        
+        Container add(int low) {
+            int idx = Arrays.binarySearch(values, 0, card, (char) low);
+            if (idx >= 0)
+                return this;
+            if (card == ARRAY_MAX_SIZE) {
+                BitmapContainer b = new BitmapContainer();
+                for (int i = 0; i < card; i++)
+                    b.add(values[i]);
+                return b.add(low);
+            }
+            idx = -idx - 1;
+            if (card == values.length)
+                values = Arrays.copyOf(values, Math.min(card * 2, ARRAY_MAX_SIZE));
+            System.arraycopy(values, idx, values, idx + 1, card - idx);
+            values[idx] = (char) low;
+            card++;
+            return this;
+        }
+        
+        Container remove(int low) {
+            int idx = Arrays.binarySearch(values, 0, card, (char) low);
+            if (idx < 0)
+                return this;
+            System.arraycopy(values, idx + 1, values, idx, card - idx - 1);
+            card--;
+            return this;
+        }
+        
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, 0, card, (char) low) >= 0;
+        }
+        
+        int cardinality() {
+            return card;
+        }
+        
+        int next(int low) {
+            int idx = Arrays.binarySearch(values, 0, card, (char) low);
+            if (idx < 0)
+                idx = -idx - 1;
+            return idx < card ? values[idx] : -1;
+        }
+        
+        int prev(int low) {
+            int idx = Arrays.binarySearch(values, 0, card, (char) low);
+            if (idx < 0)
+                idx = -idx - 2;
+            return idx >= 0 ? values[idx] : -1;
+        }
+    }
+    
+    private static final class BitmapContainer extends Container {
+        long[] words = new long[1024];
+        int card = 0;
+        
+        Container add(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                card++;
+            }
+            return this;
+        }
+        
+        Container remove(int low) {
+            long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                card--;
+            }
+            if (card > ARRAY_MAX_SIZE)
+                return this;
+            /* Sparse again, convert back to an array */
+            ArrayContainer a = new ArrayContainer();
+            a.values = new char[card];
+            for (int v = next(0); v >= 0; v = (v == 0xFFFF) ? -1 : next(v + 1))
+                a.values[a.card++] = (char) v;
+            return a;
+        }
+        
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+        
+        int cardinality() {
+            return card;
+        }
+        
+        int next(int low) {
+            int i = low >>> 6;
+            long w = words[i] & (-1L << low);
+            while (true) {
+                if (w != 0)
+                    return (i << 6) + Long.numberOfTrailingZeros(w);
+                if (++i == words.length)
+                    return -1;
+                w = words[i];
+            }
+        }
+        
+        int prev(int low) {
+            int i = low >>> 6;
+            long w = words[i] & (-1L >>> (63 - (low & 63)));
+            while (true) {
+                if (w != 0)
+                    return (i << 6) + 63 - Long.numberOfLeadingZeros(w);
+                if (--i < 0)
+                    return -1;
+                w = words[i];
+            }
+        }
+    }
+}
+
+//vi: ai nosi sw=4 ts=4 expandtab
@@ -0,0 +1,154 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.test.service.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import eu.sqooss.impl.service.db.DBServiceImpl;
+import eu.sqooss.impl.service.logging.LoggerImpl;
+import eu.sqooss.service.db.BulkWriter;
+import eu.sqooss.service.db.Directory;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.logging.Logger;
+
+public class BulkWriterTest {
+
+    static DBServiceImpl db;
+
+    @BeforeClass
+    public static void setUp() {
+        Properties p = new Properties();
+        p.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        p.setProperty("hibernate.connection.url", "jdbc:h2:mem:bulkwriter;DB_CLOSE_DELAY=-1");
+        p.setProperty("hibernate.connection.username", "sa");
+        p.setProperty("hibernate.connection.password", "");
+        p.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        p.setProperty("hibernate.connection.provider_class", 
+                "org.hibernate.connection.DriverManagerConnectionProvider");
+        db = new DBServiceImpl(p, 
+                BulkWriterTest.class.getResource("/hibernate.cfg.xml"), 
+                new LoggerImpl(Logger.NAME_SQOOSS_DATABASE));
+    }
+
+    static long count(String entity, String prefix) {
+        db.startDBSession();
+        List<?> result = db.doHQL("select count(*) from " + entity 
+                + " e where e.name like '" + prefix + "%'");
+        db.commitDBSession();
+        return (Long) result.get(0);
+    }
+
+    static List<StoredProject> projects(String prefix, int n) {
+        List<StoredProject> result = new ArrayList<StoredProject>(n);
+        for (int i = 0; i < n; i++)
+            result.add(new StoredProject(prefix + i));
+        return result;
+    }
+
+    @Test
+    public void testCommit() {
+        final List<Integer> commits = new ArrayList<Integer>();
+        BulkWriter w = db.getBulkWriter();
+        w.setFlushSize(10);
+        w.setCommitListener(new BulkWriter.CommitListener() {
+            public void committed(BulkWriter writer, int records) {
+                commits.add(records);
+            }
+        });
+
+        assertTrue(w.addAll(projects("commit", 25)));
+        Directory d = new Directory();
+        d.setPath("/commit");
+        assertTrue(w.add(d));
+        assertEquals(26, w.getPending());
+        assertTrue(commits.isEmpty());
+
+        assertTrue(w.commit());
+        assertEquals(0, w.getPending());
+        assertEquals(1, commits.size());
+        assertEquals(26, (int) commits.get(0));
+        assertTrue(d.getId() > 0);
+        assertEquals(25, count("StoredProject", "commit"));
+
+        /* Nothing pending, nothing to notify */
+        assertTrue(w.close());
+        assertEquals(1, commits.size());
+        assertFalse(w.add(new StoredProject("closed")));
+    }
+
+    @Test
+    public void testAutoCommit() {
+        final List<Integer> commits = new ArrayList<Integer>();
+        BulkWriter w = db.getBulkWriter();
+        w.setFlushSize(4);
+        w.setCommitSize(8);
+        w.setCommitListener(new BulkWriter.CommitListener() {
+            public void committed(BulkWriter writer, int records) {
+                commits.add(records);
+            }
+        });
+
+        assertTrue(w.addAll(projects("auto", 18)));
+        assertEquals(2, commits.size());
+        assertEquals(16, count("StoredProject", "auto"));
+        assertEquals(2, w.getPending());
+
+        /* Closing commits the rest */
+        assertTrue(w.close());
+        assertEquals(3, commits.size());
+        assertEquals(2, (int) commits.get(2));
+        assertEquals(18, count("StoredProject", "auto"));
+    }
+
+    @Test
+    public void testRollback() {
+        BulkWriter w = db.getBulkWriter();
+        w.setFlushSize(5);
+
+        assertTrue(w.addAll(projects("rollback", 12)));
+        assertTrue(w.rollback());
+        assertEquals(0, w.getPending());
+        assertTrue(w.close());
+        assertEquals(0, count("StoredProject", "rollback"));
+    }
+}
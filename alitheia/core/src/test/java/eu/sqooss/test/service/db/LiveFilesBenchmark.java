@@ -0,0 +1,258 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.test.service.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import eu.sqooss.impl.service.db.DBServiceImpl;
+import eu.sqooss.impl.service.logging.LoggerImpl;
+import eu.sqooss.service.db.Directory;
+import eu.sqooss.service.db.ProjectFile;
+import eu.sqooss.service.db.ProjectFileState;
+import eu.sqooss.service.db.ProjectVersion;
+import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.logging.Logger;
+
+/**
+ * Compares the cost of finding the files that are live in a project
+ * version with the validity interval range scan against the version self
+ * join it replaced. It builds a synthetic project history in an in-memory
+ * H2 database and checks that both queries return the same files. Run it
+ * as a plain Java program with the core and test classes on the classpath;
+ * the arguments are the number of versions, the number of files and the
+ * number of files changed per version.
+ */
+public class LiveFilesBenchmark {
+
+    /*
+     * The live files query before validity intervals were introduced. Live
+     * files are counted with distinct, as the join matches a file that is
+     * still live once for every later version.
+     */
+    static final String LEGACY_QUERY = "select count(distinct pf)"
+        + " from ProjectVersion pv, ProjectVersion pv2,"
+        + " ProjectVersion pv3, ProjectFile pf "
+        + " where pv.project.id = :paramProjectId"
+        + " and pv.id = :paramVersionId"
+        + " and pv2.project.id = :paramProjectId"
+        + " and pv3.project.id = :paramProjectId"
+        + " and ((pf.validFrom.id = pv2.id and pf.validUntil.id = pv3.id)"
+        + "     or (pf.validFrom.id = pv2.id and pf.validUntil.id is null))"
+        + " and pv2.sequence <= pv.sequence"
+        + " and pv3.sequence >= pv.sequence"
+        + " and pf.state <> :paramState";
+
+    static final String URL = "jdbc:h2:mem:livefiles;DB_CLOSE_DELAY=-1";
+    
+    /* The columns the live files query is expected to range scan, in order */
+    static final String LIVE_INDEX_COLUMNS = 
+        "STORED_PROJECT_ID,VALID_FROM_SEQ,VALID_UNTIL_SEQ";
+
+    static DBServiceImpl db;
+    static ProjectFileState modified, deleted;
+
+    static DBServiceImpl createDB() {
+        Properties p = new Properties();
+        p.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        p.setProperty("hibernate.connection.url", URL);
+        p.setProperty("hibernate.connection.username", "sa");
+        p.setProperty("hibernate.connection.password", "");
+        p.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        p.setProperty("hibernate.connection.provider_class", 
+                "org.hibernate.connection.DriverManagerConnectionProvider");
+        return new DBServiceImpl(p, 
+                LiveFilesBenchmark.class.getResource("/hibernate.cfg.xml"), 
+                new LoggerImpl(Logger.NAME_SQOOSS_DATABASE));
+    }
+
+    static ProjectFileState state(int status) {
+        ProjectFileState s = new ProjectFileState();
+        s.setStatus(status);
+        db.addRecord(s);
+        return s;
+    }
+
+    /*
+     * Builds a project history of the given length. Every version modifies
+     * a random set of live files, retiring their previous file versions
+     * the way the SCM updaters do.
+     */
+    static List<ProjectVersion> createHistory(int versions, int files,
+            int changes) {
+        Random r = new Random(42);
+        db.startDBSession();
+        modified = state(ProjectFileState.STATE_MODIFIED);
+        deleted = state(ProjectFileState.STATE_DELETED);
+        StoredProject sp = new StoredProject("bench");
+        db.addRecord(sp);
+        Directory d = new Directory();
+        d.setPath("/");
+        db.addRecord(d);
+        
+        List<ProjectVersion> pvs = new ArrayList<ProjectVersion>(versions);
+        ProjectFile[] live = new ProjectFile[files];
+        ProjectVersion previous = null;
+        
+        for (int i = 1; i <= versions; i++) {
+            ProjectVersion pv = new ProjectVersion(sp);
+            pv.setRevisionId(String.valueOf(i));
+            pv.setSequence(i);
+            db.addRecord(pv);
+            pvs.add(pv);
+            
+            int n = (previous == null) ? files : changes;
+            for (int j = 0; j < n; j++) {
+                int idx = (previous == null) ? j : r.nextInt(files);
+                if (live[idx] != null) {
+                    if (live[idx].getValidFrom() == pv)
+                        continue;
+                    live[idx].setValidUntil(previous);
+                }
+                ProjectFile pf = new ProjectFile(pv);
+                pf.setName("file" + idx);
+                pf.setDir(d);
+                pf.setState(modified);
+                db.addRecord(pf);
+                live[idx] = pf;
+            }
+            previous = pv;
+        }
+        db.commitDBSession();
+        return pvs;
+    }
+
+    static long legacy(ProjectVersion pv) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("paramProjectId", pv.getProject().getId());
+        params.put("paramVersionId", pv.getId());
+        params.put("paramState", deleted);
+        return (Long) db.doHQL(LEGACY_QUERY, params).get(0);
+    }
+
+    static long interval(ProjectVersion pv) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        String q = "select count(pf) from ProjectFile pf where" 
+            + pv.liveFilesCondition(params) + " and pf.state <> :paramState";
+        params.put("paramState", deleted);
+        return (Long) db.doHQL(q, params).get(0);
+    }
+
+    /*
+     * Checks that the schema has the composite index that serves the live
+     * files query, with its columns in the right order.
+     */
+    static void checkLiveIndex() throws SQLException {
+        Connection c = DriverManager.getConnection(URL, "sa", "");
+        try {
+            Statement st = c.createStatement();
+            ResultSet rs = st.executeQuery("select COLUMN_NAME" 
+                    + " from INFORMATION_SCHEMA.INDEXES"
+                    + " where INDEX_NAME = 'IDX_PROJECT_FILE_LIVE'"
+                    + " order by ORDINAL_POSITION");
+            StringBuilder columns = new StringBuilder();
+            while (rs.next()) {
+                if (columns.length() > 0)
+                    columns.append(',');
+                columns.append(rs.getString(1));
+            }
+            if (!LIVE_INDEX_COLUMNS.equals(columns.toString()))
+                throw new AssertionError("IDX_PROJECT_FILE_LIVE covers [" 
+                        + columns + "], expected [" + LIVE_INDEX_COLUMNS + "]");
+        } finally {
+            c.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int versions = 300, files = 300, changes = 5;
+        if (args.length == 3) {
+            versions = Integer.parseInt(args[0]);
+            files = Integer.parseInt(args[1]);
+            changes = Integer.parseInt(args[2]);
+        }
+
+        db = createDB();
+        long ts = System.currentTimeMillis();
+        List<ProjectVersion> pvs = createHistory(versions, files, changes);
+        checkLiveIndex();
+        System.out.println("Created " + versions + " versions of " + files 
+                + " files in " + (System.currentTimeMillis() - ts) + " ms");
+
+        /* Versions spread over the history, the latest one included */
+        List<ProjectVersion> sample = new ArrayList<ProjectVersion>();
+        for (int i = 1; i <= 10; i++)
+            sample.add(pvs.get(i * pvs.size() / 10 - 1));
+
+        db.startDBSession();
+        for (int i = 0; i < sample.size(); i++)
+            sample.set(i, db.findObjectById(ProjectVersion.class, 
+                    sample.get(i).getId()));
+        deleted = db.findObjectById(ProjectFileState.class, deleted.getId());
+        
+        // Warm up
+        for (ProjectVersion pv : sample) {
+            legacy(pv); interval(pv);
+        }
+
+        System.out.println("version\tfiles\tself join\tinterval (ms)");
+        for (ProjectVersion pv : sample) {
+            ts = System.nanoTime();
+            long expected = legacy(pv);
+            long tl = System.nanoTime() - ts;
+            
+            ts = System.nanoTime();
+            long found = interval(pv);
+            long ti = System.nanoTime() - ts;
+            
+            if (found != expected)
+                throw new AssertionError("Version " + pv.getSequence() 
+                        + ": expected " + expected + " files, found " + found);
+
+            System.out.println(pv.getSequence() + "\t" + found + "\t" 
+                    + tl / 1000000 + "\t\t" + ti / 1000000);
+        }
+        db.commitDBSession();
+    }
+}
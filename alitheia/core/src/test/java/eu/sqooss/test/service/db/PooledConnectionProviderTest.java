@@ -0,0 +1,124 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.test.service.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import eu.sqooss.impl.service.db.PooledConnectionProvider;
+import eu.sqooss.service.db.ConnectionPoolStats;
+
+public class PooledConnectionProviderTest {
+
+    static PooledConnectionProvider createProvider() {
+        Properties p = new Properties();
+        p.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        p.setProperty("hibernate.connection.url", "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1");
+        p.setProperty("hibernate.connection.username", "sa");
+        p.setProperty("hibernate.connection.password", "");
+        p.setProperty("hibernate.connection.autocommit", "false");
+        p.setProperty(PooledConnectionProvider.POOL_MIN, "1");
+        p.setProperty(PooledConnectionProvider.POOL_MAX, "2");
+        p.setProperty(PooledConnectionProvider.POOL_STATEMENTS, "10");
+        p.setProperty(PooledConnectionProvider.POOL_TEST_QUERY, "SELECT 1");
+        p.setProperty(PooledConnectionProvider.POOL_VALIDATE, "true");
+        p.setProperty(PooledConnectionProvider.POOL_TIMEOUT, "500");
+        PooledConnectionProvider provider = new PooledConnectionProvider();
+        provider.configure(p);
+        return provider;
+    }
+
+    @Test
+    public void testCheckout() throws Exception {
+        PooledConnectionProvider provider = createProvider();
+        Connection a = provider.getConnection();
+        Connection b = provider.getConnection();
+        assertFalse(a.getAutoCommit());
+
+        ConnectionPoolStats s = provider.getStats();
+        assertEquals(2, s.getConnections());
+        assertEquals(2, s.getBusy());
+        assertEquals(0, s.getIdle());
+        assertEquals(2, s.getMaxSize());
+
+        /* The pool is exhausted, the checkout times out */
+        try {
+            provider.getConnection();
+            fail("Checkout from an exhausted pool did not time out");
+        } catch (SQLException e) {}
+        assertEquals(0, provider.getStats().getWaiting());
+
+        provider.closeConnection(a);
+        provider.closeConnection(b);
+        s = awaitCheckin(provider, 2);
+        assertEquals(0, s.getBusy());
+        assertEquals(2, s.getIdle());
+        provider.close();
+    }
+
+    /* Connections are tested and returned to the pool asynchronously */
+    static ConnectionPoolStats awaitCheckin(PooledConnectionProvider provider,
+            int idle) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        ConnectionPoolStats s = provider.getStats();
+        while (s.getIdle() < idle && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            s = provider.getStats();
+        }
+        return s;
+    }
+
+    @Test
+    public void testStatementCache() throws Exception {
+        PooledConnectionProvider provider = createProvider();
+        Connection c = provider.getConnection();
+        for (int i = 0; i < 3; i++) {
+            PreparedStatement ps = c.prepareStatement("SELECT ?");
+            ps.setInt(1, i);
+            ps.executeQuery().close();
+            ps.close();
+        }
+        assertEquals(1, provider.getStats().getStatements());
+        provider.closeConnection(c);
+        provider.close();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.test.service.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.hibernate.cache.access.AccessType;
+import org.hibernate.cache.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.access.SoftLock;
+import org.hibernate.cache.impl.CacheDataDescriptionImpl;
+import org.junit.Test;
+
+import eu.sqooss.impl.service.db.RegionCache;
+import eu.sqooss.impl.service.db.RegionCacheFactory;
+
+public class RegionCacheTest {
+
+    @Test
+    public void testEviction() {
+        RegionCache c = new RegionCache("test", 2);
+        c.put(1L, "a");
+        c.put(2L, "b");
+        c.get(1L);
+        c.put(3L, "c");
+
+        /* 2 was the least recently used */
+        assertNull(c.get(2L));
+        assertEquals("a", c.get(1L));
+        assertEquals("c", c.get(3L));
+        assertEquals(2, c.getElementCountInMemory());
+        assertEquals(1, c.getEvictions());
+        assertEquals(3, c.getHits());
+        assertEquals(1, c.getMisses());
+        assertEquals(0.75, c.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void testRegionSize() {
+        Properties p = new Properties();
+        p.setProperty(RegionCacheFactory.CACHE_SIZE, "100");
+        p.setProperty(RegionCacheFactory.CACHE_SIZE + ".big", "1000");
+        
+        RegionCacheFactory factory = new RegionCacheFactory();
+        assertEquals(100, ((RegionCache) factory.buildQueryResultsRegion("small", p)).getMaxEntries());
+        assertEquals(1000, ((RegionCache) factory.buildEntityRegion("big", p, 
+                new CacheDataDescriptionImpl(true, false, null))).getMaxEntries());
+        assertEquals(0, ((RegionCache) factory.buildTimestampsRegion(
+                "org.hibernate.cache.UpdateTimestampsCache", p)).getMaxEntries());
+        assertEquals(3, RegionCacheFactory.getRegions().size());
+        factory.stop();
+    }
+
+    @Test
+    public void testReadWriteAccess() {
+        RegionCacheFactory factory = new RegionCacheFactory();
+        EntityRegionAccessStrategy access = factory.buildEntityRegion("rw", 
+                new Properties(), new CacheDataDescriptionImpl(true, false, null))
+                .buildAccessStrategy(AccessType.READ_WRITE);
+        
+        long tx = factory.nextTimestamp();
+        assertTrue(access.putFromLoad(1L, "a", tx, null));
+        /* Not visible to transactions that started before it was cached */
+        assertNull(access.get(1L, tx));
+        assertEquals("a", access.get(1L, factory.nextTimestamp()));
+        
+        /* A locked key is neither read nor loaded */
+        SoftLock lock = access.lockItem(1L, null);
+        tx = factory.nextTimestamp();
+        assertNull(access.get(1L, tx));
+        assertFalse(access.putFromLoad(1L, "stale", tx, null));
+        assertTrue(access.afterUpdate(1L, "b", null, null, lock));
+        assertEquals("b", access.get(1L, factory.nextTimestamp()));
+        
+        /* A load started before the key was unlocked may be stale */
+        lock = access.lockItem(1L, null);
+        tx = factory.nextTimestamp();
+        access.unlockItem(1L, lock);
+        assertFalse(access.putFromLoad(1L, "stale", tx, null));
+        assertTrue(access.putFromLoad(1L, "c", factory.nextTimestamp(), null));
+        assertEquals("c", access.get(1L, factory.nextTimestamp()));
+        factory.stop();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package eu.sqooss.test.service.fds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.sqooss.impl.service.fds.BlobStore;
+import eu.sqooss.impl.service.fds.DiskUtil;
+
+public class BlobStoreTest {
+
+    File root;
+    
+    @Before
+    public void setUp() {
+        root = new File(System.getProperty("java.io.tmpdir"), 
+                "blobstoretest" + System.nanoTime());
+    }
+    
+    @After
+    public void tearDown() {
+        DiskUtil.rmRf(root);
+    }
+    
+    private File add(BlobStore store, String hash, int size) throws IOException {
+        File tmp = store.newTempFile();
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(new byte[size]);
+        out.close();
+        return store.add(hash, tmp);
+    }
+    
+    @Test
+    public void testAddGet() throws IOException {
+        BlobStore store = new BlobStore(root, 1000);
+        assertNull(store.get("abcd01"));
+        File f = add(store, "abcd01", 10);
+        assertNotNull(f);
+        assertEquals(f, store.get("abcd01"));
+        assertEquals(10, store.size());
+        
+        /* Adding the same contents again does not grow the store */
+        add(store, "abcd01", 10);
+        assertEquals(1, store.count());
+        assertEquals(10, store.size());
+    }
+    
+    @Test
+    public void testEviction() throws IOException {
+        BlobStore store = new BlobStore(root, 250);
+        add(store, "aaaa", 100);
+        add(store, "bbbb", 100);
+        store.get("aaaa");
+        add(store, "cccc", 100);
+        
+        assertNotNull(store.get("aaaa"));
+        assertNull(store.get("bbbb"));
+        assertNotNull(store.get("cccc"));
+        assertEquals(200, store.size());
+    }
+    
+    @Test
+    public void testPinning() throws IOException {
+        BlobStore store = new BlobStore(root, 250);
+        add(store, "aaaa", 100);
+        File pinned = store.acquire("aaaa");
+        add(store, "bbbb", 100);
+        add(store, "cccc", 100);
+        
+        /* The least recently used blob is in use, the next one goes */
+        assertEquals(pinned, store.get("aaaa"));
+        assertNull(store.get("bbbb"));
+        
+        /* Once released, it is evicted like any other blob */
+        store.release("aaaa");
+        add(store, "dddd", 100);
+        add(store, "eeee", 100);
+        assertNull(store.get("aaaa"));
+        assertEquals(200, store.size());
+    }
+    
+    @Test
+    public void testReload() throws IOException {
+        BlobStore store = new BlobStore(root, 1000);
+        add(store, "aaaa", 100);
+        store.newTempFile(); /* Left over, removed on reload */
+        
+        store = new BlobStore(root, 1000);
+        assertNotNull(store.get("aaaa"));
+        assertEquals(1, store.count());
+        assertEquals(1, root.listFiles().length);
+    }
+    
+    @Test
+    public void testInvalidHash() throws IOException {
+        BlobStore store = new BlobStore(root, 1000);
+        assertNull(add(store, "../x", 10));
+    }
+}
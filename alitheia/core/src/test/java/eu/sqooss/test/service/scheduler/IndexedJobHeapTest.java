@@ -0,0 +1,206 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.test.service.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.sqooss.impl.service.scheduler.IndexedJobHeap;
+import eu.sqooss.service.scheduler.Job;
+
+public class IndexedJobHeapTest {
+
+    /**
+     * A job that is never run, with a fixed priority.
+     */
+    static class PriorityJob extends Job {
+        private long priority;
+
+        PriorityJob(long priority) {
+            this.priority = priority;
+        }
+
+        public long priority() {
+            return priority;
+        }
+
+        protected void run() throws Exception {}
+    }
+
+    static List<Job> randomJobs(int n, long seed) {
+        Random r = new Random(seed);
+        List<Job> jobs = new ArrayList<Job>(n);
+        for (int i = 0; i < n; i++)
+            jobs.add(new PriorityJob(r.nextInt(50)));
+        return jobs;
+    }
+
+    /* Polls the heap empty, checking that priorities never decrease */
+    static List<Job> drain(IndexedJobHeap heap) {
+        List<Job> polled = new ArrayList<Job>();
+        long last = Long.MIN_VALUE;
+        while (!heap.isEmpty()) {
+            Job j = heap.poll();
+            assertTrue("Job out of order", j.priority() >= last);
+            last = j.priority();
+            polled.add(j);
+        }
+        assertNull(heap.poll());
+        assertEquals(0, heap.size());
+        return polled;
+    }
+
+    @Test
+    public void testOrdering() {
+        /* Start small, so that the heap has to grow */
+        IndexedJobHeap heap = new IndexedJobHeap(1);
+        List<Job> jobs = randomJobs(500, 1);
+        for (Job j : jobs)
+            assertTrue(heap.add(j));
+        assertEquals(jobs.size(), heap.size());
+        assertEquals(jobs.size(), drain(heap).size());
+    }
+
+    @Test
+    public void testPeek() {
+        IndexedJobHeap heap = new IndexedJobHeap();
+        assertNull(heap.peek());
+        Job low = new PriorityJob(1);
+        heap.add(new PriorityJob(5));
+        heap.add(low);
+        heap.add(new PriorityJob(3));
+        assertSame(low, heap.peek());
+        assertEquals(3, heap.size());
+        assertSame(low, heap.poll());
+    }
+
+    @Test
+    public void testDuplicates() {
+        IndexedJobHeap heap = new IndexedJobHeap();
+        Job j = new PriorityJob(1);
+        assertTrue(heap.add(j));
+        assertFalse(heap.add(j));
+        assertEquals(1, heap.size());
+        
+        /* Jobs with the same priority are still distinct jobs */
+        assertTrue(heap.add(new PriorityJob(1)));
+        assertEquals(2, heap.size());
+    }
+
+    @Test
+    public void testRemoveAnywhere() {
+        IndexedJobHeap heap = new IndexedJobHeap();
+        List<Job> jobs = randomJobs(300, 2);
+        for (Job j : jobs)
+            heap.add(j);
+        
+        /* Remove a random third, which hits the root, leaves and the 
+         * last position of the heap array */
+        List<Job> shuffled = new ArrayList<Job>(jobs);
+        Collections.shuffle(shuffled, new Random(3));
+        List<Job> removed = shuffled.subList(0, 100);
+        for (Job j : removed) {
+            assertTrue(heap.contains(j));
+            assertTrue(heap.remove(j));
+            assertFalse(heap.contains(j));
+            assertFalse(heap.remove(j));
+        }
+        assertEquals(200, heap.size());
+        
+        for (Job j : jobs)
+            assertEquals(!removed.contains(j), heap.contains(j));
+        
+        List<Job> polled = drain(heap);
+        assertEquals(200, polled.size());
+        for (Job j : polled)
+            assertFalse(removed.contains(j));
+    }
+
+    @Test
+    public void testRemoveRootAndLast() {
+        IndexedJobHeap heap = new IndexedJobHeap();
+        Job[] jobs = new Job[10];
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new PriorityJob(i);
+            heap.add(jobs[i]);
+        }
+        assertTrue(heap.remove(jobs[0]));
+        assertSame(jobs[1], heap.peek());
+        assertTrue(heap.remove(jobs[9]));
+        assertEquals(8, heap.size());
+        
+        /* A removed job can be added again */
+        assertTrue(heap.add(jobs[0]));
+        assertSame(jobs[0], heap.peek());
+        assertEquals(9, drain(heap).size());
+    }
+
+    @Test
+    public void testInterleaved() {
+        IndexedJobHeap heap = new IndexedJobHeap();
+        Random r = new Random(4);
+        List<Job> in = new ArrayList<Job>();
+        for (int i = 0; i < 2000; i++) {
+            int op = r.nextInt(3);
+            if (op == 0 || in.isEmpty()) {
+                Job j = new PriorityJob(r.nextInt(20));
+                heap.add(j);
+                in.add(j);
+            } else if (op == 1) {
+                Job j = in.remove(r.nextInt(in.size()));
+                assertTrue(heap.remove(j));
+            } else {
+                Job top = heap.poll();
+                for (Job j : in)
+                    assertTrue(top.priority() <= j.priority());
+                assertTrue(in.remove(top));
+            }
+            assertEquals(in.size(), heap.size());
+        }
+        for (Job j : in)
+            assertTrue(heap.contains(j));
+        assertEquals(in.size(), drain(heap).size());
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.test.service.scheduler;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.SchedulerException;
+import eu.sqooss.service.util.Pair;
+
+/**
+ * Compares the cost of building and resolving job dependency graphs with
+ * the Job dependency tracking against the pair list based tracking it
+ * replaced. Run it as a plain Java program with the core and test classes
+ * on the classpath.
+ */
+public class JobDependencyBenchmark {
+
+    /**
+     * The dependency handling of Job before pending dependency sets were
+     * introduced, reduced to the bits that affect performance.
+     */
+    static class LegacyJob {
+        List<Pair<LegacyJob, LegacyJob>> m_dependencies;
+        List<LegacyJob> m_dependees;
+        boolean finished = false;
+
+        void addDependency(LegacyJob other) throws SchedulerException {
+            if (other.dependsOn(this) || (this == other)) {
+                throw new SchedulerException("Cyclic");
+            }
+            if (m_dependencies == null)
+                m_dependencies = new LinkedList<Pair<LegacyJob, LegacyJob>>();
+            m_dependencies.add(new Pair<LegacyJob, LegacyJob>(other, this));
+            if (other.m_dependees == null)
+                other.m_dependees = new ArrayList<LegacyJob>();
+            other.m_dependees.add(this);
+        }
+
+        boolean dependsOn(LegacyJob other) {
+            if (m_dependencies == null)
+                return false;
+            for (Pair<LegacyJob, LegacyJob> p : m_dependencies) {
+                if ((p.first == other) && (p.second == this)) {
+                    return true;
+                } else if ((p.second == this) && p.first.dependsOn(other)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<LegacyJob> dependencies() {
+            List<LegacyJob> result = new LinkedList<LegacyJob>();
+            if (m_dependencies == null)
+                return result;
+            for (Pair<LegacyJob, LegacyJob> p : m_dependencies) {
+                if (p.second == this) {
+                    result.add(p.first);
+                }
+            }
+            return result;
+        }
+
+        boolean canExecute() {
+            for (LegacyJob j : dependencies()) {
+                if (!j.finished)
+                    return false;
+            }
+            return true;
+        }
+
+        void finish() {
+            finished = true;
+            if (m_dependencies != null) {
+                List<Pair<LegacyJob, LegacyJob>> doomed = new LinkedList<Pair<LegacyJob, LegacyJob>>();
+                for (Pair<LegacyJob, LegacyJob> p : m_dependencies) {
+                    if (p.first == this) {
+                        doomed.add(p);
+                    }
+                }
+                m_dependencies.removeAll(doomed);
+            }
+            // The scheduler re-checks every dependee
+            if (m_dependees != null) {
+                for (LegacyJob j : m_dependees) {
+                    j.canExecute();
+                }
+                m_dependees.clear();
+            }
+        }
+    }
+
+    static class BenchJob extends JobDependencyTest.DepJob {
+        List<BenchJob> dependees = new ArrayList<BenchJob>();
+
+        void finishAndCheck() {
+            finish();
+            // The scheduler re-checks dependees that became runnable
+            for (BenchJob j : dependees) {
+                j.canExecute();
+            }
+        }
+    }
+
+    /* Each job depends on the one created before it */
+    static long legacyChain(int n) throws SchedulerException {
+        long ts = System.nanoTime();
+        List<LegacyJob> jobs = new ArrayList<LegacyJob>(n);
+        LegacyJob prev = null;
+        for (int i = 0; i < n; i++) {
+            LegacyJob j = new LegacyJob();
+            if (prev != null)
+                j.addDependency(prev);
+            jobs.add(j);
+            prev = j;
+        }
+        for (LegacyJob j : jobs)
+            j.finish();
+        return System.nanoTime() - ts;
+    }
+
+    static long chain(int n) throws SchedulerException {
+        long ts = System.nanoTime();
+        List<BenchJob> jobs = new ArrayList<BenchJob>(n);
+        BenchJob prev = null;
+        for (int i = 0; i < n; i++) {
+            BenchJob j = new BenchJob();
+            if (prev != null) {
+                j.addDependency(prev);
+                prev.dependees.add(j);
+            }
+            jobs.add(j);
+            prev = j;
+        }
+        for (BenchJob j : jobs)
+            j.finishAndCheck();
+        return System.nanoTime() - ts;
+    }
+
+    /* One job depending on n others */
+    static long legacyFanIn(int n) throws SchedulerException {
+        long ts = System.nanoTime();
+        LegacyJob sink = new LegacyJob();
+        List<LegacyJob> jobs = new ArrayList<LegacyJob>(n);
+        for (int i = 0; i < n; i++) {
+            LegacyJob j = new LegacyJob();
+            sink.addDependency(j);
+            jobs.add(j);
+        }
+        for (LegacyJob j : jobs)
+            j.finish();
+        return System.nanoTime() - ts;
+    }
+
+    static long fanIn(int n) throws SchedulerException {
+        long ts = System.nanoTime();
+        BenchJob sink = new BenchJob();
+        List<BenchJob> jobs = new ArrayList<BenchJob>(n);
+        for (int i = 0; i < n; i++) {
+            BenchJob j = new BenchJob();
+            sink.addDependency(j);
+            j.dependees.add(sink);
+            jobs.add(j);
+        }
+        for (BenchJob j : jobs)
+            j.finishAndCheck();
+        return System.nanoTime() - ts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1000, 2000, 4000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        // Warm up
+        for (int i = 0; i < 5; i++) {
+            legacyChain(500); chain(500);
+            legacyFanIn(500); fanIn(500);
+        }
+
+        System.out.println("jobs\tchain(legacy)\tchain\tfan-in(legacy)\tfan-in (ms)");
+        for (int n : sizes) {
+            System.out.println(n + "\t" + legacyChain(n) / 1000000 + "\t\t"
+                    + chain(n) / 1000000 + "\t" + legacyFanIn(n) / 1000000
+                    + "\t\t" + fanIn(n) / 1000000);
+        }
+    }
+}
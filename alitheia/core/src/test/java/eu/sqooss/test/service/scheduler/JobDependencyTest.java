@@ -0,0 +1,145 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.test.service.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.service.scheduler.SchedulerException;
+
+public class JobDependencyTest {
+
+    /**
+     * A job that is never run, but can be finished by hand.
+     */
+    static class DepJob extends Job {
+        public long priority() {
+            return 0;
+        }
+
+        protected void run() throws Exception {}
+
+        void finish() {
+            setState(State.Finished);
+        }
+
+        void fail() {
+            setState(State.Error);
+        }
+    }
+
+    @Test
+    public void testChain() throws SchedulerException {
+        DepJob a = new DepJob();
+        DepJob b = new DepJob();
+        DepJob c = new DepJob();
+        c.addDependency(b);
+        b.addDependency(a);
+
+        assertTrue(a.canExecute());
+        assertFalse(b.canExecute());
+        assertFalse(c.canExecute());
+        assertTrue(c.dependsOn(a));
+
+        a.finish();
+        assertTrue(b.canExecute());
+        assertFalse(c.canExecute());
+        assertFalse(c.dependsOn(a));
+
+        b.fail();
+        assertTrue(c.canExecute());
+        assertEquals(0, c.dependencies().size());
+    }
+
+    @Test
+    public void testDiamond() throws SchedulerException {
+        DepJob top = new DepJob();
+        DepJob left = new DepJob();
+        DepJob right = new DepJob();
+        DepJob bottom = new DepJob();
+        left.addDependency(top);
+        right.addDependency(top);
+        bottom.addDependency(left);
+        bottom.addDependency(right);
+        assertEquals(2, bottom.dependencies().size());
+
+        top.finish();
+        left.finish();
+        assertFalse(bottom.canExecute());
+        right.finish();
+        assertTrue(bottom.canExecute());
+    }
+
+    @Test
+    public void testFinishedDependency() throws SchedulerException {
+        DepJob a = new DepJob();
+        DepJob b = new DepJob();
+        a.finish();
+        b.addDependency(a);
+        assertTrue(b.canExecute());
+    }
+
+    @Test
+    public void testRemoveDependency() throws SchedulerException {
+        DepJob a = new DepJob();
+        DepJob b = new DepJob();
+        b.addDependency(a);
+        b.removeDependency(a);
+        assertTrue(b.canExecute());
+        assertFalse(b.dependsOn(a));
+    }
+
+    @Test
+    public void testCycle() throws SchedulerException {
+        DepJob a = new DepJob();
+        DepJob b = new DepJob();
+        DepJob c = new DepJob();
+        b.addDependency(a);
+        c.addDependency(b);
+        try {
+            a.addDependency(c);
+            fail("Cyclic dependency was accepted");
+        } catch (SchedulerException e) {}
+        try {
+            a.addDependency(a);
+            fail("Dependency on self was accepted");
+        } catch (SchedulerException e) {}
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+package eu.sqooss.test.service.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.sqooss.impl.service.scheduler.JobQueue;
+import eu.sqooss.impl.service.scheduler.PriorityJobQueue;
+import eu.sqooss.impl.service.scheduler.WorkStealingJobQueue;
+import eu.sqooss.service.scheduler.Job;
+import eu.sqooss.test.service.scheduler.IndexedJobHeapTest.PriorityJob;
+
+/**
+ * Tests for the queues the scheduler's workers take their jobs from.
+ * Tests that do not depend on the queue's layout run against both
+ * implementations.
+ */
+public class JobQueueTest {
+
+    static final long TIMEOUT = 10000;
+
+    static JobQueue[] queues(int workers) {
+        return new JobQueue[] {
+                new PriorityJobQueue(), new WorkStealingJobQueue(workers)};
+    }
+
+    /**
+     * Takes a number of jobs from a queue.
+     */
+    static class Taker extends Thread {
+        final JobQueue queue;
+        final int count;
+        final List<Job> taken = new ArrayList<Job>();
+
+        Taker(JobQueue queue, int count) {
+            this.queue = queue;
+            this.count = count;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Job j = queue.take();
+                    synchronized (taken) {
+                        taken.add(j);
+                    }
+                }
+            } catch (InterruptedException e) {}
+        }
+    }
+
+    /* Waits until a thread is blocked, waiting for work */
+    static void awaitBlocked(Thread t) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (t.getState() != Thread.State.WAITING) {
+            if (System.currentTimeMillis() > end)
+                fail(t.getName() + " did not block on an empty queue");
+            Thread.sleep(5);
+        }
+    }
+
+    static void awaitDone(Thread t) throws InterruptedException {
+        t.join(TIMEOUT);
+        if (t.isAlive()) {
+            t.interrupt();
+            fail(t.getName() + " was not woken up");
+        }
+    }
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException {
+        JobQueue q = new PriorityJobQueue();
+        Job[] jobs = new Job[] {new PriorityJob(3), new PriorityJob(1), 
+                new PriorityJob(2)};
+        q.addAll(Arrays.asList(jobs));
+        assertEquals(3, q.size());
+        assertSame(jobs[1], q.take());
+        assertSame(jobs[2], q.take());
+        assertSame(jobs[0], q.take());
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void testRemoveContains() {
+        for (JobQueue q : queues(3)) {
+            List<Job> jobs = new ArrayList<Job>();
+            for (int i = 0; i < 10; i++)
+                jobs.add(new PriorityJob(i));
+            q.addAll(jobs);
+            
+            /* Adding a queued job again does not count twice */
+            q.add(jobs.get(0));
+            assertEquals(10, q.size());
+            
+            for (int i = 0; i < 10; i += 3) {
+                assertTrue(q.remove(jobs.get(i)));
+                assertFalse(q.contains(jobs.get(i)));
+                assertFalse(q.remove(jobs.get(i)));
+            }
+            for (int i = 0; i < 10; i++)
+                assertEquals(i % 3 != 0, q.contains(jobs.get(i)));
+            assertEquals(6, q.size());
+        }
+    }
+
+    @Test
+    public void testStealing() throws InterruptedException {
+        WorkStealingJobQueue q = new WorkStealingJobQueue(2);
+        Job a = new PriorityJob(0);
+        Job b = new PriorityJob(0);
+        
+        /* Jobs from non-worker threads go round robin, a to queue 0 */
+        q.add(a);
+        
+        /* The first thread to take gets queue 0 as its home */
+        assertSame(a, q.take());
+        
+        /* b goes to queue 1, so it can only be stolen */
+        q.add(b);
+        assertSame(b, q.take());
+        assertEquals(0, q.size());
+        
+        /* Jobs added together are also split, one to each queue */
+        Job c = new PriorityJob(0);
+        Job d = new PriorityJob(0);
+        q.addAll(Arrays.asList(c, d));
+        Set<Job> taken = new HashSet<Job>();
+        taken.add(q.take());
+        taken.add(q.take());
+        assertEquals(new HashSet<Job>(Arrays.asList(c, d)), taken);
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void testWakeOnAdd() throws InterruptedException {
+        for (JobQueue q : queues(2)) {
+            Taker t = new Taker(q, 1);
+            t.start();
+            awaitBlocked(t);
+            Job j = new PriorityJob(0);
+            q.add(j);
+            awaitDone(t);
+            assertEquals(Arrays.asList(j), t.taken);
+            assertEquals(0, q.size());
+        }
+    }
+
+    @Test
+    public void testWakeOnAddAll() throws InterruptedException {
+        int workers = 3;
+        for (JobQueue q : queues(workers)) {
+            List<Taker> takers = new ArrayList<Taker>();
+            for (int i = 0; i < workers; i++) {
+                Taker t = new Taker(q, 1);
+                takers.add(t);
+                t.start();
+            }
+            for (Taker t : takers)
+                awaitBlocked(t);
+            
+            List<Job> jobs = new ArrayList<Job>();
+            for (int i = 0; i < workers; i++)
+                jobs.add(new PriorityJob(i));
+            q.addAll(jobs);
+            
+            /* Every sleeping worker must wake up, not just one */
+            Set<Job> taken = new HashSet<Job>();
+            for (Taker t : takers) {
+                awaitDone(t);
+                taken.addAll(t.taken);
+            }
+            assertEquals(new HashSet<Job>(jobs), taken);
+            assertEquals(0, q.size());
+        }
+    }
+
+    @Test
+    public void testConcurrentSize() throws InterruptedException {
+        for (JobQueue q : queues(4))
+            concurrentSize(q);
+    }
+
+    /*
+     * Producers add jobs while consumers take them and another thread
+     * removes some. Every job must come out exactly once, and the size
+     * must account for all of them.
+     */
+    private void concurrentSize(final JobQueue q) throws InterruptedException {
+        final int producers = 4, perProducer = 2000, consumers = 4;
+        final List<List<Job>> produced = new ArrayList<List<Job>>();
+        for (int p = 0; p < producers; p++) {
+            List<Job> jobs = new ArrayList<Job>(perProducer);
+            for (int i = 0; i < perProducer; i++)
+                jobs.add(new PriorityJob(i % 17));
+            produced.add(jobs);
+        }
+        
+        final ConcurrentHashMap<Job, Boolean> out = 
+            new ConcurrentHashMap<Job, Boolean>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        
+        for (int p = 0; p < producers; p++) {
+            final List<Job> jobs = produced.get(p);
+            final boolean batched = (p % 2 == 0);
+            threads.add(new Thread() {
+                public void run() {
+                    await(start);
+                    if (batched) {
+                        for (int i = 0; i < jobs.size(); i += 100)
+                            q.addAll(jobs.subList(i, i + 100));
+                    } else {
+                        for (Job j : jobs)
+                            q.add(j);
+                    }
+                }
+            });
+        }
+        
+        threads.add(new Thread() {
+            public void run() {
+                await(start);
+                for (List<Job> jobs : produced) {
+                    for (int i = 0; i < jobs.size(); i += 7) {
+                        Job j = jobs.get(i);
+                        if (q.remove(j) && out.put(j, true) != null)
+                            duplicates.incrementAndGet();
+                    }
+                }
+            }
+        });
+        
+        List<Thread> takers = new ArrayList<Thread>();
+        for (int c = 0; c < consumers; c++) {
+            Thread t = new Thread() {
+                public void run() {
+                    await(start);
+                    try {
+                        while (true) {
+                            Job j = q.take();
+                            if (out.put(j, true) != null)
+                                duplicates.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {}
+                }
+            };
+            t.setDaemon(true);
+            takers.add(t);
+        }
+        
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : takers)
+            t.start();
+        start.countDown();
+        
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                assertTrue("Negative queue size", q.size() >= 0);
+                t.join(1);
+            }
+        }
+        
+        /* All jobs are in; the consumers must drain the queue */
+        int total = producers * perProducer;
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (out.size() < total && System.currentTimeMillis() < end)
+            Thread.sleep(5);
+        for (Thread t : takers) {
+            t.interrupt();
+            t.join(TIMEOUT);
+        }
+        
+        assertEquals(0, duplicates.get());
+        assertEquals(total, out.size());
+        assertEquals(0, q.size());
+        for (List<Job> jobs : produced)
+            for (Job j : jobs)
+                assertFalse(q.contains(j));
+        
+        /* The queue still works once drained */
+        Job last = new PriorityJob(0);
+        q.add(last);
+        assertEquals(1, q.size());
+        assertTrue(q.remove(last));
+        assertEquals(0, q.size());
+    }
+
+    private static void await(CountDownLatch l) {
+        try {
+            l.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
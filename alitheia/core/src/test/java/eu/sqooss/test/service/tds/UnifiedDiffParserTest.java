@@ -0,0 +1,151 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package eu.sqooss.test.service.tds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.sqooss.service.tds.Diff;
+import eu.sqooss.service.tds.DiffChunk;
+import eu.sqooss.service.tds.DiffFactory;
+import eu.sqooss.service.tds.DiffHandler;
+import eu.sqooss.service.tds.DiffOutputStream;
+
+public class UnifiedDiffParserTest {
+
+    static final String DIFF = 
+        "Index: a/b.c\n" +
+        "===================================================================\n" +
+        "--- a/b.c\t(revision 1)\n" +
+        "+++ a/b.c\t(revision 2)\n" +
+        "@@ -1,3 +1,4 @@\n" +
+        " ctx\n" +
+        "--- not a header\n" +
+        "+new\n" +
+        "+new2\n" +
+        " ctx\n" +
+        "@@ -10 +11 @@ section\n" +
+        "-x\n" +
+        "+y\n" +
+        "Index: d.txt\n" +
+        "===================================================================\n" +
+        "--- d.txt\t(revision 1)\n" +
+        "+++ d.txt\t(revision 2)\n" +
+        "@@ -0,0 +1,2 @@\n" +
+        "+a\n" +
+        "+b\n" +
+        "\n" +
+        "Property changes on: d.txt\n" +
+        "___________________________________________________________________\n" +
+        "Added: svn:eol-style\n" +
+        "   + native\n";
+
+    private void checkDiff(Diff d) {
+        assertNotNull(d);
+        assertEquals(2, d.getChangedPaths().size());
+        assertTrue(d.getChangedPaths().contains("/base/a/b.c"));
+        
+        List<DiffChunk> chunks = d.getDiffChunks().get("/base/a/b.c");
+        assertEquals(2, chunks.size());
+        assertEquals(1, chunks.get(0).getSourceStartLine());
+        assertEquals(3, chunks.get(0).getSourceLenght());
+        assertEquals(4, chunks.get(0).getTargetLength());
+        assertEquals(" ctx\n--- not a header\n+new\n+new2\n ctx\n", 
+                chunks.get(0).getChunk());
+        assertEquals(10, chunks.get(1).getSourceStartLine());
+        assertEquals(11, chunks.get(1).getTargetStartLine());
+        assertEquals("-x\n+y\n", chunks.get(1).getChunk());
+        
+        chunks = d.getDiffChunks().get("/base/d.txt");
+        assertEquals(2, chunks.size());
+        assertEquals("+a\n+b\n", chunks.get(0).getChunk());
+        assertTrue(chunks.get(1).getChunk().startsWith("Property changes on: d.txt\n"));
+    }
+
+    @Test
+    public void testParseString() {
+        checkDiff(DiffFactory.getInstance().doUnifiedDiff(null, null, "/base", DIFF));
+    }
+
+    @Test
+    public void testParseReader() {
+        checkDiff(DiffFactory.getInstance().doUnifiedDiff(null, null, "/base", 
+                new StringReader(DIFF)));
+    }
+
+    @Test
+    public void testParseStream() throws Exception {
+        DiffOutputStream out = DiffFactory.getInstance().newUnifiedDiffStream(
+                null, null, "/base", Charset.forName("UTF-8"));
+        byte[] diff = DIFF.replace("\n", "\r\n").getBytes("UTF-8");
+        // Split writes in the middle of line terminators
+        for (int i = 0; i < diff.length; i += 7)
+            out.write(diff, i, Math.min(7, diff.length - i));
+        assertNull(out.getDiff());
+        out.close();
+        checkDiff(out.getDiff());
+    }
+
+    @Test
+    public void testHandler() {
+        final List<String> events = new ArrayList<String>();
+        Diff d = DiffFactory.getInstance().doUnifiedDiff(null, null, "/base", 
+                new StringReader(DIFF), new DiffHandler() {
+            public void startFile(String path) {
+                events.add(path);
+            }
+            public void chunk(DiffChunk chunk) {
+                events.add(String.valueOf(chunk.getSourceStartLine()));
+            }
+        });
+        assertNotNull(d);
+        assertEquals("[/base/a/b.c, 1, 10, /base/d.txt, 0, 0]", events.toString());
+        assertEquals(0, d.getDiffChunks().get("/base/a/b.c").size());
+        assertEquals(0, d.getDiffChunks().get("/base/d.txt").size());
+    }
+
+    @Test
+    public void testInvalid() {
+        assertNull(DiffFactory.getInstance().doUnifiedDiff(null, null, "/base", 
+                "garbage\n"));
+    }
+}
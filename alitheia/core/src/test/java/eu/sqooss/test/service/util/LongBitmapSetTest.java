@@ -0,0 +1,125 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+
+
+package eu.sqooss.test.service.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import eu.sqooss.service.util.LongBitmapSet;
+
+public class LongBitmapSetTest {
+
+    @Test
+    public void testAddContainsRemove() {
+        LongBitmapSet s = new LongBitmapSet();
+        assertTrue(s.add(5));
+        assertFalse(s.add(5));
+        assertTrue(s.add(1L << 40));
+        assertTrue(s.contains(5));
+        assertTrue(s.contains(Long.valueOf(1L << 40)));
+        assertFalse(s.contains(6));
+        assertEquals(2, s.size());
+        assertTrue(s.remove(5));
+        assertFalse(s.remove(5));
+        assertEquals(1, s.size());
+        assertEquals(Long.valueOf(1L << 40), s.first());
+    }
+
+    /**
+     * Compare against a TreeSet, with enough values per container to 
+     * force conversions between the array and bitmap representations.
+     */
+    @Test
+    public void testAgainstTreeSet() {
+        Random r = new Random(42);
+        LongBitmapSet s = new LongBitmapSet();
+        TreeSet<Long> t = new TreeSet<Long>();
+        
+        for (int i = 0; i < 50000; i++) {
+            long v = r.nextInt(200000);
+            if (r.nextInt(4) == 0)
+                assertEquals(t.remove(v), s.remove(v));
+            else
+                assertEquals(t.add(v), s.add(v));
+        }
+        assertEquals(t.size(), s.size());
+        assertEquals(t.first(), s.first());
+        assertEquals(t.last(), s.last());
+        assertEquals(new ArrayList<Long>(t), new ArrayList<Long>(s));
+        
+        List<Long> desc = new ArrayList<Long>();
+        for (Iterator<Long> i = s.descendingIterator(); i.hasNext();)
+            desc.add(i.next());
+        List<Long> expected = new ArrayList<Long>(t);
+        Collections.reverse(expected);
+        assertEquals(expected, desc);
+        
+        assertEquals(t.subSet(1000L, 70000L), s.subSet(1000L, 70000L));
+        assertEquals(t.tailSet(150000L), s.tailSet(150000L));
+        
+        /* Remove down to a sparse set again */
+        for (Iterator<Long> i = s.iterator(); i.hasNext();)
+            if (i.next() % 100 != 0)
+                i.remove();
+        for (Iterator<Long> i = t.iterator(); i.hasNext();)
+            if (i.next() % 100 != 0)
+                i.remove();
+        assertEquals(t, s);
+    }
+    
+    @Test
+    public void testToLongArray() {
+        LongBitmapSet s = new LongBitmapSet();
+        s.add(70000);
+        s.add(3);
+        s.add(65535);
+        assertArrayEquals(new long[] {3, 65535, 70000}, s.toLongArray());
+        assertEquals(65535, s.floor(69999));
+        assertEquals(70000, s.ceiling(65536));
+        assertEquals(-1, s.ceiling(70001));
+    }
+}
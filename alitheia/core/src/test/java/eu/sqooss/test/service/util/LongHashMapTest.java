@@ -0,0 +1,94 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.test.service.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.sqooss.service.util.LongHashMap;
+
+public class LongHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongHashMap<String> m = new LongHashMap<String>();
+        assertTrue(m.isEmpty());
+        assertNull(m.put(1, "a"));
+        assertEquals("a", m.put(1, "b"));
+        assertEquals("b", m.get(1));
+        assertNull(m.get(2));
+        assertTrue(m.containsKey(1));
+        assertEquals(1, m.size());
+        assertEquals("b", m.remove(1));
+        assertFalse(m.containsKey(1));
+        assertNull(m.remove(1));
+        assertTrue(m.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongHashMap<String>().put(1, null);
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random r = new Random(42);
+        LongHashMap<Long> m = new LongHashMap<Long>();
+        Map<Long, Long> ref = new HashMap<Long, Long>();
+
+        for (int i = 0; i < 100000; i++) {
+            long key = r.nextInt(5000);
+            if (r.nextInt(3) == 0) {
+                assertEquals(ref.remove(key), m.remove(key));
+            } else {
+                assertEquals(ref.put(key, (long) i), m.put(key, (long) i));
+            }
+        }
+
+        assertEquals(ref.size(), m.size());
+        long[] keys = m.keys();
+        assertEquals(ref.size(), keys.length);
+        for (long key : keys)
+            assertEquals(ref.get(key), m.get(key));
+        assertEquals(ref.size(), m.values().size());
+    }
+}
@@ -42,7 +42,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -83,6 +82,8 @@ import eu.sqooss.service.pa.PluginInfo;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffChunk;
 import eu.sqooss.service.tds.SCMAccessor;
+import eu.sqooss.service.util.LongBitmapSet;
+import eu.sqooss.service.util.LongHashMap;
 
 @MetricDeclarations(metrics={
     @MetricDecl(mnemonic="CONTRIB", descr="Developer Contribution Metric",
@@ -180,20 +181,17 @@ public class ContributionMetricImpl extends AbstractMetric {
     	
     	String qVersionIDs = "select pv.id from ProjectVersion pv where pv.id not in (select ca.changedResourceId from ContribAction ca where developer.storedProject =:sp and ca.contribActionType.actionCategory='C') and pv.project = :sp order by pv.sequence";
     	List<Long> objectIds = (List<Long>) db.doHQL(qVersionIDs, params);
-    	TreeSet<Long> ids = new TreeSet<Long>();
-    	ids.addAll(objectIds);
+    	LongBitmapSet ids = new LongBitmapSet(objectIds);
     	IDs.put(MetricType.Type.PROJECT_VERSION, ids);
     	
     	String qThreadIDs = "select mlt.id from MailingListThread mlt where mlt.id not in (select ca.changedResourceId from ContribAction ca where developer.storedProject =:sp and ca.contribActionType.actionCategory='M') and mlt.list.storedProject = :sp order by mlt.lastUpdated";
     	objectIds = (List<Long>) db.doHQL(qThreadIDs, params);
-    	ids = new TreeSet<Long>();
-    	ids.addAll(objectIds);
+    	ids = new LongBitmapSet(objectIds);
     	IDs.put(MetricType.Type.MAILTHREAD, ids);
     	
     	String qBugIDs = "select b.id from Bug b where b.id not in (select ca.changedResourceId from ContribAction ca where developer.storedProject =:sp and ca.contribActionType.actionCategory='B') and b.project = :sp order by b.updateRun";
     	objectIds = (List<Long>) db.doHQL(qBugIDs, params);
-    	ids = new TreeSet<Long>();
-    	ids.addAll(objectIds);
+    	ids = new LongBitmapSet(objectIds);
     	IDs.put(MetricType.Type.BUG, ids);
     	
     	return IDs;
@@ -418,6 +416,12 @@ public class ContributionMetricImpl extends AbstractMetric {
         }
 
         FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        
+        /* Look up previous file versions and line counts for all files at once */
+        LongHashMap<ProjectFile> previous = new LongHashMap<ProjectFile>();
+        LongHashMap<List<Result>> locs = getLOCResults(projectFiles, plugin, 
+                locMetric, previous);
+        
         Iterator<ProjectFile> i = projectFiles.iterator();
         
         while (i.hasNext()) {
@@ -443,20 +447,20 @@ public class ContributionMetricImpl extends AbstractMetric {
                 //Source file changed, calc number of lines commited
                 try {
                     if (pf.isDeleted()) {
-                    	int locPrev = getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
+                    	int locPrev = getLOCResult(previous.get(pf.getId()), plugin, locMetric, locs);
                         updateField(pv, dev, ActionType.CREM, true, locPrev);
                     } else if(pf.isReplaced()) {
-                    	int locPrev = getLOCResult(pf.getPreviousFileVersion(), plugin, locMetric);
+                    	int locPrev = getLOCResult(previous.get(pf.getId()), plugin, locMetric, locs);
                         updateField(pv, dev, ActionType.CREM, true, locPrev);
                         updateField(pv, dev, ActionType.CNS, true, 1);
                         updateField(pv, dev, ActionType.CADD, true, 
-                        		getLOCResult(pf, plugin, locMetric));
+                        		getLOCResult(pf, plugin, locMetric, locs));
                     }
                     //Source file just added
                     else if (pf.isAdded()) {
                         updateField(pv, dev, ActionType.CNS, true, 1);
                         updateField(pv, dev, ActionType.CADD, true, 
-                        		getLOCResult(pf, plugin, locMetric));
+                        		getLOCResult(pf, plugin, locMetric, locs));
                     } else {
                         //Existing file, get lines of previous version
                         ProjectFile prevFile = pf.getPreviousFileVersion();
@@ -530,11 +534,51 @@ public class ContributionMetricImpl extends AbstractMetric {
         }
     }
 
+    /*
+     * Get the line counts that are already calculated for the text files 
+     * in the provided list and, for deleted and replaced files, for their 
+     * previous versions, which are stored in previous.
+     */
+    private LongHashMap<List<Result>> getLOCResults(Set<ProjectFile> files,
+            AlitheiaPlugin plugin, List<Metric> locMetric, 
+            LongHashMap<ProjectFile> previous) {
+        FileTypeMatcher ftm = FileTypeMatcher.getInstance();
+        LongBitmapSet ids = new LongBitmapSet();
+        
+        for (ProjectFile pf : files) {
+            if (pf.getIsDirectory() || pf.getCopyFrom() != null 
+                    || !ftm.isTextType(pf.getFileName()))
+                continue;
+            
+            if (pf.isDeleted() || pf.isReplaced()) {
+                ProjectFile prev = pf.getPreviousFileVersion();
+                if (prev != null) {
+                    previous.put(pf.getId(), prev);
+                    ids.add(prev.getId());
+                }
+            }
+            
+            if (!pf.isDeleted())
+                ids.add(pf.getId());
+        }
+        
+        try {
+            return plugin.getResultsIfAlreadyCalculated(ProjectFile.class, 
+                    ids.toLongArray(), locMetric);
+        } catch (MetricMismatchException e) {
+            return new LongHashMap<List<Result>>();
+        }
+    }
+
     private int getLOCResult(ProjectFile pf, AlitheiaPlugin plugin, 
-            List<Metric> locMetric) 
+            List<Metric> locMetric, LongHashMap<List<Result>> locs) 
         throws MetricMismatchException, AlreadyProcessingException, Exception {
       //Get lines of current version of the file from the wc metric
-        List<Result> r = plugin.getResult(pf, locMetric);
+        List<Result> r = null;
+        if (pf != null)
+            r = locs.get(pf.getId());
+        if (r == null)
+            r = plugin.getResult(pf, locMetric);
         if (r != null && !r.isEmpty()) {
             return Integer.parseInt(r.get(0).getResult().toString());
         }
@@ -56,6 +56,7 @@ import eu.sqooss.service.db.ProjectFile;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.db.StoredProject;
+import eu.sqooss.service.util.LongHashMap;
 
 /**
  * Discussion heat plug-in. 
@@ -164,10 +165,19 @@ public class DiscussionHeat extends AbstractMetric {
         metricList.add(metric);
         int result = 0;
         try {
+            /* Fetch the results that are already there in one go */
+            long[] ids = new long[versions.size()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = versions.get(i).getId();
+            LongHashMap<List<Result>> calculated = 
+                getResultsIfAlreadyCalculated(ProjectVersion.class, ids, metricList);
+            
             for (ProjectVersion version : versions) {
-                List<Result> r = getResult(version, metricList);
+                List<Result> r = calculated.get(version.getId());
+                if (r == null)
+                    r = getResult(version, metricList);
                 if (r != null && !r.isEmpty()) {
-                    result += (Integer)r.get(0).getResult();
+                    result += Integer.parseInt(r.get(0).getResult().toString());
                 }
             }
         } catch (MetricMismatchException e) {
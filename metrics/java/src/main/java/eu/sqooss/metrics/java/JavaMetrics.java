@@ -163,7 +163,12 @@ public class JavaMetrics extends AbstractMetric {
         }
 
         // Parse the input file
-        ANTLRInputStream input = new ANTLRInputStream(in);
+        ANTLRInputStream input;
+        try {
+            input = new ANTLRInputStream(in);
+        } finally {
+            in.close();
+        }
         JavaTreeLexer lexer = new JavaTreeLexer(input);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         JavaTreeParser parser = new JavaTreeParser(tokens);
@@ -53,6 +53,7 @@ import eu.sqooss.service.db.ProjectFileState;
 import eu.sqooss.service.db.ProjectVersion;
 import eu.sqooss.service.db.ProjectVersionMeasurement;
 import eu.sqooss.service.fds.FileTypeMatcher;
+import eu.sqooss.service.util.LongHashMap;
 
 /**
  * Implements module and project wide maintainability index calculation
@@ -134,56 +135,60 @@ public class Mi extends AbstractMetric {
         int totalLoCom = 0, totalG = 0, totalLoC = 0;
         FileTypeMatcher ftm = FileTypeMatcher.getInstance();
         
+        List<Long> srcFiles = new ArrayList<Long>();
         for (ProjectFile f : fileList) {
-                        
             if (f.getIsDirectory() || !ftm.isSourceFile(f.getFileName()))
                 continue;
+            srcFiles.add(f.getId());
+        }
+        long[] ids = new long[srcFiles.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = srcFiles.get(i);
+        
+        /* Get the results for all files in the directory at once */
+        LongHashMap<List<Result>> structureResults = 
+            getResults(structure, ids, hvmetric, eccmetric);
+        LongHashMap<List<Result>> locResults = 
+            getResults(loc, ids, locmetric, locommetric);
+        
+        for (long f : ids) {
             
-            Double HV = getResult(structure, hvmetric, f, Double.class);
+            Double HV = getResult(structureResults.get(f), hvmetric, Double.class);
             
             if (HV == null) {
                 log.warn("Error getting metric " + MNEM_HV 
-                        + " for file " + f);
+                        + " for file id " + f);
                 continue;
-            } else {
-                totalV += HV;
             }
             
-            Integer ECC_TOTAL = getResult(structure, eccmetric, f, Integer.class);
+            Integer ECC_TOTAL = getResult(structureResults.get(f), eccmetric, Integer.class);
             
             if (ECC_TOTAL == null) {
                 log.warn("Error getting metric " + MNEM_ECC 
-                        + " for file " + f);
-                totalV -= HV;
+                        + " for file id " + f);
                 continue;
-            } else {
-                totalG += ECC_TOTAL;
             }
             
-            Integer LOC = getResult(loc, locmetric, f, Integer.class);
+            Integer LOC = getResult(locResults.get(f), locmetric, Integer.class);
             
             if (LOC == null) {
                 log.warn("Error getting metric " + MNEM_LOC
-                        + " for file " + f);
-                totalV -= HV;
-                totalG -= ECC_TOTAL;
+                        + " for file id " + f);
                 continue;
-            } else {
-                totalLoC += LOC;
             }
             
-            Integer LOCOM = getResult(loc, locommetric , f, Integer.class);
+            Integer LOCOM = getResult(locResults.get(f), locommetric, Integer.class);
             
             if (LOCOM == null) {
                 log.warn("Error getting metric " + MNEM_LOCOM 
-                        + " for file " + f);
-                totalV -= HV;
-                totalG -= ECC_TOTAL;
-                totalLoC -= LOC;
+                        + " for file id " + f);
                 continue;
-            } else {
-                totalLoCom += LOCOM;
             }
+            
+            totalV += HV;
+            totalG += ECC_TOTAL;
+            totalLoC += LOC;
+            totalLoCom += LOCOM;
         }
          
         /* This means that while the module is a source module
@@ -220,32 +225,13 @@ public class Mi extends AbstractMetric {
         String paramIsDirectory = "is_directory";
         String paramMNOL = "paramMNOL";
         String paramISSRCDIR = "paramISSRCDIR";
-        String paramVersionId = "paramVersionId";
-        String paramProjectId = "paramProjectId";
         String paramState = "paramStatus";
         
         StringBuffer q = new StringBuffer("select pfm ");
         Map<String,Object> params = new HashMap<String,Object>();
 
-        if (pv.getSequence() == ProjectVersion.getLastProjectVersion(pv.getProject()).getSequence()) {
-            q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
-            q.append(" where pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf, ");
-            q.append(" ProjectFileMeasurement pfm ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and pf.validFrom.id = pv2.id");
-            q.append(" and pf.validUntil.id = pv3.id");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-           
-            params.put(paramProjectId, pv.getProject().getId());
-            params.put(paramVersionId, pv.getId());
-        }
+        q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
+        q.append(" where").append(pv.liveFilesCondition(params));
         
         q.append(" and pf.state <> :").append(paramState);
         q.append(" and pf.isDirectory = :").append(paramIsDirectory);
@@ -290,6 +276,58 @@ public class Mi extends AbstractMetric {
     
     
   
+    /**
+     * Get the results of the provided metrics for a list of files, without
+     * triggering a metric calculation.
+     * 
+     * @return A map from file id to results, empty on error
+     */
+    private LongHashMap<List<Result>> getResults(AlitheiaPlugin plugin, 
+            long[] ids, Metric... metrics) {
+        if (plugin == null) {
+            log.error("Could not find the " + metrics[0].getMnemonic() 
+                    + " metric's plug-in");
+            return new LongHashMap<List<Result>>();
+        }
+        
+        List<Metric> l = new ArrayList<Metric>();
+        for (Metric m : metrics)
+            l.add(m);
+        try {
+            return plugin.getResultsIfAlreadyCalculated(ProjectFile.class, ids, l);
+        } catch (Exception e) {
+            log.error(this.getName() + ": Results for metric " 
+                    + metrics[0].getMnemonic() + " cannot be retrieved");
+            return new LongHashMap<List<Result>>();
+        }
+    }
+    
+    /**
+     * Pick the (numeric) result of metric m out of a list of results.
+     * 
+     * @return The metric result or null if it is not in the list
+     */
+    private <E extends Number> E getResult(List<Result> r, Metric m, 
+            Class<E> resultType) {
+        if (r == null)
+            return null;
+        
+        for (Result res : r) {
+            if (!res.getMetricId().equals(m.getId()))
+                continue;
+            
+            if (resultType.equals(Double.class))
+                return (E) new Double(res.getResult().toString());
+
+            if (resultType.equals(Integer.class))
+                return (E) new Integer(res.getResult().toString());
+
+            if (resultType.equals(Float.class))
+                return (E) new Float(res.getResult().toString());
+        }
+        return null;
+    }
+    
     /**
      * Convenience method that returns the (numeric) result for a single metric
      * for which we now the return type. This method will not trigger a metric
@@ -188,7 +188,14 @@ public class Structural extends AbstractMetric {
         }
         
         /* Read the input file and remove all comments */
-        byte[] fileContents = stripComments(in);
+        byte[] fileContents;
+        try {
+            fileContents = stripComments(in);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
         
         /* Remove string contents */
         fileContents = stripStrings(fileContents);
@@ -244,34 +244,42 @@ public class WcImplementation extends AbstractMetric {
             results = processStream(extension, in);
         } catch (IOException e) {
             log.warn("Failed to read file <" + pf.getFileName() +">",e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {}
         }
         
 
-        // Store the results
+        // Store the results, in a single flush
         List<Metric> toUpdate = new ArrayList<Metric>();
+        List<ProjectFileMeasurement> measurements = 
+            new ArrayList<ProjectFileMeasurement>(4);
         Metric metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LOC);
         ProjectFileMeasurement locm = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[0]));
-        db.addRecord(locm);
+        measurements.add(locm);
         toUpdate.add(metric);
 
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LOCOM);
         ProjectFileMeasurement locc = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[1]));
-        db.addRecord(locc);
+        measurements.add(locc);
         toUpdate.add(metric);
         
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_LONB);
         ProjectFileMeasurement lonb = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[2]));
-        db.addRecord(lonb);
+        measurements.add(lonb);
         toUpdate.add(metric);
 
         metric = Metric.getMetricByMnemonic(MNEMONIC_WC_WORDS);
         ProjectFileMeasurement words_measure = new ProjectFileMeasurement(
                 metric,pf,String.valueOf(results[3]));
-        db.addRecord(words_measure);
+        measurements.add(words_measure);
         toUpdate.add(metric);
+        
+        db.addRecords(measurements);
     }
 
     /**
@@ -400,34 +408,16 @@ public class WcImplementation extends AbstractMetric {
 
     public void run(ProjectVersion v) throws AlreadyProcessingException {
         
-        String paramVersionId = "paramVersion";
         String paramMetricLoC = "paramMetricLoC";
         String paramMetricLoCom = "paramMetricLoCom";
         String paramIsDirectory = "paramIsDirectory";
-        String paramProjectId = "paramProjectId";
         String paramState = "paramState";
         Map<String, Object> params = new HashMap<String, Object>();
        
         /* Get all measurements for live version files for metrics LoC and LoCom*/ 
         StringBuffer q = new StringBuffer("select pfm ");
-        if (v.getSequence() == ProjectVersion.getLastProjectVersion(v.getProject()).getSequence()) {
-            q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
-            q.append(" where pf.validUntil is null ");
-        } else {
-            q.append(" from ProjectVersion pv, ProjectVersion pv2,");
-            q.append(" ProjectVersion pv3, ProjectFile pf, ProjectFileMeasurement pfm ");
-            q.append(" where pv.project.id = :").append(paramProjectId);
-            q.append(" and pv.id = :").append(paramVersionId);
-            q.append(" and pv2.project.id = :").append(paramProjectId);
-            q.append(" and pv3.project.id = :").append(paramProjectId);
-            q.append(" and pf.validFrom.id = pv2.id");
-            q.append(" and pf.validUntil.id = pv3.id");
-            q.append(" and pv2.sequence <= pv.sequence");
-            q.append(" and pv3.sequence >= pv.sequence");
-            
-            params.put(paramProjectId, v.getProject().getId());
-            params.put(paramVersionId, v.getId());
-        }
+        q.append(" from ProjectFile pf, ProjectFileMeasurement pfm");
+        q.append(" where").append(v.liveFilesCondition(params));
         q.append(" and pfm.projectFile = pf ");
         q.append(" and pf.state <> :").append(paramState);
         q.append(" and pf.isDirectory = :").append(paramIsDirectory);
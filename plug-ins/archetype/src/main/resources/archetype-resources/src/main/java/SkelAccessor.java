@@ -95,6 +95,10 @@ public class SkelAccessor implements SCMAccessor {
                InvalidRepositoryException,
                FileNotFoundException {return;}
 
+    public String getFileHash(String repoPath, Revision revision)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {return null;}
+
     public CommitLog getCommitLog(String repoPath, Revision r1, Revision r2)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException {return null;}
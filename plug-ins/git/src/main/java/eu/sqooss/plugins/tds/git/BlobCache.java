@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.git;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A least recently used cache of inflated blob contents, bounded by the
+ * total size of the cached blobs. Metrics tend to read the same file 
+ * revisions repeatedly, each read requiring the blob to be inflated and
+ * its delta chain to be applied; the cache serves the repeated reads.
+ * Blobs larger than a fraction of the cache size are not admitted, so 
+ * that a single large file cannot flush the cache.
+ * 
+ * Cached contents are shared, not copied: callers must not modify the
+ * arrays they put in or get from the cache.
+ */
+class BlobCache {
+
+    /** Blobs larger than capacity / MAX_ENTRY_FRACTION are not admitted */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    /* Access ordered, the eldest entry is the least recently used one */
+    private LinkedHashMap<ObjectId, byte[]> blobs = 
+        new LinkedHashMap<ObjectId, byte[]>(256, 0.75f, true);
+    private long capacity;
+    private long size = 0;
+
+    BlobCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Check whether a blob of the provided size would be admitted
+     */
+    boolean admits(long length) {
+        return length <= capacity / MAX_ENTRY_FRACTION;
+    }
+
+    synchronized byte[] get(ObjectId id) {
+        return blobs.get(id);
+    }
+
+    synchronized void put(ObjectId id, byte[] data) {
+        if (!admits(data.length) || blobs.containsKey(id))
+            return;
+
+        /* Blob ids are immutable, so are the keys */
+        blobs.put(id.copy(), data);
+        size += data.length;
+
+        Iterator<Map.Entry<ObjectId, byte[]>> i = blobs.entrySet().iterator();
+        while (size > capacity && i.hasNext()) {
+            size -= i.next().getValue().length;
+            i.remove();
+        }
+    }
+
+    synchronized int entries() {
+        return blobs.size();
+    }
+
+    synchronized long size() {
+        return size;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Index of the children of each commit in a repository. The children of
+ * each commit are kept sorted by author date, so lookups do not need to 
+ * parse any commits. 
+ * 
+ * The index is stored in a file and updated incrementally: each update only
+ * walks the commits between the current HEAD and the HEAD at the time 
+ * of the previous update. If the previous HEAD is not an ancestor of the
+ * current one, as after a forced push or a reset, the index is rebuilt 
+ * from scratch.
+ */
+class CommitChildIndex {
+
+    private static final int MAGIC = 0x41434349; //ACCI
+    private static final int VERSION = 1;
+    private static final ObjectId[] NO_CHILDREN = new ObjectId[0];
+    
+    /** A commit with its children */
+    private static class Node extends ObjectId {
+        ObjectId[] children = NO_CHILDREN;
+        long[] times;
+        
+        Node(AnyObjectId id) {
+            super(id);
+        }
+        
+        /* Insertion sort, commits have very few children */
+        void addChild(ObjectId child, long time) {
+            int n = children.length;
+            for (int i = 0; i < n; i++)
+                if (children[i].equals(child))
+                    return;
+            
+            ObjectId[] c = new ObjectId[n + 1];
+            long[] t = new long[n + 1];
+            int pos = n;
+            while (pos > 0 && times[pos - 1] > time)
+                pos--;
+            if (n > 0) {
+                System.arraycopy(children, 0, c, 0, pos);
+                System.arraycopy(times, 0, t, 0, pos);
+                System.arraycopy(children, pos, c, pos + 1, n - pos);
+                System.arraycopy(times, pos, t, pos + 1, n - pos);
+            }
+            c[pos] = child;
+            t[pos] = time;
+            children = c;
+            times = t;
+        }
+    }
+    
+    private Repository git;
+    private File file;
+    private ObjectIdSubclassMap<Node> nodes;
+    /** HEAD at the time of the last update */
+    private ObjectId tip;
+    
+    CommitChildIndex(Repository git, File file) {
+        this.git = git;
+        this.file = file;
+    }
+    
+    /**
+     * Get the children of a commit, in ascending author date order.
+     */
+    synchronized ObjectId[] children(AnyObjectId commit) throws IOException {
+        if (nodes == null)
+            update();
+        Node n = nodes.get(commit);
+        return (n == null) ? NO_CHILDREN : n.children;
+    }
+    
+    /**
+     * Add the commits that were added to the repository since the last 
+     * update to the index and store the result.
+     */
+    synchronized void update() throws IOException {
+        if (nodes == null && !load())
+            clear();
+        
+        ObjectId head = git.resolve(Constants.HEAD);
+        if (head == null || head.equals(tip))
+            return;
+        
+        RevWalk rw = new RevWalk(git);
+        try {
+            RevCommit headCommit = rw.parseCommit(head);
+            RevCommit oldTip = null;
+            if (tip != null) {
+                try {
+                    oldTip = rw.parseCommit(tip);
+                } catch (MissingObjectException e) {}
+                
+                /* History was rewritten, children of the old commits 
+                 * may no longer be reachable */
+                if (oldTip == null || !rw.isMergedInto(oldTip, headCommit)) {
+                    oldTip = null;
+                    clear();
+                }
+                rw.reset();
+            }
+            
+            rw.markStart(headCommit);
+            if (oldTip != null)
+                rw.markUninteresting(oldTip);
+            
+            RevCommit c;
+            while ((c = rw.next()) != null) {
+                long time = c.getAuthorIdent().getWhen().getTime();
+                ObjectId child = c.copy();
+                for (RevCommit parent : c.getParents()) {
+                    Node n = nodes.get(parent);
+                    if (n == null) {
+                        n = new Node(parent);
+                        nodes.add(n);
+                    }
+                    n.addChild(child, time);
+                }
+            }
+        } finally {
+            rw.release();
+        }
+        
+        tip = head.copy();
+        save();
+    }
+    
+    private void clear() {
+        nodes = new ObjectIdSubclassMap<Node>();
+        tip = null;
+    }
+    
+    /* 
+     * Format: magic, version, tip, number of nodes, and for each node its 
+     * id, its number of children and each child's id and author time.
+     */
+    private boolean load() {
+        if (!file.exists())
+            return false;
+        
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return false;
+            
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            in.readFully(raw);
+            ObjectId t = ObjectId.fromRaw(raw);
+            
+            ObjectIdSubclassMap<Node> m = new ObjectIdSubclassMap<Node>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                in.readFully(raw);
+                Node n = new Node(ObjectId.fromRaw(raw));
+                int numChildren = in.readInt();
+                n.children = new ObjectId[numChildren];
+                n.times = new long[numChildren];
+                for (int j = 0; j < numChildren; j++) {
+                    in.readFully(raw);
+                    n.children[j] = ObjectId.fromRaw(raw);
+                    n.times[j] = in.readLong();
+                }
+                m.add(n);
+            }
+            
+            nodes = m;
+            tip = t;
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(in);
+        }
+    }
+    
+    private void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)));
+        try {
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            tip.copyRawTo(raw, 0);
+            out.write(raw);
+            out.writeInt(nodes.size());
+            for (Node n : nodes) {
+                n.copyRawTo(raw, 0);
+                out.write(raw);
+                out.writeInt(n.children.length);
+                for (int j = 0; j < n.children.length; j++) {
+                    n.children[j].copyRawTo(raw, 0);
+                    out.write(raw);
+                    out.writeLong(n.times[j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+    
+    private void close(DataInputStream in) {
+        if (in == null)
+            return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
@@ -31,26 +31,37 @@
 package eu.sqooss.plugins.tds.git;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
@@ -63,6 +74,7 @@ import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -72,6 +84,8 @@ import eu.sqooss.service.tds.AnnotatedLine;
 import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.CommitLog;
 import eu.sqooss.service.tds.Diff;
+import eu.sqooss.service.tds.DiffFactory;
+import eu.sqooss.service.tds.DiffOutputStream;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
 import eu.sqooss.service.tds.PathChangeType;
@@ -79,6 +93,7 @@ import eu.sqooss.service.tds.Revision;
 import eu.sqooss.service.tds.SCMAccessor;
 import eu.sqooss.service.tds.SCMNode;
 import eu.sqooss.service.tds.SCMNodeType;
+import eu.sqooss.service.util.FileUtils;
 
 /**
  * An accessor for Git repositories. Encapsulates the functionality provided by
@@ -102,7 +117,19 @@ public class GitAccessor implements SCMAccessor {
     private Repository git = null;
     private Logger logger = null;
     
-    private Map<String, List<String>> childrenOf;
+    private CommitChildIndex childIndex;
+    private Map<ObjectId, String> tags;
+    
+    /** Maximum size in bytes of the inflated blobs kept in memory */
+    public static final String BLOB_CACHE_SIZE = "eu.sqooss.tds.git.blobcache.size";
+    
+    /** Default blob cache size, 16MB */
+    public static final long DEFAULT_BLOB_CACHE_SIZE = 16 * 1024 * 1024;
+    
+    private static BlobCache blobCache;
+    
+    /** Name of the commit children index file in the repository directory */
+    private static final String CHILD_INDEX_FILE = "alitheia-children.idx";
     
     static {
         supportedSchemes = new ArrayList<URI>();
@@ -298,23 +325,255 @@ public class GitAccessor implements SCMAccessor {
     public void getCheckout(String repoPath, Revision revision, File localPath)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        
+        if (!localPath.isDirectory())
+            throw new FileNotFoundException(localPath.getPath());
+        
+        String path = toGitPath(repoPath);
+        RevTree tree = resolveTree(revision);
+        
+        SCMNodeType type = getNodeType(repoPath, revision, tree);
+        if (type == SCMNodeType.UNKNOWN)
+            throw new FileNotFoundException(repoPath + "@" + revision.getUniqueId());
+        
+        if (type == SCMNodeType.FILE) {
+            getFile(repoPath, revision, new File(localPath, FileUtils.basename(path)));
+            return;
+        }
+        
+        TreeWalk tw = new TreeWalk(git);
+        try {
+            tw.addTree(tree);
+            tw.setRecursive(true);
+            if (!path.isEmpty())
+                tw.setFilter(PathFilter.create(path));
+            
+            while (tw.next()) {
+                writeBlob(tw.getObjectId(0), tw.getFileMode(0),
+                        new File(localPath, relativePath(path, tw.getPathString())));
+            }
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(this.uri.toString(),
+                    e.getMessage());
+        } finally {
+            tw.release();
+        }
+    }
 
     public void updateCheckout(String repoPath, Revision src,
         Revision dst, File localPath)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        
+        if (!localPath.isDirectory())
+            throw new FileNotFoundException(localPath.getPath());
+        
+        String path = toGitPath(repoPath);
+        RevTree from = resolveTree(src);
+        RevTree to = resolveTree(dst);
+        
+        SCMNodeType type = getNodeType(repoPath, dst, to);
+        if (type == SCMNodeType.UNKNOWN)
+            throw new FileNotFoundException(repoPath + "@" + dst.getUniqueId());
+        
+        if (type == SCMNodeType.FILE) {
+            getFile(repoPath, dst, new File(localPath, FileUtils.basename(path)));
+            return;
+        }
+        
+        /* Only visit the paths that differ between the two revisions */
+        TreeWalk tw = new TreeWalk(git);
+        try {
+            tw.addTree(from);
+            tw.addTree(to);
+            tw.setRecursive(true);
+            if (path.isEmpty())
+                tw.setFilter(TreeFilter.ANY_DIFF);
+            else 
+                tw.setFilter(AndTreeFilter.create(PathFilter.create(path), 
+                        TreeFilter.ANY_DIFF));
+            
+            while (tw.next()) {
+                File f = new File(localPath, relativePath(path, tw.getPathString()));
+                if (tw.getFileMode(1) == FileMode.MISSING) {
+                    f.delete();
+                } else {
+                    writeBlob(tw.getObjectId(1), tw.getFileMode(1), f);
+                }
+            }
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(this.uri.toString(),
+                    e.getMessage());
+        } finally {
+            tw.release();
+        }
+    }
 
     public void getFile(String repoPath, Revision revision, File localPath)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        /* Resolve the path first, not to leave an empty file behind */
+        ObjectId id = blobId(repoPath, revision);
+        if (id == null)
+            throw new FileNotFoundException(repoPath + "@" 
+                    + revision.getUniqueId());
+        writeBlob(id, FileMode.REGULAR_FILE, localPath);
+    }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The contents are streamed from the repository; small blobs are kept
+     * in a cache shared by all Git accessors, as blobs with the same id 
+     * have the same contents in any repository. The stream is closed.
+     */
     public void getFile(String repoPath, Revision revision, OutputStream stream)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return;}
+               FileNotFoundException {
+        try {
+            ObjectId id = blobId(repoPath, revision);
+            if (id == null)
+                throw new FileNotFoundException(repoPath + "@" 
+                        + revision.getUniqueId());
+            copyBlob(id, stream);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                warn("Failed to close output stream for " + repoPath + ":" 
+                        + e.getMessage());
+            }
+        }
+    }
+
+    public String getFileHash(String repoPath, Revision revision)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        ObjectId id = blobId(repoPath, revision);
+        return (id == null) ? null : id.name();
+    }
+    
+    /*
+     * Get the id of the blob stored at a path, or null if the path does
+     * not exist or is not a file.
+     */
+    private ObjectId blobId(String repoPath, Revision revision)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        RevTree tree = resolveTree(revision);
+        TreeWalk tw = null;
+        try {
+            tw = TreeWalk.forPath(git, toGitPath(repoPath), tree);
+            if (tw == null || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB)
+                return null;
+            return tw.getObjectId(0);
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(this.uri.toString(),
+                    e.getMessage());
+        } finally {
+            if (tw != null) tw.release();
+        }
+    }
+    
+    private RevTree resolveTree(Revision revision) 
+        throws InvalidProjectRevisionException {
+        if (revision == null || !isValidRevision(revision))
+            throw new InvalidProjectRevisionException(
+                    (revision == null) ? null : revision.getUniqueId(), getClass());
+        
+        RevCommit c = resolveGitRev(revision.getUniqueId());
+        if (c == null)
+            throw new InvalidProjectRevisionException(revision.getUniqueId(),
+                    getClass());
+        return c.getTree();
+    }
+    
+    /*
+     * Write a blob to a stream. Blobs that fit in the blob cache are 
+     * inflated in memory and cached, larger ones are streamed from the
+     * object database without being fully loaded.
+     */
+    private void copyBlob(ObjectId id, OutputStream out) 
+        throws InvalidRepositoryException {
+        BlobCache cache = blobCache();
+        try {
+            byte[] data = cache.get(id);
+            if (data != null) {
+                out.write(data);
+                return;
+            }
+            
+            ObjectLoader loader = git.open(id, Constants.OBJ_BLOB);
+            if (!loader.isLarge() && cache.admits(loader.getSize())) {
+                data = loader.getCachedBytes();
+                cache.put(id, data);
+                out.write(data);
+            } else {
+                loader.copyTo(out);
+            }
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(this.uri.toString(),
+                    "Cannot read blob " + id.name() + ": " + e.getMessage());
+        }
+    }
+    
+    /*
+     * Write a blob to a file in a checkout, creating its parent 
+     * directories. Submodules are created as empty directories. The
+     * file is removed if the blob cannot be read.
+     */
+    private void writeBlob(ObjectId id, FileMode mode, File f)
+        throws InvalidRepositoryException, FileNotFoundException {
+        if (mode == FileMode.GITLINK) {
+            f.mkdirs();
+            return;
+        }
+        
+        f.getParentFile().mkdirs();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        boolean written = false;
+        try {
+            copyBlob(id, out);
+            written = true;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                warn("Failed to close " + f + ":" + e.getMessage());
+            }
+            if (!written)
+                f.delete();
+        }
+        if (mode == FileMode.EXECUTABLE_FILE)
+            f.setExecutable(true);
+    }
+    
+    /* Path of a tree walk entry relative to the checked out path */
+    private String relativePath(String base, String path) {
+        if (base.isEmpty())
+            return path;
+        if (path.length() <= base.length())
+            return FileUtils.basename(path);
+        return path.substring(base.length() + 1);
+    }
+    
+    private static synchronized BlobCache blobCache() {
+        if (blobCache == null) {
+            long size = DEFAULT_BLOB_CACHE_SIZE;
+            String prop = System.getProperty(BLOB_CACHE_SIZE);
+            if (prop != null) {
+                try {
+                    size = Long.parseLong(prop.trim());
+                } catch (NumberFormatException ignored) {}
+            }
+            blobCache = new BlobCache(size);
+        }
+        return blobCache;
+    }
     
     public CommitLog getCommitLog(String repoPath, Revision r1, Revision r2)
     throws InvalidProjectRevisionException, InvalidRepositoryException  {
@@ -375,19 +634,111 @@ public class GitAccessor implements SCMAccessor {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The diff is produced in the unified format expected by
+     * {@link DiffFactory#newUnifiedDiffStream(Revision, Revision, String, Charset)},
+     * with absolute paths. Renames are reported as a deletion of the old 
+     * path and an addition of the new one.
+     */
     public Diff getDiff(String repoPath, Revision r1, Revision r2)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
-               FileNotFoundException {return null;}
+               FileNotFoundException {
+        if (r2 == null)
+            r2 = getNextRevision(r1);
+        
+        RevTree a = resolveTree(r1);
+        RevTree b = resolveTree(r2);
+        String path = toGitPath(repoPath);
+        
+        // Parse the diff as it is formatted
+        DiffOutputStream out = DiffFactory.getInstance().newUnifiedDiffStream(
+                r1, r2, "/", Charset.forName("UTF-8"));
+        DiffFormatter diffFmt = new DiffFormatter(out);
+        DiffAlgorithm diffAlgorithm = new HistogramDiff();
+        try {
+            diffFmt.setRepository(git);
+            if (!path.isEmpty())
+                diffFmt.setPathFilter(PathFilter.create(path));
+            
+            for (DiffEntry ent : diffFmt.scan(a, b)) {
+                if (ent.getOldMode() == FileMode.GITLINK || 
+                        ent.getNewMode() == FileMode.GITLINK)
+                    continue;
+                
+                String name = (ent.getChangeType() == DiffEntry.ChangeType.DELETE) ? 
+                        ent.getOldPath() : ent.getNewPath();
+                /* Headers as written by svn diff, that the parser understands */
+                out.write(Constants.encode("--- " + name + "\t(revision " 
+                        + r1.getUniqueId() + ")\n"));
+                out.write(Constants.encode("+++ " + name + "\t(revision " 
+                        + r2.getUniqueId() + ")\n"));
+                
+                /* Read each side once, and compute the edits from it */
+                byte[] oldData = blob(ent.getOldId(), ent.getOldMode());
+                byte[] newData = blob(ent.getNewId(), ent.getNewMode());
+                if (RawText.isBinary(oldData) || RawText.isBinary(newData))
+                    continue;
+                RawText oldText = new RawText(oldData);
+                RawText newText = new RawText(newData);
+                EditList edits = diffAlgorithm.diff(RawTextComparator.DEFAULT, 
+                        oldText, newText);
+                if (edits.isEmpty())
+                    continue;
+                diffFmt.format(edits, oldText, newText);
+            }
+            diffFmt.flush();
+            out.close();
+        } catch (IOException e) {
+            throw new InvalidRepositoryException(this.uri.toString(),
+                    "Cannot diff " + repoPath + ": " + e.getMessage());
+        } finally {
+            diffFmt.release();
+        }
+        
+        return out.getDiff();
+    }
+    
+    /* The contents of a diff entry side, empty if it does not exist */
+    private byte[] blob(AbbreviatedObjectId id, FileMode mode) 
+        throws InvalidRepositoryException {
+        if (mode == FileMode.MISSING || id == null || !id.isComplete())
+            return new byte[0];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copyBlob(id.toObjectId(), out);
+        return out.toByteArray();
+    }
 
     public SCMNodeType getNodeType(String repoPath, Revision r)
         throws InvalidRepositoryException {
         
+        if (r instanceof GitRevision) {
+            GitRevision rev = (GitRevision) r;
+            SCMNodeType t = rev.getNodeType(repoPath);
+            /* 
+             * Classify all changed paths at once, as the updater asks for
+             * all of them
+             */
+            if (t == null && !rev.hasNodeTypes() && isValidRevision(rev)
+                    && rev.getChangedPaths().contains(repoPath)) {
+                prefetch(rev);
+                t = rev.getNodeType(repoPath);
+            }
+            if (t != null)
+                return t;
+        }
+        
         if (!isValidRevision(r))
             throw new InvalidRepositoryException(repoPath, 
                     "The provided revision is not valid: " + r);
         
-        RevTree a = resolveGitRev(r.getUniqueId()).getTree();
+        return getNodeType(repoPath, r, 
+                resolveGitRev(r.getUniqueId()).getTree());
+    }
+    
+    private SCMNodeType getNodeType(String repoPath, Revision r, RevTree a) {
         TreeWalk tw = null;
         try {
         	String path = toGitPath(repoPath);
@@ -400,17 +751,7 @@ public class GitAccessor implements SCMAccessor {
             if (tw == null) 
                 return SCMNodeType.UNKNOWN;
             
-            FileMode fm = tw.getFileMode(0);
-
-            if (fm.equals(FileMode.REGULAR_FILE))
-            	return SCMNodeType.FILE;
-            if (fm.equals(FileMode.TREE))
-            	return SCMNodeType.DIR;
-            if(fm.equals(FileMode.GITLINK))
-            	return SCMNodeType.DIR;
-            if (fm.equals(FileMode.SYMLINK))
-            	return SCMNodeType.FILE; //FIXME: Need to track down link target
-            
+            return toNodeType(tw.getFileMode(0));
         } catch (Exception e) {
             warn("Path " + repoPath + " does not exist in revision " 
                     + r.getUniqueId() + ":" + e.getMessage());
@@ -440,86 +781,213 @@ public class GitAccessor implements SCMAccessor {
     
     /*Methods available only to clients GitAccessor clients*/
     
+    /**
+     * Resolve the changed paths and copy operations of a revision, and
+     * look up the node types of its changed paths, so that later calls 
+     * for them are answered without accessing the repository. Revisions
+     * can be prefetched concurrently from multiple threads.
+     * 
+     * @throws InvalidRepositoryException If the revision cannot be resolved
+     */
+    public void prefetch(Revision r) throws InvalidRepositoryException {
+        if (!isValidRevision(r))
+            throw new InvalidRepositoryException(uri.toString(), 
+                    "The provided revision is not valid: " + r);
+
+        GitRevision rev = (GitRevision) r;
+        rev.setNodeTypes(getNodeTypes(rev.getChangedPaths(), rev));
+    }
+    
+    /**
+     * Get the node types of a set of paths in a revision. All paths are
+     * classified in a single walk of the revision's tree, that only
+     * descends into the directories leading to the requested paths.
+     * 
+     * @return A map of the requested paths to their types. Paths that do
+     *  not exist in the revision are mapped to {@link SCMNodeType#UNKNOWN}
+     */
+    public Map<String, SCMNodeType> getNodeTypes(Set<String> paths, Revision r)
+        throws InvalidRepositoryException {
+        if (!isValidRevision(r))
+            throw new InvalidRepositoryException(uri.toString(), 
+                    "The provided revision is not valid: " + r);
+        
+        Map<String, SCMNodeType> types = new HashMap<String, SCMNodeType>();
+        /* Git path -> requested paths, which may differ in leading slashes */
+        Map<String, List<String>> requested = new HashMap<String, List<String>>();
+        /* Directories that have to be entered to reach the requested paths */
+        Set<String> parents = new HashSet<String>();
+        
+        for (String path : paths) {
+            String gitPath = toGitPath(path);
+            if (gitPath.isEmpty()) { //Only the root dir can have an empty path
+                types.put(path, SCMNodeType.DIR);
+                continue;
+            }
+            types.put(path, SCMNodeType.UNKNOWN);
+            List<String> l = requested.get(gitPath);
+            if (l == null) {
+                l = new ArrayList<String>(1);
+                requested.put(gitPath, l);
+            }
+            l.add(path);
+            
+            int idx = gitPath.lastIndexOf('/');
+            while (idx > 0) {
+                gitPath = gitPath.substring(0, idx);
+                if (!parents.add(gitPath))
+                    break;
+                idx = gitPath.lastIndexOf('/');
+            }
+        }
+        
+        if (requested.isEmpty())
+            return types;
+        
+        TreeWalk tw = new TreeWalk(git);
+        try {
+            tw.addTree(resolveGitRev(r.getUniqueId()).getTree());
+            tw.setFilter(PathFilterGroup.createFromStrings(requested.keySet()));
+            tw.setRecursive(false);
+            
+            while (tw.next()) {
+                String path = tw.getPathString();
+                List<String> l = requested.get(path);
+                if (l != null) {
+                    SCMNodeType t = toNodeType(tw.getFileMode(0));
+                    for (String p : l)
+                        types.put(p, t);
+                }
+                if (tw.isSubtree() && parents.contains(path))
+                    tw.enterSubtree();
+            }
+        } catch (IOException e) {
+            warn("Cannot get node types in revision " + r.getUniqueId() 
+                    + ":" + e.getMessage());
+        } finally {
+            tw.release();
+        }
+        return types;
+    }
+    
+    private SCMNodeType toNodeType(FileMode fm) {
+        if (fm.equals(FileMode.REGULAR_FILE))
+            return SCMNodeType.FILE;
+        if (fm.equals(FileMode.EXECUTABLE_FILE))
+            return SCMNodeType.FILE;
+        if (fm.equals(FileMode.TREE))
+            return SCMNodeType.DIR;
+        if(fm.equals(FileMode.GITLINK))
+            return SCMNodeType.DIR;
+        if (fm.equals(FileMode.SYMLINK))
+            return SCMNodeType.FILE; //FIXME: Need to track down link target
+        return SCMNodeType.UNKNOWN;
+    }
+    
     /**
      * Get a Map <code>{revisionId -> tagname}</code> for all revisions that 
-     * are marked with a tag 
+     * are marked with a tag. Annotated tags are mapped to the revision 
+     * they point to.
+     * 
+     * @see #getTag(String)
      */
     public Map<String, String> allTags() {
-    	Map<String, Ref> all = git.getAllRefs();
 		Map<String, String> result = new HashMap<String, String>();
 		
-		for (String ref : all.keySet()) {
-			if (!ref.contains("/tags/"))
-				continue;
-			String tagname = ref.substring(ref.lastIndexOf('/') + 1);
-			result.put(all.get(ref).getObjectId().getName(), tagname);
+		for (Map.Entry<ObjectId, String> e : tags().entrySet()) {
+			result.put(e.getKey().getName(), e.getValue());
 		}
 		
 		return result;
     }
     
+    /**
+     * Get the name of the tag marking a revision. The tags of the 
+     * repository are read on first use and kept until 
+     * {@link #refreshTags()} is called.
+     * 
+     * @return The tag name, or null if the revision is not tagged
+     */
+    public String getTag(String revisionId) {
+        return tags().get(ObjectId.fromString(revisionId));
+    }
+    
+    /**
+     * Forget the cached tags, so that tags added to the repository since
+     * they were read are seen. Updaters call this before an update.
+     */
+    public synchronized void refreshTags() {
+        tags = null;
+    }
+    
+    private synchronized Map<ObjectId, String> tags() {
+        if (tags != null)
+            return tags;
+        
+        long start = System.currentTimeMillis();
+        tags = new HashMap<ObjectId, String>();
+        for (Ref ref : git.getTags().values()) {
+            String name = ref.getName();
+            String tagname = name.substring(name.lastIndexOf('/') + 1);
+            ObjectId id = git.peel(ref).getPeeledObjectId();
+            if (id == null) //Not an annotated tag
+                id = ref.getObjectId();
+            tags.put(id, tagname);
+        }
+        debug("tags(): " + tags.size() + " tags in " 
+                + (System.currentTimeMillis() - start) + " msec");
+        return tags;
+    }
+    
     /**
      * Get the children (commits whose parents is the provided commit) 
      * of a commit. The returned array is sorted by commit time, so the
      * first entry corresponds to the first commit that is the immediate
      * child of the provided commit.
      * 
-     * <b>Warning:</b> This method can cause the accessor to use a lot 
-     * of memory in very large repositories, as it calculates and 
-     * caches all parent-childrelationships beforehand. 
+     * The children are looked up in an index stored in the repository 
+     * directory, which is created on first use and updated with 
+     * {@link #updateChildIndex()}.
      * 
      * @throws AccessorException When an error occurs during 
      */
     public String[] getCommitChidren(String revisionId) throws AccessorException {
-    	if (childrenOf == null) {
-            childrenOf = new HashMap<String, List<String>>();
-    		resolveChildren();
-    	}
-    	
-    	Revision[] children = new Revision[childrenOf.get(revisionId).size()];
-    	int i = 0;
-    	for (String childid : childrenOf.get(revisionId)) {
-    		children[i] = getRevision(resolveGitRev(childid), false);
-    		i++;
-    	}
-    	
-    	Arrays.sort(children, children[0]);
+        ObjectId[] children;
+        try {
+            children = childIndex().children(ObjectId.fromString(revisionId));
+        } catch (Exception e) {
+            throw new AccessorException(this.getClass(), "Error getting " +
+                    "commit children: " + e.getMessage());
+        }
     	
     	String[] chIds = new String[children.length];
-    	i = 0;
-    	for (Revision r : children) {
-    		chIds[i] = r.getUniqueId();
-    		i++;
-    	}
+    	for (int i = 0; i < children.length; i++)
+    		chIds[i] = children[i].getName();
     	
     	return chIds;
     }
     
-    private void resolveChildren() throws AccessorException {
-    	Long start = System.currentTimeMillis();
-    	RevWalk rw = new RevWalk(git);
-    	try {
-    		ObjectId revId = git.resolve(Constants.HEAD);
-            rw.sort(RevSort.COMMIT_TIME_DESC); //Doesn't really do anything
-            rw.markStart(rw.parseCommit(revId));
-            RevCommit c;
-            
-            while((c = rw.next()) != null) {
-            	for (RevCommit parent : c.getParents()) {
-            		if (!childrenOf.containsKey(parent.getName())) {
-            			childrenOf.put(parent.getName(), new ArrayList<String>());
-            		}
-            		childrenOf.get(parent.getName()).add(c.getName());
-            	}
-            }
-    	} catch (Exception e) {
-    		throw new AccessorException(this.getClass(), "Error getting " +
-    				"commit children: " + e.getMessage());
-		} finally {
-    		rw.release();
-    	}
-    	Long msec = System.currentTimeMillis() - start;
-    	debug("resolveChildren(): " + msec + " msec");
+    /**
+     * Add the commits that were added to the repository since the 
+     * last update to the commit children index.
+     */
+    public void updateChildIndex() throws AccessorException {
+        long start = System.currentTimeMillis();
+        try {
+            childIndex().update();
+        } catch (IOException e) {
+            throw new AccessorException(this.getClass(), "Error updating " +
+                    "commit children: " + e.getMessage());
+        }
+        debug("updateChildIndex(): " + (System.currentTimeMillis() - start) 
+                + " msec");
+    }
+    
+    private synchronized CommitChildIndex childIndex() {
+        if (childIndex == null) 
+            childIndex = new CommitChildIndex(git, 
+                    new File(git.getDirectory(), CHILD_INDEX_FILE));
+        return childIndex;
     }
     
     /* Accessor internal methods*/
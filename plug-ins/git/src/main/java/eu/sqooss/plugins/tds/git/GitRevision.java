@@ -41,6 +41,7 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.PathChangeType;
 import eu.sqooss.service.tds.Revision;
+import eu.sqooss.service.tds.SCMNodeType;
 
 /**
  * An implementation of the Revision interface for Git
@@ -56,6 +57,7 @@ public class GitRevision implements Revision {
     private Map<String, PathChangeType> changedPaths;
     private List<CommitCopyEntry> copyOps;
     private Set<String> parents;
+    private Map<String, SCMNodeType> nodeTypes;
 
     private boolean isResolved = false;
     GitAccessor git = null;
@@ -168,7 +170,31 @@ public class GitRevision implements Revision {
         return this.parents;
     }
 
-    private void resolve() {
+    /**
+     * Get the node type of a changed path, if it has been looked up
+     * when the revision was prefetched.
+     * 
+     * @return The node type, or null if it is not known
+     */
+    synchronized SCMNodeType getNodeType(String path) {
+        if (nodeTypes == null)
+            return null;
+        return nodeTypes.get(path);
+    }
+
+    synchronized boolean hasNodeTypes() {
+        return nodeTypes != null;
+    }
+
+    synchronized void setNodeTypes(Map<String, SCMNodeType> nodeTypes) {
+        this.nodeTypes = nodeTypes;
+    }
+
+    /* 
+     * Synchronized, as revisions can be resolved by a prefetching thread
+     * while the updater thread asks for their contents.
+     */
+    private synchronized void resolve() {
         if (isResolved == false) {
             GitRevision r = git.getRevision(commit, true);
             this.changedPaths = r.changedPaths;
@@ -33,6 +33,7 @@ package eu.sqooss.plugins.updater.git;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -83,6 +84,12 @@ public class GitUpdater implements MetadataUpdater {
     private DBService dbs;
     private float progress;
     
+    /** Number of threads resolving revisions ahead of the updater */
+    public static final String PREFETCH_WORKERS = "eu.sqooss.updater.git.workers";
+    
+    /** Maximum number of revisions resolved ahead of the updater */
+    public static final String PREFETCH_LOOKAHEAD = "eu.sqooss.updater.git.lookahead";
+    
     /*
      * Possible set of valid file state transitions
      */
@@ -156,6 +163,11 @@ public class GitUpdater implements MetadataUpdater {
         
         info("Running source update for project " + project.getName() 
                 + " ID " + project.getId());
+
+        //Fill in the validity intervals of files stored by older versions
+        int filled = ProjectFile.fillValidityIntervals(project);
+        if (filled > 0)
+            info("Filled in validity intervals of " + filled + " file versions");
         
         //Compare latest DB version with the repository
         ProjectVersion latestVersion = ProjectVersion.getLastProjectVersion(project);
@@ -175,6 +187,9 @@ public class GitUpdater implements MetadataUpdater {
             next = git.getFirstRevision();
         }
 
+        //Bring the commit children index up to date with the repository
+        git.updateChildIndex();
+
         //Init the branch naming related data structures
         //initBranchNaming(next);
        
@@ -185,12 +200,42 @@ public class GitUpdater implements MetadataUpdater {
             throws InvalidProjectRevisionException, InvalidRepositoryException, AccessorException {
         if (from.compareTo(to) > 1)
             return;
-        int numRevisions = 0;
 
         CommitLog commitLog = git.getCommitLog("", from, to);
         if(!dbs.isDBSessionActive()) dbs.startDBSession();
 
-        for (Revision entry : commitLog) {
+        git.refreshTags();
+        
+        /* 
+         * Resolve revisions on worker threads ahead of the DB work, 
+         * unless there are no workers or the update is short
+         */
+        int workers = getIntProperty(PREFETCH_WORKERS, 
+                Runtime.getRuntime().availableProcessors());
+        int lookahead = getIntProperty(PREFETCH_LOOKAHEAD, 4 * workers);
+        RevisionPrefetcher prefetcher = null;
+        Iterator<Revision> revisions = commitLog.iterator();
+        if (workers > 0 && commitLog.size() > 1) {
+            debug("Resolving revisions with " + workers + " threads, " 
+                    + lookahead + " revisions ahead");
+            prefetcher = new RevisionPrefetcher(git, commitLog, workers, lookahead);
+            revisions = prefetcher;
+        }
+        
+        try {
+            updateRevisions(revisions, commitLog.size());
+        } finally {
+            if (prefetcher != null)
+                prefetcher.shutdown();
+        }
+    }
+    
+    private void updateRevisions(Iterator<Revision> revisions, int total) 
+            throws InvalidProjectRevisionException, InvalidRepositoryException, AccessorException {
+        int numRevisions = 0;
+        
+        while (revisions.hasNext()) {
+            Revision entry = revisions.next();
         	if (ProjectVersion.getVersionByRevision(project, entry.getUniqueId()) != null) {
         		info("Skipping processed revision: " + entry.getUniqueId());
         		continue;
@@ -212,12 +257,24 @@ public class GitUpdater implements MetadataUpdater {
             }
             
             dbs.startDBSession();
-            progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
+            progress = (float) (((double)numRevisions / (double)total) * 100);
             
             numRevisions++;
         }
     }
 
+    private int getIntProperty(String property, int defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            warn("Not correct value for property " + property);
+            return defaultValue;
+        }
+    }
+
     private ProjectVersion processOneRevision(Revision entry) 
     	throws AccessorException, InvalidProjectRevisionException {
         
@@ -239,7 +296,7 @@ public class GitUpdater implements MetadataUpdater {
         dbs.addRecord(pv);
         
         //Tags
-        String tag = git.allTags().get(entry.getUniqueId());
+        String tag = git.getTag(entry.getUniqueId());
         if (tag != null) {
             Tag t = new Tag(pv);
             t.setName(tag);
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.updater.git;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.sqooss.plugins.tds.git.GitAccessor;
+import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.Revision;
+import eu.sqooss.service.util.Pair;
+
+/**
+ * Iterates over the revisions of a commit log, resolving them on a pool of
+ * worker threads ahead of the thread that stores them. Resolving a Git
+ * revision (diffing it against its parent and looking up the types of
+ * the changed paths) does not touch the database and does not depend on 
+ * other revisions, so it can run in parallel with the database work of
+ * the updater. 
+ * 
+ * Revisions are returned in commit log order. At most 
+ * <code>lookahead</code> revisions are resolved or being resolved ahead
+ * of the consumer, which bounds the memory used by resolved revisions.
+ * Revisions that could not be resolved are returned as they are.
+ */
+class RevisionPrefetcher implements Iterator<Revision> {
+
+    private final GitAccessor git;
+    private final Iterator<Revision> source;
+    private final ExecutorService pool;
+    private final int lookahead;
+    private final LinkedList<Pair<Revision, Future<Revision>>> window = 
+        new LinkedList<Pair<Revision, Future<Revision>>>();
+
+    RevisionPrefetcher(GitAccessor git, CommitLog log, int workers, 
+            int lookahead) {
+        this.git = git;
+        this.source = log.iterator();
+        this.lookahead = Math.max(lookahead, 1);
+        this.pool = Executors.newFixedThreadPool(Math.max(workers, 1), 
+                new ThreadFactory() {
+            private AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GitPrefetcher-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        fill();
+    }
+
+    private void fill() {
+        while (window.size() < lookahead && source.hasNext()) {
+            final Revision r = source.next();
+            Future<Revision> f = pool.submit(new Callable<Revision>() {
+                public Revision call() throws Exception {
+                    git.prefetch(r);
+                    return r;
+                }
+            });
+            window.add(new Pair<Revision, Future<Revision>>(r, f));
+        }
+    }
+
+    public boolean hasNext() {
+        return !window.isEmpty();
+    }
+
+    public Revision next() {
+        Pair<Revision, Future<Revision>> next = window.removeFirst();
+        fill();
+        try {
+            return next.second.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            //Let the updater resolve it and handle the error
+        }
+        return next.first;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop the worker threads. Revisions that have not been returned yet
+     * are not resolved.
+     */
+    void shutdown() {
+        pool.shutdownNow();
+        window.clear();
+    }
+}
@@ -1,5 +1,6 @@
 package eu.sqooss.plugins.git.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -7,6 +8,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -17,11 +21,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -34,6 +41,7 @@ import eu.sqooss.plugins.tds.git.GitRevision;
 import eu.sqooss.service.tds.AccessorException;
 import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.CommitLog;
+import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
 import eu.sqooss.service.tds.PathChangeType;
@@ -351,28 +359,144 @@ public class TestGitAccessor extends TestGitSetup {
     }
 
     @Test
-    public void testGetCheckout() {
-        fail("Not yet implemented");
+    public void testGetCheckout() throws Exception {
+        Revision r = git.getFirstRevision();
+        File dir = tempDir();
+        try {
+            git.getCheckout("/", r, dir);
+            int files = 0;
+            for (String path : r.getChangedPaths()) {
+                if (git.getNodeType(path, r) != SCMNodeType.FILE)
+                    continue;
+                File f = new File(dir, path);
+                assertTrue(f.isFile());
+                assertEquals(git.getFileHash(path, r), 
+                        blobHash(FileUtils.readFileToByteArray(f)));
+                files++;
+            }
+            assertEquals(files, countFiles(dir));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
     }
 
     @Test
-    public void testUpdateCheckout() {
-        fail("Not yet implemented");
+    public void testUpdateCheckout() throws Exception {
+        Revision r1 = git.getFirstRevision();
+        Revision r2 = git.getNextRevision(git.getNextRevision(r1));
+        File updated = tempDir();
+        File fresh = tempDir();
+        try {
+            git.getCheckout("/", r1, updated);
+            git.updateCheckout("/", r1, r2, updated);
+            git.getCheckout("/", r2, fresh);
+            
+            //An updated checkout must match a fresh one
+            assertEquals(countFiles(fresh), countFiles(updated));
+            assertSameFiles(fresh, updated);
+        } finally {
+            FileUtils.deleteDirectory(updated);
+            FileUtils.deleteDirectory(fresh);
+        }
     }
 
     @Test
-    public void testGetFileStringRevisionFile() {
-        fail("Not yet implemented");
+    public void testGetFileStringRevisionFile() throws Exception {
+        Revision r = git.getFirstRevision();
+        String path = aFile(r);
+        File dir = tempDir();
+        try {
+            File f = new File(dir, "file");
+            git.getFile(path, r, f);
+            assertEquals(git.getFileHash(path, r), 
+                    blobHash(FileUtils.readFileToByteArray(f)));
+            
+            //A missing path must not leave an empty file behind
+            File missing = new File(dir, "missing");
+            try {
+                git.getFile("/alitheia/core/test", r, missing);
+                fail("Got a file for a missing path");
+            } catch (FileNotFoundException e) {}
+            assertFalse(missing.exists());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
     }
 
     @Test
-    public void testGetFileStringRevisionOutputStream() {
-        fail("Not yet implemented");
+    public void testGetFileStringRevisionOutputStream() throws Exception {
+        Revision r = git.getFirstRevision();
+        String path = aFile(r);
+        
+        //The second read is served by the blob cache
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        git.getFile(path, r, first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        git.getFile(path, r, second);
+        
+        assertEquals(git.getFileHash(path, r), blobHash(first.toByteArray()));
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
     }
 
     @Test
-    public void testGetDiff() {
-        fail("Not yet implemented");
+    public void testGetDiff() throws Exception {
+        Revision r1 = git.getFirstRevision();
+        Revision r2 = git.getNextRevision(r1);
+        Diff d = git.getDiff("/", r1, r2);
+        assertNotNull(d);
+        assertFalse(d.getChangedPaths().isEmpty());
+        for (String path : d.getChangedPaths()) {
+            assertTrue(r2.getChangedPaths().contains(path));
+            assertFalse(d.getDiffChunks().get(path).isEmpty());
+        }
+        
+        //Diffs are relative to the requested path
+        String path = d.getChangedPaths().iterator().next();
+        d = git.getDiff(path, r1, r2);
+        assertEquals(1, d.getChangedPaths().size());
+        assertTrue(d.getChangedPaths().contains(path));
+    }
+
+    private static File tempDir() throws IOException {
+        File dir = File.createTempFile("gitaccessor", "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static String blobHash(byte[] data) {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, 
+                data).name();
+    }
+
+    private static int countFiles(File dir) {
+        int files = 0;
+        for (File f : dir.listFiles())
+            files += f.isDirectory() ? countFiles(f) : 1;
+        return files;
+    }
+
+    private static void assertSameFiles(File expected, File actual) 
+        throws IOException {
+        for (File f : expected.listFiles()) {
+            File g = new File(actual, f.getName());
+            if (f.isDirectory()) {
+                assertTrue(g.isDirectory());
+                assertSameFiles(f, g);
+            } else {
+                assertArrayEquals(FileUtils.readFileToByteArray(f), 
+                        FileUtils.readFileToByteArray(g));
+            }
+        }
+    }
+
+    private static String aFile(Revision r) throws InvalidRepositoryException {
+        for (String path : r.getChangedPaths()) {
+            if (git.getNodeType(path, r) == SCMNodeType.FILE)
+                return path;
+        }
+        fail("No files in revision " + r.getUniqueId());
+        return null;
     }
 
     @Test
@@ -5,6 +5,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -41,11 +46,18 @@ public class JavaUpdater implements MetadataUpdater, JobStateListener {
     		"  where ns.changeVersion = pv) " +
     		"and pv.project = :sp";
     
+    /** Number of threads parsing files, defaults to the number of CPUs */
+    public static final String PARSE_WORKERS = "eu.sqooss.updater.java.workers";
+    
+    /** Files read ahead of the parse workers, per worker */
+    private static final int FILES_PER_WORKER = 4;
+    
     private StoredProject sp;
     private Logger log;
     private DBService db;
     private float progress;
     private AtomicInteger jobCounter;
+    private CountDownLatch finished;
     private long numVersions = 1;
     
     public JavaUpdater() {}
@@ -66,33 +78,74 @@ public class JavaUpdater implements MetadataUpdater, JobStateListener {
 
         if (toProcess.size() == 0) {
             log.info("No versions to process");
+            db.commitDBSession();
             return;
         }
 
+        /* Files of all versions are parsed by a common pool */
+        int workers = getIntProperty(PARSE_WORKERS, 
+                Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = null;
+        Semaphore inFlight = null;
+        if (workers > 0) {
+            inFlight = new Semaphore(workers * FILES_PER_WORKER);
+            pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                private AtomicInteger count = new AtomicInteger();
+                
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JavaParser-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        
         Set<Job> jobs = new HashSet<Job>();
         for (ProjectVersion pv : toProcess) {
-            JavaUpdaterJob juj = new JavaUpdaterJob(sp, pv, log);
+            JavaUpdaterJob juj = new JavaUpdaterJob(sp, pv, log, pool, inFlight);
             juj.addJobStateListener(this);
             jobs.add(juj);
         }
+        db.commitDBSession();
         
         numVersions = jobs.size();
         jobCounter.set(jobs.size());
-        AlitheiaCore.getInstance().getScheduler().enqueueNoDependencies(jobs);
-        
-        //Poor man's synchronization
-        while (jobCounter.intValue() > 0) {
+        finished = new CountDownLatch(jobs.size());
+        try {
+            AlitheiaCore.getInstance().getScheduler().enqueueNoDependencies(jobs);
+            
+            /* Counted down by the jobs' state changes */
             try {
-                Thread.sleep(1000);
-            } catch(InterruptedException ignored){}
+                finished.await();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for " 
+                        + finished.getCount() + " versions to be processed");
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdown();
         }
-        
-        if (db.isDBSessionActive())db.commitDBSession();
     }
 
     public void jobStateChanged(Job j, State newState) {
-        if (newState == State.Error || newState == State.Finished)
+        if (newState == State.Error || newState == State.Finished) {
             progress = 100 - (float) (((double)jobCounter.decrementAndGet() / (double)numVersions) * 100); 
+            finished.countDown();
+        }
+    }
+    
+    private int getIntProperty(String property, int defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Not correct value for property " + property);
+            return defaultValue;
+        }
     }
 
     public int progress() {
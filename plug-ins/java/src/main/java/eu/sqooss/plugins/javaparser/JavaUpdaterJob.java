@@ -1,10 +1,25 @@
 package eu.sqooss.plugins.javaparser;
 
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +35,7 @@ import eu.sqooss.parsers.java.JavaTreeParser;
 import eu.sqooss.parsers.java.SpanningNodeAdaptor;
 
 import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.service.db.DAObject;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.EncapsulationUnit;
 import eu.sqooss.service.db.ExecutionUnit;
@@ -33,9 +49,7 @@ import eu.sqooss.service.logging.Logger;
 import eu.sqooss.service.scheduler.Job;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffChunk;
-import eu.sqooss.service.tds.InvalidAccessorException;
-import eu.sqooss.service.tds.InvalidProjectRevisionException;
-import eu.sqooss.service.tds.InvalidRepositoryException;
+import eu.sqooss.service.tds.Revision;
 import eu.sqooss.service.tds.SCMAccessor;
 
 public class JavaUpdaterJob extends Job {
@@ -44,14 +58,32 @@ public class JavaUpdaterJob extends Job {
     ProjectVersion pv;
     Logger log;
     DBService db;
+    ExecutorService pool;
+    Semaphore inFlight;
     float progress = 0;
+    String version;
     Pattern functionname = Pattern.compile("^.*::([a-zA-Z0-9:\\[\\]\\,\\ ]*)$");
     
     public JavaUpdaterJob(StoredProject sp, 
             ProjectVersion pv, Logger log) {
+        this(sp, pv, log, null, null);
+    }
+    
+    /**
+     * Create a job whose files are parsed by the provided thread pool. If
+     * the pool is null, files are parsed by the thread running the job. 
+     * Each file submitted to the pool holds a permit of the inFlight
+     * semaphore until it is parsed, which bounds the file contents held
+     * in memory by all jobs sharing the pool.
+     */
+    public JavaUpdaterJob(StoredProject sp, ProjectVersion pv, Logger log, 
+            ExecutorService pool, Semaphore inFlight) {
         this.sp = sp;
         this.pv = pv;
         this.log = log;
+        this.pool = pool;
+        this.inFlight = inFlight;
+        this.version = pv.toString();
         db = AlitheiaCore.getInstance().getDBService();
     }
     
@@ -60,6 +92,22 @@ public class JavaUpdaterJob extends Job {
         return 0;
     }
 
+    /*
+     * Files are parsed in parallel; the parse tasks only get the file 
+     * contents and the revisions to diff against, as DAOs cannot be shared
+     * between threads. The entities for all files are then created by the
+     * job's thread and stored with a single flush. Hibernate batches the
+     * inserts where the ids come from a sequence; with identity columns, 
+     * as on MySQL, it still needs one round trip per row to get the ids.
+     * 
+     * Files are identified by the MD5 hash of their contents, computed 
+     * here rather than asked from the accessor, which for Subversion would 
+     * cost a round trip per file. A file whose contents did not change 
+     * since its previous version, as recorded when that version was 
+     * processed, gets a copy of the previous version's entities. Otherwise, 
+     * parse results are looked up in the parse cache, so that each 
+     * distinct file is parsed once.
+     */
     @Override
     protected void run() throws Exception {
         db.startDBSession();
@@ -67,33 +115,292 @@ public class JavaUpdaterJob extends Job {
         pv = db.attachObjectToDBSession(pv);
         Pattern p = Pattern.compile(".*\\.java$");
         FDSService fds = AlitheiaCore.getInstance().getFDSService();
+        SCMAccessor scm = AlitheiaCore.getInstance().getTDSService().getAccessor(
+                sp.getId()).getSCMAccessor();
+        ParseCache cache = ParseCache.getInstance();
+        Revision cur = scm.newRevision(pv.getRevisionId());
 
         debug("Parsing files in version ", pv.toString());
         Set<ProjectFile> files = pv.getVersionFiles(p);
-        int processed = 0;
+        List<PendingFile> pending = new ArrayList<PendingFile>();
         
         for (ProjectFile pf : files) {
             if (pf.getIsDirectory() || pf.isDeleted())
                 continue;
-            debug("Parsing file ", pf.toString());
-            processed++;
-            progress = (float) (((double)processed / (double)files.size()) * 100);
             
-            if (pf.isDeleted() || pf.getIsDirectory() == true)
+            ProjectFile prev = pf.getPreviousFileVersion();
+            if (prev == null && !pf.isAdded())
+                warn("Cannot find previous version for file ", pf.toString());
+            
+            /* 
+             * Wait for the workers before reading more files. The permit is
+             * released once the file is parsed, or here if it is not. 
+             */
+            if (pool != null)
+                inFlight.acquire();
+            boolean submitted = false;
+            try {
+                InputStream is = fds.getFileContents(pf);
+                if (is == null) {
+                    err("Null contents for file ", pf.toString());
+                    continue;
+                }
+                byte[] contents = toBytes(is);
+                String hash = md5(contents);
+                cache.putFileHash(pf.getId(), hash);
+                boolean unchanged = prev != null && 
+                    hash.equals(cache.getFileHash(prev.getId()));
+                
+                if (unchanged && !prev.getEncapsulationUnits().isEmpty()) {
+                    debug("File ", pf.toString(), " unchanged, copying entities");
+                    pending.add(new PendingFile(pf, prev, null));
+                    continue;
+                }
+                
+                ParseCache.ParsedFile parsed = cache.get(hash);
+                if (parsed != null)
+                    contents = null;
+                Revision prevRev = (prev == null) ? null : 
+                    scm.newRevision(prev.getProjectVersion().getRevisionId());
+                
+                FileParser parser = new FileParser(pf.toString(), pf.getFileName(), 
+                        hash, contents, parsed, scm, prevRev, cur, unchanged);
+                FutureTask<FileResult> task = new FutureTask<FileResult>(parser) {
+                    @Override
+                    protected void done() {
+                        if (pool != null)
+                            inFlight.release();
+                    }
+                };
+                if (pool == null)
+                    task.run();
+                else
+                    pool.execute(task);
+                submitted = true;
+                
+                pending.add(new PendingFile(pf, null, task));
+            } finally {
+                if (pool != null && !submitted)
+                    inFlight.release();
+            }
+        }
+        
+        Map<String, NameSpace> namespaces = new HashMap<String, NameSpace>();
+        List<DAObject> records = new ArrayList<DAObject>();
+        
+        for (int i = 0; i < pending.size(); i++) {
+            PendingFile pfile = pending.get(i);
+            ProjectFile pf = pfile.file;
+            progress = (float) (((double)(i + 1) / (double)pending.size()) * 100);
+            
+            if (pfile.unchangedFrom != null) {
+                copyEntities(pfile.unchangedFrom, pf, namespaces, records);
+                continue;
+            }
+            
+            FileResult result = null;
+            try {
+                result = pfile.result.get();
+            } catch (ExecutionException e) {
+                warn("Cannot parse file ", pf.toString(), ": ", 
+                        String.valueOf(e.getCause()));
+            }
+            if (result == null)
                 continue;
+            
+            NameSpace ns = getNameSpace(result.parsed.packageName, namespaces, records);
+            
+            for (String clazz : result.parsed.fragments.keySet()) {
+                List<String> changedMethods = result.changedMethods.get(clazz);
+                EncapsulationUnit eu = new EncapsulationUnit(pf);
+                eu.setName(clazz);
+                eu.setNamespace(ns);
+                eu.setFile(pf);
+                records.add(eu);
 
-            Long ts = System.currentTimeMillis();
-            InputStream is = fds.getFileContents(pf);
+                for (CodeFragment fragment : result.parsed.fragments.get(clazz)) {
+                    ExecutionUnit exu = new ExecutionUnit(eu);
+                    exu.setName(getMethodName(fragment, pf));
+                    exu.setFile(pf);
+                    exu.setNamespace(ns);
+                    exu.setEncapsulationUnit(eu);
 
-            if (is == null) {
-                err("Null contents for file ", pf.toString());
-                continue;
+                    if (changedMethods.contains(fragment.getFullyQualifiedName())) {
+                        debug("Method " , fragment.toString() , " changed in rev ", 
+                                pv.toString());
+                        exu.setChanged(true);
+                    }
+                    records.add(exu);
+                }
             }
+        }
+        
+        if (!db.addRecords(records))
+            throw new Exception("Cannot store the entities of version " + pv);
+        db.commitDBSession();
+        debug("Parse cache: ", String.valueOf(cache.hits()), " hits, ", 
+                String.valueOf(cache.misses()), " misses");
+    }
+    
+    /*
+     * Copy the entities of a file to a version of it with the same 
+     * contents. None of the copied methods has changed.
+     */
+    private void copyEntities(ProjectFile from, ProjectFile to, 
+            Map<String, NameSpace> namespaces, List<DAObject> records) {
+        for (EncapsulationUnit prevEu : from.getEncapsulationUnits()) {
+            NameSpace ns = getNameSpace(prevEu.getNamespace().getName(), 
+                    namespaces, records);
+            EncapsulationUnit eu = new EncapsulationUnit(to);
+            eu.setName(prevEu.getName());
+            eu.setNamespace(ns);
+            eu.setFile(to);
+            records.add(eu);
+            
+            for (ExecutionUnit prevExu : prevEu.getExecUnits()) {
+                ExecutionUnit exu = new ExecutionUnit(eu);
+                exu.setName(prevExu.getName());
+                exu.setFile(to);
+                exu.setNamespace(ns);
+                exu.setEncapsulationUnit(eu);
+                records.add(exu);
+            }
+        }
+    }
+    
+    /*
+     * Get the namespace with the provided name in this version, creating
+     * it if it does not exist. New namespaces are added to the records
+     * to store.
+     */
+    private NameSpace getNameSpace(String name, Map<String, NameSpace> namespaces,
+            List<DAObject> records) {
+        NameSpace ns = namespaces.get(name);
+        if (ns != null)
+            return ns;
+        
+        ns = NameSpace.findByVersionName(pv, name);
+        if (ns == null) {
+            ns = new NameSpace();
+            ns.setName(name);
+            ns.setChangeVersion(pv);
+            ns.setLang(Language.JAVA);
+            records.add(ns);
+        }
+        namespaces.put(name, ns);
+        return ns;
+    }
+    
+    private byte[] toBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buff = new byte[8192];
+            int read;
+            while ((read = is.read(buff)) > 0) {
+                out.write(buff, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return out.toByteArray();
+    }
+    
+    /* The hash that identifies file contents, MD5 as used by Subversion */
+    private String md5(byte[] contents) throws NoSuchAlgorithmException {
+        MessageDigest m = MessageDigest.getInstance("MD5");
+        return String.format("%1$032x", new BigInteger(1, m.digest(contents)));
+    }
+    
+    /** A file of the version, whose entities are parsed or copied */
+    static class PendingFile {
+        ProjectFile file;
+        ProjectFile unchangedFrom;
+        Future<FileResult> result;
+        
+        PendingFile(ProjectFile file, ProjectFile unchangedFrom, 
+                Future<FileResult> result) {
+            this.file = file;
+            this.unchangedFrom = unchangedFrom;
+            this.result = result;
+        }
+    }
+    
+    /** The entities of a file and the methods changed in it */
+    static class FileResult {
+        ParseCache.ParsedFile parsed;
+        Map<String, List<String>> changedMethods = 
+            new HashMap<String, List<String>>();
+    }
+    
+    /**
+     * Parses a file, unless a parse result is provided, and finds the 
+     * methods changed since its previous version with a single diff. Does
+     * not touch the database. 
+     */
+    class FileParser implements Callable<FileResult> {
+        
+        String file, path, hash;
+        byte[] contents;
+        ParseCache.ParsedFile parsed;
+        SCMAccessor scm;
+        Revision prev, cur;
+        boolean unchanged;
+        
+        FileParser(String file, String path, String hash, byte[] contents,
+                ParseCache.ParsedFile parsed, SCMAccessor scm, Revision prev, 
+                Revision cur, boolean unchanged) {
+            this.file = file;
+            this.path = path;
+            this.hash = hash;
+            this.contents = contents;
+            this.parsed = parsed;
+            this.scm = scm;
+            this.prev = prev;
+            this.cur = cur;
+            this.unchanged = unchanged;
+        }
+        
+        public FileResult call() throws Exception {
+            if (parsed == null) {
+                parsed = parse();
+                contents = null;
+                if (parsed == null)
+                    return null;
+                ParseCache.getInstance().put(hash, parsed);
+            }
+            
+            FileResult result = new FileResult();
+            result.parsed = parsed;
+            
+            List<DiffChunk> chunks = null;
+            if (unchanged) {
+                chunks = Collections.emptyList();
+            } else if (prev != null) {
+                Long ts = System.currentTimeMillis();
+                Diff diff = scm.getDiff(path, prev, cur);
+                chunks = diff.getDiffChunks().get(path);
+                if (chunks == null)
+                    chunks = Collections.emptyList();
+                debug("getDiff(", file, "): ", String.valueOf(System.currentTimeMillis() - ts), " ms");
+            }
+            
+            for (String clazz : parsed.fragments.keySet())
+                result.changedMethods.put(clazz, 
+                        getChangedMethods(parsed.fragments.get(clazz), file, chunks));
+            
+            return result;
+        }
+        
+        private ParseCache.ParsedFile parse() {
+            debug("Parsing file ", file);
+            Long ts = System.currentTimeMillis();
+            
             // Parse the input file
             Tree t = null;
             JavaTreeLexer lexer = null;
             try {
-                ANTLRInputStream input = new ANTLRInputStream(is);
+                ANTLRInputStream input = new ANTLRInputStream(
+                        new ByteArrayInputStream(contents));
                 lexer = new JavaTreeLexer(input);
                 CommonTokenStream tokens = new CommonTokenStream(lexer);
                 JavaTreeParser parser = new JavaTreeParser(tokens);
@@ -104,11 +411,11 @@ public class JavaUpdaterJob extends Job {
                         parser.compilationUnit();
                 t = (Tree) result.getTree();
             } catch (Exception e) {
-                warn("Cannot parse file ", pf.toString(), ": ", e.getMessage());
+                warn("Cannot parse file ", file, ": ", e.getMessage());
+                return null;
             } finally {
-
-                debug("parseSource(", pf.toString() ,"): ", String.valueOf(System.currentTimeMillis() - ts),
-                        " ms, lines: ", String.valueOf(lexer.getLine()));
+                debug("parseSource(", file ,"): ", String.valueOf(System.currentTimeMillis() - ts),
+                        " ms, lines: ", String.valueOf((lexer == null) ? 0 : lexer.getLine()));
             }
 
             // Walk resulting tree
@@ -116,62 +423,25 @@ public class JavaUpdaterJob extends Job {
             EntityExtractor ee = new EntityExtractor();
             walker.addProcessor(ee);
             walker.walk(t);
-
-            NameSpace ns = NameSpace.findByVersionName(pf.getProjectVersion(), 
-                    ee.getPackageName());
-            
-            if (ns == null) {
-                ns = new NameSpace();
-                ns.setName(ee.getPackageName());
-                ns.setChangeVersion(pf.getProjectVersion());
-                ns.setLang(Language.JAVA);
-                db.addRecord(ns);
-            }
             
-            for (String clazz : ee.getResults().keySet()) {
-                List<String> changedMethods = getChangedMethods(ee, pf, clazz);
-                EncapsulationUnit eu = new EncapsulationUnit(pf);
-                eu.setName(clazz);
-                eu.setNamespace(ns);
-                eu.setFile(pf);
-                db.addRecord(eu);
-
-                for (CodeFragment fragment : ee.getResults().get(clazz)) {
-                    ExecutionUnit exu = new ExecutionUnit(eu);
-                    exu.setName(getMethodName(fragment, pf));
-                    exu.setFile(pf);
-                    exu.setNamespace(ns);
-                    exu.setEncapsulationUnit(eu);
-
-                    if (changedMethods.contains(fragment.getFullyQualifiedName())) {
-                        debug("Method " , fragment.toString() , " changed in rev ", 
-                                pf.getProjectVersion().toString());
-                        exu.setChanged(true);
-                    }
-                    db.addRecord(exu);
-                }
-            }
+            return new ParseCache.ParsedFile(ee.getPackageName(), ee.getResults());
         }
-        db.commitDBSession();
     }
     
-    private List<String> getChangedMethods(EntityExtractor ee, ProjectFile pf, 
-            String clazz) 
-        throws InvalidAccessorException, InvalidProjectRevisionException, 
-               InvalidRepositoryException, FileNotFoundException {
-        Long ts = System.currentTimeMillis();
+    /*
+     * Methods that a diff touches, or all methods if the file has no 
+     * previous version to diff against (chunks is null).
+     */
+    private List<String> getChangedMethods(Deque<CodeFragment> fragments, 
+            String file, List<DiffChunk> chunks) {
         List<String> changedMethods = new ArrayList<String>();
-        ProjectFile prev = pf.getPreviousFileVersion();
         
-        if (prev == null) {
-            if (!pf.isAdded())
-                warn("Cannot find previous version for file ", pf.toString());
-                
-            for (CodeFragment method : ee.getResults().get(clazz)) {
+        if (chunks == null) {
+            for (CodeFragment method : fragments) {
                 
                 if (method.getFullyQualifiedName() == null) {
                     warn("Name from fragment [" + method.getStartLine() + ","
-                            + method.getEndLine() + "] in file: " + pf + " is null");
+                            + method.getEndLine() + "] in file: " + file + " is null");
                     continue; //TODO: This is a bug
                 }
                 
@@ -183,19 +453,12 @@ public class JavaUpdaterJob extends Job {
             return changedMethods;
         }
 
-        SCMAccessor scm = AlitheiaCore.getInstance().getTDSService().getAccessor(
-                pf.getProjectVersion().getProject().getId()).getSCMAccessor();
-        
-        Diff diff = scm.getDiff(pf.getFileName(),
-                scm.newRevision(prev.getProjectVersion().getRevisionId()),
-                scm.newRevision(pf.getProjectVersion().getRevisionId()));
-
-        for (DiffChunk d : diff.getDiffChunks().get(pf.getFileName())) {
-            for (CodeFragment fragment : ee.getResults().get(clazz)) {
+        for (DiffChunk d : chunks) {
+            for (CodeFragment fragment : fragments) {
 
                 if (fragment.getFullyQualifiedName() == null) {
                     warn("Name from fragment [" + fragment.getStartLine() + ","
-                            + fragment.getEndLine() + "] in file: " + pf + " is null");
+                            + fragment.getEndLine() + "] in file: " + file + " is null");
                     continue; //TODO: This is a bug
                 }
                 
@@ -208,7 +471,6 @@ public class JavaUpdaterJob extends Job {
                 }
             }
         }
-        debug("getChangedMethods(): ", String.valueOf(System.currentTimeMillis() - ts), " ms");
         return changedMethods;
     }
     
@@ -257,7 +519,7 @@ public class JavaUpdaterJob extends Job {
     
     private String getMsg(String...strings) {
         StringBuffer b = new StringBuffer();
-        b.append("JavaUpdater:").append(pv).append(":");
+        b.append("JavaUpdater:").append(version).append(":");
         for (String str : strings) {
             b.append(str);
         }
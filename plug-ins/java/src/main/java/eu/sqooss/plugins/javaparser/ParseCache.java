@@ -0,0 +1,124 @@
+package eu.sqooss.plugins.javaparser;
+
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.sqooss.parsers.java.CodeFragment;
+
+/**
+ * A least recently used cache of parse results, keyed by the hash of the
+ * contents of the parsed file. Files with the same contents appear in many
+ * versions (branch copies, renames, reverts); the cache lets them be parsed
+ * once. The cached results are shared between threads and must not be
+ * modified.
+ * 
+ * The cache also remembers the hashes of recently processed file versions,
+ * so that a file can be compared to its previous version without reading
+ * the previous version again.
+ *
+ * Accepts the following system property:
+ *
+ *  <dl>
+ *      <dt>
+ *          eu.sqooss.updater.java.cache.size
+ *      </dt>
+ *      <dd>
+ *          The maximum number of cached parse results
+ *      </dd>
+ * </dl>
+ */
+class ParseCache {
+
+    public static final String CACHE_SIZE = "eu.sqooss.updater.java.cache.size";
+
+    /** Default number of cached parse results */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The entities found in a file */
+    static class ParsedFile {
+        final String packageName;
+        final Map<String, Deque<CodeFragment>> fragments;
+
+        ParsedFile(String packageName, Map<String, Deque<CodeFragment>> fragments) {
+            this.packageName = packageName;
+            this.fragments = fragments;
+        }
+    }
+
+    private static ParseCache instance;
+
+    /* Access ordered, the eldest entry is the least recently used one */
+    private LinkedHashMap<String, ParsedFile> cache;
+    /* File version id to the hash of its contents */
+    private LinkedHashMap<Long, String> fileHashes;
+    private int hits = 0, misses = 0;
+
+    ParseCache(final int capacity) {
+        cache = new LinkedHashMap<String, ParsedFile>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ParsedFile> e) {
+                return size() > capacity;
+            }
+        };
+        fileHashes = new LinkedHashMap<Long, String>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> e) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** The cache shared by all Java updater jobs */
+    static synchronized ParseCache getInstance() {
+        if (instance == null) {
+            int size = DEFAULT_CACHE_SIZE;
+            String prop = System.getProperty(CACHE_SIZE);
+            if (prop != null) {
+                try {
+                    size = Integer.parseInt(prop.trim());
+                } catch (NumberFormatException ignored) {}
+            }
+            instance = new ParseCache(size);
+        }
+        return instance;
+    }
+
+    synchronized ParsedFile get(String hash) {
+        if (hash == null)
+            return null;
+        ParsedFile result = cache.get(hash);
+        if (result == null)
+            misses++;
+        else
+            hits++;
+        return result;
+    }
+
+    synchronized void put(String hash, ParsedFile result) {
+        if (hash == null || result == null)
+            return;
+        cache.put(hash, result);
+    }
+
+    /** The hash of a file version, null if it has not been processed */
+    synchronized String getFileHash(long fileId) {
+        return fileHashes.get(fileId);
+    }
+
+    synchronized void putFileHash(long fileId, String hash) {
+        fileHashes.put(fileId, hash);
+    }
+
+    synchronized int hits() {
+        return hits;
+    }
+
+    synchronized int misses() {
+        return misses;
+    }
+}
@@ -33,22 +33,27 @@
 
 package eu.sqooss.plugins.maildir;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeMessage;
 
 import eu.sqooss.core.AlitheiaCore;
@@ -281,6 +286,46 @@ public class MailDirAccessor implements MailAccessor {
 
     	return mm;
     }
+    /** {@inheritDoc} */
+    public Map<String, String[]> getHeaders(String listId, String id, 
+            String... headers)
+        throws IllegalArgumentException,
+               FileNotFoundException {
+        if (listId == null) {
+            throw new IllegalArgumentException("Bad listId");
+        }
+        if (id == null ) {
+            throw new IllegalArgumentException("Bad message Id");
+        }
+        
+        File messageFile = getMessageFile(getFolder(listId), id);
+        Map<String, String[]> result = new HashMap<String, String[]>();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(messageFile));
+            /* Stops reading at the blank line that ends the headers */
+            InternetHeaders ih = new InternetHeaders(in);
+            for (String header : headers) {
+                String[] values = ih.getHeader(header);
+                if (values != null)
+                    result.put(header, values);
+            }
+        } catch (MessagingException e) {
+            logger.warn("Could not parse headers of message <" + listId + ":" 
+                    + id + ">");
+        } catch (IOException ioe) {
+            logger.warn("Error reading from file stream " + messageFile.getName());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {}
+            }
+        }
+        
+        return result;
+    }
+    
     /** {@inheritDoc} */
     public final List < String > getMessages(final String listId)
         throws FileNotFoundException {
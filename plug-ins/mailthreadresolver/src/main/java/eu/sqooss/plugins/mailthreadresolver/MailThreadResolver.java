@@ -30,13 +30,14 @@
 
 package eu.sqooss.plugins.mailthreadresolver;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.mail.internet.MimeMessage;
-
 import eu.sqooss.core.AlitheiaCore;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.MailMessage;
@@ -62,6 +63,14 @@ import eu.sqooss.service.updater.UpdaterService.UpdaterStage;
         stage = UpdaterStage.INFERENCE)
 public class MailThreadResolver implements MetadataUpdater {
 
+    /** Number of messages threaded in a single transaction */
+    public static final String BATCH_SIZE = "eu.sqooss.updater.mlthread.batchsize";
+    
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    
+    private static final String IN_REPLY_TO = "In-Reply-To";
+    private static final String REFERENCES = "References";
+
     private Set<MailingList> lists;
     private MailingList ml;
     private StoredProject sp;
@@ -103,13 +112,18 @@ public class MailThreadResolver implements MetadataUpdater {
         return (int)progress;
     }
     
+    /*
+     * Threads all unthreaded messages of the list at once. The threads of
+     * the already threaded messages are loaded into the Message-ID index,
+     * so that new messages can be placed in them. Only the In-Reply-To and
+     * References headers of the new messages are read.
+     */
     private void realupdate() throws Exception {
         if (!dbs.isDBSessionActive()) dbs.startDBSession();
         ml = dbs.attachObjectToDBSession(ml);
         int newThreads = 0, updatedThreads = 0, processedEmails = 0;
         MailMessage lastEmail = null;
         lastEmail = ml.getLatestEmail();
-        HashMap<String, MimeMessage> processed = new HashMap<String, MimeMessage>();
         
         if (lastEmail == null) {
             info("No mail messages for list " + ml);
@@ -118,17 +132,16 @@ public class MailThreadResolver implements MetadataUpdater {
         }
         
         String paramMl = "paramMl";
-        String query = " select mm.id " +
-            " from  MailingList ml, MailMessage mm" +
-            " where mm.list = ml " +
-            " and ml = :" + paramMl +
+        String query = " select mm.id, mm.messageId, mm.fileName " +
+            " from MailMessage mm" +
+            " where mm.list = :" + paramMl +
             " and mm.thread is null " +
             " order by mm.sendDate asc"; 
             
         Map<String,Object> params = new HashMap<String, Object>(1);
         params.put(paramMl, ml);
         
-        List<Long> mmList = (List<Long>) dbs.doHQL(query, params);
+        List<Object[]> mmList = (List<Object[]>) dbs.doHQL(query, params);
         
         if (mmList.isEmpty()) {
             info("No unprocessed mail messages found for list " + ml);
@@ -136,151 +149,80 @@ public class MailThreadResolver implements MetadataUpdater {
             return;
         }
         
-        for (Long mailId : mmList) {
-            if (!dbs.isDBSessionActive())
-                dbs.startDBSession();
-            MailMessage mail = MailMessage.loadDAObyId(mailId, MailMessage.class);
-            
-            // Message has been already added to thread
-            if (mail.getThread() != null)
+        MessageThreader threader = new MessageThreader();
+        String threaded = " select mm.messageId, mm.id, mm.thread.id, mm.depth " +
+            " from MailMessage mm" +
+            " where mm.list = :" + paramMl +
+            " and mm.thread is not null ";
+        for (Object[] row : (List<Object[]>) dbs.doHQL(threaded, params)) {
+            if (row[0] == null)
                 continue;
-
-            MimeMessage mm = mailAccessor.getMimeMessage(ml.getListId(), 
-                    mail.getFilename());
+            threader.addThreaded((String) row[0], (Long) row[1], (Long) row[2], 
+                    (Integer) row[3]);
+        }
+        
+        List<MessageThreader.Container> toThread = 
+            new ArrayList<MessageThreader.Container>(mmList.size());
+        for (Object[] row : mmList) {
+            Map<String, String[]> headers = mailAccessor.getHeaders(
+                    ml.getListId(), (String) row[2], IN_REPLY_TO, REFERENCES);
+            toThread.add(threader.add((String) row[1], (Long) row[0], 
+                    headers.get(REFERENCES), headers.get(IN_REPLY_TO)));
+        }
+        dbs.commitDBSession();
+        
+        int batchSize = getBatchSize();
+        dbs.startDBSession();
+        for (MessageThreader.Container c : toThread) {
+            /* Parents are threaded before their children */
+            Deque<MessageThreader.Container> unthreaded = 
+                new ArrayDeque<MessageThreader.Container>();
+            for (MessageThreader.Container p = c; p != null && !p.isThreaded(); 
+                    p = p.messageParent())
+                unthreaded.push(p);
             
-            processed.put(mail.getFilename(), mm);
-
-            /* Thread identification code. Naive, but works */
-            String[] inReplyTo = mm.getHeader("In-Reply-To");
-            String[] references = mm.getHeader("References");
-            boolean newThread = false, reference = false;
-            String parentId = null;
-
-            if (inReplyTo == null) {
-                if (references == null) {
-                    newThread = true;
-                } else {
-                    // Arbitrarily set first message reference as parent.
-                    // The mime message protocol does not specify any such
-                    // ordering, in fact it does not specify any ordering
-                    // scheme at all.
-                    parentId = references[0];
-                    reference = true;
-                }
-            } else {
-                /*
-                 * In most cases, the first in-reply-to entry corresponds to the
-                 * answered email. If not, the thread is still valid.
-                 */
-                parentId = inReplyTo[0];
-            }
-
-            MailingListThread mlt = null;
-            /* Get the parent mail object */
-            MailMessage parentMail = MailMessage.getMessageById(parentId);
-
-            if (parentId != null) { 
-                /* Parent-less child, parent might have arrived later */
-                if (parentMail == null || parentMail.getThread() == null) {
-                    newThread = true;
+            while (!unthreaded.isEmpty()) {
+                MessageThreader.Container m = unthreaded.pop();
+                MailMessage mail = dbs.findObjectById(MailMessage.class, m.mailId);
+                MessageThreader.Container parent = m.messageParent();
+                
+                if (parent == null) {
+                    /* Create a new thread */
+                    MailingListThread mlt = new MailingListThread(ml, mail.getSendDate());
+                    dbs.addRecord(mlt);
+                    mail.setThread(mlt);
+                    mail.setParent(null);
+                    mail.setDepth(0);
+                    debug("Adding new thread " + mlt.getId());
+                    newThreads++;
                 } else {
-                    /*
-                     * Mails identified as children to a thread only by the
-                     * References header, are placed at the same depth level as
-                     * their parent (Usenet news style).
-                     */
-                    int depth = parentMail.getDepth();
-                    if (!reference) {
-                        depth = depth + 1;
-                    }
-                    /* Add the processed message as child to the parent's thread */
-                    mail.setDepth(depth);
+                    /* Add the message as child to the parent's thread */
+                    MailMessage parentMail = dbs.findObjectById(MailMessage.class, 
+                            parent.mailId);
+                    MailingListThread mlt = dbs.findObjectById(MailingListThread.class, 
+                            parent.threadId);
                     mail.setParent(parentMail);
-                    mail.setThread(parentMail.getThread());
-                    parentMail.getThread().setLastUpdated(mail.getSendDate());
-                    debug("Updating thread " + parentMail.getThread().getId());
+                    mail.setThread(mlt);
+                    mail.setDepth(parent.depth + 1);
+                    if (mlt.getLastUpdated() == null || 
+                            mlt.getLastUpdated().before(mail.getSendDate()))
+                        mlt.setLastUpdated(mail.getSendDate());
+                    debug("Updating thread " + mlt.getId());
                     updatedThreads++;
                 }
-            }
-
-            if (newThread) {
-                boolean childExists = false;
-
-                /*
-                 * Check if a child mail has arrived before the processed mail.
-                 */
-                for (String key : processed.keySet()) {
-                    MimeMessage child = processed.get(key);
-                    if ((child.getHeader("In-Reply-To") != null && 
-                            child.getHeader("In-Reply-To")[0].equals(mail.getMessageId()))
-                       || (child.getHeader("References") != null && 
-                            child.getHeader("References")[0].equals(mail.getMessageId()))) {
-                        
-                        /*
-                         * Messages whose in-reply-to or references field is
-                         * equal to the messageid field are erroneous according
-                         * to the RFC-822 but nevertheless do appear in mailing
-                         * lists. Stop processing if we find such a message and
-                         * just create a new thread instead. 
-                         */
-                        if (parentId != null 
-                                && parentId.equals(mail.getMessageId())) {
-                            warn("Message" + mail + " with the same parent and child message ids");
-                            break;
-                        }
-                        
-                        childExists = true;
-
-                        /* Get message whose parent is the discovered child */
-                        MailMessage childMM = MailMessage.getMessageById(child.getMessageID());
-                        
-                        if (childMM == null) {
-                            warn("Supposedly processed child of message "
-                                    + mail + " not found in DB.");
-                            childExists = false;
-                            break;
-                        }
-                        
-                        MailingListThread thr = childMM.getThread();
-
-                        /*
-                         * Set the old thread parent as child of the current
-                         * mail and current email as top level parent of the
-                         * thread 
-                         */
-                        childMM.setParent(mail);
-                        mail.setParent(null);
-                        mail.setDepth(0);
-                        childMM.getThread().setLastUpdated(mail.getSendDate());
-                        debug("Reconstructing thread " + thr.getId());
-
-                        /* New top level email added, increase depth level in children messages */
-                        for (MailMessage msg : thr.getMessages()) {
-                            msg.setDepth(msg.getDepth() + 1);
-                        }
-                        updatedThreads++;
-                    }
+                m.threadId = mail.getThread().getId();
+                m.depth = mail.getDepth();
+                
+                processedEmails ++;
+                progress = (float)((double)processedEmails / (double)mmList.size()) * 100;
+                if (processedEmails % batchSize == 0) {
+                    dbs.commitDBSession();
+                    dbs.startDBSession();
+                    ml = dbs.attachObjectToDBSession(ml);
                 }
-
-                if (childExists)
-                    continue;
-
-                /* Create a new thread */
-                mlt = new MailingListThread(ml, mail.getSendDate());
-                dbs.addRecord(mlt);
-                mail.setThread(mlt);
-                mail.setDepth(0);
-                debug("Adding new thread " + mlt.getId());
-                newThreads++;
             }
-            if (mail.getThread() == null) 
-                warn("Mail message " + mail + " was not assigned any thread");
-            
-            dbs.commitDBSession();
-            processedEmails ++;
-            progress = (float)((double)processedEmails / (double)mmList.size()) * 100;
         }
-        dbs.startDBSession();
+        
         info("Mail thread updater - " + ml.getListId() + " " + processedEmails
                 + " new emails, " + newThreads + " new threads, " + updatedThreads 
                 + " thread updates" );
@@ -288,6 +230,20 @@ public class MailThreadResolver implements MetadataUpdater {
         if (dbs.isDBSessionActive()) dbs.commitDBSession();
     }   
     
+    private int getBatchSize() {
+        String value = System.getProperty(BATCH_SIZE);
+        if (value != null) {
+            try {
+                int size = Integer.parseInt(value.trim());
+                if (size > 0)
+                    return size;
+            } catch (NumberFormatException e) {
+                warn("Not correct value for property " + BATCH_SIZE);
+            }
+        }
+        return DEFAULT_BATCH_SIZE;
+    }
+    
     @Override
     public String toString() {
         String result =  "MailThreadUpdater Job - Project:{" + sp.getName();
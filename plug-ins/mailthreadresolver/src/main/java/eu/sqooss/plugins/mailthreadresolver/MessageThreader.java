@@ -0,0 +1,202 @@
+/*
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.mailthreadresolver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Message threading after Jamie Zawinski's algorithm
+ * (http://www.jwz.org/doc/threading.html). Messages are placed in 
+ * containers indexed by Message-ID; the References and In-Reply-To 
+ * headers of each message link the containers of the referenced 
+ * messages in parent-child chains. Containers of messages that were never
+ * seen are kept as placeholders, so that messages arriving in any order
+ * end up in the same tree.
+ * 
+ * Subject based grouping of the original algorithm is not performed.
+ */
+class MessageThreader {
+    
+    private static final Pattern msgId = Pattern.compile("<[^<>]+>");
+    
+    /** A node in the thread tree, holding a message or a placeholder */
+    static class Container {
+        String messageId;
+        Container parent;
+        List<Container> children;
+        
+        /** Database id of the message, null for placeholders */
+        Long mailId;
+        /** Thread id and depth, once the message has been threaded */
+        Long threadId;
+        int depth;
+        
+        Container(String messageId) {
+            this.messageId = messageId;
+        }
+        
+        boolean hasMessage() {
+            return mailId != null;
+        }
+        
+        boolean isThreaded() {
+            return threadId != null;
+        }
+        
+        /** Check whether c is this container or one of its descendants */
+        boolean reaches(Container c) {
+            for (Container p = c; p != null; p = p.parent) {
+                if (p == this)
+                    return true;
+            }
+            return false;
+        }
+        
+        /** The closest ancestor that holds a message, or null */
+        Container messageParent() {
+            Container p = parent;
+            while (p != null && !p.hasMessage())
+                p = p.parent;
+            return p;
+        }
+    }
+    
+    private Map<String, Container> index = new HashMap<String, Container>();
+    
+    /**
+     * Add a message that is already threaded, so that new messages 
+     * referring to it are placed in its thread.
+     */
+    void addThreaded(String messageId, long mailId, long threadId, int depth) {
+        Container c = getContainer(messageId);
+        if (c.hasMessage())
+            return;
+        c.mailId = mailId;
+        c.threadId = threadId;
+        c.depth = depth;
+    }
+    
+    /**
+     * Add a message to thread and link it to the messages it refers to.
+     * 
+     * @param messageId The Message-ID of the message
+     * @param mailId The database id of the message
+     * @param references The References header values, may be null
+     * @param inReplyTo The In-Reply-To header values, may be null
+     * @return The container of the message
+     */
+    Container add(String messageId, long mailId, String[] references, 
+            String[] inReplyTo) {
+        Container c = null;
+        if (messageId != null) 
+            c = getContainer(messageId);
+        
+        /* Messages without an id and duplicate ids get their own container */
+        if (c == null || c.hasMessage())
+            c = new Container(messageId);
+        c.mailId = mailId;
+        
+        List<String> refs = parseIds(references);
+        /* Only the first id of In-Reply-To is used; the rest is usually junk */
+        List<String> replyTo = parseIds(inReplyTo);
+        if (!replyTo.isEmpty()) {
+            String r = replyTo.get(0);
+            if (refs.isEmpty() || !refs.get(refs.size() - 1).equals(r))
+                refs.add(r);
+        }
+        
+        /* Link the references in a chain, without overriding earlier links */
+        Container prev = null;
+        for (String ref : refs) {
+            if (ref.equals(messageId))
+                continue;
+            Container r = getContainer(ref);
+            if (prev != null && r.parent == null && !r.reaches(prev))
+                link(prev, r);
+            prev = r;
+        }
+        
+        /* The message's own references always determine its parent */
+        if (c.parent != null) {
+            c.parent.children.remove(c);
+            c.parent = null;
+        }
+        if (prev != null && !c.reaches(prev))
+            link(prev, c);
+        
+        return c;
+    }
+    
+    private void link(Container parent, Container child) {
+        child.parent = parent;
+        if (parent.children == null)
+            parent.children = new ArrayList<Container>(2);
+        parent.children.add(child);
+    }
+    
+    private Container getContainer(String messageId) {
+        Container c = index.get(messageId);
+        if (c == null) {
+            c = new Container(messageId);
+            index.put(messageId, c);
+        }
+        return c;
+    }
+    
+    /**
+     * Extract the message ids from the values of a header. Values that
+     * contain no bracketed ids are used as is.
+     */
+    static List<String> parseIds(String[] values) {
+        List<String> ids = new ArrayList<String>();
+        if (values == null)
+            return ids;
+        
+        for (String value : values) {
+            if (value == null)
+                continue;
+            Matcher m = msgId.matcher(value);
+            boolean found = false;
+            while (m.find()) {
+                ids.add(m.group());
+                found = true;
+            }
+            if (!found && value.trim().length() > 0)
+                ids.add(value.trim());
+        }
+        return ids;
+    }
+}
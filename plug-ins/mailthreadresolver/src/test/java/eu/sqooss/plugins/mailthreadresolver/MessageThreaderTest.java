@@ -0,0 +1,222 @@
+/*
+ * Copyright 2009 - 2010 - Organization for Free and Open Source Software,  
+ *                 Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.mailthreadresolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.sqooss.plugins.mailthreadresolver.MessageThreader.Container;
+
+public class MessageThreaderTest {
+
+    private MessageThreader threader;
+    private long nextMailId;
+
+    @Before
+    public void setUp() {
+        threader = new MessageThreader();
+        nextMailId = 1;
+    }
+
+    private Container add(String id, String references, String inReplyTo) {
+        return threader.add(id, nextMailId++, 
+                (references == null) ? null : new String[] {references}, 
+                (inReplyTo == null) ? null : new String[] {inReplyTo});
+    }
+
+    /* Fails if following the parents of c goes round in circles */
+    private static void assertNoCycle(Container c) {
+        int steps = 0;
+        for (Container p = c; p != null; p = p.parent) {
+            if (++steps > 100)
+                fail("Cycle above " + c.messageId);
+        }
+    }
+
+    /* Fails if the parent and child links of c disagree */
+    private static void assertLinked(Container parent, Container child) {
+        assertSame(parent, child.parent);
+        assertTrue(parent.children.contains(child));
+    }
+
+    @Test
+    public void testReplyAfterParent() {
+        Container p = add("<p@x>", null, null);
+        Container c = add("<c@x>", "<p@x>", "<p@x>");
+        assertLinked(p, c);
+        assertSame(p, c.messageParent());
+        assertNull(p.parent);
+    }
+
+    @Test
+    public void testChildBeforeParent() {
+        Container c = add("<c@x>", "<p@x>", null);
+        assertFalse(c.parent.hasMessage());
+        assertNull(c.messageParent());
+        
+        /* The parent takes over its placeholder, children included */
+        Container p = add("<p@x>", null, null);
+        assertTrue(p.hasMessage());
+        assertLinked(p, c);
+        assertSame(p, c.messageParent());
+    }
+
+    @Test
+    public void testGrandchildFirst() {
+        Container gc = add("<gc@x>", "<p@x> <c@x>", null);
+        Container p = add("<p@x>", null, null);
+        
+        /* Until c arrives, gc hangs from p through c's placeholder */
+        assertSame(p, gc.messageParent());
+        Container c = add("<c@x>", "<p@x>", null);
+        assertLinked(p, c);
+        assertLinked(c, gc);
+        assertSame(c, gc.messageParent());
+    }
+
+    @Test
+    public void testReferencesLoop() {
+        /* a, b, a would make a its own grandparent */
+        Container m = add("<m@x>", "<a@x> <b@x> <a@x>", null);
+        assertNoCycle(m);
+        assertEquals("<a@x>", m.parent.messageId);
+        assertNull(m.parent.parent);
+        
+        Container a = add("<a@x>", null, null);
+        Container b = add("<b@x>", "<a@x>", null);
+        assertLinked(a, b);
+        assertNoCycle(a);
+        assertNoCycle(b);
+    }
+
+    @Test
+    public void testMutualReferences() {
+        Container one = add("<1@x>", "<2@x>", null);
+        Container two = add("<2@x>", "<1@x>", null);
+        assertNoCycle(one);
+        assertNoCycle(two);
+        
+        /* The first message's references won, the second stays a root */
+        assertLinked(two, one);
+        assertNull(two.parent);
+    }
+
+    @Test
+    public void testSelfReference() {
+        Container m = add("<m@x>", "<m@x>", "<m@x>");
+        assertNull(m.parent);
+        
+        Container r = add("<r@x>", "<p@x> <r@x>", null);
+        assertEquals("<p@x>", r.parent.messageId);
+        assertNoCycle(r);
+    }
+
+    @Test
+    public void testDuplicateMessageId() {
+        Container first = add("<d@x>", null, null);
+        Container second = add("<d@x>", "<other@x>", null);
+        assertNotSame(first, second);
+        assertEquals(1L, (long) first.mailId);
+        assertEquals(2L, (long) second.mailId);
+        
+        /* Replies go to the message that was seen first */
+        Container reply = add("<r@x>", "<d@x>", null);
+        assertSame(first, reply.messageParent());
+        assertNull(first.parent);
+    }
+
+    @Test
+    public void testInReplyToNotInReferences() {
+        /* In-Reply-To names a message after the last reference */
+        Container c = add("<c@x>", "<a@x> <b@x>", "<z@x>");
+        assertEquals("<z@x>", c.parent.messageId);
+        assertEquals("<b@x>", c.parent.parent.messageId);
+        assertEquals("<a@x>", c.parent.parent.parent.messageId);
+        
+        /* The same id is not linked twice */
+        Container d = add("<d@x>", "<a@x> <b@x>", "<b@x>");
+        assertEquals("<b@x>", d.parent.messageId);
+        assertEquals(2, d.parent.children.size());
+    }
+
+    @Test
+    public void testInReplyToJunk() {
+        /* Only the first id counts, the rest of the header is ignored */
+        Container p = add("<p@x>", null, null);
+        Container c = add("<c@x>", null, 
+                "<p@x> (Message from Someone <q@x> of Monday)");
+        assertLinked(p, c);
+    }
+
+    @Test
+    public void testOwnReferencesWin() {
+        /* Another message claims that m replied to a */
+        add("<n@x>", "<a@x> <m@x>", null);
+        
+        /* But m says it replied to b */
+        Container b = add("<b@x>", null, null);
+        Container m = add("<m@x>", "<b@x>", null);
+        assertLinked(b, m);
+        assertEquals(1, b.children.size());
+        assertEquals(1, m.children.size());
+    }
+
+    @Test
+    public void testAddThreaded() {
+        threader.addThreaded("<old@x>", 100, 7, 2);
+        Container c = add("<new@x>", "<old@x>", null);
+        Container old = c.messageParent();
+        assertEquals(100L, (long) old.mailId);
+        assertEquals(7L, (long) old.threadId);
+        assertEquals(2, old.depth);
+        assertTrue(old.isThreaded());
+        assertFalse(c.isThreaded());
+    }
+
+    @Test
+    public void testParseIds() {
+        assertEquals(Arrays.asList("<a@x>", "<b@x>"), MessageThreader.parseIds(
+                new String[] {"<a@x>\n\t<b@x>", null, "   "}));
+        assertEquals(Arrays.asList("bare-id"), 
+                MessageThreader.parseIds(new String[] {" bare-id "}));
+        assertTrue(MessageThreader.parseIds(null).isEmpty());
+    }
+}
@@ -33,13 +33,13 @@
 
 package eu.sqooss.plugins.tds.svn;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -54,16 +54,17 @@ import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNProperties;
 import org.tmatesoft.svn.core.SVNProperty;
 import org.tmatesoft.svn.core.SVNRevisionProperty;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.internal.io.svn.SVNRepositoryFactoryImpl;
 import org.tmatesoft.svn.core.io.ISVNEditor;
 import org.tmatesoft.svn.core.io.ISVNReporterBaton;
 import org.tmatesoft.svn.core.io.SVNRepository;
-import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.wc.ISVNAnnotateHandler;
 import org.tmatesoft.svn.core.wc.SVNDiffClient;
 import org.tmatesoft.svn.core.wc.SVNLogClient;
@@ -77,6 +78,7 @@ import eu.sqooss.service.tds.AnnotatedLine;
 import eu.sqooss.service.tds.CommitLog;
 import eu.sqooss.service.tds.Diff;
 import eu.sqooss.service.tds.DiffFactory;
+import eu.sqooss.service.tds.DiffOutputStream;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.InvalidRepositoryException;
 import eu.sqooss.service.tds.PathChangeType;
@@ -86,11 +88,71 @@ import eu.sqooss.service.tds.SCMNode;
 import eu.sqooss.service.tds.SCMNodeType;
 import eu.sqooss.service.util.FileUtils;
 
+/**
+ * Accessor for Subversion repositories. Repository operations run on 
+ * sessions taken from a per project pool, so that the updater and the 
+ * metric jobs working on a project can talk to the repository in parallel.
+ * 
+ * Resolved log entries are cached, as is the latest revision for a 
+ * short while.
+ * 
+ * Accepts the following system properties:
+ *
+ *  <dl>
+ *      <dt>
+ *          eu.sqooss.tds.svn.sessions
+ *      </dt>
+ *      <dd>
+ *          The maximum number of open repository sessions per project
+ *      </dd>
+ *      <dt>
+ *          eu.sqooss.tds.svn.revcache.size
+ *      </dt>
+ *      <dd>
+ *          The maximum number of cached log entries per project
+ *      </dd>
+ *      <dt>
+ *          eu.sqooss.tds.svn.head.ttl
+ *      </dt>
+ *      <dd>
+ *          The time in milliseconds for which the latest revision number 
+ *          is reused before asking the repository again
+ *      </dd>
+ * </dl>
+ */
 public class SVNAccessorImpl implements SCMAccessor {
+    
+    public static final String SESSIONS = "eu.sqooss.tds.svn.sessions";
+    
+    /** Default number of repository sessions per project */
+    public static final int DEFAULT_SESSIONS = 4;
+    
+    public static final String REVISION_CACHE_SIZE = "eu.sqooss.tds.svn.revcache.size";
+    
+    /** Default number of cached log entries per project */
+    public static final int DEFAULT_REVISION_CACHE_SIZE = 10000;
+    
+    public static final String HEAD_TTL = "eu.sqooss.tds.svn.head.ttl";
+    
+    /** Default time to reuse the latest revision number for, in msec */
+    public static final long DEFAULT_HEAD_TTL = 5000;
+    
     private String url;
     private String projectname;
-    private SVNRepository svnRepository = null;
+    private SVNSessionPool sessions = null;
     private Logger logger = null;
+    
+    /* Resized from the configuration by init() */
+    private SVNLogCache logCache = new SVNLogCache(DEFAULT_REVISION_CACHE_SIZE);
+    
+    /* The latest revision and the time it was retrieved */
+    private final Object headLock = new Object();
+    private long head = -1;
+    private long headTime = 0;
+    private long headTTL = DEFAULT_HEAD_TTL;
+    
+    /* Set once revision 0 has been found */
+    private volatile boolean firstChecked = false;
 
     private static List<URI> supportedSchemes;
     
@@ -122,6 +184,9 @@ public class SVNAccessorImpl implements SCMAccessor {
         if (logger != null) {
             logger.info("Created SCMAccessor for " + url);
         }     
+        logCache = new SVNLogCache((int) getLongProperty(REVISION_CACHE_SIZE, 
+                DEFAULT_REVISION_CACHE_SIZE, 0));
+        headTTL = getLongProperty(HEAD_TTL, DEFAULT_HEAD_TTL, 0);
         try {
             connectToRepository();
         } catch (InvalidRepositoryException e) {
@@ -138,21 +203,57 @@ public class SVNAccessorImpl implements SCMAccessor {
     }
     
     /**
-     * Connect to the repository named in the constructor (the URL
-     * is stored in this.url); may set the repo to null on error.
+     * Create the session pool for the repository named in the constructor
+     * (the URL is stored in this.url); leaves the pool null on error.
      */
     private void connectToRepository()
         throws InvalidRepositoryException {
+        /* An empty pool would block forever */
+        int size = (int) getLongProperty(SESSIONS, DEFAULT_SESSIONS, 1);
+        SVNSessionPool pool = new SVNSessionPool(url, size);
         try {
-            svnRepository = SVNRepositoryFactory.create(SVNURL.parseURIEncoded(url));
-            // All access is assumed to be anonynmous, so no
-            // authentication manager is used.
-        } catch (SVNException e) {
+            // Check that a session can be created
+            pool.release(pool.acquire());
+        } catch (InvalidRepositoryException e) {
             logger.error("Could not create SVN repository connection for " + url +
                 e.getMessage());
-            svnRepository = null;
-            throw new InvalidRepositoryException(url,e.getMessage());
+            throw e;
         }
+        sessions = pool;
+    }
+    
+    /**
+     * Read a numeric system property, using the default value if the 
+     * property is not a number or is less than the minimum value.
+     */
+    private long getLongProperty(String property, long defaultValue, long min) {
+        String prop = System.getProperty(property);
+        if (prop == null)
+            return defaultValue;
+        try {
+            long value = Long.parseLong(prop.trim());
+            if (value >= min)
+                return value;
+        } catch (NumberFormatException ignored) {}
+        if (logger != null)
+            logger.warn("Invalid value for " + property + ": " + prop 
+                    + ", using " + defaultValue);
+        return defaultValue;
+    }
+    
+    /**
+     * Get a repository session for the calling thread. Each call must
+     * be matched by a call to {@link #releaseSession(SVNRepository)}.  
+     */
+    SVNRepository getSession() throws InvalidRepositoryException {
+        if (sessions == null) {
+            connectToRepository();
+        }
+        return sessions.acquire();
+    }
+    
+    void releaseSession(SVNRepository repo) {
+        sessions.release(repo);
     }
 
     /**
@@ -172,10 +273,13 @@ public class SVNAccessorImpl implements SCMAccessor {
         }
 
         long revno = -1;
+        SVNRepository repo = getSession();
         try {
-            revno = svnRepository.getDatedRevision(r.getDate());
+            revno = repo.getDatedRevision(r.getDate());
         } catch (SVNException e) {
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
        
         return revno;
@@ -193,8 +297,9 @@ public class SVNAccessorImpl implements SCMAccessor {
 
         Date d = null;
         String date = "";
+        SVNRepository repo = getSession();
         try {
-            date = svnRepository.getRevisionPropertyValue(r.getSVNRevision(),
+            date = repo.getRevisionPropertyValue(r.getSVNRevision(),
                     SVNRevisionProperty.DATE).getString();
             SimpleDateFormat dateParser = new SimpleDateFormat("y-M-d'T'H:m:s.S'Z'");
             d = dateParser.parse(date);
@@ -204,6 +309,8 @@ public class SVNAccessorImpl implements SCMAccessor {
             throw new InvalidProjectRevisionException("Cannot parse date "
                     + date + " for revision " + r.getSVNRevision() + " "
                     + pe.getMessage(), getClass());
+        } finally {
+            releaseSession(repo);
         }
         if (d == null) {
             logger.warn("Resolved date is null");
@@ -213,19 +320,40 @@ public class SVNAccessorImpl implements SCMAccessor {
     }
 
     /**
-     * Get latest svn revision as long
+     * Get latest svn revision as long. The value is reused for 
+     * {@link #HEAD_TTL} milliseconds.
      */
     private long getHeadSVNRevision() throws InvalidRepositoryException {
-        long endRevision = -1;
-        if (svnRepository == null) {
-            connectToRepository();
+        return getHeadSVNRevision(false);
+    }
+    
+    /**
+     * Get latest svn revision as long, asking the repository if
+     * <code>refresh</code> is set or the last value has expired.
+     */
+    private long getHeadSVNRevision(boolean refresh) 
+            throws InvalidRepositoryException {
+        synchronized (headLock) {
+            if (!refresh && head >= 0 
+                    && System.currentTimeMillis() - headTime < headTTL)
+                return head;
         }
+        
+        long endRevision = -1;
+        SVNRepository repo = getSession();
         try {
-            endRevision = svnRepository.getLatestRevision();
+            endRevision = repo.getLatestRevision();
         } catch (SVNException e) {
             logger.warn("Could not get latest revision of " + url
                     + e.getMessage());
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            releaseSession(repo);
+        }
+        
+        synchronized (headLock) {
+            head = endRevision;
+            headTime = System.currentTimeMillis();
         }
 
         return endRevision;
@@ -235,16 +363,20 @@ public class SVNAccessorImpl implements SCMAccessor {
      * Dummy check to see if revision 1 is indeed the first revision. 
      */
     private long getFirstSVNRevision() throws InvalidRepositoryException {
-        if (svnRepository == null) {
-            connectToRepository();
-        }
+        if (firstChecked)
+            return 0;
+        
+        SVNRepository repo = getSession();
         try {
-            svnRepository.getRevisionPropertyValue(0, SVNProperty.REVISION);
+            repo.getRevisionPropertyValue(0, SVNProperty.REVISION);
         } catch (SVNException e) {
             logger.warn("Could not get revision 0 from repository " + url + 
                     e.getMessage());
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
+        firstChecked = true;
 
         return 0;
     }
@@ -273,26 +405,24 @@ public class SVNAccessorImpl implements SCMAccessor {
             return svnrev;
         }
 
-        Date d = null;
         long l = -1;
         try {
             if (svnrev.getSVNRevision() != -1) {
-                if (svnrev.getSVNRevision() > getHeadSVNRevision()) {
-                    logger.error(String.valueOf(svnrev.getSVNRevision())
-                            + " > HEAD");
-                    return null;
+                l = svnrev.getSVNRevision();
+                
+                SVNLogEntry cached = logCache.get(l);
+                if (cached != null) {
+                    return new SVNProjectRevision(cached, "");
                 }
                 
-                if (svnrev.getSVNRevision() < getFirstSVNRevision()) {
-                    logger.error(String.valueOf(svnrev.getSVNRevision())
-                            + " < 0");
+                // The cached HEAD may be stale, ask again before failing
+                if (l > getHeadSVNRevision() && l > getHeadSVNRevision(true)) {
+                    logger.error(String.valueOf(l) + " > HEAD");
                     return null;
                 }
                 
-                //Resolve date
-                d = resolveRevisionDate(svnrev);
-
-                if (d == null) {
+                if (l < getFirstSVNRevision()) {
+                    logger.error(String.valueOf(l) + " < 0");
                     return null;
                 }
             } else {
@@ -302,22 +432,39 @@ public class SVNAccessorImpl implements SCMAccessor {
                 if (l < 0) {
                     return null;
                 }
+                
+                SVNLogEntry cached = logCache.get(l);
+                if (cached != null) {
+                    return new SVNProjectRevision(cached, "");
+                }
             }
             
-            if (svnrev.getSVNRevision() == 0) {
+            if (l == 0) {
+                //Resolve date
+                Date d = resolveRevisionDate(new SVNProjectRevision(0));
+
+                if (d == null) {
+                    return null;
+                }
+                
                 SVNLogEntry logEntry = new SVNLogEntry(Collections.EMPTY_MAP, 0, 
                         "sqo-oss", d, "Repository Init");
+                logCache.put(logEntry);
                 
                 SVNProjectRevision spr = new SVNProjectRevision(logEntry, "");
                 return spr;
             }
             
+            // The log entries are cached by getSVNLog
             List<SVNLogEntry> log = Collections.EMPTY_LIST;
-            if (svnrev.getSVNRevision() + 1 < getHeadSVNRevision())
-                log = getSVNLog("", svnrev.getSVNRevision(), svnrev.getSVNRevision() + 1);
+            if (l + 1 < getHeadSVNRevision())
+                log = getSVNLog("", l, l + 1);
             else 
-                log = getSVNLog("", svnrev.getSVNRevision(), -1);
+                log = getSVNLog("", l, -1);
             SVNLogEntry full = log.iterator().next();
+            if (full.getDate() == null) {
+                return null;
+            }
             return new SVNProjectRevision(full, "");
         } catch (InvalidRepositoryException e) {
             logger.error("Revision " + r + " of project " + projectname
@@ -328,16 +475,22 @@ public class SVNAccessorImpl implements SCMAccessor {
         return null;
     }
     
-
-    private List<SVNLogEntry> getSVNLog(String repoPath, long revstart,
+    /**
+     * Get the log entries of a revision range and add them to the cache.
+     */
+    List<SVNLogEntry> getSVNLog(String repoPath, long revstart,
             long revend) throws InvalidRepositoryException {
         ArrayList<SVNLogEntry> l = new ArrayList<SVNLogEntry>();
+        SVNRepository repo = getSession();
         try {
-            svnRepository.log(new String[] { repoPath }, l, revstart, revend,
+            repo.log(new String[] { repoPath }, l, revstart, revend,
                     true, true);
         } catch (SVNException e) {
             throw new InvalidRepositoryException(url, e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
+        logCache.putAll(l);
         return l;
     }
     
@@ -439,7 +592,7 @@ public class SVNAccessorImpl implements SCMAccessor {
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
+        if (sessions == null) {
             connectToRepository();
         }
         SVNCheckoutEditor.logger = logger;
@@ -457,10 +610,13 @@ public class SVNAccessorImpl implements SCMAccessor {
         }
          
         SVNNodeKind nodeKind;
+        SVNRepository repo = getSession();
         try {
-            nodeKind = svnRepository.checkPath(repoPath, svnrev.getSVNRevision());
+            nodeKind = repo.checkPath(repoPath, svnrev.getSVNRevision());
         } catch (SVNException e) {
             throw new FileNotFoundException(repoPath);
+        } finally {
+            releaseSession(repo);
         }
 
         // Handle the various kinds of nodes that repoPath may refer to
@@ -481,10 +637,13 @@ public class SVNAccessorImpl implements SCMAccessor {
         ISVNReporterBaton baton = new SVNCheckoutBaton(svnrev.getSVNRevision());
         ISVNEditor editor = new SVNCheckoutEditor(svnrev.getSVNRevision(),localPath);
 
+        repo = getSession();
         try {
-            svnRepository.update(svnrev.getSVNRevision(),repoPath,true,baton,editor);
+            repo.update(svnrev.getSVNRevision(),repoPath,true,baton,editor);
         } catch (SVNException e) {
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
     }
 
@@ -493,7 +652,7 @@ public class SVNAccessorImpl implements SCMAccessor {
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
+        if (sessions == null) {
             connectToRepository();
         }
         SVNCheckoutEditor.logger = logger;
@@ -516,10 +675,13 @@ public class SVNAccessorImpl implements SCMAccessor {
         }
         
         SVNNodeKind nodeKind;
+        SVNRepository repo = getSession();
         try {
-            nodeKind = svnRepository.checkPath(repoPath, svndst.getSVNRevision());
+            nodeKind = repo.checkPath(repoPath, svndst.getSVNRevision());
         } catch (SVNException e) {
             throw new FileNotFoundException(repoPath);
+        } finally {
+            releaseSession(repo);
         }
 
         // Handle the various kinds of nodes that repoPath may refer to
@@ -542,11 +704,14 @@ public class SVNAccessorImpl implements SCMAccessor {
             svndst.getSVNRevision());
         ISVNEditor editor = new SVNCheckoutEditor(svndst.getSVNRevision(),localPath);
 
+        repo = getSession();
         try {
-            svnRepository.update(svndst.getSVNRevision(),repoPath,true,baton,editor);
+            repo.update(svndst.getSVNRevision(),repoPath,true,baton,editor);
         } catch (SVNException e) {
             e.printStackTrace();
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
     }
 
@@ -556,7 +721,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                InvalidRepositoryException,
                FileNotFoundException {
         // Connect to the repository if a connection has not yet been created
-        if (svnRepository == null) {
+        if (sessions == null) {
             connectToRepository();
         }
         
@@ -568,8 +733,9 @@ public class SVNAccessorImpl implements SCMAccessor {
         }        
         long revno = svnrev.getSVNRevision();
         
+        SVNRepository repo = getSession();
         try {
-            SVNNodeKind nodeKind = svnRepository.checkPath(repoPath, revno);
+            SVNNodeKind nodeKind = repo.checkPath(repoPath, revno);
             logger.debug(projectname + ": Requesting path " + repoPath
                     + ", revision " + revno + ", nodeKind="
                     + nodeKind.toString());
@@ -598,7 +764,7 @@ public class SVNAccessorImpl implements SCMAccessor {
                 throw new FileNotFoundException(repoPath + " (unknown)");
             }
 
-            svnRepository.getFile(repoPath, revno, null, stream);
+            repo.getFile(repoPath, revno, null, stream);
             stream.close();
         } catch (SVNException e) {
             throw new FileNotFoundException(e.getMessage());
@@ -606,6 +772,8 @@ public class SVNAccessorImpl implements SCMAccessor {
             logger.warn("Failed to close output stream on SVN request." + e 
                     + " Revision:" + revision);
             // Swallow this exception.
+        } finally {
+            releaseSession(repo);
         }
     }
 
@@ -627,11 +795,41 @@ public class SVNAccessorImpl implements SCMAccessor {
         // Stream was closed by other getFile()
     }
 
+    /**{@inheritDoc}*/
+    public String getFileHash(String repoPath, Revision revision)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        if (sessions == null) {
+            connectToRepository();
+        }
+        
+        SVNProjectRevision svnrev = resolveRevision(revision);
+
+        if (svnrev == null) {
+            throw new InvalidProjectRevisionException("Cannot resolve revision",
+                    getClass());
+        }
+        
+        SVNRepository repo = getSession();
+        try {
+            /* Only retrieves the properties, not the contents */
+            SVNProperties props = new SVNProperties();
+            repo.getFile(repoPath, svnrev.getSVNRevision(), props, null);
+            return props.getStringValue(SVNProperty.CHECKSUM);
+        } catch (SVNException e) {
+            logger.warn(projectname + ": Cannot get checksum for " + repoPath 
+                    + "@" + revision.getUniqueId() + ": " + e.getMessage());
+            return null;
+        } finally {
+            releaseSession(repo);
+        }
+    }
+
     /**{@inheritDoc}*/
     public CommitLog getCommitLog(String repoPath, Revision r1, Revision r2)
         throws InvalidProjectRevisionException,
                InvalidRepositoryException {
-        if (svnRepository == null) {
+        if (sessions == null) {
             connectToRepository();
         }
         
@@ -669,12 +867,55 @@ public class SVNAccessorImpl implements SCMAccessor {
         return result;
     }
 
+    /**
+     * Get the commit log between two revisions, as 
+     * {@link #getCommitLog(String, Revision, Revision)} does, fetching it 
+     * in the background while the caller processes the returned revisions.
+     * The caller must call {@link SVNLogFetcher#shutdown()} when done.
+     * 
+     * @param window The number of revisions to retrieve per round trip
+     * @param workers The number of threads looking up changed path types
+     * @param lookahead The maximum number of revisions fetched ahead of 
+     * the caller
+     */
+    public SVNLogFetcher getCommitLogFetcher(String repoPath, Revision r1, 
+            Revision r2, int window, int workers, int lookahead)
+        throws InvalidProjectRevisionException,
+               InvalidRepositoryException {
+        SVNProjectRevision revstart = resolveRevision(r1);
+        if ((r1 == null) || (revstart == null)) {
+            throw new InvalidProjectRevisionException("Invalid start revision", getClass());
+        }
+        
+        SVNProjectRevision revend = revstart;
+        if (r2 != null) {
+            revend = resolveRevision(r2);
+            if (revend == null) {
+                throw new InvalidProjectRevisionException("Invalid end revision",getClass());
+            }
+        }
+        
+        if (sessions == null) {
+            connectToRepository();
+        }
+        
+        return new SVNLogFetcher(this, repoPath, revstart.getSVNRevision(),
+                revend.getSVNRevision(), window, workers, lookahead);
+    }
+
+    /** The maximum number of open repository sessions */
+    public int getMaxSessions() {
+        if (sessions == null)
+            return 0;
+        return sessions.size();
+    }
+
     /**{@inheritDoc}*/
     public Diff getDiff(String repoPath, Revision r1, Revision r2 )
         throws InvalidProjectRevisionException,
                InvalidRepositoryException,
                FileNotFoundException {
-        if (svnRepository == null) {
+        if (sessions == null) {
             connectToRepository();
         }
 
@@ -704,10 +945,17 @@ public class SVNAccessorImpl implements SCMAccessor {
         		+ repoPath);
         
         SVNNodeKind nodeKind;
+        SVNURL u;
+        ISVNAuthenticationManager auth;
+        SVNRepository repo = getSession();
         try {
-            nodeKind = svnRepository.checkPath(repoPath, revstart);
+            nodeKind = repo.checkPath(repoPath, revstart);
+            u = repo.getLocation().appendPath(repoPath,true);
+            auth = repo.getAuthenticationManager();
         } catch (SVNException e) {
             throw new FileNotFoundException(repoPath);
+        } finally {
+            releaseSession(repo);
         }
 
         // Handle the various kinds of nodes that repoPath may refer to
@@ -718,9 +966,11 @@ public class SVNAccessorImpl implements SCMAccessor {
         }
 
         try {
-            SVNDiffClient d = new SVNDiffClient(svnRepository.getAuthenticationManager(),null);
-            ByteArrayOutputStream diff = new ByteArrayOutputStream();
-            SVNURL u = svnRepository.getLocation().appendPath(repoPath,true);
+            SVNDiffClient d = new SVNDiffClient(auth,null);
+            // Parse the diff as it is received
+            DiffOutputStream diff = DiffFactory.getInstance().newUnifiedDiffStream(
+                    (SVNProjectRevision)r1, (SVNProjectRevision)r2, 
+                    FileUtils.dirname(repoPath), Charset.defaultCharset());
             d.doDiff(u,
                 SVNRevision.create(revstart),
                 SVNRevision.create(revstart),
@@ -728,11 +978,9 @@ public class SVNAccessorImpl implements SCMAccessor {
                 true,
                 false,
                 diff);
-            // Store the diff
-            Diff theDiff = DiffFactory.getInstance().doUnifiedDiff((SVNProjectRevision)r1, 
-            		(SVNProjectRevision)r2, FileUtils.dirname(repoPath), diff.toString());
+            diff.close();
            
-            return theDiff;
+            return diff.getDiff();
         } catch (SVNException e) {
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException(url,e.getMessage());
@@ -742,33 +990,42 @@ public class SVNAccessorImpl implements SCMAccessor {
     /**{@inheritDoc}*/
     public SCMNodeType getNodeType(String repoPath, Revision r)
             throws InvalidRepositoryException {
+        SVNProjectRevision svnrev = (SVNProjectRevision)r;
+        SCMNodeType t = svnrev.getNodeType(repoPath);
+        if (t != null)
+            return t;
+        
+        SVNRepository repo = getSession();
         try {
-            SVNNodeKind k = svnRepository.checkPath(repoPath, ((SVNProjectRevision)r).getSVNRevision());
-            if (k == SVNNodeKind.DIR)
-                return SCMNodeType.DIR;
-            
-            if (k == SVNNodeKind.FILE)
-                return SCMNodeType.FILE;
-            
-            return SCMNodeType.UNKNOWN;
-            
+            return toNodeType(repo.checkPath(repoPath, svnrev.getSVNRevision()));
         } catch (SVNException e) {
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException(url,e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
     }
+    
+    static SCMNodeType toNodeType(SVNNodeKind k) {
+        if (k == SVNNodeKind.DIR)
+            return SCMNodeType.DIR;
+        
+        if (k == SVNNodeKind.FILE)
+            return SCMNodeType.FILE;
+        
+        return SCMNodeType.UNKNOWN;
+    }
 
     /**{@inheritDoc}*/
     public String getSubProjectPath() throws InvalidRepositoryException {
-        if (svnRepository == null) {
-            connectToRepository();
-        }
-
+        SVNRepository repo = getSession();
         try {
-            return svnRepository.getRepositoryPath("");
+            return repo.getRepositoryPath("");
         } catch (SVNException e) {
             logger.warn(e.getMessage());
             throw new InvalidRepositoryException( url, e.getMessage());
+        } finally {
+            releaseSession(repo);
         }
     }
 
@@ -786,7 +1043,7 @@ public class SVNAccessorImpl implements SCMAccessor {
 		
 		ArrayList<SCMNode> contents = new ArrayList<SCMNode>();
 		
-		 if (svnRepository == null) {
+		 if (sessions == null) {
 			 connectToRepository();
 		 }
 		 
@@ -797,8 +1054,9 @@ public class SVNAccessorImpl implements SCMAccessor {
 		 
 		 Collection<SVNDirEntry> svnContents = new Vector<SVNDirEntry>();
 		 
+		 SVNRepository repo = getSession();
 		 try {
-			svnRepository.getDir(dir.getPath(), 
+			repo.getDir(dir.getPath(), 
 					Long.parseLong(dir.getRevision().getUniqueId()), 
 					false, svnContents);
 			
@@ -819,7 +1077,9 @@ public class SVNAccessorImpl implements SCMAccessor {
 			logger.warn("Not an SVN revision: " + dir.getRevision().getUniqueId());
 		} catch (SVNException e) {
 			logger.warn("Error getting dir contents for path " + dir.getPath());
-		} 
+		} finally {
+			releaseSession(repo);
+		}
 		 
 		return contents;
 	}
@@ -828,7 +1088,7 @@ public class SVNAccessorImpl implements SCMAccessor {
 	public SCMNode getNode(String path, Revision r)
 			throws InvalidRepositoryException {
 		
-		 if (svnRepository == null) {
+		 if (sessions == null) {
 			 connectToRepository();
 		 }
 		 
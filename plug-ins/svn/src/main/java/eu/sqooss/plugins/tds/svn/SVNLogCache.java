@@ -0,0 +1,77 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+/**
+ * A least recently used cache of the log entries of a repository, keyed by
+ * revision number. Resolving a revision takes a log request; revisions are
+ * resolved over and over by the updater and the metric jobs, and the
+ * entries of revisions that are already committed never change. Entries 
+ * are added as they are resolved and as the commit log is fetched.
+ */
+class SVNLogCache {
+
+    /* Access ordered, the eldest entry is the least recently used one */
+    private LinkedHashMap<Long, SVNLogEntry> entries;
+
+    SVNLogCache(final int capacity) {
+        entries = new LinkedHashMap<Long, SVNLogEntry>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SVNLogEntry> e) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized SVNLogEntry get(long revision) {
+        return entries.get(revision);
+    }
+
+    synchronized void put(SVNLogEntry entry) {
+        entries.put(entry.getRevision(), entry);
+    }
+
+    synchronized void putAll(Collection<SVNLogEntry> log) {
+        for (SVNLogEntry entry : log)
+            entries.put(entry.getRevision(), entry);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import eu.sqooss.service.tds.InvalidRepositoryException;
+import eu.sqooss.service.tds.Revision;
+import eu.sqooss.service.tds.SCMNodeType;
+
+/**
+ * Iterates over the commit log of a revision range, fetching the log ahead 
+ * of the consumer. A background thread retrieves the log in windows of 
+ * <code>window</code> revisions, one round trip per window; the types of 
+ * the paths changed by each revision are then looked up on a pool of 
+ * worker threads, each using its own repository session. The looked up
+ * types are answered by {@link SVNAccessorImpl#getNodeType(String, Revision)}
+ * without a round trip.
+ * 
+ * Revisions are returned in commit log order. At most 
+ * <code>lookahead</code> revisions are fetched ahead of the consumer. If 
+ * the log cannot be retrieved, iteration stops early and the error is 
+ * available from {@link #getException()}.
+ */
+public class SVNLogFetcher implements Iterator<Revision> {
+
+    /* Marks the end of the log in the queue */
+    private static final Future<Revision> END = new FutureTask<Revision>(
+            new Callable<Revision>() {
+                public Revision call() { return null; }
+            });
+
+    private final SVNAccessorImpl svn;
+    private final String repoPath;
+    private final long start, end;
+    private final int window;
+    private final ExecutorService pool;
+    private final BlockingQueue<Future<Revision>> queue;
+    private final Thread fetcher;
+    private volatile InvalidRepositoryException exception;
+    private Future<Revision> next;
+
+    SVNLogFetcher(SVNAccessorImpl svn, String repoPath, long start, long end,
+            int window, int workers, int lookahead) {
+        this.svn = svn;
+        this.repoPath = repoPath;
+        this.start = start;
+        this.end = end;
+        this.window = Math.max(window, 1);
+        this.queue = new ArrayBlockingQueue<Future<Revision>>(Math.max(lookahead, 1));
+        
+        final AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(workers, 1), 
+                new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SVNLogFetcher-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        
+        this.fetcher = new Thread(new Runnable() {
+            public void run() {
+                fetch();
+            }
+        }, "SVNLogFetcher-log");
+        this.fetcher.setDaemon(true);
+        this.fetcher.start();
+    }
+    
+    /* Runs on the background thread */
+    private void fetch() {
+        try {
+            for (long from = start; from <= end; from += window) {
+                long to = Math.min(from + window - 1, end);
+                List<SVNLogEntry> entries = svn.getSVNLog(repoPath, from, to);
+                for (SVNLogEntry entry : entries) {
+                    final SVNProjectRevision r = new SVNProjectRevision(entry, "");
+                    queue.put(pool.submit(new Callable<Revision>() {
+                        public Revision call() {
+                            resolveNodeTypes(r);
+                            return r;
+                        }
+                    }));
+                }
+            }
+        } catch (InvalidRepositoryException e) {
+            exception = e;
+        } catch (RuntimeException e) {
+            exception = new InvalidRepositoryException(svn.toString(), 
+                    e.toString());
+        } catch (InterruptedException e) {
+            // Shut down
+            return;
+        }
+        
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Shut down
+        }
+    }
+    
+    /* 
+     * Look up the types of the changed paths. Errors are left for the
+     * consumer to run into when it asks the accessor for the types.
+     */
+    private void resolveNodeTypes(SVNProjectRevision r) {
+        Map<String, SCMNodeType> types = new HashMap<String, SCMNodeType>();
+        SVNRepository repo = null;
+        try {
+            repo = svn.getSession();
+            for (String path : r.getChangedPaths())
+                types.put(path, SVNAccessorImpl.toNodeType(
+                        repo.checkPath(path, r.getSVNRevision())));
+            r.setNodeTypes(types);
+        } catch (InvalidRepositoryException e) {
+            return;
+        } catch (SVNException e) {
+            return;
+        } finally {
+            if (repo != null)
+                svn.releaseSession(repo);
+        }
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return next != END;
+    }
+
+    public Revision next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Future<Revision> f = next;
+        next = null;
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NoSuchElementException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * The number of revisions in the fetched range. When the log is 
+     * fetched for a path below the repository root, revisions that did 
+     * not touch the path are not returned, so this is an upper bound.
+     */
+    public int size() {
+        return (int) (end - start + 1);
+    }
+    
+    /**
+     * The error that stopped the retrieval of the log, or null.
+     */
+    public InvalidRepositoryException getException() {
+        return exception;
+    }
+
+    /**
+     * Stop the background threads. Revisions that have not been returned
+     * yet are discarded.
+     */
+    public void shutdown() {
+        fetcher.interrupt();
+        pool.shutdownNow();
+        queue.clear();
+    }
+}
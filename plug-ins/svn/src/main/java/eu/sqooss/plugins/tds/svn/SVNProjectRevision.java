@@ -51,6 +51,7 @@ import eu.sqooss.service.tds.CommitCopyEntry;
 import eu.sqooss.service.tds.InvalidProjectRevisionException;
 import eu.sqooss.service.tds.PathChangeType;
 import eu.sqooss.service.tds.Revision;
+import eu.sqooss.service.tds.SCMNodeType;
 
 /**
  * A Revision denotes a revision of a (any) project; revisions may be created
@@ -77,6 +78,7 @@ public class SVNProjectRevision implements Revision {
     private Map<String, PathChangeType> changedPaths;
     private List<CommitCopyEntry> copyOps;
     private Set<String> parents;
+    private Map<String, SCMNodeType> nodeTypes;
     
     /**
      * Default constructor, creating an invalid revision.
@@ -207,6 +209,20 @@ public class SVNProjectRevision implements Revision {
         return copyOps;
     }  
     
+    /**
+     * The type of a changed path in this revision, if it was looked up
+     * when the revision was fetched from the repository, or null.
+     */
+    public synchronized SCMNodeType getNodeType(String path) {
+        if (nodeTypes == null)
+            return null;
+        return nodeTypes.get(path);
+    }
+    
+    synchronized void setNodeTypes(Map<String, SCMNodeType> nodeTypes) {
+        this.nodeTypes = nodeTypes;
+    }
+    
     /** {@inheritDoc} */
     public String toString() {
         if (!isResolved())
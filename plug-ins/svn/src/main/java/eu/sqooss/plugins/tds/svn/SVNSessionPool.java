@@ -0,0 +1,154 @@
+/*
+ * This file is part of the Alitheia system, developed by the SQO-OSS
+ * consortium as part of the IST FP6 SQO-OSS project, number 033331.
+ *
+ * Copyright 2007 - 2010 - Organization for Free and Open Source Software,  
+ *                Athens, Greece.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     * Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+
+package eu.sqooss.plugins.tds.svn;
+
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+import eu.sqooss.service.tds.InvalidRepositoryException;
+
+/**
+ * A bounded pool of connections to a Subversion repository. SVNKit 
+ * repository sessions cannot be used by more than one thread at a time;
+ * the pool lets the threads working on a project do their round trips
+ * in parallel. Sessions are created on demand and kept open for reuse.
+ * 
+ * A thread that already holds a session gets the same session back
+ * when it acquires again, so that nested calls cannot deadlock on an 
+ * exhausted pool. Each acquire must be matched by a release.
+ */
+class SVNSessionPool {
+    
+    /** Sessions held by the current thread and the number of acquisitions */
+    private static class Held {
+        SVNRepository repo;
+        int count;
+    }
+    
+    private final String url;
+    private final int size;
+    private final Semaphore permits;
+    private final LinkedList<SVNRepository> idle = new LinkedList<SVNRepository>();
+    private final ThreadLocal<Held> held = new ThreadLocal<Held>();
+    private volatile boolean closed = false;
+    
+    SVNSessionPool(String url, int maxSessions) {
+        this.url = url;
+        this.size = Math.max(maxSessions, 1);
+        this.permits = new Semaphore(size, true);
+    }
+    
+    /** The maximum number of sessions */
+    int size() {
+        return size;
+    }
+    
+    /**
+     * Get a session, waiting for one to be released if all sessions are
+     * in use.
+     * 
+     * @throws InvalidRepositoryException if a connection to the repository
+     * cannot be created
+     */
+    SVNRepository acquire() throws InvalidRepositoryException {
+        Held h = held.get();
+        if (h != null) {
+            h.count++;
+            return h.repo;
+        }
+        
+        permits.acquireUninterruptibly();
+        SVNRepository repo = null;
+        synchronized (idle) {
+            repo = idle.poll();
+        }
+        
+        if (repo == null) {
+            try {
+                repo = SVNRepositoryFactory.create(SVNURL.parseURIEncoded(url));
+                // All access is assumed to be anonynmous, so no
+                // authentication manager is used.
+            } catch (SVNException e) {
+                permits.release();
+                throw new InvalidRepositoryException(url, e.getMessage());
+            }
+        }
+        
+        h = new Held();
+        h.repo = repo;
+        h.count = 1;
+        held.set(h);
+        return repo;
+    }
+    
+    /**
+     * Return a session acquired by the current thread to the pool.
+     */
+    void release(SVNRepository repo) {
+        Held h = held.get();
+        if (h == null || h.repo != repo)
+            throw new IllegalStateException("Session not held by " 
+                    + Thread.currentThread().getName());
+        
+        if (--h.count > 0)
+            return;
+        
+        held.remove();
+        synchronized (idle) {
+            if (closed)
+                repo.closeSession();
+            else
+                idle.push(repo);
+        }
+        permits.release();
+    }
+    
+    /**
+     * Close the idle sessions. Sessions in use are closed when released
+     * to a closed pool. 
+     */
+    void close() {
+        synchronized (idle) {
+            closed = true;
+            for (SVNRepository repo : idle)
+                repo.closeSession();
+            idle.clear();
+        }
+    }
+}
@@ -36,12 +36,15 @@ package eu.sqooss.plugins.updater.svn;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections.LRUMap;
 
 import eu.sqooss.core.AlitheiaCore;
+import eu.sqooss.plugins.tds.svn.SVNAccessorImpl;
+import eu.sqooss.plugins.tds.svn.SVNLogFetcher;
 import eu.sqooss.service.db.Branch;
 import eu.sqooss.service.db.DBService;
 import eu.sqooss.service.db.Developer;
@@ -88,6 +91,15 @@ public class SVNUpdaterImpl implements MetadataUpdater {
     private static final String PROJECT_SCM_PATHS_BRANCH = "eu.sqooss.project.scm.svn.branch";
     private static final String PROJECT_SCM_PATHS_TAG = "eu.sqooss.project.scm.svn.tag";
     
+    /** Number of revisions retrieved per commit log round trip */
+    public static final String LOG_WINDOW = "eu.sqooss.updater.svn.logwindow";
+    
+    /** Number of threads looking up changed paths ahead of the updater */
+    public static final String PREFETCH_WORKERS = "eu.sqooss.updater.svn.workers";
+    
+    /** Maximum number of revisions fetched ahead of the updater */
+    public static final String PREFETCH_LOOKAHEAD = "eu.sqooss.updater.svn.lookahead";
+    
     private enum HandleCopies {
         TRUNK, BRANCHES, TAGS
     }
@@ -181,8 +193,13 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         
         info("Running source update for project " + project.getName() 
                 + " ID " + project.getId());
+
+        //Fill in the validity intervals of files stored by older versions
+        int filled = ProjectFile.fillValidityIntervals(project);
+        if (filled > 0)
+            info("Filled in validity intervals of " + filled + " file versions");
         
-        CommitLog commitLog = null;
+        SVNLogFetcher fetcher = null;
         
         try {
             // This is the last version we actually know about
@@ -219,12 +236,37 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                 dbs.startDBSession();
                 latestVersion = ProjectVersion.getLastProjectVersion(project);
             }
-            commitLog = scm.getCommitLog("", scm.getNextRevision(
-                    scm.newRevision(latestVersion.getRevisionId())), 
-                    scm.getHeadRevision());
-            info("New revisions: " + commitLog.size());
+            Revision from = scm.getNextRevision(
+                    scm.newRevision(latestVersion.getRevisionId()));
+            Revision to = scm.getHeadRevision();
             
-            for (Revision entry : commitLog) {
+            /*
+             * Fetch the log and look up the changed paths in the background
+             * while the revisions are stored, unless there are no workers
+             */
+            Iterator<Revision> revisions;
+            int total;
+            int workers = 0;
+            if (scm instanceof SVNAccessorImpl) {
+                workers = getIntProperty(PREFETCH_WORKERS, 
+                        ((SVNAccessorImpl) scm).getMaxSessions());
+            }
+            if (workers > 0) {
+                SVNAccessorImpl svn = (SVNAccessorImpl) scm;
+                fetcher = svn.getCommitLogFetcher("", from, to, 
+                        getIntProperty(LOG_WINDOW, 1000), workers, 
+                        getIntProperty(PREFETCH_LOOKAHEAD, 4 * workers));
+                revisions = fetcher;
+                total = fetcher.size();
+            } else {
+                CommitLog commitLog = scm.getCommitLog("", from, to);
+                revisions = commitLog.iterator();
+                total = commitLog.size();
+            }
+            info("New revisions: " + total);
+            
+            while (revisions.hasNext()) {
+                Revision entry = revisions.next();
                 versionFiles.clear();
                 commitLogEntry = entry;
                 ProjectVersion curVersion = processCommit(scm, entry);
@@ -296,8 +338,11 @@ public class SVNUpdaterImpl implements MetadataUpdater {
                     return;
                 }
                 dbs.startDBSession();
-                progress = (float) (((double)numRevisions / (double)commitLog.size()) * 100);
+                progress = (float) (((double)numRevisions / (double)total) * 100);
             }
+            
+            if (fetcher != null && fetcher.getException() != null)
+                throw fetcher.getException();
             info("Processed " + numRevisions + " revisions");
         } catch (InvalidRepositoryException e) {
             err("Not such repository:" + e.getMessage());
@@ -305,9 +350,24 @@ public class SVNUpdaterImpl implements MetadataUpdater {
         } catch (InvalidProjectRevisionException e) {
             err("Not such repository revision:" + e.getMessage());
             throw e;
-        } 
+        } finally {
+            if (fetcher != null)
+                fetcher.shutdown();
+        }
         dbs.commitDBSession();
     }
+    
+    private int getIntProperty(String property, int defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            warn("Not correct value for property " + property);
+            return defaultValue;
+        }
+    }
 
     private void init() {
         